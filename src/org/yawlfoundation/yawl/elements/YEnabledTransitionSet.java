@@ -92,8 +92,7 @@ public class YEnabledTransitionSet {
      */
     private Set<String> getFlowsFromIDs(YTask task) {
         Set<String> priorSet = new HashSet<String>();
-        for (YFlow flow : task.getPresetFlows()) {
-            YNetElement prior = flow.getPriorElement();
+        for (YExternalNetElement prior : task.getPresetElements()) {
             if (isEnablingCondition(prior)) priorSet.add(prior.getID()) ;
         }
         return priorSet;
@@ -43,6 +43,7 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
     // key = id of prior/next task or condition, value = flow between that and this
     private Map<String, YFlow> _presetFlows = new HashMap<String, YFlow>();
     private Map<String, YFlow> _postsetFlows = new HashMap<String, YFlow>();
+    private boolean _sharedFlows;          // if the maps are views of a prototype's
 
     // added for reduction rules code & mapping
     private Set<YExternalNetElement> _cancelledBySet = new HashSet<YExternalNetElement>();
@@ -96,8 +97,10 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      */
     public void addPreset(YFlow flow) {
         if (flow != null) {
-            YExternalNetElement prior = flow.getPriorElement();
+            YExternalNetElement prior = resolve(flow.getPriorElement());
             if (prior != null) {
+                ownFlows();
+                prior.ownFlows();
                 _presetFlows.put(prior.getID(), flow);
                 prior._postsetFlows.put(this.getID(), flow);
             }
@@ -111,8 +114,10 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      */
     public void addPostset(YFlow flow) {
         if (flow != null) {
-            YExternalNetElement next = flow.getNextElement();
+            YExternalNetElement next = resolve(flow.getNextElement());
             if (next != null) {
+                ownFlows();
+                next.ownFlows();
                 _postsetFlows.put(next.getID(), flow);
                 next._presetFlows.put(this.getID(), flow);
             }
@@ -126,7 +131,9 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      */
     public void removePresetFlow(YFlow flow) {
         if (flow != null) {
-            YExternalNetElement prior = flow.getPriorElement();
+            YExternalNetElement prior = resolve(flow.getPriorElement());
+            ownFlows();
+            prior.ownFlows();
             _presetFlows.remove(prior.getID());
             prior._postsetFlows.remove(this.getID());
         }
@@ -139,7 +146,9 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      */
     public void removePostsetFlow(YFlow flow) {
         if (flow != null) {
-            YExternalNetElement next = flow.getNextElement();
+            YExternalNetElement next = resolve(flow.getNextElement());
+            ownFlows();
+            next.ownFlows();
             _postsetFlows.remove(next.getID());
             next._presetFlows.remove(this.getID());
         }
@@ -153,7 +162,7 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
     public Set<YExternalNetElement> getPostsetElements() {
         Set<YExternalNetElement> postsetElements = new HashSet<YExternalNetElement>();
         for (YFlow flow : _postsetFlows.values()) {
-            postsetElements.add(flow.getNextElement());
+            postsetElements.add(resolve(flow.getNextElement()));
         }
         return postsetElements;
     }
@@ -166,7 +175,7 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
     public Set<YExternalNetElement> getPresetElements() {
         Set<YExternalNetElement> presetElements = new HashSet<YExternalNetElement>();
         for (YFlow flow : _presetFlows.values()) {
-            presetElements.add(flow.getPriorElement());
+            presetElements.add(resolve(flow.getPriorElement()));
         }
         return presetElements;
     }
@@ -216,7 +225,7 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      * @return the element if found, or null if not
      */
     public YExternalNetElement getPostsetElement(String id) {
-        return (_postsetFlows.get(id)).getNextElement();
+        return resolve((_postsetFlows.get(id)).getNextElement());
     }
 
 
@@ -226,7 +235,35 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
      * @return the element if found, or null if not
      */
     public YExternalNetElement getPresetElement(String id) {
-        return (_presetFlows.get(id)).getPriorElement();
+        return resolve((_presetFlows.get(id)).getPriorElement());
+    }
+
+
+    /**
+     * gets the element of this element's net that has the id of the element passed.
+     * The elements of a net copied for a case may share their prototype's flows and
+     * remove sets (see YNet.cloneForCase), which refer to the prototype's elements
+     * @param element an element of this element's net, or of its prototype
+     * @return the element of this element's net with the same id
+     */
+    protected YExternalNetElement resolve(YExternalNetElement element) {
+        if (element == null || _net == null || element._net == _net) {
+            return element;
+        }
+        YExternalNetElement resolved = _net.getNetElement(element.getID());
+        return resolved != null ? resolved : element;
+    }
+
+    /**
+     * gives this element its own copies of the flows it shares with its prototype
+     * net element (see YNet.cloneForCase), before they are changed
+     */
+    private void ownFlows() {
+        if (_sharedFlows) {
+            _presetFlows = new HashMap<String, YFlow>(_presetFlows);
+            _postsetFlows = new HashMap<String, YFlow>(_postsetFlows);
+            _sharedFlows = false;
+        }
     }
 
     /*************************************************************************/
@@ -270,7 +307,9 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
 
 
     private void updateFlowMapsOnIdChange(String oldID, String newID) {
+        ownFlows();
         for (YExternalNetElement prior : getPresetElements()) {
+            prior.ownFlows();
             YFlow flow = prior._postsetFlows.remove(oldID);
             if (flow != null) {
                 updateImplicitConditionID(prior, newID, true);
@@ -278,6 +317,7 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
             }
         }
         for (YExternalNetElement next : getPostsetElements()) {
+            next.ownFlows();
             YFlow flow = next._presetFlows.remove(oldID);
             if (flow != null) {
                 updateImplicitConditionID(next, newID, false);
@@ -376,6 +416,15 @@ public abstract class YExternalNetElement extends YNetElement implements YVerifi
             throw new RuntimeException();
         }
 
+        // a structure-sharing copy shares read-only views of its prototype's flows
+        if (_net.isCloningSharedStructure()) {
+            copy._presetFlows = Collections.unmodifiableMap(_presetFlows);
+            copy._postsetFlows = Collections.unmodifiableMap(_postsetFlows);
+            copy._sharedFlows = true;
+            return copy;
+        }
+
+        copy._sharedFlows = false;
         copy._postsetFlows = new HashMap<String, YFlow>();
         copy._presetFlows = new HashMap<String, YFlow>();
         for (YFlow flow : _postsetFlows.values()) {
@@ -55,6 +55,10 @@ public final class YNet extends YDecomposition {
     private Map<String, YVariable> _localVariables = new HashMap<String, YVariable>();
     private String _externalDataGateway;
     private YNet _clone;
+    private boolean _cloningSharedStructure;
+
+    // if true, the nets copied to execute cases share the structure of this net
+    private boolean _caseNetsShareStructure;
 
 
     public YNet(String id, YSpecification specification) {
@@ -298,7 +302,9 @@ public final class YNet extends YDecomposition {
     }
 
 
-    public Object clone() {
+    // synchronized because the clone under construction is held in a field, and a
+    // prototype may be cloned by several case-level locked engine threads at once
+    public synchronized Object clone() {
         try {
             _clone = (YNet) super.clone();
             _clone._netElements = new HashMap<String, YExternalNetElement>();
@@ -343,6 +349,56 @@ public final class YNet extends YDecomposition {
     }
 
 
+    /**
+     * Creates a copy of this net on which to execute a case (or a sub-net instance).
+     * If case nets share structure, the copy's elements share read-only views of the
+     * flows and remove sets of this net's elements, which don't change once a
+     * specification is loaded, so that only per-case state (condition identifiers, task internal conditions
+     * and so on) and the net's data are copied. Otherwise, the copy is a full clone.
+     * @return the copy of this net
+     */
+    public synchronized YNet cloneForCase() {
+        _cloningSharedStructure = _caseNetsShareStructure;
+        try {
+            YNet copy = (YNet) clone();
+            copy._cloningSharedStructure = false;
+            return copy;
+        }
+        finally {
+            _cloningSharedStructure = false;
+        }
+    }
+
+
+    protected boolean isCloningSharedStructure() {
+        return _cloningSharedStructure;
+    }
+
+
+    public void setCaseNetsShareStructure(boolean share) {
+        _caseNetsShareStructure = share;
+    }
+
+
+    public boolean isCaseNetsShareStructure() {
+        return _caseNetsShareStructure;
+    }
+
+
+    /**
+     * Creates the reset net used to analyse the enabledness of each OR-join task in
+     * this net. Since net clones share their tasks' reset nets, calling this on a
+     * loaded net saves each case from repeating the conversion.
+     */
+    public void prepareOrJoinAnalysis() {
+        for (YTask task : getNetTasks()) {
+            if (task.getJoinType() == YTask._OR) {
+                task.setResetNet(new E2WFOJNet(this, task));
+            }
+        }
+    }
+
+
     public boolean orJoinEnabled(YTask orJoinTask, YIdentifier caseID) {
 
         if (orJoinTask == null || caseID == null) {
@@ -364,10 +420,12 @@ public final class YNet extends YDecomposition {
         for (YNetElement element : locations) {
             if (preSet.contains(element)) {
                 try {
-                    E2WFOJNet e2Net = new E2WFOJNet(this, orJoinTask);
-                    e2Net.restrictNet(actualMarking);
-                    e2Net.restrictNet(orJoinTask);
-                    return e2Net.orJoinEnabled(actualMarking, orJoinTask);
+                    E2WFOJNet e2Net = orJoinTask.getResetNet();
+                    if (e2Net == null) {
+                        e2Net = new E2WFOJNet(this, orJoinTask);
+                        orJoinTask.setResetNet(e2Net);
+                    }
+                    return e2Net.isOrJoinEnabled(actualMarking, orJoinTask);
                 } catch (Exception e) {
                     throw new RuntimeException("Exception in OR-join call:" + e);
                 }
@@ -71,6 +71,7 @@ public abstract class YTask extends YExternalNetElement {
     private int _joinType;
     protected YMultiInstanceAttributes _multiInstAttr;
     private Set<YExternalNetElement> _removeSet = new HashSet<YExternalNetElement>();
+    private boolean _sharedRemoveSet;          // if the set is a view of a prototype's
     protected final Map<String, String> _dataMappingsForTaskStarting =
             new HashMap<String, String>();       //[key=ParamName, value=query]
     private final Map<String, String> _dataMappingsForTaskCompletion =
@@ -260,15 +261,56 @@ public abstract class YTask extends YExternalNetElement {
         return _dataMappingsForTaskCompletion;
     }
 
+
+    /**
+     * Gets the XQueries evaluated by this task, in the form in which they are
+     * evaluated, so that they may be precompiled. External data mappings, and timer
+     * and plugin predicates (which are rewritten before each evaluation), are excluded.
+     * @return the set of the task's data mapping, multi-instance and split queries
+     */
+    public Set<String> getXQueries() {
+        Set<String> queries = new HashSet<String>();
+        queries.addAll(_dataMappingsForTaskEnablement.values());
+        queries.addAll(_dataMappingsForTaskStarting.values());
+        queries.addAll(_dataMappingsForTaskCompletion.keySet());
+        if (isMultiInstance()) {
+            queries.add(_multiInstAttr.getMISplittingQuery());
+            queries.add(_multiInstAttr.getMIJoiningQuery());
+        }
+        if (_splitType != _AND) {
+            for (YFlow flow : getPostsetFlows()) {
+                String predicate = flow.getXpathPredicate();
+                if (! (predicate == null || flow.isDefaultFlow() ||
+                        isTimerPredicate(predicate) ||
+                        PredicateEvaluatorCache.accept(predicate))) {
+                    queries.add("boolean(" + predicate + ")");
+                }
+            }
+        }
+        queries.remove(null);
+        Iterator<String> itr = queries.iterator();
+        while (itr.hasNext()) {
+            if (ExternalDataGatewayFactory.isExternalDataMappingExpression(itr.next())) {
+                itr.remove();
+            }
+        }
+        return queries;
+    }
+
     public Set<YExternalNetElement> getRemoveSet() {
         if (_removeSet != null) {
-            return new HashSet<YExternalNetElement>(_removeSet);
+            Set<YExternalNetElement> removeSet = new HashSet<YExternalNetElement>();
+            for (YExternalNetElement element : _removeSet) {
+                removeSet.add(resolve(element));
+            }
+            return removeSet;
         }
         return null;
     }
 
 
     public void addRemovesTokensFrom(List<YExternalNetElement> removeSet) {
+        ownRemoveSet();
         _removeSet.addAll(removeSet);
 
         //Need to add the task to the CancelledBySet as well
@@ -280,11 +322,20 @@ public abstract class YTask extends YExternalNetElement {
     // Added for reduction rules - need to use id to check for equal!
     public void removeFromRemoveSet(YExternalNetElement e) {
         if (e != null) {
+            ownRemoveSet();
             _removeSet.remove(e);
             e.removeFromCancelledBySet(this);
         }
     }
 
+    // gives this task its own copy of the remove set it shares with its prototype
+    private void ownRemoveSet() {
+        if (_sharedRemoveSet) {
+            _removeSet = new HashSet<YExternalNetElement>(_removeSet);
+            _sharedRemoveSet = false;
+        }
+    }
+
     public synchronized List<YIdentifier> t_fire(YPersistenceManager pmgr)
             throws YStateException, YDataStateException, YQueryException,
             YPersistenceException {
@@ -699,7 +750,7 @@ public abstract class YTask extends YExternalNetElement {
             cancel(pmgr);
         }
         //remove tokens from cancellation set
-        for (YExternalNetElement netElement : _removeSet) {
+        for (YExternalNetElement netElement : getRemoveSet()) {
             if (netElement instanceof YTask) {
                 ((YTask) netElement).cancel(pmgr);
             } else if (netElement instanceof YCondition) {
@@ -825,12 +876,12 @@ public abstract class YTask extends YExternalNetElement {
         for (YFlow flow : flows) {
             if (flow.isDefaultFlow()) {                 // last flow reached - default
                 logger.debug("Following default path.");
-                ((YCondition) flow.getNextElement()).add(pmgr, tokenToSend);
+                ((YCondition) resolve(flow.getNextElement())).add(pmgr, tokenToSend);
                 return;
             }
 
             if (evaluateSplitQuery(flow.getXpathPredicate(), tokenToSend)) {
-                ((YCondition) flow.getNextElement()).add(pmgr, tokenToSend);
+                ((YCondition) resolve(flow.getNextElement())).add(pmgr, tokenToSend);
                 return;
             }
         }
@@ -853,12 +904,12 @@ public abstract class YTask extends YExternalNetElement {
         for (YFlow flow : flows) {
 
             if (evaluateSplitQuery(flow.getXpathPredicate(), tokenToSend)) {
-                ((YCondition) flow.getNextElement()).add(pmgr, tokenToSend);
+                ((YCondition) resolve(flow.getNextElement())).add(pmgr, tokenToSend);
                 noTokensOutput = false;
             }
 
             if (flow.isDefaultFlow() && noTokensOutput) {
-                ((YCondition) flow.getNextElement()).add(pmgr, tokenToSend);
+                ((YCondition) resolve(flow.getNextElement())).add(pmgr, tokenToSend);
             }
         }
     }
@@ -969,13 +1020,20 @@ public abstract class YTask extends YExternalNetElement {
         copy._mi_complete = new YInternalCondition(YInternalCondition._mi_complete, copy);
         copy._mi_entered = new YInternalCondition(YInternalCondition._mi_entered, copy);
         copy._mi_executing = new YInternalCondition(YInternalCondition._mi_executing, copy);
-        copy._removeSet = new HashSet<YExternalNetElement>();
-        for (YExternalNetElement elem : _removeSet) {
-            YExternalNetElement elemsClone = copy._net.getNetElement(elem.getID());
-            if (elemsClone == null) {
-                elemsClone = (YExternalNetElement) elem.clone();
+        if (_net.isCloningSharedStructure()) {       // share a read-only remove set
+            copy._removeSet = Collections.unmodifiableSet(_removeSet);
+            copy._sharedRemoveSet = true;
+        }
+        else {
+            copy._sharedRemoveSet = false;
+            copy._removeSet = new HashSet<YExternalNetElement>();
+            for (YExternalNetElement elem : _removeSet) {
+                YExternalNetElement elemsClone = copy._net.getNetElement(elem.getID());
+                if (elemsClone == null) {
+                    elemsClone = (YExternalNetElement) elem.clone();
+                }
+                copy._removeSet.add(elemsClone);
             }
-            copy._removeSet.add(elemsClone);
         }
 
         if (this.isMultiInstance()) {
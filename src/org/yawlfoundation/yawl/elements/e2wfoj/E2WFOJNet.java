@@ -36,6 +36,13 @@ public final class E2WFOJNet {
     //testing for optimisation  
     private Set alreadyConsideredMarkings = new HashSet(100);
     private Set _Conditions = new HashSet(100);
+
+    //this net restricted to the OrJoin it was created for, built once
+    private E2WFOJNet _orJoinNet;
+
+    //enabledness results of the markings already analysed with this net
+    private static final int MAX_CACHED_RESULTS = 1000;
+    private Map<String, Boolean> _resultCache;
  
     
     /**
@@ -49,11 +56,110 @@ public final class E2WFOJNet {
         _OJ = null;
         _YOJ = null;
         _yNet = null;
+        _orJoinNet = copy();
+        _orJoinNet.restrictNet(orJoin);
     }
     
     private E2WFOJNet(){
     	//do nothing
     }
+
+
+    /**
+     * Creates a copy of this net that shares no places, transitions or flows with
+     * it, so that the copy may be restricted without altering this net.
+     *
+     */
+    public E2WFOJNet copy() {
+        Map<String, RPlace> places = new HashMap<String, RPlace>(100);
+        for (Object o : _Places.values()) {
+            RPlace p = (RPlace) o;
+            places.put(p.getID(), new RPlace(p.getID()));
+        }
+        Map<String, RTransition> transitions = new HashMap<String, RTransition>(100);
+        for (Object o : _Transitions.values()) {
+            RTransition t = (RTransition) o;
+            RTransition tCopy = new RTransition(t.getID());
+            for (Object p : t.getPresetElements()) {
+                tCopy.setPreset(new RFlow(places.get(((RElement) p).getID()), tCopy));
+            }
+            for (Object p : t.getPostsetElements()) {
+                tCopy.setPostset(new RFlow(tCopy, places.get(((RElement) p).getID())));
+            }
+            for (Object p : t.getRemoveSet()) {
+                tCopy.setRemoveSet(places.get(((RElement) p).getID()));
+            }
+            transitions.put(tCopy.getID(), tCopy);
+        }
+
+        E2WFOJNet copy = new E2WFOJNet();
+        copy._Places = places;
+        copy._Transitions = transitions;
+        return copy;
+    }
+
+
+    /**
+     * Determines whether the OrJoin task this net was created for should be
+     * enabled at a given marking, without altering this net. The net restricted
+     * to the OrJoin when this net was created is copied, restricted for the marking
+     * and analysed, and the result is remembered so that later calls with an
+     * equivalent marking of the restricted net's places do not repeat the
+     * analysis. Safe for concurrent use.
+     *
+     */
+    public boolean isOrJoinEnabled(YMarking M, YTask orJoin) {
+        String key = _orJoinNet.getMarkingKey(M);
+        synchronized (this) {
+            Boolean enabled = getResultCache().get(key);
+            if (enabled != null) {
+                return enabled;
+            }
+        }
+        E2WFOJNet restricted = _orJoinNet.copy();
+        restricted.restrictNet(M);
+        boolean enabled = restricted.orJoinEnabled(M, orJoin);
+        synchronized (this) {
+            getResultCache().put(key, enabled);
+        }
+        return enabled;
+    }
+
+
+    // the places of this net marked by M, with their token counts, in id order
+    private String getMarkingKey(YMarking M) {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (YNetElement nextElement : M.getLocations()) {
+            String key = null;
+            if (nextElement instanceof YCondition) {
+                if (_Places.containsKey(nextElement.getID())) {
+                    key = "c:" + nextElement.getID();
+                }
+            }
+            else if (nextElement instanceof YTask) {
+                if (_Places.containsKey("p_" + nextElement.getID())) {
+                    key = "t:" + nextElement.getID();
+                }
+            }
+            if (key != null) {
+                Integer count = counts.get(key);
+                counts.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        return counts.toString();
+    }
+
+
+    private Map<String, Boolean> getResultCache() {
+        if (_resultCache == null) {
+            _resultCache = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+        }
+        return _resultCache;
+    }
     
     /**
      * The method converts a YAWL net into a Reset net.
@@ -86,6 +86,17 @@ public class RMarking {
 
     }
 
+    // consistent with equals, so that markings already considered are recognised
+    // when held in hash-based sets
+    public int hashCode() {
+        int hash = 0;
+        for (Object o : _markedPlaces.keySet()) {
+            String netElement = (String) o;
+            hash += netElement.hashCode() ^ ((Integer) _markedPlaces.get(netElement)).intValue();
+        }
+        return hash;
+    }
+
     public boolean isBiggerThanOrEqual(RMarking marking) {
 
         Map otherMarking = marking.getMarkedPlaces();
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only file journal of the notifications queued for each observer gateway.
+ * A record is appended when a notification is queued, and an acknowledgement record
+ * when it has been delivered (or discarded), so that the notifications not yet
+ * delivered when the engine stopped can be read back and replayed when it restarts.
+ * <p/>
+ * Records are flushed to the file system as they are written, but are not forced
+ * to disk, so the last few records may be lost if the host itself fails. The file
+ * is truncated whenever it grows beyond a set size while there are no undelivered
+ * notifications. The undelivered notifications read back on restart count as
+ * undelivered until each is acknowledged, once it has been replayed (i.e. queued
+ * and journaled again) or dropped, so they are not lost if the engine stops again
+ * before then.
+ */
+class AnnouncementJournal {
+
+    private static final byte QUEUED = 1;
+    private static final byte DELIVERED = 2;
+    private static final long COMPACT_SIZE = 1024 * 1024;
+
+    private final File _file;
+    private DataOutputStream _out;
+    private long _nextSequence = 1;
+    private long _undelivered;
+    private long _baseSize;                     // the file's size when last opened
+
+
+    /**
+     * Opens a journal file, creating it if it doesn't exist. Any records already in
+     * the file should be read with readUndelivered() before new ones are appended.
+     * @param file the journal file
+     * @throws IOException if the file can't be opened for writing
+     */
+    AnnouncementJournal(File file) throws IOException {
+        _file = file;
+        _out = open(true);
+    }
+
+
+    /**
+     * Records a notification as queued for delivery
+     * @param gatewayKey the key of the gateway the notification is queued for
+     * @param notification the notification, in XML form
+     * @return the sequence number of the record, to acknowledge it with
+     * @throws IOException if the record can't be written
+     */
+    synchronized long append(String gatewayKey, XNode notification) throws IOException {
+        long sequence = _nextSequence++;
+        byte[] bytes = notification.toString().getBytes("UTF-8");
+        _out.writeByte(QUEUED);
+        _out.writeLong(sequence);
+        _out.writeUTF(gatewayKey);
+        _out.writeInt(bytes.length);
+        _out.write(bytes);
+        _out.flush();
+        _undelivered++;
+        return sequence;
+    }
+
+
+    /**
+     * Records a notification as delivered
+     * @param sequence the sequence number returned when the notification was appended
+     * @throws IOException if the record can't be written
+     */
+    synchronized void acknowledge(long sequence) throws IOException {
+        _out.writeByte(DELIVERED);
+        _out.writeLong(sequence);
+        _out.flush();
+        if (--_undelivered <= 0 && _baseSize + _out.size() > COMPACT_SIZE) truncate();
+    }
+
+
+    /**
+     * Reads the notifications recorded as queued but not delivered, in the order they
+     * were queued. They are kept in the file, and count as undelivered, until each is
+     * acknowledged. Any incomplete final record (e.g. from a failure mid-write) is
+     * ignored, and cut from the file so that new records follow the last complete one.
+     * @return a list of [sequence number, gateway key, notification XML] entries
+     * @throws IOException if the file can't be read
+     */
+    synchronized List<Entry> readUndelivered() throws IOException {
+        Map<Long, Entry> queued = new LinkedHashMap<Long, Entry>();
+        _out.close();
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(_file)));
+        DataInputStream in = new DataInputStream(counter);
+        long complete = 0;                      // the length of the complete records
+        long lastSequence = 0;
+        try {
+            while (true) {
+                byte type = in.readByte();
+                long sequence = in.readLong();
+                if (type == QUEUED) {
+                    String gatewayKey = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    queued.put(sequence, new Entry(sequence, gatewayKey,
+                            new XNodeParser().parse(new String(bytes, "UTF-8"))));
+                }
+                else queued.remove(sequence);
+                lastSequence = Math.max(lastSequence, sequence);
+                complete = counter.getCount();
+            }
+        }
+        catch (EOFException eof) {
+            // end of journal
+        }
+        finally {
+            in.close();
+        }
+        if (_file.length() > complete) {
+            RandomAccessFile file = new RandomAccessFile(_file, "rw");
+            try {
+                file.setLength(complete);
+            }
+            finally {
+                file.close();
+            }
+        }
+        if (queued.isEmpty()) {
+            truncate();
+        }
+        else {
+            _out = open(true);
+            _undelivered = queued.size();
+        }
+        _nextSequence = lastSequence + 1;
+        return new ArrayList<Entry>(queued.values());
+    }
+
+
+    synchronized void close() throws IOException {
+        _out.close();
+    }
+
+
+    // discards all records, since none of them are needed
+    private void truncate() throws IOException {
+        _out.close();
+        _out = open(false);
+        _undelivered = 0;
+    }
+
+
+    private DataOutputStream open(boolean append) throws IOException {
+        _baseSize = append ? _file.length() : 0;
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(_file, append)));
+    }
+
+
+    /*******************************************************************************/
+
+    static class Entry {
+        final long sequence;
+        final String gatewayKey;
+        final XNode notification;
+
+        Entry(long seq, String key, XNode node) {
+            sequence = seq;
+            gatewayKey = key;
+            notification = node;
+        }
+    }
+
+
+    // counts the bytes read through it
+    private static class CountingInputStream extends FilterInputStream {
+        private long _count;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        long getCount() { return _count; }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) _count++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) _count += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            _count += skipped;
+            return skipped;
+        }
+    }
+
+}
@@ -53,6 +53,12 @@ public class CaseExporter {
     }
 
 
+    // the state of a single case, as kept by the engine snapshot
+    XNode exportCase(YIdentifier caseID) {
+        return getCaseNode(caseID);
+    }
+
+
     private String export(List<YIdentifier> caseList) {
         XNode root = new XNode("cases");
         for (YIdentifier caseID : caseList) {
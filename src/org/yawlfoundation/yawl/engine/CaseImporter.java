@@ -59,6 +59,19 @@ public class CaseImporter {
     }
 
 
+    // rebuilds the runners and work items of cases exported individually, for the
+    // restorer to restore (called when restoring from an engine snapshot)
+    void makeCaseObjects(Iterable<String> caseXMLs, List<YNetRunner> runners,
+                         List<YWorkItem> workitems) throws YEngineStateException {
+        for (String caseXML : caseXMLs) {
+            XNode caseNode = parse(caseXML);
+            runners.addAll(makeRunnerList(caseNode));
+            workitems.addAll(makeWorkItemList(caseNode));
+        }
+        Collections.sort(runners, new RunnerComparator());
+    }
+
+
     private XNode parse(String xml) throws YEngineStateException {
         XNode root = new XNodeParser().parse(xml);
         if (root == null) {
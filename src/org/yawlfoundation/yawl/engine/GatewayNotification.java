@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.jdom2.Document;
+import org.yawlfoundation.yawl.elements.YAWLServiceReference;
+import org.yawlfoundation.yawl.elements.YTask;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.announcement.AnnouncementContext;
+import org.yawlfoundation.yawl.engine.announcement.YAnnouncement;
+import org.yawlfoundation.yawl.engine.announcement.YEngineEvent;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+import org.yawlfoundation.yawl.util.XNode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.yawlfoundation.yawl.engine.announcement.YEngineEvent.*;
+
+/**
+ * A notification of an engine event, queued for delivery to an observer gateway.
+ * <p/>
+ * Most notifications can be written out as XML and later rebuilt against the
+ * engine's state at that time, so that they can be spilled to disk when a gateway's
+ * queue is full, or replayed after a restart if they were not delivered. Work item
+ * cancellations and case deadlocks refer to objects that no longer exist in the
+ * engine once the event has occurred, so these are held in memory only.
+ */
+class GatewayNotification {
+
+    private final YEngineEvent _event;
+    private final long _created;
+
+    private YAnnouncement _announcement;
+    private YAWLServiceReference _service;               // a case completion observer
+    private Set<YAWLServiceReference> _services;
+    private YSpecificationID _specID;
+    private YIdentifier _caseID;
+    private String _launchingService;
+    private boolean _delayed;
+    private Document _caseData;
+    private YWorkItem _workItem;
+    private YWorkItemStatus _oldStatus;
+    private YWorkItemStatus _newStatus;
+    private int _maxWaitSeconds;
+    private Set<YTask> _tasks;
+
+
+    private GatewayNotification(YEngineEvent event, long created) {
+        _event = event;
+        _created = created;
+    }
+
+    private GatewayNotification(YEngineEvent event) {
+        this(event, System.currentTimeMillis());
+    }
+
+
+    static GatewayNotification forAnnouncement(YAnnouncement announcement) {
+        GatewayNotification notification = new GatewayNotification(announcement.getEvent());
+        notification._announcement = announcement;
+        return notification;
+    }
+
+
+    static GatewayNotification forCaseCompletion(YAWLServiceReference service,
+                                                 YIdentifier caseID, Document caseData) {
+        GatewayNotification notification = new GatewayNotification(CASE_COMPLETE);
+        notification._service = service;
+        notification._caseID = caseID;
+        notification._caseData = caseData;
+        return notification;
+    }
+
+
+    static GatewayNotification forCaseCompletion(Set<YAWLServiceReference> services,
+                                                 YIdentifier caseID, Document caseData) {
+        GatewayNotification notification = forCaseEvent(CASE_COMPLETE, services, caseID);
+        notification._caseData = caseData;
+        return notification;
+    }
+
+
+    static GatewayNotification forCaseStart(Set<YAWLServiceReference> services,
+                                            YSpecificationID specID, YIdentifier caseID,
+                                            String launchingService, boolean delayed) {
+        GatewayNotification notification = forCaseEvent(CASE_START, services, caseID);
+        notification._specID = specID;
+        notification._launchingService = launchingService;
+        notification._delayed = delayed;
+        return notification;
+    }
+
+
+    static GatewayNotification forStatusChange(Set<YAWLServiceReference> services,
+                                               YWorkItem workItem,
+                                               YWorkItemStatus oldStatus,
+                                               YWorkItemStatus newStatus) {
+        GatewayNotification notification = new GatewayNotification(ITEM_STATUS);
+        notification._services = services;
+        notification._workItem = workItem;
+        notification._oldStatus = oldStatus;
+        notification._newStatus = newStatus;
+        return notification;
+    }
+
+
+    static GatewayNotification forEngineInitialised(Set<YAWLServiceReference> services,
+                                                    int maxWaitSeconds) {
+        GatewayNotification notification = new GatewayNotification(ENGINE_INIT);
+        notification._services = services;
+        notification._maxWaitSeconds = maxWaitSeconds;
+        return notification;
+    }
+
+
+    static GatewayNotification forDeadlock(Set<YAWLServiceReference> services,
+                                           YIdentifier caseID, Set<YTask> tasks) {
+        GatewayNotification notification = forCaseEvent(CASE_DEADLOCKED, services, caseID);
+        notification._tasks = tasks;
+        return notification;
+    }
+
+
+    // for case suspension, resumption and cancellation events
+    static GatewayNotification forCaseEvent(YEngineEvent event,
+                                            Set<YAWLServiceReference> services,
+                                            YIdentifier caseID) {
+        GatewayNotification notification = new GatewayNotification(event);
+        notification._services = services;
+        notification._caseID = caseID;
+        return notification;
+    }
+
+
+    YEngineEvent getEvent() { return _event; }
+
+    // the time this notification was created, in msecs
+    long getCreated() { return _created; }
+
+
+    /**
+     * @return the scheme of the gateways this notification should be delivered to, or
+     * null if it should be delivered to all gateways
+     */
+    String getScheme() {
+        if (_announcement != null) return _announcement.getScheme();
+        if (_service != null) return _service.getScheme();
+        return null;
+    }
+
+
+    /**
+     * @return true if this notification can be written to disk and rebuilt later
+     */
+    boolean isSerializable() {
+        return ! (_event == ITEM_CANCEL || _event == CASE_DEADLOCKED);
+    }
+
+
+    /**
+     * Passes this notification to a gateway
+     * @param gateway the gateway to announce the notification
+     */
+    void deliver(ObserverGateway gateway) {
+        switch (_event) {
+            case ITEM_ADD: gateway.announceFiredWorkItem(_announcement); break;
+            case ITEM_CANCEL: gateway.announceCancelledWorkItem(_announcement); break;
+            case TIMER_EXPIRED: gateway.announceTimerExpiry(_announcement); break;
+            case CASE_START:
+                gateway.announceCaseStarted(getServices(gateway), _specID, _caseID,
+                        _launchingService, _delayed);
+                break;
+            case CASE_COMPLETE:
+                if (_service != null) {
+                    gateway.announceCaseCompletion(_service, _caseID, _caseData);
+                }
+                else gateway.announceCaseCompletion(getServices(gateway), _caseID, _caseData);
+                break;
+            case ITEM_STATUS:
+                gateway.announceWorkItemStatusChange(getServices(gateway), _workItem,
+                        _oldStatus, _newStatus);
+                break;
+            case CASE_SUSPENDING:
+                gateway.announceCaseSuspending(getServices(gateway), _caseID); break;
+            case CASE_SUSPENDED:
+                gateway.announceCaseSuspended(getServices(gateway), _caseID); break;
+            case CASE_RESUMED:
+                gateway.announceCaseResumption(getServices(gateway), _caseID); break;
+            case ENGINE_INIT:
+                gateway.announceEngineInitialised(getServices(gateway), _maxWaitSeconds);
+                break;
+            case CASE_CANCELLED:
+                gateway.announceCaseCancellation(getServices(gateway), _caseID); break;
+            case CASE_DEADLOCKED:
+                gateway.announceDeadlock(getServices(gateway), _caseID, _tasks); break;
+        }
+    }
+
+
+    XNode toXNode() {
+        XNode node = new XNode("notification");
+        node.addAttribute("event", _event.name());
+        node.addAttribute("created", _created);
+        if (_announcement != null) {
+            node.addChild("service", _announcement.getYawlService().getURI());
+            node.addChild("workItem", _announcement.getItem().getIDString());
+            node.addChild("context", _announcement.getContext().name());
+        }
+        if (_service != null) node.addChild("service", _service.getURI());
+        if (_services != null) {
+            XNode servicesNode = node.addChild("services");
+            for (YAWLServiceReference service : _services) {
+                servicesNode.addChild("service", service.getURI());
+            }
+        }
+        if (_specID != null) node.addChild(_specID.toXNode());
+        if (_caseID != null) node.addChild("caseID", _caseID.toString());
+        if (_launchingService != null) {
+            node.addChild("launchingService", _launchingService, true);
+        }
+        if (_event == CASE_START) node.addChild("delayed", _delayed);
+        if (_caseData != null) {
+            node.addChild("caseData", JDOMUtil.documentToString(_caseData), true);
+        }
+        if (_workItem != null) node.addChild("workItem", _workItem.getIDString());
+        if (_oldStatus != null) node.addChild("oldStatus", _oldStatus.toString());
+        if (_newStatus != null) node.addChild("newStatus", _newStatus.toString());
+        if (_event == ENGINE_INIT) node.addChild("maxWaitSeconds", _maxWaitSeconds);
+        return node;
+    }
+
+
+    /**
+     * Rebuilds a notification from its XML form, against the current state of an engine
+     * @param node the notification, as output by toXNode()
+     * @param engine the engine to get the services and work items referred to from
+     * @return the rebuilt notification, or null if any service or work item it refers
+     * to is no longer known to the engine
+     */
+    static GatewayNotification fromXNode(XNode node, YEngine engine) {
+        YEngineEvent event = YEngineEvent.valueOf(node.getAttributeValue("event"));
+        long created = Long.parseLong(node.getAttributeValue("created"));
+        GatewayNotification notification = new GatewayNotification(event, created);
+        YAWLServiceReference service = getService(engine, node.getChildText("service"));
+        YWorkItem workItem = getWorkItem(engine, node.getChildText("workItem"));
+        switch (event) {
+            case ITEM_ADD:
+            case TIMER_EXPIRED:
+                if (service == null || workItem == null) return null;
+                notification._announcement = new YAnnouncement(service, workItem, event,
+                        AnnouncementContext.valueOf(node.getChildText("context")));
+                return notification;
+            case ITEM_STATUS:
+                if (workItem == null) return null;
+                notification._workItem = workItem;
+                notification._oldStatus = YWorkItemStatus.fromString(
+                        node.getChildText("oldStatus"));
+                notification._newStatus = YWorkItemStatus.fromString(
+                        node.getChildText("newStatus"));
+                break;
+            case CASE_START:
+                notification._specID = new YSpecificationID(
+                        node.getChild("specificationid"));
+                notification._launchingService = node.getChildText("launchingService", true);
+                notification._delayed = node.getChildText("delayed").equals("true");
+                break;
+            case CASE_COMPLETE:
+                notification._caseData = JDOMUtil.stringToDocument(
+                        node.getChildText("caseData", true));
+                if (node.getChild("service") != null) {
+                    if (service == null) return null;
+                    notification._service = service;
+                }
+                break;
+            case ENGINE_INIT:
+                notification._maxWaitSeconds = Integer.parseInt(
+                        node.getChildText("maxWaitSeconds"));
+                break;
+            case ITEM_CANCEL:
+            case CASE_DEADLOCKED:
+                return null;                                  // never serialized
+        }
+        String caseID = node.getChildText("caseID");
+        if (caseID != null) notification._caseID = new YIdentifier(caseID);
+        XNode servicesNode = node.getChild("services");
+        if (servicesNode != null) {
+            notification._services = new HashSet<YAWLServiceReference>();
+            for (XNode serviceNode : servicesNode.getChildren()) {
+                YAWLServiceReference member = getService(engine, serviceNode.getText());
+                if (member != null) notification._services.add(member);
+            }
+        }
+        return notification;
+    }
+
+
+    // gets the services of this notification that are endpoints of a gateway's scheme
+    private Set<YAWLServiceReference> getServices(ObserverGateway gateway) {
+        Set<YAWLServiceReference> matches = new HashSet<YAWLServiceReference>();
+        if (_services != null) {
+            for (YAWLServiceReference service : _services) {
+                if (service.getScheme().equals(gateway.getScheme())) {
+                    matches.add(service);
+                }
+            }
+        }
+        return matches;
+    }
+
+
+    private static YAWLServiceReference getService(YEngine engine, String uri) {
+        return (uri != null) ? engine.getRegisteredYawlService(uri) : null;
+    }
+
+
+    private static YWorkItem getWorkItem(YEngine engine, String itemID) {
+        return (itemID != null) ? engine.getWorkItemRepository().get(itemID) : null;
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.yawlfoundation.yawl.engine.ObserverGatewayController.OverflowPolicy;
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of the notifications waiting to be passed to an observer gateway,
+ * with a dedicated thread that delivers them to the gateway in the order queued.
+ * <p/>
+ * When the queue is full, a new notification is handled according to the
+ * controller's overflow policy: the queuing thread waits until there is room
+ * (BLOCK), the oldest queued notification is discarded (DROP_OLDEST), or the new
+ * notification is written to a spill file, to be read back when the queue has
+ * drained (SPILL). Once spilling has begun, all new notifications are spilled until
+ * the spill file is empty, to preserve delivery order. Notifications that can't be
+ * written to disk (see GatewayNotification) wait for room instead.
+ */
+class GatewayQueue implements Runnable {
+
+    private static final Logger _log = LogManager.getLogger(GatewayQueue.class);
+
+    private final ObserverGateway _gateway;
+    private final String _key;
+    private final ObserverGatewayController _controller;
+    private final Deque<Entry> _queue = new ArrayDeque<Entry>();
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+    private final Condition _notFull = _lock.newCondition();
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor();
+
+    private SpillFile _spill;
+
+    // metrics
+    private long _queued;
+    private long _delivered;
+    private long _dropped;
+    private long _spilled;
+    private long _maxDepth;
+    private long _totalLag;
+    private long _maxLag;
+
+
+    GatewayQueue(ObserverGateway gateway, ObserverGatewayController controller) {
+        _gateway = gateway;
+        _key = getKey(gateway);
+        _controller = controller;
+        _executor.execute(this);
+    }
+
+
+    /**
+     * @param gateway an observer gateway
+     * @return a key that identifies the gateway between engine restarts
+     */
+    static String getKey(ObserverGateway gateway) {
+        return gateway.getClass().getName() + ":" + gateway.getScheme();
+    }
+
+
+    String getKey() { return _key; }
+
+    ObserverGateway getGateway() { return _gateway; }
+
+
+    /**
+     * Adds a notification to the queue
+     * @param notification the notification to add
+     * @param sequence the notification's journal sequence number, or -1 if it is
+     *                 not journaled
+     */
+    void add(GatewayNotification notification, long sequence) {
+        Entry entry = new Entry(notification, sequence);
+        _lock.lock();
+        try {
+            int capacity = _controller.getQueueCapacity();
+            if (capacity > 0 && isFull(capacity)) {
+                switch (_controller.getOverflowPolicy()) {
+                    case DROP_OLDEST:
+                        if (! _queue.isEmpty()) discard(_queue.poll());
+                        break;
+                    case SPILL:
+                        if (notification.isSerializable() && spill(entry)) return;
+                        awaitRoom(capacity);
+                        break;
+                    default: awaitRoom(capacity);
+                }
+            }
+            _queue.add(entry);
+            _queued++;
+            _maxDepth = Math.max(_maxDepth, getDepth());
+            _notEmpty.signal();
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+
+    /**
+     * Delivers the queued notifications to the gateway until shutdown
+     */
+    public void run() {
+        try {
+            while (! Thread.currentThread().isInterrupted()) {
+                Entry entry = take();
+                try {
+                    entry.notification.deliver(_gateway);
+                }
+                catch (RuntimeException re) {
+                    _log.error("Observer gateway " + _key + " failed to announce " +
+                            entry.notification.getEvent(), re);
+                }
+
+                // if interrupted by shutdown mid-delivery, leave it to be replayed
+                if (Thread.currentThread().isInterrupted()) break;
+                delivered(entry);
+            }
+        }
+        catch (InterruptedException ie) {
+            // shutdown
+        }
+    }
+
+
+    void shutdown() {
+        _executor.shutdownNow();
+        _lock.lock();
+        try {
+            if (_spill != null) _spill.delete();
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the current queue depth, delivery lag and throughput of this queue
+     */
+    XNode getStatistics() {
+        _lock.lock();
+        try {
+            XNode node = new XNode("queue");
+            node.addAttribute("gateway", _key);
+            node.addChild("depth", getDepth());
+            node.addChild("spilled", (_spill != null) ? _spill.getCount() : 0);
+            node.addChild("maxDepth", _maxDepth);
+            node.addChild("queued", _queued);
+            node.addChild("delivered", _delivered);
+            node.addChild("dropped", _dropped);
+            node.addChild("totalSpilled", _spilled);
+            Entry head = _queue.peek();
+            node.addChild("currentLag", (head != null) ?
+                    System.currentTimeMillis() - head.notification.getCreated() : 0);
+            node.addChild("meanLag", String.format("%.2f",
+                    _delivered > 0 ? (double) _totalLag / _delivered : 0));
+            node.addChild("maxLag", _maxLag);
+            return node;
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    private boolean isFull(int capacity) {
+        return _queue.size() >= capacity || _spill != null;
+    }
+
+
+    private int getDepth() {
+        return _queue.size() + ((_spill != null) ? _spill.getCount() : 0);
+    }
+
+
+    // waits until the queue has room and has no spilled notifications
+    private void awaitRoom(int capacity) {
+        try {
+            while (isFull(capacity)) {
+                _notFull.await();
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();           // queue it anyway
+        }
+    }
+
+
+    // writes an entry to the spill file, returning false if it could not be written
+    private boolean spill(Entry entry) {
+        try {
+            if (_spill == null) _spill = new SpillFile(_controller.getQueueDirectory());
+            _spill.write(entry);
+            _spilled++;
+            _maxDepth = Math.max(_maxDepth, getDepth());
+            _notEmpty.signal();
+            return true;
+        }
+        catch (IOException ioe) {
+            _log.warn("Failed to spill notification for observer gateway {} to disk: {}",
+                    _key, ioe.getMessage());
+            if (_spill != null && _spill.getCount() == 0) {
+                _spill.delete();
+                _spill = null;
+            }
+            return false;
+        }
+    }
+
+
+    // takes the next entry to deliver, from memory or else from the spill file
+    private Entry take() throws InterruptedException {
+        _lock.lockInterruptibly();
+        try {
+            while (true) {
+                Entry entry = _queue.poll();
+                if (entry == null && _spill != null) entry = unspill();
+                if (entry != null) {
+                    _notFull.signalAll();
+                    return entry;
+                }
+                if (_spill == null) _notEmpty.await();
+            }
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+
+    // reads the next spilled entry, returning null if it is no longer relevant
+    private Entry unspill() {
+        Entry entry = null;
+        try {
+            SpillFile.Record record = _spill.read();
+            GatewayNotification notification = GatewayNotification.fromXNode(
+                    record.notification, YEngine.getInstance());
+            if (notification != null) {
+                entry = new Entry(notification, record.sequence);
+            }
+            else discard(new Entry(null, record.sequence));   // its item has gone
+        }
+        catch (IOException ioe) {
+            _log.error("Failed to read spilled notifications for observer gateway " +
+                    _key + " - remaining spilled notifications are lost", ioe);
+            _spill.clearCount();
+        }
+        if (_spill.getCount() == 0) {
+            _spill.delete();
+            _spill = null;
+        }
+        return entry;
+    }
+
+
+    private void discard(Entry entry) {
+        _dropped++;
+        _controller.acknowledge(entry.sequence);
+    }
+
+
+    private void delivered(Entry entry) {
+        long lag = System.currentTimeMillis() - entry.notification.getCreated();
+        _lock.lock();
+        try {
+            _delivered++;
+            _totalLag += lag;
+            _maxLag = Math.max(_maxLag, lag);
+        }
+        finally {
+            _lock.unlock();
+        }
+        _controller.acknowledge(entry.sequence);
+    }
+
+
+    /*******************************************************************************/
+
+    private static class Entry {
+        final GatewayNotification notification;
+        final long sequence;
+
+        Entry(GatewayNotification notification, long sequence) {
+            this.notification = notification;
+            this.sequence = sequence;
+        }
+    }
+
+
+    /*
+     * A temporary file of the notifications that have overflowed a queue, written
+     * and read in the same order
+     */
+    private static class SpillFile {
+
+        private final File _file;
+        private final DataOutputStream _out;
+        private DataInputStream _in;
+        private int _count;
+
+        SpillFile(File dir) throws IOException {
+            _file = File.createTempFile("yawl-announcements", ".spill", dir);
+            _file.deleteOnExit();
+            _out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(_file)));
+        }
+
+        int getCount() { return _count; }
+
+        void clearCount() { _count = 0; }
+
+        void write(Entry entry) throws IOException {
+            byte[] bytes = entry.notification.toXNode().toString().getBytes("UTF-8");
+            _out.writeLong(entry.sequence);
+            _out.writeInt(bytes.length);
+            _out.write(bytes);
+            _count++;
+        }
+
+        Record read() throws IOException {
+            _out.flush();                             // make all writes readable
+            if (_in == null) {
+                _in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(_file)));
+            }
+            long sequence = _in.readLong();
+            byte[] bytes = new byte[_in.readInt()];
+            _in.readFully(bytes);
+            _count--;
+            return new Record(sequence, new XNodeParser().parse(
+                    new String(bytes, "UTF-8")));
+        }
+
+        void delete() {
+            try {
+                _out.close();
+                if (_in != null) _in.close();
+            }
+            catch (IOException ioe) {
+                // nothing more to do
+            }
+            _file.delete();
+        }
+
+
+        static class Record {
+            final long sequence;
+            final XNode notification;
+
+            Record(long sequence, XNode notification) {
+                this.sequence = sequence;
+                this.notification = notification;
+            }
+        }
+    }
+
+}
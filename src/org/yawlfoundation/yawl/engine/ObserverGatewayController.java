@@ -18,19 +18,31 @@
 
 package org.yawlfoundation.yawl.engine;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jdom2.Document;
 import org.yawlfoundation.yawl.elements.YAWLServiceReference;
 import org.yawlfoundation.yawl.elements.YTask;
 import org.yawlfoundation.yawl.elements.state.YIdentifier;
 import org.yawlfoundation.yawl.engine.announcement.YAnnouncement;
 import org.yawlfoundation.yawl.exceptions.YAWLException;
+import org.yawlfoundation.yawl.util.XNode;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.yawlfoundation.yawl.engine.announcement.YEngineEvent.*;
 
 /**
  * Class which encapsulates the management and processing of InterfaceB event observers.
+ * <p/>
+ * Each gateway has its own bounded queue of notifications, delivered to it in order
+ * by a dedicated thread (see GatewayQueue). What happens when a queue is full is set
+ * by the overflow policy. Optionally, notifications can be journaled to disk until
+ * delivered, so that those undelivered when the engine stops are replayed when it
+ * restarts.
  *
  * @author Andrew Hastie
  * @author Michael Adams (for 2.2)
@@ -39,19 +51,43 @@ import java.util.concurrent.Executors;
  */
 public class ObserverGatewayController {
 
+    /**
+     * How a notification is handled when its gateway's queue is full
+     */
+    public enum OverflowPolicy {
+        BLOCK,                          // the announcing thread waits for room
+        SPILL,                          // the notification is written to a spill file
+        DROP_OLDEST;                    // the oldest queued notification is discarded
+
+        public static OverflowPolicy fromString(String s) {
+            if ("spill".equalsIgnoreCase(s)) return SPILL;
+            if ("dropOldest".equalsIgnoreCase(s)) return DROP_OLDEST;
+            return BLOCK;
+        }
+    }
+
+    private static final String JOURNAL_FILE_NAME = "yawl-announcements.journal";
+
+    private final Logger _logger = LogManager.getLogger(ObserverGatewayController.class);
+
     // map [scheme, gateways for scheme] of registered gateways
     private final Map<String, Set<ObserverGateway>> _gateways;
 
-    private final ExecutorService _executor;
+    // map [gateway, its notification queue]
+    private final Map<ObserverGateway, GatewayQueue> _queues;
 
-    private static final int THREADPOOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private volatile int _queueCapacity = 0;                      // 0 = unbounded
+    private volatile OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+    private volatile File _queueDirectory = new File(System.getProperty("java.io.tmpdir"));
+    private volatile AnnouncementJournal _journal;
+    private List<AnnouncementJournal.Entry> _undelivered;        // read from journal
 
     /**
      * Constructor
      */
     public ObserverGatewayController() {
         _gateways = new HashMap<String, Set<ObserverGateway>>();
-        _executor = Executors.newFixedThreadPool(THREADPOOL_SIZE);
+        _queues = new ConcurrentHashMap<ObserverGateway, GatewayQueue>();
     }
 
 
@@ -70,7 +106,9 @@ public class ObserverGatewayController {
             schemeGateways = new HashSet<ObserverGateway>();
             _gateways.put(scheme, schemeGateways);
         }
-        schemeGateways.add(gateway);
+        if (schemeGateways.add(gateway)) {
+            _queues.put(gateway, new GatewayQueue(gateway, this));
+        }
     }
 
 
@@ -89,6 +127,8 @@ public class ObserverGatewayController {
                 if (schemeGateways.isEmpty()) _gateways.remove(scheme);
             }
         }
+        GatewayQueue queue = _queues.remove(gateway);
+        if (queue != null) queue.shutdown();
         return result;
     }
 
@@ -100,6 +140,119 @@ public class ObserverGatewayController {
     boolean isEmpty() { return _gateways.isEmpty(); }
 
 
+    /**
+     * Gets all the currently registered gateways, of every scheme
+     * @return the set of registered gateways
+     */
+    Set<ObserverGateway> getGateways() {
+        return new HashSet<ObserverGateway>(_queues.keySet());
+    }
+
+
+    /**
+     * Sets the maximum number of notifications held in memory for each gateway
+     * @param capacity the maximum queue size. A value of 0 or less means unbounded
+     */
+    public void setQueueCapacity(int capacity) { _queueCapacity = Math.max(capacity, 0); }
+
+    public int getQueueCapacity() { return _queueCapacity; }
+
+
+    /**
+     * Sets how a notification is handled when its gateway's queue is full
+     * @param policy the overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) { _overflowPolicy = policy; }
+
+    public OverflowPolicy getOverflowPolicy() { return _overflowPolicy; }
+
+
+    /**
+     * Sets the directory to write spill files and the journal to
+     * @param dir the directory (the system temp directory by default)
+     */
+    public void setQueueDirectory(File dir) { _queueDirectory = dir; }
+
+    public File getQueueDirectory() { return _queueDirectory; }
+
+
+    /**
+     * Enables or disables the journaling of notifications until they are delivered.
+     * When enabled, any notifications left undelivered in the journal by the previous
+     * engine run are read from it, to be replayed by replayJournal().
+     * @param enable true to enable the journal
+     */
+    public synchronized void setJournalEnabled(boolean enable) {
+        try {
+            if (enable && _journal == null) {
+                _journal = new AnnouncementJournal(
+                        new File(_queueDirectory, JOURNAL_FILE_NAME));
+                _undelivered = _journal.readUndelivered();
+                _logger.info("Announcement journal is enabled: {} undelivered " +
+                        "notifications found", _undelivered.size());
+            }
+            else if (! enable && _journal != null) {
+                _journal.close();
+                _journal = null;
+            }
+        }
+        catch (IOException ioe) {
+            _logger.error("Failed to open the announcement journal - notifications " +
+                    "will not be journaled", ioe);
+            _journal = null;
+        }
+    }
+
+
+    public synchronized boolean isJournalEnabled() { return _journal != null; }
+
+
+    /**
+     * Queues the notifications read from the journal that were undelivered when the
+     * engine last stopped, once the engine has been restored. Those referring to work
+     * items no longer in the engine, or to gateways no longer registered, are dropped.
+     * Each replayed notification is journaled again before its earlier record is
+     * acknowledged, so it stays in the journal until it is delivered.
+     * @return the number of notifications replayed
+     */
+    public synchronized int replayJournal() {
+        if (_undelivered == null) return 0;
+        int replayed = 0;
+        for (AnnouncementJournal.Entry entry : _undelivered) {
+            GatewayQueue queue = getQueue(entry.gatewayKey);
+            if (queue != null) {
+                GatewayNotification notification = GatewayNotification.fromXNode(
+                        entry.notification, YEngine.getInstance());
+                if (notification != null && notification.getEvent() != ENGINE_INIT) {
+                    queue.add(notification, journal(queue, notification));
+                    replayed++;
+                }
+            }
+            acknowledge(entry.sequence);                 // replayed or dropped
+        }
+        _logger.info("Replayed {} of {} undelivered notifications from the " +
+                "announcement journal", replayed, _undelivered.size());
+        _undelivered = null;
+        return replayed;
+    }
+
+
+    /**
+     * Gets the current depth, lag and throughput of each gateway's queue
+     * @return an XNode of the statistics of each queue
+     */
+    XNode getQueueStatistics() {
+        XNode node = new XNode("queues");
+        node.addAttribute("capacity", _queueCapacity);
+        node.addAttribute("overflowPolicy", _overflowPolicy.name());
+        node.addAttribute("journal", isJournalEnabled());
+        for (GatewayQueue queue : _queues.values()) {
+            node.addChild(queue.getStatistics());
+        }
+        return node;
+    }
+
+
     /**
      * Announce a set of work item notifications to the relevant observers
      * @param announcements the Set of announcements
@@ -117,18 +270,7 @@ public class ObserverGatewayController {
      */
     protected void announce(final YAnnouncement announcement) {
         if (announcement == null) return;
-        _executor.execute(new Runnable() {
-            public void run() {
-                String scheme = announcement.getScheme();
-                for (ObserverGateway gateway : getGatewaysForScheme(scheme)) {
-                    switch (announcement.getEvent()) {
-                        case ITEM_ADD: gateway.announceFiredWorkItem(announcement); break;
-                        case ITEM_CANCEL: gateway.announceCancelledWorkItem(announcement); break;
-                        case TIMER_EXPIRED: gateway.announceTimerExpiry(announcement); break;
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forAnnouncement(announcement));
     }
 
 
@@ -142,13 +284,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseCompletion(final YAWLServiceReference service,
                                      final YIdentifier caseID, final Document caseData) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (ObserverGateway gateway : getGatewaysForScheme(service.getScheme())) {
-                    gateway.announceCaseCompletion(service, caseID, caseData);
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseCompletion(service, caseID, caseData));
     }
 
 
@@ -165,18 +301,8 @@ public class ObserverGatewayController {
                                    final YIdentifier caseID, 
                                    final String launchingService,
                                    final boolean delayed) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseStarted(
-                                getServicesForScheme(services, scheme), specID, caseID,
-                                launchingService, delayed);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseStart(services, specID, caseID,
+                launchingService, delayed));
     }
   
     /**
@@ -187,17 +313,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseCompletion(final Set<YAWLServiceReference> services,
                                      final YIdentifier caseID, final Document caseData) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseCompletion(
-                                getServicesForScheme(services, scheme), caseID, caseData);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseCompletion(services, caseID, caseData));
     }
 
 
@@ -212,18 +328,8 @@ public class ObserverGatewayController {
                                            final YWorkItem workItem,
                                            final YWorkItemStatus oldStatus,
                                            final YWorkItemStatus newStatus) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceWorkItemStatusChange(
-                                getServicesForScheme(services, scheme), workItem,
-                                oldStatus, newStatus);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forStatusChange(services, workItem, oldStatus,
+                newStatus));
     }
 
 
@@ -234,17 +340,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseSuspending(final YIdentifier caseID,
                                      final Set<YAWLServiceReference> services) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseSuspending(
-                                getServicesForScheme(services, scheme), caseID);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseEvent(CASE_SUSPENDING, services, caseID));
     }
 
 
@@ -255,17 +351,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseSuspended(final YIdentifier caseID,
                                     final Set<YAWLServiceReference> services) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseSuspended(
-                                getServicesForScheme(services, scheme), caseID);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseEvent(CASE_SUSPENDED, services, caseID));
     }
 
 
@@ -276,17 +362,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseResumption(final YIdentifier caseID,
                                      final Set<YAWLServiceReference> services) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseResumption(
-                                getServicesForScheme(services, scheme), caseID);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseEvent(CASE_RESUMED, services, caseID));
     }
 
 
@@ -298,18 +374,7 @@ public class ObserverGatewayController {
      */
     public void notifyEngineInitialised(final Set<YAWLServiceReference> services,
                                         final int maxWaitSeconds) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceEngineInitialised(
-                                getServicesForScheme(services, scheme),
-                                maxWaitSeconds);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forEngineInitialised(services, maxWaitSeconds));
     }
 
 
@@ -320,17 +385,7 @@ public class ObserverGatewayController {
      */
     public void notifyCaseCancellation(final Set<YAWLServiceReference> services,
                                        final YIdentifier id) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceCaseCancellation(
-                                getServicesForScheme(services, scheme), id);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forCaseEvent(CASE_CANCELLED, services, id));
     }
 
 
@@ -342,26 +397,17 @@ public class ObserverGatewayController {
      */
     public void notifyDeadlock(final Set<YAWLServiceReference> services,
                                final YIdentifier id, final Set<YTask> tasks) {
-        _executor.execute(new Runnable() {
-            public void run() {
-                for (Set<ObserverGateway> gateways : _gateways.values()) {
-            	    for (ObserverGateway gateway : gateways) {
-                        String scheme = gateway.getScheme();
-                        gateway.announceDeadlock(
-                                getServicesForScheme(services, scheme), id, tasks);
-                    }
-                }
-            }
-        });
+        queue(GatewayNotification.forDeadlock(services, id, tasks));
     }
 
 
     /**
      * Invoke finalisation processing on all observer gateways and the
-     * ExecutorService used to execute calls to them (called when
+     * queues used to deliver notifications to them (called when
      * the Engine servlet is being destroyed). Do in same thread to avoid
      * issues where webapp is closed before gateways can complete their
-     * termination processing.
+     * termination processing. Any notifications still queued are discarded,
+     * or if journaled, replayed on restart.
      */
     public void shutdownObserverGateways() {
         for (Set<ObserverGateway> gateways : _gateways.values()) {
@@ -369,7 +415,64 @@ public class ObserverGatewayController {
                 gateway.shutdown();
             }
         }
-        _executor.shutdown();
+        for (GatewayQueue queue : _queues.values()) {
+            queue.shutdown();
+        }
+        setJournalEnabled(false);
+    }
+
+
+    /**
+     * Records the delivery (or discarding) of a journaled notification
+     * @param sequence the notification's journal sequence number
+     */
+    void acknowledge(long sequence) {
+        if (sequence < 0) return;
+        AnnouncementJournal journal = _journal;
+        if (journal != null) {
+            try {
+                journal.acknowledge(sequence);
+            }
+            catch (IOException ioe) {
+                _logger.warn("Failed to write to the announcement journal", ioe);
+            }
+        }
+    }
+
+
+    // adds a notification to the queue of each gateway it is to be delivered to
+    private void queue(GatewayNotification notification) {
+        String scheme = notification.getScheme();
+        Collection<ObserverGateway> gateways = (scheme != null) ?
+                getGatewaysForScheme(scheme) : getGateways();
+        for (ObserverGateway gateway : gateways) {
+            GatewayQueue queue = _queues.get(gateway);
+            if (queue != null) queue.add(notification, journal(queue, notification));
+        }
+    }
+
+
+    // records a notification in the journal, if enabled and the notification can be
+    // rebuilt on restart, returning its journal sequence number, or -1 if not journaled
+    private long journal(GatewayQueue queue, GatewayNotification notification) {
+        AnnouncementJournal journal = _journal;
+        if (journal != null && notification.isSerializable()) {
+            try {
+                return journal.append(queue.getKey(), notification.toXNode());
+            }
+            catch (IOException ioe) {
+                _logger.warn("Failed to write to the announcement journal", ioe);
+            }
+        }
+        return -1;
+    }
+
+
+    private GatewayQueue getQueue(String key) {
+        for (GatewayQueue queue : _queues.values()) {
+            if (queue.getKey().equals(key)) return queue;
+        }
+        return null;
     }
 
 
@@ -383,22 +486,4 @@ public class ObserverGatewayController {
                 Collections.<ObserverGateway>emptySet();
     }
 
-
-    /**
-     * Gets the set of all services of a particular scheme
-     * @param services all services currently registered with the engine
-     * @param scheme the scheme supported by services
-     * @return the set of services that are endpoints for the scheme
-     */
-    private Set<YAWLServiceReference> getServicesForScheme(
-            Set<YAWLServiceReference> services, String scheme) {
-        Set<YAWLServiceReference> matches = new HashSet<YAWLServiceReference>();
-        for (YAWLServiceReference service : services) {
-            if (service.getScheme().equals(scheme)) {
-                matches.add(service);
-            }
-        }
-        return matches;
-    }
-
 }
@@ -34,7 +34,9 @@ import org.yawlfoundation.yawl.engine.interfce.interfaceB.InterfaceB_HttpsEngine
 import org.yawlfoundation.yawl.engine.interfce.interfaceX.InterfaceX_EngineSideClient;
 import org.yawlfoundation.yawl.exceptions.YAWLException;
 import org.yawlfoundation.yawl.exceptions.YStateException;
+import org.yawlfoundation.yawl.util.XNode;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -90,6 +92,71 @@ public class YAnnouncer {
     }
 
 
+    /**
+     * Sets whether the standard Interface B gateways post announcements to each
+     * service individually or in batches
+     * @param maxBatchSize the maximum number of announcements to post to a service in
+     *                     one request. A value of 1 or less disables batching
+     * @param maxBatchDelay the maximum msecs an announcement will wait for others
+     *                      to join its batch
+     */
+    public void setAnnouncementBatching(int maxBatchSize, long maxBatchDelay) {
+        for (ObserverGateway gateway : _controller.getGateways()) {
+            if (gateway instanceof InterfaceB_EngineBasedClient) {
+                ((InterfaceB_EngineBasedClient) gateway).setAnnouncementBatching(
+                        maxBatchSize, maxBatchDelay);
+            }
+        }
+        if (maxBatchSize > 1) {
+            _logger.info("Announcement batching is enabled: up to {} announcements " +
+                    "per post, waiting at most {} msecs", maxBatchSize, maxBatchDelay);
+        }
+        else _logger.info("Announcement batching is disabled");
+    }
+
+
+    /**
+     * Configures the queues of notifications waiting to be passed to each gateway
+     * @param capacity the maximum number of notifications held in memory for each
+     *                 gateway (0 for unbounded)
+     * @param overflowPolicy how a notification is handled when its queue is full
+     * @param directory the directory to write spill files and the journal to, or
+     *                  null for the system temp directory
+     * @param journal true to journal notifications until delivered, so that any left
+     *                undelivered at shutdown are replayed on restart
+     */
+    public void configureAnnouncementQueues(int capacity,
+                                            ObserverGatewayController.OverflowPolicy overflowPolicy,
+                                            String directory, boolean journal) {
+        _controller.setQueueCapacity(capacity);
+        _controller.setOverflowPolicy(overflowPolicy);
+        if (directory != null) _controller.setQueueDirectory(new File(directory));
+        _controller.setJournalEnabled(journal);
+        _logger.info("Announcement queues: capacity {}, overflow policy {}, journal {}",
+                capacity > 0 ? capacity : "unbounded", overflowPolicy,
+                journal ? "enabled" : "disabled");
+    }
+
+
+    /**
+     * Gets the statistics of announcement deliveries made by the standard Interface B
+     * gateways to each service, and of the queue of notifications for each gateway
+     * @return an XML string of the statistics
+     */
+    public String getAnnouncementStatistics() {
+        XNode node = new XNode("announcementStatistics");
+        for (ObserverGateway gateway : _controller.getGateways()) {
+            if (gateway instanceof InterfaceB_EngineBasedClient) {
+                InterfaceB_EngineBasedClient client = (InterfaceB_EngineBasedClient) gateway;
+                XNode gatewayNode = node.addChild(client.getDeliveryStatistics());
+                gatewayNode.addAttribute("batching", client.isBatchingAnnouncements());
+            }
+        }
+        node.addChild(_controller.getQueueStatistics());
+        return node.toPrettyString();
+    }
+
+
     protected AnnouncementContext getAnnouncementContext() {
         return _announcementContext;
     }
@@ -148,6 +215,7 @@ public class YAnnouncer {
     protected void announceEngineInitialisationCompletion(
             Set<YAWLServiceReference> services, int maxWaitSeconds) {
         _controller.notifyEngineInitialised(services, maxWaitSeconds);
+        _controller.replayJournal();
     }
 
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+
+/**
+ * A fixed set of monitors used to serialise state-changing engine operations on a
+ * per-case basis. Each case is mapped to one of the monitors (a 'stripe') via the id
+ * of its root ancestor, so that all operations on a case and its sub-nets share the
+ * same monitor, while operations on unrelated cases (usually) do not.
+ */
+public class YCaseLockTable {
+
+    private static final int DEFAULT_STRIPE_COUNT = 256;
+
+    private final Object[] _stripes;
+
+
+    public YCaseLockTable() {
+        this(DEFAULT_STRIPE_COUNT);
+    }
+
+
+    public YCaseLockTable(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be greater than zero");
+        }
+        _stripes = new Object[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            _stripes[i] = new Object();
+        }
+    }
+
+
+    /**
+     * Gets the monitor for a case
+     * @param caseID the id of the case, or of any of its sub-nets or work items
+     * @return the monitor shared by all operations on the root case
+     */
+    public Object getLock(YIdentifier caseID) {
+        return getLock(caseID.getRootAncestor().toString());
+    }
+
+
+    /**
+     * Gets the monitor for a case
+     * @param caseID the id of the case, or of any of its sub-nets or work items
+     * @return the monitor shared by all operations on the root case
+     */
+    public Object getLock(String caseID) {
+        return _stripes[indexOf(getRootID(caseID))];
+    }
+
+
+    public int getStripeCount() { return _stripes.length; }
+
+
+    // the root case id is the part of the id before the first dot (if any)
+    private String getRootID(String caseID) {
+        int pos = caseID.indexOf('.');
+        return pos > -1 ? caseID.substring(0, pos) : caseID;
+    }
+
+
+    private int indexOf(String rootID) {
+        int h = rootID.hashCode();
+        h ^= (h >>> 16);                               // spread the higher bits
+        return (h & 0x7fffffff) % _stripes.length;
+    }
+
+}
@@ -27,6 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * Provides for the persistence of the last allocated case id, and the generation
  * of new case ids.
+ * <p/>
+ * When persisting, case numbers are reserved in blocks: the number persisted is the
+ * highest reserved, so the store is written once per block rather than once per case,
+ * and without holding any lock but its own while it is. Numbers reserved but not
+ * issued before a restart are skipped.
  *
  * Author: Michael Adams
  * Date: 1/03/2008
@@ -35,11 +40,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class YCaseNbrStore {
 
     private int pkey = 1001 ;                             // primary key for persistence
-    private AtomicInteger caseNbr;
+    private AtomicInteger caseNbr;                        // the last number issued
+    private volatile int reservedNbr;                     // the last number reserved
     private boolean persisted = false ;                   // has this been persisted yet?
     private boolean persisting = false ;                  // is persistence on?
     private static YCaseNbrStore _instance ;
     private static final Logger log = LogManager.getLogger(YCaseNbrStore.class) ;
+    private static final int BLOCK_SIZE = 50;             // case numbers reserved at once
 
     protected YCaseNbrStore() {
         caseNbr = new AtomicInteger();
@@ -55,9 +62,13 @@ public class YCaseNbrStore {
 
     // Getters & Setters //
 
-    public int getCaseNbr() { return caseNbr.get(); }
+    // the persisted value: the last number reserved (or issued, if not persisting)
+    public int getCaseNbr() { return Math.max(caseNbr.get(), reservedNbr); }
 
-    public void setCaseNbr(int nbr) { caseNbr.set(nbr); }
+    public void setCaseNbr(int nbr) {
+        caseNbr.set(nbr);
+        reservedNbr = nbr;
+    }
 
 
     public int getPkey() { return pkey; }
@@ -79,9 +90,19 @@ public class YCaseNbrStore {
 
     /** @return the next available case number (as a String) */
     public String getNextCaseNbr(YPersistenceManager pmgr) {
-        caseNbr.incrementAndGet();
-        if (persisting) persistThis(pmgr) ;
-        return caseNbr.toString();
+        int nbr = caseNbr.incrementAndGet();
+        if (persisting && nbr > reservedNbr) reserve(nbr, pmgr);
+        return String.valueOf(nbr);
+    }
+
+
+    // reserves (and persists) the next block of case numbers, if another thread
+    // hasn't already
+    private synchronized void reserve(int nbr, YPersistenceManager pmgr) {
+        if (nbr > reservedNbr) {
+            reservedNbr = nbr + BLOCK_SIZE - 1;
+            persistThis(pmgr);
+        }
     }
 
 
@@ -49,6 +49,8 @@ import org.yawlfoundation.yawl.schema.YDataValidator;
 import org.yawlfoundation.yawl.unmarshal.YMarshal;
 import org.yawlfoundation.yawl.util.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.*;
@@ -84,6 +86,8 @@ public class YEngine implements InterfaceADesign,
     private static boolean _generateUIMetaData = true;           // extended attributes
     private static boolean _persisting;
     private static boolean _restoring;
+    private static YRestoreProgress _restoreProgress = new YRestoreProgress();
+    private static YEngineSnapshot _snapshot;                 // null if not configured
 
 
     // NON-STATIC MEMBERS //
@@ -104,6 +108,9 @@ public class YEngine implements InterfaceADesign,
     private YBuildProperties _buildProps;
     private String _engineClassesRootFilePath;
     private boolean _allowGenericAdminID;
+    private YCaseLockTable _caseLocks;                    // per-case monitors
+    private boolean _caseLevelLocking;
+    private boolean _netStructureSharing;
 
     /********************************************************************************/
 
@@ -125,6 +132,7 @@ public class YEngine implements InterfaceADesign,
         _runningCaseIDToSpecMap = new ConcurrentHashMap<YIdentifier, YSpecification>();
         _yawlServices = new ConcurrentHashMap<String, YAWLServiceReference>();
         _externalClients = new ConcurrentHashMap<String, YExternalClient>();
+        _caseLocks = new YCaseLockTable();
     }
 
 
@@ -187,10 +195,17 @@ public class YEngine implements InterfaceADesign,
             _pmgr.initialise(true);
             _pmgr.setStatisticsEnabled(gatherHbnStats);
             _caseNbrStore.setPersisting(true);
+            if (redundantMode && _snapshot != null) {
+
+                // a standby engine doesn't own the database, so can't image it
+                _logger.info("Engine snapshots are disabled in redundant mode");
+                _snapshot = null;
+            }
             _thisInstance.restore(redundantMode);
         }
         else {
             _pmgr.setEnabled(false);
+            _snapshot = null;
 
             // Default clients and services should always be available
             _thisInstance.loadDefaultClients();
@@ -218,6 +233,7 @@ public class YEngine implements InterfaceADesign,
 
 
     public void demote() {
+        stopSnapshots(false);
         _netRunnerRepository.clear();
         _workItemRepository.clear();
         _instanceCache.clear();
@@ -234,7 +250,9 @@ public class YEngine implements InterfaceADesign,
         _logger.debug("--> restore");
         _restoring = true;
 
-        YEngineRestorer restorer = new YEngineRestorer(_thisInstance, _pmgr);
+        _restoreProgress = new YRestoreProgress();
+        YEngineRestorer restorer = new YEngineRestorer(_thisInstance, _pmgr,
+                _restoreProgress);
         try {
             _pmgr.setRestoring(true);
             startTransaction();
@@ -245,7 +263,10 @@ public class YEngine implements InterfaceADesign,
             if (! redundantMode) {
                 restorer.restoreSpecifications();
                 _caseNbrStore = restorer.restoreNextAvailableCaseNumber();
-                restorer.restoreInstances();
+                if (! restorer.restoreInstancesFromSnapshot(_snapshot,
+                        _caseNbrStore.getCaseNbr())) {
+                    restorer.restoreInstances();
+                }
                 _expiredTimers = restorer.restoreTimedObjects();
                 restorer.restartRestoredProcessInstances();
             }
@@ -255,10 +276,15 @@ public class YEngine implements InterfaceADesign,
             _pmgr.setRestoring(false);
 
             _workItemRepository.cleanseRepository();         // synch with net runners
+            if (! redundantMode) startSnapshots();
 
             dump();                                          // log result (if debugging)
+            _restoreProgress.setPhase(YRestoreProgress.Phase.Complete);
+            _logger.info("Restored {} cases in {} msecs",
+                    _restoreProgress.getCasesRestored(), _restoreProgress.getElapsedTime());
         }
         catch (YPersistenceException ype) {
+            _restoreProgress.setPhase(YRestoreProgress.Phase.Failed);
             _logger.fatal("Failure to restart engine from persistence image", ype);
             throw new YPersistenceException("Failure to restart engine from persistence image");
         }
@@ -266,6 +292,7 @@ public class YEngine implements InterfaceADesign,
 
             // a non-YPersistenceException means the restore failed, but the engine is
             // still operational
+            _restoreProgress.setPhase(YRestoreProgress.Phase.Failed);
             _logger.error("Persisted state failed to fully restore - engine is " +
                           "operational but may be in an inconsistent state. Exception: ", e);
         }
@@ -361,6 +388,8 @@ public class YEngine implements InterfaceADesign,
         _sessionCache.shutdown();
         YTimer.getInstance().shutdown();              // stop timer threads
         YTimer.getInstance().cancel();                // stop the timer
+        _yawllog.shutdown();                          // write pending log events
+        stopSnapshots(true);                          // close the case image
         if (_pmgr != null) _pmgr.closeFactory();
     }
 
@@ -591,7 +620,37 @@ public class YEngine implements InterfaceADesign,
      * @return true if spec is loaded, false if it was already loaded
      */
     public boolean loadSpecification(YSpecification spec) {
-        return _specifications.loadSpecification(spec);
+        if (_specifications.loadSpecification(spec)) {
+            precompileXQueries(spec);
+            setNetStructureSharing(spec);
+            for (YDecomposition decomposition : spec.getDecompositions()) {
+                if (decomposition instanceof YNet) {
+                    ((YNet) decomposition).prepareOrJoinAnalysis();
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Compiles the XQueries of a specification's tasks into the compiled query
+     * cache, so they are not compiled during the first case executions
+     * @param spec the specification containing the queries
+     */
+    private void precompileXQueries(YSpecification spec) {
+        Set<String> queries = new HashSet<String>();
+        for (YDecomposition decomposition : spec.getDecompositions()) {
+            if (decomposition instanceof YNet) {
+                for (YTask task : ((YNet) decomposition).getNetTasks()) {
+                    queries.addAll(task.getXQueries());
+                }
+            }
+        }
+        int compiled = SaxonUtil.precompileXQueries(queries);
+        _logger.debug("Precompiled {} of {} XQueries for specification {}", compiled,
+                queries.size(), spec.getSpecificationID());
     }
 
 
@@ -853,7 +912,7 @@ public class YEngine implements InterfaceADesign,
 
         Set<YWorkItem> removedItems = _workItemRepository.removeWorkItemsForCase(caseID);
         YNetRunner runner = _netRunnerRepository.get(caseID);
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(caseID)) {
             startTransaction();
             if (_persisting) clearWorkItemsFromPersistence(removedItems);
             YTimer.getInstance().cancelTimersForCase(caseID.toString());
@@ -904,14 +963,19 @@ public class YEngine implements InterfaceADesign,
             throws YStateException, YDataStateException, YEngineStateException,
             YQueryException, YPersistenceException {
         _logger.debug("--> launchCase");
+        checkEngineRunning();
 
-        // ensure that the caseid passed (if any) is not already in use
-        if ((caseID != null) && (getCaseID(caseID) != null)) {
-            throw new YStateException("CaseID '" + caseID + "' is already active.");
+        // with case-level locking, the case id must be known before the lock is taken
+        if (_caseLevelLocking && (caseID == null)) {
+            caseID = _caseNbrStore.getNextCaseNbr(null);
         }
-        checkEngineRunning();
 
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(caseID)) {
+
+            // ensure that the caseid passed (if any) is not already in use
+            if ((caseID != null) && (getCaseID(caseID) != null)) {
+                throw new YStateException("CaseID '" + caseID + "' is already active.");
+            }
             startTransaction();
             try {
                 YIdentifier yCaseID = startCase(specID, caseParams, completionObserver,
@@ -1083,7 +1147,7 @@ public class YEngine implements InterfaceADesign,
      */
     public void suspendCase(YIdentifier caseID)
             throws YPersistenceException, YStateException {
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(caseID)) {
             startTransaction();
             try {
                 suspendCase(_pmgr, caseID);
@@ -1143,7 +1207,7 @@ public class YEngine implements InterfaceADesign,
      * @throws YStateException if case cannot be resumed
      */
     public void resumeCase(YIdentifier id) throws YPersistenceException, YStateException {
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(id)) {
             startTransaction();
             try {
                 resumeCase(_pmgr, id);
@@ -1268,7 +1332,7 @@ public class YEngine implements InterfaceADesign,
             throws YPersistenceException {
         YNetRunner runner = _netRunnerRepository.get(idStr);
         if (runner != null && data != null) {
-            synchronized(_pmgr) {
+            synchronized(getCaseLock(runner.getCaseID())) {
                 startTransaction();
                 try {
                     YNet net = runner.getNet();
@@ -1426,7 +1490,7 @@ public class YEngine implements InterfaceADesign,
         checkEngineRunning();
         YWorkItem startedItem = null;
 
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(workItem)) {
             startTransaction();
             try {
                 YNetRunner netRunner = null;
@@ -1540,7 +1604,7 @@ public class YEngine implements InterfaceADesign,
         }
         checkEngineRunning();
 
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(workItem)) {
             startTransaction();
             try {
                 if (workItem != null) {
@@ -1774,7 +1838,7 @@ public class YEngine implements InterfaceADesign,
         YIdentifier siblingID = workItem.getCaseID();
         YNetRunner netRunner = getNetRunner(siblingID.getParent());
 
-        synchronized(_pmgr) {
+        synchronized(getCaseLock(siblingID)) {
             startTransaction();
             try {
                 Element paramValue = JDOMUtil.stringToElement(paramValueForMICreation);
@@ -1796,7 +1860,7 @@ public class YEngine implements InterfaceADesign,
             throws YStateException, YPersistenceException {
         YWorkItem workItem = _workItemRepository.get(workItemID);
         if ((workItem != null) && (workItem.hasLiveStatus())) {
-            synchronized(_pmgr) {
+            synchronized(getCaseLock(workItem)) {
                 startTransaction();
                 workItem.setStatusToSuspended(_pmgr);
                 commitTransaction();
@@ -1811,7 +1875,7 @@ public class YEngine implements InterfaceADesign,
         YWorkItem workItem = _workItemRepository.get(workItemID);
         if ((workItem != null) &&
                 (workItem.getStatus().equals(YWorkItemStatus.statusSuspended))) {
-            synchronized(_pmgr) {
+            synchronized(getCaseLock(workItem)) {
                 startTransaction();
                 workItem.setStatusToUnsuspended(_pmgr);
                 commitTransaction();
@@ -1826,7 +1890,7 @@ public class YEngine implements InterfaceADesign,
             throws YStateException, YPersistenceException {
         YWorkItem workItem = _workItemRepository.get(workItemID);
         if ((workItem != null) && workItem.getStatus().equals(YWorkItemStatus.statusExecuting)) {
-            synchronized(_pmgr) {
+            synchronized(getCaseLock(workItem)) {
                 startTransaction();
                 workItem.rollBackStatus(_pmgr);
                 YNetRunner netRunner = getNetRunner(workItem.getCaseID().getParent());
@@ -1853,7 +1917,7 @@ public class YEngine implements InterfaceADesign,
     public boolean updateWorkItemData(String workItemID, String data) {
         YWorkItem workItem = getWorkItem(workItemID);
         if (workItem != null) {
-            synchronized(_pmgr) {
+            synchronized(getCaseLock(workItem)) {
                 try {
                     boolean localTransaction = startTransaction();
                     Element eleData = JDOMUtil.stringToElement(data);
@@ -1875,7 +1939,7 @@ public class YEngine implements InterfaceADesign,
         try {
             if ((workItem != null) && workItem.getStatus().equals(YWorkItemStatus.statusExecuting)) {
                 YNetRunner runner = getNetRunner(workItem.getCaseID().getParent());
-                synchronized(_pmgr) {
+                synchronized(getCaseLock(workItem)) {
                     startTransaction();
                     workItem.setStatusToDeleted(_pmgr);
                     YWorkItem parent = workItem.getParent();
@@ -2121,6 +2185,155 @@ public class YEngine implements InterfaceADesign,
     }
 
 
+    /**
+     * Sets the locking mode for state-changing operations. When false (the default),
+     * all operations are serialised on a single engine-wide monitor. When true, each
+     * operation only locks the (root) case it acts upon, so that operations on
+     * different cases may proceed in parallel. This should be set only while the
+     * engine is initialising, before any cases are launched or work items processed.
+     * @param enable true to enable case-level locking
+     */
+    public void setCaseLevelLocking(boolean enable) {
+        _caseLevelLocking = enable;
+        _logger.info("Case-level locking is {}", enable ? "enabled" : "disabled");
+    }
+
+
+    public boolean isCaseLevelLocking() {
+        return _caseLevelLocking;
+    }
+
+
+    /**
+     * Sets whether the nets copied to execute each case (and sub-net instance) share
+     * the structure of their loaded prototype nets, holding only per-case state, or
+     * are full clones of them (the default). This should be set only while the
+     * engine is initialising, before any cases are launched or restored.
+     * @param share true to share net structure between cases
+     */
+    public void setNetStructureSharing(boolean share) {
+        _netStructureSharing = share;
+        for (YSpecificationID specID : _specifications.getSpecIDs()) {
+            setNetStructureSharing(_specifications.getSpecification(specID));
+        }
+        _logger.info("Net structure sharing is {}", share ? "enabled" : "disabled");
+    }
+
+
+    public boolean isNetStructureSharing() {
+        return _netStructureSharing;
+    }
+
+
+    // sets whether the nets of a loaded specification are shared by their case copies
+    private void setNetStructureSharing(YSpecification spec) {
+        for (YDecomposition decomposition : spec.getDecompositions()) {
+            if (decomposition instanceof YNet) {
+                ((YNet) decomposition).setCaseNetsShareStructure(_netStructureSharing);
+            }
+        }
+    }
+
+
+    /**
+     * Sets the maximum number of threads that rebuild persisted cases in parallel when
+     * the engine restores its state. This should be set before the engine instance is
+     * first created.
+     * @param threads the number of threads (a value of 1 restores cases serially)
+     */
+    public static void setRestoreThreads(int threads) {
+        YEngineRestorer.setParallelism(threads);
+    }
+
+
+    /**
+     * Keeps a binary image of all live case state in a directory beside the database,
+     * so that after an orderly shutdown the engine restarts from the image rather
+     * than by reading every persisted case row. This should be set before the engine
+     * instance is first created, and has no effect if persistence is disabled.
+     * @param dir the directory to hold the image files, or null to disable snapshots
+     * @param flushInterval the msecs between writes of changed cases to the image
+     * @param snapshotInterval the maximum msecs between full rewrites of the image
+     */
+    public static void setSnapshotDirectory(String dir, long flushInterval,
+                                            long snapshotInterval) {
+        if (dir == null) {
+            _snapshot = null;
+            return;
+        }
+        File snapshotDir = new File(dir);
+        if (! (snapshotDir.isDirectory() || snapshotDir.mkdirs())) {
+            LogManager.getLogger(YEngine.class).error(
+                    "Engine snapshot directory '{}' could not be created", dir);
+            return;
+        }
+        _snapshot = new YEngineSnapshot(snapshotDir);
+        _snapshot.configure(flushInterval, snapshotInterval);
+    }
+
+
+    /**
+     * @return a summary of the engine's case image, or null if snapshots are disabled
+     */
+    public String getSnapshotStatistics() {
+        return _snapshot != null ? _snapshot.getStatistics() : null;
+    }
+
+
+    // begins imaging the cases restored, and each change made to them from now on
+    private void startSnapshots() {
+        if (_snapshot == null) return;
+        try {
+            _snapshot.start(this);
+            _pmgr.setChangeListener(_snapshot);
+        }
+        catch (IOException ioe) {
+            _logger.error("Engine snapshots could not be started", ioe);
+            _snapshot.discard();
+        }
+    }
+
+
+    // closes the case image so that it can be restarted from, or discards it
+    private void stopSnapshots(boolean close) {
+        if (_snapshot == null) return;
+        if (_pmgr != null) _pmgr.setChangeListener(null);
+        if (close) {
+            _snapshot.close(_caseNbrStore.getCaseNbr());
+        }
+        else _snapshot.discard();
+    }
+
+
+    /**
+     * @return the progress of the current (or most recent) restore of persisted state
+     */
+    public YRestoreProgress getRestoreProgress() {
+        return _restoreProgress;
+    }
+
+
+    /**
+     * Gets the monitor to synchronise on for a state-changing operation on a case.
+     * @param caseID the id of the case (or sub-net or work item) being acted upon
+     * @return the engine-wide monitor if case-level locking is disabled (or the id is
+     * null), otherwise the monitor for the root case
+     */
+    private Object getCaseLock(YIdentifier caseID) {
+        return (_caseLevelLocking && caseID != null) ? _caseLocks.getLock(caseID) : _pmgr;
+    }
+
+
+    Object getCaseLock(String caseID) {
+        return (_caseLevelLocking && caseID != null) ? _caseLocks.getLock(caseID) : _pmgr;
+    }
+
+
+    private Object getCaseLock(YWorkItem workItem) {
+        return getCaseLock(workItem != null ? workItem.getCaseID() : null);
+    }
+
+
     /**********************************************************************/
 
     /**
@@ -2160,17 +2373,16 @@ public class YEngine implements InterfaceADesign,
     }
 
 
-    private synchronized void doPersistAction(Object obj, int action) throws YPersistenceException {
+    // sessions are bound to the current thread, so no engine-wide lock is needed here
+    private void doPersistAction(Object obj, int action) throws YPersistenceException {
         if (isPersisting() && _pmgr != null) {
-            synchronized(_pmgr) {
-                boolean isLocalTransaction = startTransaction();
-                switch (action) {
-                    case YPersistenceManager.DB_UPDATE : _pmgr.updateObject(obj); break;
-                    case YPersistenceManager.DB_DELETE : _pmgr.deleteObject(obj); break;
-                    case YPersistenceManager.DB_INSERT : _pmgr.storeObject(obj); break;
-                }
-                if (isLocalTransaction) commitTransaction();
+            boolean isLocalTransaction = startTransaction();
+            switch (action) {
+                case YPersistenceManager.DB_UPDATE : _pmgr.updateObject(obj); break;
+                case YPersistenceManager.DB_DELETE : _pmgr.deleteObject(obj); break;
+                case YPersistenceManager.DB_INSERT : _pmgr.storeObject(obj); break;
             }
+            if (isLocalTransaction) commitTransaction();
         }
     }
 
@@ -2204,13 +2416,12 @@ public class YEngine implements InterfaceADesign,
                     if (child != null) clearCaseFromPersistence(child);
                 }
 
-                synchronized(_pmgr) {
-                    Object obj = _pmgr.getSession().get(YNetRunner.class, id.toString());
-                    if (obj == null) {
-                        obj = _pmgr.getSession().get(YIdentifier.class, id.toString());
-                    }
-                    if (obj != null) _pmgr.deleteObject(obj);
+                // in the caller's transaction, under its case lock
+                Object obj = _pmgr.getSession().get(YNetRunner.class, id.toString());
+                if (obj == null) {
+                    obj = _pmgr.getSession().get(YIdentifier.class, id.toString());
                 }
+                if (obj != null) _pmgr.deleteObject(obj);
             }
             catch (Exception e) {
                 throw new YPersistenceException("Failure whilst clearing case", e);
@@ -2322,4 +2533,8 @@ public class YEngine implements InterfaceADesign,
         _yawllog.disable();
     }
 
+    public void setProcessLogBatching(int batchSize, long flushInterval) {
+        _yawllog.setBatching(batchSize, flushInterval);
+    }
+
 }
@@ -22,6 +22,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.yawlfoundation.yawl.authentication.YClient;
 import org.yawlfoundation.yawl.authentication.YExternalClient;
 import org.yawlfoundation.yawl.elements.*;
@@ -37,9 +39,20 @@ import org.yawlfoundation.yawl.unmarshal.YMarshal;
 import org.yawlfoundation.yawl.util.JDOMUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Handles the restoration of persisted objects and data pertaining to the Engine.
+ * <p/>
+ * Persisted rows are read as a stream rather than loaded all at once. The net
+ * runners, identifiers and work items of each root case are rebuilt independently of
+ * other cases, so where rebuilding can't write to persistence (ie. on restore, or when
+ * not persisting) the cases are rebuilt in parallel. The persisted state of each case
+ * is fully loaded before its rebuild is started, since the hibernate session may only
+ * be used by the thread that opened it.
  *
  * @author Michael Adams
  *         Creation Date: 25/06/2008
@@ -47,6 +60,10 @@ import java.util.*;
 
 public class YEngineRestorer {
 
+    private static final int FETCH_SIZE = 500;             // rows read per round trip
+    private static final int PROGRESS_INTERVAL = 5000;     // cases per progress log
+    private static int _parallelism = Runtime.getRuntime().availableProcessors();
+
     private YEngine _engine;
     private YPersistenceManager _pmgr;
     private Map<String, YIdentifier> _idLookupTable;
@@ -55,6 +72,7 @@ public class YEngineRestorer {
     private boolean _hasServices;
     private boolean _importingCases = false;
     private Set<YClient> _addedDefaultClients;
+    private YRestoreProgress _progress;
     private Logger _log;
 
 
@@ -63,15 +81,36 @@ public class YEngineRestorer {
     protected YEngineRestorer() {}
 
     protected YEngineRestorer(YEngine engine, YPersistenceManager pmgr) {
+        this(engine, pmgr, new YRestoreProgress());
+    }
+
+    protected YEngineRestorer(YEngine engine, YPersistenceManager pmgr,
+                              YRestoreProgress progress) {
         _engine = engine;
         _pmgr = pmgr;
-        _idLookupTable = new HashMap<String, YIdentifier>();
-        _taskLookupTable = new HashMap<String, YTask>();
+        _progress = progress;
+        _idLookupTable = new ConcurrentHashMap<String, YIdentifier>();
+        _taskLookupTable = new ConcurrentHashMap<String, YTask>();
         _log = LogManager.getLogger(this.getClass());
     }
 
 
+    /**
+     * Sets the maximum number of threads that rebuild cases in parallel
+     * @param threads the number of threads (a value of 1 rebuilds serially)
+     */
+    public static void setParallelism(int threads) {
+        _parallelism = Math.max(1, threads);
+    }
+
+    public static int getParallelism() { return _parallelism; }
+
+
+    public YRestoreProgress getProgress() { return _progress; }
+
+
     protected void restoreServicesAndClients() throws YPersistenceException {
+        _progress.setPhase(YRestoreProgress.Phase.Services);
         restoreYAWLServices();
         restoreExternalClients();
     }
@@ -130,9 +169,17 @@ public class YEngineRestorer {
      */
     protected void restoreSpecifications() throws YPersistenceException {
         _log.debug("Restoring Specifications - Starts");
-        for (YSpecification s : restoreObjects(YSpecification.class)) {
-            loadSpecification(s);
-        }
+        _progress.setPhase(YRestoreProgress.Phase.Specifications);
+        streamObjects(YSpecification.class, "from YSpecification",
+                new ObjectHandler<YSpecification>() {
+                    public void handle(YSpecification s) throws YPersistenceException {
+                        loadSpecification(s);
+
+                        // the row's xml is no longer needed once it is unmarshalled
+                        _pmgr.getSession().evict(s);
+                        _progress.specificationRestored();
+                    }
+                });
         _log.debug("Restoring Specifications - Ends");
     }
 
@@ -165,18 +212,74 @@ public class YEngineRestorer {
 
     protected void restoreProcessInstances() throws YPersistenceException {
         _log.debug("Restoring process instances - Starts");
-        List<YNetRunner> runners = restoreObjects(YNetRunner.class,
-                "from YNetRunner order by case_id");
-        runners = removeDeadRunners(runners);
+        _progress.setPhase(YRestoreProgress.Phase.Cases);
+        final List<YNetRunner> runners = new ArrayList<YNetRunner>();
+        final List<YNetRunner> deadRunners = new ArrayList<YNetRunner>();
+        streamObjects(YNetRunner.class, "from YNetRunner order by case_id",
+                new ObjectHandler<YNetRunner>() {
+                    public void handle(YNetRunner runner) {
+                        if (getSpecification(runner) != null) {
+                            loadPersistedState(runner);
+                            runners.add(runner);
+                        }
+                        else deadRunners.add(runner);
+                    }
+                });
+        removeDeadRunners(deadRunners);
         restoreProcessInstances(runners);
     }
 
 
+    /**
+     * Restores the engine's cases from the image left by an orderly shutdown, rather
+     * than from the case tables
+     * @param snapshot the engine's snapshot store (may be null)
+     * @param caseNbr the case number last allocated, as restored from persistence
+     * @return true if the cases were restored, false if there is no usable image and
+     * the cases should be restored from the case tables
+     * @throws YPersistenceException if there's a problem reading the case tables
+     */
+    protected boolean restoreInstancesFromSnapshot(YEngineSnapshot snapshot, int caseNbr)
+            throws YPersistenceException {
+        if (snapshot == null) return false;
+        YEngineSnapshot.Image image = snapshot.load();
+        if (image == null) return false;
+
+        // the image must agree with the database it was taken beside
+        if (image.getNextCaseNbr() != caseNbr ||
+                image.getRunnerCount() != countRows(YNetRunner.class) ||
+                image.getWorkItemCount() != countRows(YWorkItem.class)) {
+            _log.warn("The engine snapshot does not match the persisted cases");
+            return false;
+        }
+        _log.info("Restoring {} cases from the engine snapshot", image.getCaseCount());
+        _progress.setPhase(YRestoreProgress.Phase.Cases);
+        List<YNetRunner> runners = new ArrayList<YNetRunner>();
+        List<YWorkItem> workItems = new ArrayList<YWorkItem>();
+        try {
+            new CaseImporter(_engine).makeCaseObjects(image.getCases(), runners, workItems);
+        }
+        catch (Exception e) {
+            _log.warn("The engine snapshot could not be read: {}", e.getMessage());
+            return false;
+        }
+        _importingCases = true;                     // no orphaned identifiers to remove
+        try {
+            restoreProcessInstances(runners);
+            restoreWorkItems(workItems);
+        }
+        finally {
+            _importingCases = false;
+        }
+        snapshot.setRestored(image);
+        return true;
+    }
+
+
     // called directly by CaseImporter
     protected void restoreProcessInstances(List<YNetRunner> runners) throws YPersistenceException {
         _log.debug("Restoring {} net runners", runners.size());
-        _runners = runners;
-        restoreRunners(_runners);
+        _runners = restoreRunners(runners);
         _log.debug("Restoring process instances - Ends");
     }
 
@@ -189,6 +292,7 @@ public class YEngineRestorer {
 
     protected void restoreWorkItems(List<YWorkItem> workItems) throws YPersistenceException {
         _log.debug("Restoring {} work items", workItems.size());
+        _progress.setPhase(YRestoreProgress.Phase.WorkItems);
         List<YWorkItem> toBeRestored = new ArrayList<YWorkItem>();
         List<YWorkItem> toBeRemoved = new ArrayList<YWorkItem>();
 
@@ -199,54 +303,76 @@ public class YEngineRestorer {
                 toBeRemoved.add(witem);
         }
 
-        List<YWorkItem> orphans = checkWorkItemFamiliesIntact(toBeRestored);
+        Set<YWorkItem> orphans = checkWorkItemFamiliesIntact(toBeRestored);
         toBeRestored.removeAll(orphans);
         toBeRemoved.addAll(orphans);
+        _progress.setWorkItemCount(toBeRestored.size());
+
+        // the items of each case are restored in turn, the cases in parallel
+        final Set<YAWLServiceReference> services = _engine.getYAWLServices();
+        List<CaseTask> tasks = new ArrayList<CaseTask>();
+        for (final List<YWorkItem> caseItems : groupByRootCase(toBeRestored,
+                new CaseKey<YWorkItem>() {
+                    public String getID(YWorkItem item) { return item.get_thisID(); }
+                }).values()) {
+            tasks.add(new CaseTask() {
+                public void run() throws YPersistenceException {
+                    for (YWorkItem witem : caseItems) {
+                        restoreWorkItem(witem, services);
+                        _progress.workItemRestored();
+                    }
+                }
+            });
+        }
+        execute(tasks);
 
-        for (YWorkItem witem : toBeRestored) {
-
-            // persisted data stored as string - restore to Element
-            String data = witem.get_dataString();
-            if (data != null) witem.setInitData(JDOMUtil.stringToElement(data));
-
-            // reconstruct the caseID-YIdentifier for this item
-            String id = witem.get_thisID();
-            int delim1 = id.indexOf(':');
-            int delim2 = id.indexOf('!');
-            String caseID = id.substring(0, delim1);
-            String taskID;
-            String uniqueID = null;
-            if (delim2 > -1) {
-                taskID = id.substring(delim1 + 1, delim2);
-                uniqueID = id.substring(delim2 + 1);
-            }
-            else {
-                taskID = id.substring(delim1 + 1);
-            }
+        removeWorkItems(toBeRemoved);
 
-            YIdentifier yCaseID = _idLookupTable.get(caseID);
+        _log.debug("Restoring work items - Ends");
+    }
 
-            // MJF: use the unique id if we have one - stays in synch
-            if (uniqueID != null) {
-                witem.setWorkItemID(new YWorkItemID(yCaseID, taskID, uniqueID));
-            } else {
-                witem.setWorkItemID(new YWorkItemID(yCaseID, taskID));
-            }
 
-            witem.setTask(getTaskReference(witem.getSpecificationID(), taskID));
-            witem.addToRepository();
+    private void restoreWorkItem(YWorkItem witem, Set<YAWLServiceReference> services)
+            throws YPersistenceException {
 
-            // MJF: for any work items with data, restore to netrunner instance
-            witem.restoreDataToNet(_engine.getYAWLServices());
+        // persisted data stored as string - restore to Element
+        String data = witem.get_dataString();
+        if (data != null) witem.setInitData(JDOMUtil.stringToElement(data));
+
+        // reconstruct the caseID-YIdentifier for this item
+        String id = witem.get_thisID();
+        int delim1 = id.indexOf(':');
+        int delim2 = id.indexOf('!');
+        String caseID = id.substring(0, delim1);
+        String taskID;
+        String uniqueID = null;
+        if (delim2 > -1) {
+            taskID = id.substring(delim1 + 1, delim2);
+            uniqueID = id.substring(delim2 + 1);
+        }
+        else {
+            taskID = id.substring(delim1 + 1);
         }
 
-        removeWorkItems(toBeRemoved);
+        YIdentifier yCaseID = _idLookupTable.get(caseID);
 
-        _log.debug("Restoring work items - Ends");
+        // MJF: use the unique id if we have one - stays in synch
+        if (uniqueID != null) {
+            witem.setWorkItemID(new YWorkItemID(yCaseID, taskID, uniqueID));
+        } else {
+            witem.setWorkItemID(new YWorkItemID(yCaseID, taskID));
+        }
+
+        witem.setTask(getTaskReference(witem.getSpecificationID(), taskID));
+        witem.addToRepository();
+
+        // MJF: for any work items with data, restore to netrunner instance
+        witem.restoreDataToNet(services);
     }
 
 
     protected Set<YTimedObject> restoreTimedObjects() throws YPersistenceException {
+        _progress.setPhase(YRestoreProgress.Phase.Timers);
         Set<YTimedObject> expiredObjects = restoreWorkItemTimers();
         expiredObjects.addAll(restoreDelayedLaunches());
         return expiredObjects;
@@ -315,6 +441,7 @@ public class YEngineRestorer {
           have already been created.
          */
         _log.debug("Restarting restored process instances - Starts");
+        _progress.setPhase(YRestoreProgress.Phase.Restarting);
 
         for (YNetRunner runner : _runners) {
             _log.debug("Restarting {}", runner.get_caseID());
@@ -363,28 +490,39 @@ public class YEngineRestorer {
     }
 
 
-    private List<YNetRunner> removeDeadRunners(List<YNetRunner> runners)
+    /* A dead runner occurs when a specification has been unloaded, but the case is
+       still there. This case is removed, since we must have the specification stored
+       as well. */
+    private void removeDeadRunners(List<YNetRunner> deadRunners)
             throws YPersistenceException {
-        List<YNetRunner> result = new ArrayList<YNetRunner>();
-
-        for (YNetRunner runner : runners) {
-            if (getSpecification(runner) != null) {
-                result.add(runner);
-            } else {
-                /* This occurs when a specification has been unloaded, but the case is
-                   still there. This case is removed, since we must have the
-                   specification stored as well. */
-                String msg = String.format("YEngineRestorer: The specification '%s' for" +
-                        " active case '%s' is not loaded; the active case cannot" +
-                        " continue and so has been removed.",
-                        runner.getSpecificationID().getUri(),
-                        runner.getCaseID().toString());
-                _log.warn(msg);
-                _pmgr.deleteObject(runner);
-            }
+        for (YNetRunner runner : deadRunners) {
+            String msg = String.format("YEngineRestorer: The specification '%s' for" +
+                    " active case '%s' is not loaded; the active case cannot" +
+                    " continue and so has been removed.",
+                    runner.getSpecificationID().getUri(),
+                    runner.getCaseID().toString());
+            _log.warn(msg);
+            _pmgr.deleteObject(runner);
         }
+    }
 
-        return result;
+
+    // loads the lazily fetched state of a runner and its identifiers, so that they
+    // may be rebuilt on a thread other than the session's
+    private void loadPersistedState(YNetRunner runner) {
+        loadPersistedState(runner.getCaseID());
+        Hibernate.initialize(runner.getBusyTaskNames());
+        Hibernate.initialize(runner.getEnabledTaskNames());
+    }
+
+
+    private void loadPersistedState(YIdentifier id) {
+        Hibernate.initialize(id);
+        Hibernate.initialize(id.getLocationNames());
+        Hibernate.initialize(id.getChildren());
+        for (YIdentifier child : id.getChildren()) {
+            if (child != null) loadPersistedState(child);
+        }
     }
 
 
@@ -396,7 +534,7 @@ public class YEngineRestorer {
         for (YNetRunner runner : runners) {
             runner.setEngine(_engine);       // Set engine for parent and composite nets
             if (runner.getContainingTaskID() == null) { // this is a root net runner
-                YNet net = (YNet) getSpecification(runner).getRootNet().clone();
+                YNet net = getSpecification(runner).getRootNet().cloneForCase();
                 runner.setNet(net);
                 result.put(runner.getCaseID().toString(), runner);
             }
@@ -416,16 +554,8 @@ public class YEngineRestorer {
                     YCompositeTask task = (YCompositeTask) parentnet.getNetElement(
                             runner.getContainingTaskID());
                     runner.setContainingTask(task);
-                    try {
-                        YNet net = (YNet) task.getDecompositionPrototype().clone();
-                        runner.setNet(net);
-                    } catch (CloneNotSupportedException cnse) {
-                        String msg = String.format("YEngineRestorer: The decomposition" +
-                                "'%s' for  active case '%s' could not be set." +
-                                task.getDecompositionPrototype().getID(),
-                                runner.getCaseID().toString());
-                        throw new YPersistenceException(msg);
-                    }
+                    YNet net = ((YNet) task.getDecompositionPrototype()).cloneForCase();
+                    runner.setNet(net);
                     result.put(runner.getCaseID().toString(), runner);
                 }
             }
@@ -434,17 +564,72 @@ public class YEngineRestorer {
     }
 
 
-    private void restoreRunners(List<YNetRunner> runners) throws YPersistenceException {
-        Map<String, YNetRunner> runnerMap = restoreNets(runners);
-        for (YNetRunner runner : runners) {
+    // rebuilds the runners of each root case, then adds them to the engine
+    private List<YNetRunner> restoreRunners(List<YNetRunner> runners)
+            throws YPersistenceException {
+        Map<String, List<YNetRunner>> cases = groupByRootCase(runners,
+                new CaseKey<YNetRunner>() {
+                    public String getID(YNetRunner runner) {
+                        return runner.getCaseID().toString();
+                    }
+                });
+        _progress.setCaseCount(cases.size());
+
+        List<CaseTask> tasks = new ArrayList<CaseTask>();
+        for (final List<YNetRunner> caseRunners : cases.values()) {
+            tasks.add(new CaseTask() {
+                public void run() throws YPersistenceException {
+                    rebuildCase(caseRunners);
+                }
+            });
+        }
+        execute(tasks);
+
+        List<YNetRunner> restored = new ArrayList<YNetRunner>();
+        for (List<YNetRunner> caseRunners : cases.values()) {
+            for (YNetRunner runner : caseRunners) {
+                if (runner.getNet() == null) continue;          // parent not restored
+                if (runner.getContainingTaskID() == null) {
+                    _engine.addRunner(runner);                  // a root net runner
+                } else {
+                    _engine.getNetRunnerRepository().add(runner);         // a subnet
+                }
+
+                // restore any timer variables
+                runner.restoreTimerStates();
+
+                // restore case & exception observers (where they exist)
+                runner.restoreObservers();
+
+                // create a clean announcement transport
+                runner.refreshAnnouncements();
+                restored.add(runner);
+            }
+            _progress.caseRestored();
+            int count = _progress.getCasesRestored();
+            if (count % PROGRESS_INTERVAL == 0) {
+                _log.info("Restored {} of {} cases", count, cases.size());
+            }
+        }
+        if (! _importingCases) removeOrphanedIdentifiers();
+        return restored;
+    }
+
+
+    // rebuilds the nets, identifiers and active tasks of a root case and its subnets
+    private void rebuildCase(List<YNetRunner> caseRunners) throws YPersistenceException {
+        Map<String, YNetRunner> runnerMap = restoreNets(caseRunners);
+        for (YNetRunner runner : caseRunners) {
             YNet net = runner.getNet();
+            if (net == null) {
+                _log.warn("Net runner for case '{}' not restored: its parent net " +
+                        "runner could not be found", runner.getCaseID());
+                continue;
+            }
             if (runner.getContainingTaskID() == null) {
 
                 // This is a root net runner
                 restoreYIdentifiers(runnerMap, runner.getCaseID(), null, net);
-                _engine.addRunner(runner);
-            } else {
-                _engine.getNetRunnerRepository().add(runner);         // a subnet
             }
 
             // restore enabled and busy tasks
@@ -454,17 +639,7 @@ public class YEngineRestorer {
             for (String enabledtask : runner.getEnabledTaskNames()) {
                 runner.addEnabledTask((YTask) net.getNetElement(enabledtask));
             }
-
-            // restore any timer variables
-            runner.restoreTimerStates();
-
-            // restore case & exception observers (where they exist)
-            runner.restoreObservers();
-
-            // create a clean announcement transport
-            runner.refreshAnnouncements();
         }
-        if (! _importingCases) removeOrphanedIdentifiers();
     }
 
 
@@ -589,17 +764,18 @@ public class YEngineRestorer {
      * @param itemList the list of workitems to potentially restore
      * @return the sublist of items not to restore (if any)
      */
-    private List<YWorkItem> checkWorkItemFamiliesIntact(List<YWorkItem> itemList) {
-        List<YWorkItem> orphans = new ArrayList<YWorkItem>();
+    private Set<YWorkItem> checkWorkItemFamiliesIntact(List<YWorkItem> itemList) {
+        Set<YWorkItem> itemSet = new HashSet<YWorkItem>(itemList);
+        Set<YWorkItem> orphans = new HashSet<YWorkItem>();
         for (YWorkItem witem : itemList) {
             if (witem.getStatus().equals(YWorkItemStatus.statusIsParent)) {
                 Set<YWorkItem> children = witem.getChildren();
-                if ((children != null) && (!itemList.containsAll(children))) {
+                if ((children != null) && (!itemSet.containsAll(children))) {
                     orphans.add(witem);
                 }
             } else {
                 YWorkItem parent = witem.getParent();
-                if ((parent != null) && (!itemList.contains(parent))) {
+                if ((parent != null) && (!itemSet.contains(parent))) {
                     orphans.add(witem);
                 }
 
@@ -642,22 +818,25 @@ public class YEngineRestorer {
      * cases that are no longer executing
      */
     private void removeOrphanedIdentifiers() {
-        Set<YIdentifier> orphaned = new HashSet<YIdentifier>();
-        List<String> caseIDs = new ArrayList<String>();
+        final Set<YIdentifier> orphaned = new HashSet<YIdentifier>();
+        final Set<String> caseIDs = new HashSet<String>();
         for (YIdentifier id : _engine.getRunningCaseIDs()) {
             caseIDs.add(id.toString());
         }
 
         try {
-            for (YIdentifier id : restoreObjects(YIdentifier.class)) {
-                String idString = id.toString();
-                if (idString.contains(".")) {
-                    idString = idString.substring(0, idString.indexOf('.'));
-                }
-                if (!caseIDs.contains(idString)) {
-                    orphaned.add(id);
-                }
-            }
+            streamObjects(YIdentifier.class, "from YIdentifier",
+                    new ObjectHandler<YIdentifier>() {
+                        public void handle(YIdentifier id) {
+                            String idString = id.toString();
+                            if (idString.contains(".")) {
+                                idString = idString.substring(0, idString.indexOf('.'));
+                            }
+                            if (!caseIDs.contains(idString)) {
+                                orphaned.add(id);
+                            }
+                        }
+                    });
             unpersistObjects(orphaned);
         } catch (YPersistenceException ype) {
             _log.error("Exception removing orphaned identifiers from persistence.", ype);
@@ -687,6 +866,14 @@ public class YEngineRestorer {
 
     protected void setImportingCases(boolean b) {_importingCases = b; }
 
+
+    private long countRows(Class<?> persistedClass) throws YPersistenceException {
+        List<?> result = _pmgr.execQuery("select count(*) from " +
+                persistedClass.getSimpleName());
+        return (result == null || result.isEmpty()) ? -1 :
+                ((Number) result.get(0)).longValue();
+    }
+
     
     private <T> List<T> restoreObjects(Class<T> clazz) throws YPersistenceException {
         return restoreObjects(clazz, "from " + clazz.getSimpleName());
@@ -694,19 +881,110 @@ public class YEngineRestorer {
     
 
     private <T> List<T> restoreObjects(Class<T> clazz, String queryString) throws YPersistenceException {
-        List<T> list = new ArrayList<T>();
+        final List<T> list = new ArrayList<T>();
+        streamObjects(clazz, queryString, new ObjectHandler<T>() {
+            public void handle(T item) { list.add(item); }
+        });
+        return list;
+    }
+
+
+    /**
+     * Reads the results of a query as a stream, in a single query rather than one per
+     * object, passing each object to a handler as it is read.
+     *
+     * @param clazz the class of the objects to read
+     * @param queryString the query
+     * @param handler receives each object read
+     * @throws YPersistenceException if there's a problem reading from the tables, or
+     * if thrown by the handler
+     */
+    private <T> void streamObjects(Class<T> clazz, String queryString,
+                                   ObjectHandler<T> handler)
+            throws YPersistenceException {
         Query query = _pmgr.createQuery(queryString);
-        for (Iterator it = query.iterate(); it.hasNext(); ) {
-            try {
-                T item = clazz.cast(it.next());
-                if (item != null) list.add(item);
+        if (query == null) return;
+        ScrollableResults results = query.setFetchSize(FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                try {
+                    T item = clazz.cast(results.get(0));
+                    if (item != null) handler.handle(item);
+                }
+                catch (ClassCastException cce) {
+                    // ignore this object
+                    _log.warn("Ignored object while restoring: " + cce.getMessage());
+                }
+            }
+        }
+        finally {
+            results.close();
+        }
+    }
+
+
+    // groups objects by the root case of their ids, keeping the order of each group
+    private <T> Map<String, List<T>> groupByRootCase(List<T> objects, CaseKey<T> key) {
+        Map<String, List<T>> groups = new LinkedHashMap<String, List<T>>();
+        for (T object : objects) {
+            String id = key.getID(object);
+            int end = 0;
+            while (end < id.length() && id.charAt(end) != '.' && id.charAt(end) != ':') {
+                end++;
             }
-            catch (ClassCastException cce) {
-                // ignore this object
-                _log.warn("Ignored object while restoring: " + cce.getMessage());
+            String rootID = id.substring(0, end);
+            List<T> group = groups.get(rootID);
+            if (group == null) {
+                group = new ArrayList<T>();
+                groups.put(rootID, group);
             }
+            group.add(object);
+        }
+        return groups;
+    }
+
+
+    /**
+     * Runs the tasks (each of which rebuilds one case) on a fork-join pool, or in
+     * turn if rebuilding a case may write to persistence, since the session can't be
+     * shared between threads.
+     *
+     * @param tasks the tasks to run
+     * @throws YPersistenceException if any task fails
+     */
+    private void execute(List<CaseTask> tasks) throws YPersistenceException {
+        boolean readOnly = _pmgr == null || ! _pmgr.isEnabled() || _pmgr.isRestoring();
+        if (_parallelism < 2 || tasks.size() < 2 || ! readOnly) {
+            for (CaseTask task : tasks) task.run();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(_parallelism);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final CaseTask task : tasks) {
+                futures.add(pool.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws YPersistenceException {
+                        task.run();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) future.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new YPersistenceException("Interrupted whilst restoring cases", ie);
+        }
+        catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof YPersistenceException) throw (YPersistenceException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new YPersistenceException("Failure whilst restoring cases", cause);
+        }
+        finally {
+            pool.shutdown();
         }
-        return list;
     }
 
 
@@ -716,4 +994,19 @@ public class YEngineRestorer {
         }
     }
 
+
+    private interface ObjectHandler<T> {
+        void handle(T object) throws YPersistenceException;
+    }
+
+
+    private interface CaseKey<T> {
+        String getID(T object);
+    }
+
+
+    private interface CaseTask {
+        void run() throws YPersistenceException;
+    }
+
 }
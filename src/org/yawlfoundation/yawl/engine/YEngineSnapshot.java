@@ -0,0 +1,656 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.util.XNode;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A compact binary image of the state of all live cases, kept beside the database so
+ * that the engine can restart without reading every persisted runner, identifier and
+ * work item row.
+ * <p/>
+ * The image is held in two files. The snapshot file holds the state of each case, as
+ * exported by {@link CaseExporter} and deflated. The log file holds the cases changed
+ * since the snapshot was written: each time a case's persisted state changes the case
+ * is marked, and a background thread periodically appends the latest state of each
+ * marked case (or its removal) to the log. When the log grows too large, or a set
+ * interval passes, the cases are written to a new snapshot and the log is restarted.
+ * <p/>
+ * Because the log trails the database by up to one flush interval, the image is only
+ * trusted when it was closed cleanly, by an orderly engine shutdown. After a failure
+ * the log has no closing record, and the engine restores from the database instead.
+ */
+class YEngineSnapshot implements YPersistenceManager.ChangeListener, Runnable {
+
+    private static final int SNAPSHOT_MAGIC = 0x59534e50;                   // YSNP
+    private static final int LOG_MAGIC = 0x59574c47;                        // YWLG
+    private static final int VERSION = 1;
+
+    // log record types
+    private static final byte CASE = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLOSE = 3;
+
+    private static final long MIN_COMPACT_SIZE = 16 * 1024 * 1024;         // bytes
+
+    private final Logger _log = LogManager.getLogger(YEngineSnapshot.class);
+    private final File _snapshotFile;
+    private final File _logFile;
+
+    // the ids of the root cases changed since they were last logged
+    private final Set<String> _dirty = new LinkedHashSet<String>();
+
+    // the state of each case as last logged, from which each snapshot is written
+    private Map<String, CaseState> _cases = new HashMap<String, CaseState>();
+    private Image _restored;                     // the image the engine restored from
+    private YEngine _engine;
+
+    private long _flushInterval = 1000;                                    // msecs
+    private long _snapshotInterval = 10 * 60 * 1000;                       // msecs
+    private long _generation;
+    private long _lastSnapshot;
+    private long _snapshotSize;
+    private DataOutputStream _out;
+    private FileOutputStream _outFile;
+    private long _logSize;
+    private boolean _broken;                        // has a write failed?
+    private volatile boolean _stopping;
+    private Thread _thread;
+    private long _flushes;
+    private long _casesLogged;
+    private long _snapshots;
+
+
+    /**
+     * @param dir the directory to hold the snapshot and log files
+     */
+    YEngineSnapshot(File dir) {
+        _snapshotFile = new File(dir, "engine.snapshot");
+        _logFile = new File(dir, "engine.log");
+    }
+
+
+    /**
+     * Sets how often changes are logged and snapshots are written
+     * @param flushInterval the msecs between appends to the log
+     * @param snapshotInterval the maximum msecs between snapshots
+     */
+    void configure(long flushInterval, long snapshotInterval) {
+        _flushInterval = Math.max(10, flushInterval);
+        _snapshotInterval = Math.max(_flushInterval, snapshotInterval);
+    }
+
+
+    /**
+     * Reads the image left by the last run of the engine
+     * @return the image, or null if there is none, or it is incomplete, corrupt or was
+     * not closed cleanly
+     */
+    Image load() {
+        if (! (_snapshotFile.exists() && _logFile.exists())) {
+            _log.info("No engine snapshot found");
+            return null;
+        }
+        try {
+            Image image = readSnapshot();
+            if (readLog(image)) return image;
+            _log.warn("The engine snapshot was not closed cleanly");
+        }
+        catch (IOException ioe) {
+            _log.warn("The engine snapshot could not be read: {}", ioe.getMessage());
+        }
+        return null;
+    }
+
+
+    /**
+     * Records that the engine's cases were restored from an image, so that it can
+     * become the base of the next one
+     * @param image the image loaded
+     */
+    synchronized void setRestored(Image image) {
+        _restored = image;
+    }
+
+
+    /**
+     * Starts a new image of the engine's cases, and the thread that maintains it. The
+     * image is based on the one the cases were restored from, if any; otherwise each
+     * running case is logged afresh. Any image previously loaded is no longer valid
+     * once this is called.
+     * @param engine the engine whose cases are imaged
+     * @throws IOException if the new snapshot can't be written
+     */
+    synchronized void start(YEngine engine) throws IOException {
+        _engine = engine;
+        _cases = _restored != null ? _restored._cases : new HashMap<String, CaseState>();
+        if (_restored == null) {
+            for (YIdentifier caseID : _engine.getRunningCaseIDs()) {
+                markDirty(caseID.toString());
+            }
+        }
+        _restored = null;
+        _broken = false;
+        _stopping = false;
+        snapshot();
+        _thread = new Thread(this, "YEngineSnapshot");
+        _thread.setDaemon(true);
+        _thread.start();
+        _log.info("Engine snapshots started: {} cases imaged, {} to log",
+                _cases.size(), _dirty.size());
+    }
+
+
+    /**
+     * Logs any changed cases, then closes the image so that it can be restored from
+     * when the engine restarts
+     * @param nextCaseNbr the case number last allocated by the engine
+     */
+    void close(int nextCaseNbr) {
+        stopThread();
+        synchronized (this) {
+            if (_out == null) return;
+            try {
+                flush();
+                if (! _broken) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream record = new DataOutputStream(bytes);
+                    record.writeInt(nextCaseNbr);
+                    record.writeInt(countRunners());
+                    record.writeInt(countWorkItems());
+                    appendRecord(CLOSE, bytes.toByteArray());
+                }
+            }
+            catch (IOException ioe) {
+                _log.error("Failed to close the engine snapshot", ioe);
+            }
+            finally {
+                closeLog(true);
+            }
+        }
+    }
+
+
+    /**
+     * Stops maintaining the image and deletes its files, e.g. when the engine stops
+     * being the one that owns the database
+     */
+    void discard() {
+        stopThread();
+        synchronized (this) {
+            closeLog(false);
+            _snapshotFile.delete();
+            _logFile.delete();
+            _cases.clear();
+        }
+        synchronized (_dirty) {
+            _dirty.clear();
+        }
+    }
+
+
+    /**
+     * Notes the case of a persisted object as changed. Called by the persistence
+     * manager each time a case's runner, identifier, data or work item is stored,
+     * updated or deleted.
+     * @param obj the persisted object
+     */
+    public void objectChanged(Object obj) {
+        String id = null;
+        if (obj instanceof YWorkItem) id = ((YWorkItem) obj).get_thisID();
+        else if (obj instanceof YNetRunner) id = ((YNetRunner) obj).get_caseID();
+        else if (obj instanceof YIdentifier) id = ((YIdentifier) obj).get_idString();
+        else if (obj instanceof YNetData) id = ((YNetData) obj).getId();
+        if (id != null) markDirty(getRootCaseID(id));
+    }
+
+
+    /**
+     * Notes a case as changed, so that its state is logged at the next flush
+     * @param caseID the id of the root case
+     */
+    void markDirty(String caseID) {
+        synchronized (_dirty) {
+            _dirty.add(caseID);
+        }
+    }
+
+
+    /**
+     * Appends the latest state of each changed case to the log
+     * @throws IOException if the log can't be written
+     */
+    synchronized void flush() throws IOException {
+        if (_out == null) return;
+        List<String> dirty;
+        synchronized (_dirty) {
+            if (_dirty.isEmpty()) return;
+            dirty = new ArrayList<String>(_dirty);
+            _dirty.clear();
+        }
+        try {
+            CaseExporter exporter = new CaseExporter(_engine);
+            for (String caseID : dirty) {
+                CaseState state = null;
+                synchronized (_engine.getCaseLock(caseID)) {
+                    YIdentifier id = _engine.getCaseID(caseID);
+                    if (id != null) state = new CaseState(caseID, exporter.exportCase(id));
+                }
+                if (state != null) {
+                    _cases.put(caseID, state);
+                    appendRecord(CASE, state.toBytes());
+                    _casesLogged++;
+                }
+                else if (_cases.remove(caseID) != null) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    new DataOutputStream(bytes).writeUTF(caseID);
+                    appendRecord(REMOVE, bytes.toByteArray());
+                }
+            }
+            _out.flush();
+            _flushes++;
+        }
+        catch (IOException ioe) {
+            _broken = true;                 // the image can no longer be closed cleanly
+            throw ioe;
+        }
+    }
+
+
+    /**
+     * Writes the state of every case to a new snapshot, and starts a new (empty) log
+     * @throws IOException if the snapshot or log can't be written
+     */
+    synchronized void snapshot() throws IOException {
+        closeLog(false);
+        _generation = Math.max(_generation + 1, System.currentTimeMillis());
+        File tmpFile = new File(_snapshotFile.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmpFile);
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(file, 65536), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_generation);
+            out.writeInt(_cases.size());
+            for (CaseState state : _cases.values()) {
+                state.write(out);
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+        _snapshotSize = tmpFile.length();
+        move(tmpFile, _snapshotFile);
+        openLog();
+        _lastSnapshot = System.currentTimeMillis();
+        _snapshots++;
+    }
+
+
+    /**
+     * Logs changed cases every flush interval, and writes a snapshot when one is due
+     */
+    public void run() {
+        while (! _stopping) {
+            synchronized (_dirty) {
+                try {
+                    _dirty.wait(_flushInterval);
+                }
+                catch (InterruptedException ie) {
+                    break;
+                }
+            }
+            if (_stopping) break;
+            try {
+                flush();
+                if (isSnapshotDue()) snapshot();
+            }
+            catch (IOException ioe) {
+                _log.error("Failed to write the engine snapshot - the engine will " +
+                        "restore from the database on its next restart", ioe);
+            }
+        }
+    }
+
+
+    /**
+     * @return a summary of the cases imaged and the writes made
+     */
+    synchronized String getStatistics() {
+        return String.format("cases: %d, logged: %d, flushes: %d, log bytes: %d, " +
+                "snapshots: %d, snapshot bytes: %d", _cases.size(), _casesLogged,
+                _flushes, _logSize, _snapshots, _snapshotSize);
+    }
+
+
+    /*******************************************************************************/
+
+    private boolean isSnapshotDue() {
+        return _logSize > Math.max(MIN_COMPACT_SIZE, _snapshotSize) ||
+                (_logSize > 0 && System.currentTimeMillis() - _lastSnapshot >
+                        _snapshotInterval);
+    }
+
+
+    private void stopThread() {
+        Thread thread;
+        synchronized (this) {
+            thread = _thread;
+            _thread = null;
+        }
+        if (thread == null) return;
+        _stopping = true;
+        synchronized (_dirty) {
+            _dirty.notifyAll();
+        }
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // starts a log for the current generation; it is only used once the snapshot of
+    // the same generation is in place
+    private void openLog() throws IOException {
+        File tmpFile = new File(_logFile.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(LOG_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(_generation);
+        out.flush();
+        file.getFD().sync();
+        out.close();
+        move(tmpFile, _logFile);
+        _outFile = new FileOutputStream(_logFile, true);
+        _out = new DataOutputStream(new BufferedOutputStream(_outFile, 65536));
+        _logSize = 0;
+    }
+
+
+    private void closeLog(boolean sync) {
+        if (_out == null) return;
+        try {
+            _out.flush();
+            if (sync) _outFile.getFD().sync();
+            _out.close();
+        }
+        catch (IOException ioe) {
+            _log.error("Failed to close the engine snapshot log", ioe);
+        }
+        _out = null;
+        _outFile = null;
+    }
+
+
+    // each record is its type, length, content and the checksum of its content
+    private void appendRecord(byte type, byte[] content) throws IOException {
+        _out.writeByte(type);
+        _out.writeInt(content.length);
+        _out.write(content);
+        _out.writeLong(checksum(content));
+        _logSize += content.length + 13;
+    }
+
+
+    private Image readSnapshot() throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(
+                new FileInputStream(_snapshotFile), 65536), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown snapshot format");
+            }
+            Image image = new Image(in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                CaseState state = CaseState.read(in);
+                image._cases.put(state.caseID, state);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) throw new IOException("snapshot is corrupt");
+            return image;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    // applies the log to the image, returning true if the log was closed cleanly
+    private boolean readLog(Image image) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(_logFile), 65536));
+        try {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown log format");
+            }
+            if (in.readLong() != image._generation) {
+                throw new IOException("log does not belong to the snapshot");
+            }
+            while (true) {
+                byte type = in.readByte();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                if (in.readLong() != checksum(content)) {
+                    throw new IOException("log is corrupt");
+                }
+                DataInputStream record = new DataInputStream(
+                        new ByteArrayInputStream(content));
+                switch (type) {
+                    case CASE: {
+                        CaseState state = CaseState.read(record);
+                        image._cases.put(state.caseID, state);
+                        break;
+                    }
+                    case REMOVE: image._cases.remove(record.readUTF()); break;
+                    case CLOSE: {
+                        image._nextCaseNbr = record.readInt();
+                        image._runnerCount = record.readInt();
+                        image._workItemCount = record.readInt();
+                        return in.read() < 0;                   // nothing after close
+                    }
+                    default: throw new IOException("unknown log record");
+                }
+            }
+        }
+        catch (EOFException eof) {
+            return false;                                // no close record
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    private int countRunners() {
+        int count = 0;
+        for (CaseState state : _cases.values()) count += state.runnerCount;
+        return count;
+    }
+
+
+    private int countWorkItems() {
+        int count = 0;
+        for (CaseState state : _cases.values()) count += state.workItemCount;
+        return count;
+    }
+
+
+    // eg. 12.1.2:task -> 12
+    private String getRootCaseID(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '.' || c == ':') return id.substring(0, i);
+        }
+        return id;
+    }
+
+
+    private long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+
+    private void move(File from, File to) throws IOException {
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /*******************************************************************************/
+
+    /**
+     * The state of the engine's cases as read from a snapshot and its log
+     */
+    static class Image {
+
+        private final long _generation;
+        private final Map<String, CaseState> _cases = new HashMap<String, CaseState>();
+        private int _nextCaseNbr;
+        private int _runnerCount;
+        private int _workItemCount;
+
+        Image(long generation) {
+            _generation = generation;
+        }
+
+        int getCaseCount() { return _cases.size(); }
+
+        int getNextCaseNbr() { return _nextCaseNbr; }
+
+        int getRunnerCount() { return _runnerCount; }
+
+        int getWorkItemCount() { return _workItemCount; }
+
+
+        /**
+         * @return the exported xml of each case, inflated as it is iterated
+         */
+        Iterable<String> getCases() {
+            return new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    final Iterator<CaseState> itr = _cases.values().iterator();
+                    return new Iterator<String>() {
+                        public boolean hasNext() { return itr.hasNext(); }
+
+                        public String next() { return itr.next().getXML(); }
+
+                        public void remove() { throw new UnsupportedOperationException(); }
+                    };
+                }
+            };
+        }
+    }
+
+
+    // the exported state of a root case, deflated
+    private static class CaseState {
+
+        final String caseID;
+        final int runnerCount;
+        final int workItemCount;
+        final byte[] data;
+
+        CaseState(String id, int runners, int workItems, byte[] bytes) {
+            caseID = id;
+            runnerCount = runners;
+            workItemCount = workItems;
+            data = bytes;
+        }
+
+        CaseState(String id, XNode caseNode) throws IOException {
+            this(id, caseNode.getChild("runners").getChildCount(),
+                    caseNode.getChild("workitems").getChildCount(),
+                    deflate(caseNode.toString()));
+        }
+
+
+        static CaseState read(DataInputStream in) throws IOException {
+            String id = in.readUTF();
+            int runners = in.readInt();
+            int workItems = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new CaseState(id, runners, workItems, bytes);
+        }
+
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(caseID);
+            out.writeInt(runnerCount);
+            out.writeInt(workItemCount);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 32);
+            write(new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        }
+
+
+        String getXML() {
+            try {
+                InflaterInputStream in = new InflaterInputStream(
+                        new ByteArrayInputStream(data));
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) > 0) out.write(buffer, 0, len);
+                return out.toString("UTF-8");
+            }
+            catch (IOException ioe) {
+                throw new IllegalStateException("Corrupt snapshot of case " + caseID, ioe);
+            }
+        }
+
+
+        private static byte[] deflate(String xml) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(xml.length() / 4);
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+            out.write(xml.getBytes("UTF-8"));
+            out.close();
+            return bytes.toByteArray();
+        }
+    }
+
+}
@@ -82,6 +82,15 @@ public class YNetRunner {
     private ExecutionStatus _executionStatus;
     private Set<YAnnouncement> _announcements;
 
+    // the marking and active tasks seen by the last continuation, used to limit the
+    // enablement checks of the next continuation to those tasks affected by a change
+    private Set<YTask> _orJoinTasks;
+    private Map<YNetElement, Integer> _lastMarking;
+    private Set<YTask> _lastActiveTasks;
+
+    // when true, every task is checked for enablement on each continuation (for testing)
+    private boolean _fullEnablementScan;
+
     // used to persist observers
     private String _caseObserverStr = null ;
 
@@ -145,9 +154,9 @@ public class YNetRunner {
         _caseIDForNet = caseIDForNet;
         _caseID = _caseIDForNet.toString();
         _netdata = new YNetData(_caseID);
-        _net = (YNet) netPrototype.clone();
+        _net = netPrototype.cloneForCase();
         _net.initializeDataStore(pmgr, _netdata);
-        _netTasks = new HashSet<YTask>(_net.getNetTasks());
+        initNetTasks();
         _specID = _net.getSpecification().getSpecificationID();
         _startTime = System.currentTimeMillis();
         prepare(pmgr);
@@ -204,7 +213,17 @@ public class YNetRunner {
         _net = net;
         _specID = net.getSpecification().getSpecificationID();
         _net.restoreData(_netdata);
+        initNetTasks();
+    }
+
+
+    private void initNetTasks() {
         _netTasks = new HashSet<YTask>(_net.getNetTasks());
+        _orJoinTasks = new HashSet<YTask>();
+        for (YTask task : _netTasks) {
+            if (task.getJoinType() == YTask._OR) _orJoinTasks.add(task);
+        }
+        _lastMarking = null;                   // forces a full scan on next continuation
     }
 
     public YNet getNet() {
@@ -549,28 +568,20 @@ public class YNetRunner {
         // storage for the running set of enabled tasks
         YEnabledTransitionSet enabledTransitions = new YEnabledTransitionSet();
 
-        // iterate through the full set of tasks for the net
-        for (YTask task : _netTasks) {
-
-            // if this task is an enabled 'transition'
-            if (task.t_enabled(_caseIDForNet)) {
-                if (! (_enabledTasks.contains(task) || _busyTasks.contains(task)))
-                    enabledTransitions.add(task) ;
-            }
-            else {
+        // iterate through the tasks that may have changed enablement since last time
+        Set<YTask> tasksToCheck = getTasksToCheck();
+        for (YTask task : tasksToCheck) {
+            checkEnablement(task, enabledTransitions, pmgr);
+        }
 
-                // if the task is not (or no longer) an enabled transition, and it
-                // has been previously enabled by the engine, then it must be withdrawn
-                if (_enabledTasks.contains(task)) {
-                    withdrawEnabledTask(task, pmgr);
+        // when debugging, verify that the unchecked tasks are indeed unaffected
+        if (_logger.isDebugEnabled() && (tasksToCheck != _netTasks)) {
+            for (YTask task : _netTasks) {
+                if (! tasksToCheck.contains(task) && isEnablementChanged(task)) {
+                    _logger.error("Enablement of task '{}' in case {} changed but was " +
+                            "not rechecked", task.getID(), _caseID);
                 }
             }
-
-            if (task.t_isBusy() && !_busyTasks.contains(task)) {
-                _logger.error("Throwing RTE for lists out of sync");
-                throw new RuntimeException("Busy task list out of synch with a busy task: "
-                        + task.getID() + " busy tasks: " + _busyTasks);
-            }
         }
 
         // fire the set of enabled 'transitions' (if any)
@@ -583,6 +594,122 @@ public class YNetRunner {
     }
 
 
+    /**
+     * Checks whether a task has become enabled, or has been disabled, and either
+     * adds it to the set of enabled transitions or withdraws it accordingly.
+     * @return true if the task was added to the set or withdrawn
+     */
+    private boolean checkEnablement(YTask task, YEnabledTransitionSet enabledTransitions,
+                                    YPersistenceManager pmgr)
+            throws YPersistenceException {
+        boolean changed = false;
+
+        // if this task is an enabled 'transition'
+        if (task.t_enabled(_caseIDForNet)) {
+            if (! (_enabledTasks.contains(task) || _busyTasks.contains(task))) {
+                enabledTransitions.add(task);
+                changed = true;
+            }
+        }
+        else {
+
+            // if the task is not (or no longer) an enabled transition, and it
+            // has been previously enabled by the engine, then it must be withdrawn
+            if (_enabledTasks.contains(task)) {
+                withdrawEnabledTask(task, pmgr);
+                changed = true;
+            }
+        }
+
+        if (task.t_isBusy() && !_busyTasks.contains(task)) {
+            _logger.error("Throwing RTE for lists out of sync");
+            throw new RuntimeException("Busy task list out of synch with a busy task: "
+                    + task.getID() + " busy tasks: " + _busyTasks);
+        }
+        return changed;
+    }
+
+
+    /**
+     * Checks, without acting on it, whether a task has become enabled or disabled
+     * since it was last checked by checkEnablement
+     * @return true if the task's enablement has changed
+     */
+    private boolean isEnablementChanged(YTask task) {
+        if (task.t_enabled(_caseIDForNet)) {
+            return ! (_enabledTasks.contains(task) || _busyTasks.contains(task));
+        }
+        return _enabledTasks.contains(task);
+    }
+
+
+    /**
+     * A task's enablement can only change if the marking of one of its preset
+     * conditions has changed, if it has started or finished being busy, or (for an
+     * OR-join) if the marking has changed anywhere in the net. Both busy tasks and
+     * marked conditions appear as locations of this net's identifier, so comparing
+     * those locations (and the active tasks) with the ones seen at the previous call
+     * yields the tasks that need rechecking.
+     * @return the tasks to check for enablement (all tasks on the first call)
+     */
+    private Set<YTask> getTasksToCheck() {
+        Map<YNetElement, Integer> marking = new HashMap<YNetElement, Integer>();
+        for (YNetElement location : _caseIDForNet.getLocations()) {
+            Integer count = marking.get(location);
+            marking.put(location, count == null ? 1 : count + 1);
+        }
+        Set<YTask> activeTasks = getActiveTasks();
+
+        Set<YTask> tasksToCheck;
+        if (_lastMarking == null || _fullEnablementScan) {
+            tasksToCheck = _netTasks;
+        }
+        else {
+            tasksToCheck = new HashSet<YTask>();
+            Set<YNetElement> changed = new HashSet<YNetElement>(marking.keySet());
+            changed.addAll(_lastMarking.keySet());
+            for (YNetElement element : changed) {
+                Integer count = marking.get(element);
+                Integer lastCount = _lastMarking.get(element);
+                if (count == null || ! count.equals(lastCount)) {
+                    addAffectedTasks(element, tasksToCheck);
+                }
+            }
+            for (YTask task : activeTasks) {
+                if (! _lastActiveTasks.contains(task)) tasksToCheck.add(task);
+            }
+            for (YTask task : _lastActiveTasks) {
+                if (! activeTasks.contains(task)) tasksToCheck.add(task);
+            }
+            if (! tasksToCheck.isEmpty()) tasksToCheck.addAll(_orJoinTasks);
+        }
+
+        // changes made from here on will be seen by the next call
+        _lastMarking = marking;
+        _lastActiveTasks = activeTasks;
+        return tasksToCheck;
+    }
+
+
+    private void addAffectedTasks(YNetElement element, Set<YTask> tasks) {
+        if (element instanceof YTask) {
+            tasks.add((YTask) element);
+        }
+        else if (element instanceof YCondition) {
+            for (YExternalNetElement postElement :
+                    ((YCondition) element).getPostsetElements()) {
+                if (postElement instanceof YTask) tasks.add((YTask) postElement);
+            }
+        }
+    }
+
+
+    // for testing: when true, every task is checked on each continuation
+    void setFullEnablementScan(boolean fullScan) {
+        _fullEnablementScan = fullScan;
+    }
+
+
     private void fireTasks(YEnabledTransitionSet enabledSet, YPersistenceManager pmgr)
             throws YDataStateException, YStateException, YQueryException,
                    YPersistenceException {
@@ -69,6 +69,7 @@ public class YPersistenceManager {
     protected static SessionFactory factory = null;
     private boolean restoring = false;
     private boolean enabled = false;
+    private ChangeListener changeListener;
 
     /**
      * Constructor
@@ -108,6 +109,13 @@ public class YPersistenceManager {
     public boolean isEnabled() { return enabled && (factory != null); }
 
 
+    /**
+     * Sets a listener to be told of each object stored, updated or deleted
+     * @param listener the listener, or null to remove the current one
+     */
+    public void setChangeListener(ChangeListener listener) { changeListener = listener; }
+
+
     public SessionFactory getFactory() {
         return factory;
     }
@@ -206,6 +214,7 @@ public class YPersistenceManager {
         if ((!restoring) && isEnabled()) {
             logger.debug("Adding to insert cache: Type={}", obj.getClass().getName());
             doPersistAction(obj, INSERT);
+            notifyChange(obj);
         }
     }
 
@@ -219,6 +228,7 @@ public class YPersistenceManager {
         if ((!restoring) && isEnabled()) {
             logger.debug("Adding to update cache: Type={}", obj.getClass().getName());
             doPersistAction(obj, UPDATE);
+            notifyChange(obj);
         }
     }
 
@@ -246,6 +256,7 @@ public class YPersistenceManager {
         } catch (HibernateException he) {
             // nothing to do
         }
+        notifyChange(obj);
         logger.debug("<-- delete");
     }
 
@@ -261,6 +272,12 @@ public class YPersistenceManager {
     }
 
 
+    private void notifyChange(Object obj) {
+        ChangeListener listener = changeListener;
+        if (listener != null) listener.objectChanged(obj);
+    }
+
+
     private boolean isActiveTransaction() {
         Transaction transaction = getTransaction();
         return (transaction != null) && transaction.isActive();
@@ -300,7 +317,8 @@ public class YPersistenceManager {
     }
 
 
-    private synchronized void doPersistAction(Object obj, boolean update)
+    // sessions are bound to the current thread, so no synchronisation is required here
+    private void doPersistAction(Object obj, boolean update)
             throws YPersistenceException {
 
             logger.debug("--> doPersistAction: Mode={}; Object = {}:{}; Object identity = {}",
@@ -460,4 +478,13 @@ public class YPersistenceManager {
         return selectScalar(className, field, String.valueOf(value));
     }
 
+
+    /**
+     * Receives each object stored, updated or deleted, on the thread that changed it
+     */
+    public interface ChangeListener {
+
+        void objectChanged(Object obj);
+    }
+
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine;
+
+import org.yawlfoundation.yawl.util.XNode;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the progress of a restore of the engine's persisted state, when the engine
+ * starts or is promoted from redundant mode, so that it can be queried while the
+ * restore is under way.
+ */
+public class YRestoreProgress {
+
+    public enum Phase { NotStarted, Services, Specifications, Cases, WorkItems, Timers,
+        Restarting, Complete, Failed }
+
+    private volatile Phase _phase = Phase.NotStarted;
+    private volatile long _startTime;
+    private volatile long _phaseStartTime;
+    private volatile long _endTime;
+    private volatile int _caseCount;
+    private volatile int _workItemCount;
+    private final AtomicInteger _specifications = new AtomicInteger();
+    private final AtomicInteger _casesRestored = new AtomicInteger();
+    private final AtomicInteger _workItemsRestored = new AtomicInteger();
+    private final Map<Phase, Long> _phaseTimes = new EnumMap<Phase, Long>(Phase.class);
+
+
+    public YRestoreProgress() { }
+
+
+    /**
+     * Moves the restore on to a phase, recording the time taken by the previous one
+     * @param phase the phase now started
+     */
+    public synchronized void setPhase(Phase phase) {
+        long now = System.currentTimeMillis();
+        if (_phase == Phase.NotStarted) {
+            _startTime = now;
+        }
+        else if (_phase != Phase.Complete && _phase != Phase.Failed) {
+            _phaseTimes.put(_phase, now - _phaseStartTime);
+        }
+        if (phase == Phase.Complete || phase == Phase.Failed) _endTime = now;
+        _phaseStartTime = now;
+        _phase = phase;
+    }
+
+
+    public Phase getPhase() { return _phase; }
+
+    public boolean isComplete() { return _phase == Phase.Complete; }
+
+
+    public void specificationRestored() { _specifications.incrementAndGet(); }
+
+    public int getSpecificationCount() { return _specifications.get(); }
+
+
+    public void setCaseCount(int count) { _caseCount = count; }
+
+    public int getCaseCount() { return _caseCount; }
+
+    public void caseRestored() { _casesRestored.incrementAndGet(); }
+
+    public int getCasesRestored() { return _casesRestored.get(); }
+
+
+    public void setWorkItemCount(int count) { _workItemCount = count; }
+
+    public int getWorkItemCount() { return _workItemCount; }
+
+    public void workItemRestored() { _workItemsRestored.incrementAndGet(); }
+
+    public int getWorkItemsRestored() { return _workItemsRestored.get(); }
+
+
+    /**
+     * @return the msecs since the restore started, or that it took if it has ended
+     */
+    public long getElapsedTime() {
+        if (_phase == Phase.NotStarted) return 0;
+        return (_endTime > 0 ? _endTime : System.currentTimeMillis()) - _startTime;
+    }
+
+
+    public synchronized String toXML() {
+        XNode root = new XNode("restoreProgress");
+        root.addAttribute("phase", _phase.name());
+        root.addChild("elapsed", getElapsedTime());
+        root.addChild("specifications", getSpecificationCount());
+        XNode cases = root.addChild("cases");
+        cases.addAttribute("restored", getCasesRestored());
+        cases.addAttribute("total", getCaseCount());
+        XNode items = root.addChild("workitems");
+        items.addAttribute("restored", getWorkItemsRestored());
+        items.addAttribute("total", getWorkItemCount());
+        XNode phases = root.addChild("phases");
+        for (Phase phase : _phaseTimes.keySet()) {
+            XNode phaseNode = phases.addChild("phase", _phaseTimes.get(phase));
+            phaseNode.addAttribute("name", phase.name());
+        }
+        return root.toString();
+    }
+
+}
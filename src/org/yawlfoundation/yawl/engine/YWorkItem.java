@@ -27,6 +27,7 @@ import org.yawlfoundation.yawl.authentication.YClient;
 import org.yawlfoundation.yawl.elements.*;
 import org.yawlfoundation.yawl.elements.data.YParameter;
 import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.engine.time.YTimer;
 import org.yawlfoundation.yawl.engine.time.YWorkItemTimer;
 import org.yawlfoundation.yawl.exceptions.YPersistenceException;
@@ -147,11 +148,11 @@ public class YWorkItem {
                                 boolean allowsDynamicInstanceCreation)
                                 throws YPersistenceException {
         _workItemID = workItemID;
-        addToRepository();
         set_thisID(_workItemID.toString() + "!" + _workItemID.getUniqueID());
         _specID = specificationID;
         _allowsDynamicCreation = allowsDynamicInstanceCreation;
         _status = status ;
+        addToRepository();                       // once its indexed values are set
     }
 
 
@@ -728,7 +729,7 @@ public class YWorkItem {
     public String get_status() { return _status.toString(); }
 
     public void set_status(String status) {                         // for hibernate
-        _status = YWorkItemStatus.fromString(status);
+        setStatus(YWorkItemStatus.fromString(status));
     }
 
     public String get_prevStatus() {
@@ -743,7 +744,7 @@ public class YWorkItem {
     private void set_status(YPersistenceManager pmgr, YWorkItemStatus status)
                                                          throws YPersistenceException {
         _engine.getAnnouncer().announceWorkItemStatusChange(this, _status, status);
-        _status = status;
+        setStatus(status);
         if (pmgr != null) pmgr.updateObject(this);
     }
 
@@ -766,7 +767,11 @@ public class YWorkItem {
         _dataString = getDataString();
     }
 
-    public void setStatus(YWorkItemStatus status) { _status = status; }
+    public void setStatus(YWorkItemStatus status) {
+        YWorkItemStatus oldStatus = _status;
+        _status = status;
+        _workItemRepository.statusChanged(this, oldStatus);     // keep index current
+    }
 
     public YWorkItemID getWorkItemID() { return _workItemID; }
 
@@ -925,6 +930,72 @@ public class YWorkItem {
         return xml.toString();
     }
 
+
+    /**
+     * Creates the record a client would build from this item's XML form, without
+     * the XML. The record shares this item's data element rather than a copy of it,
+     * so is intended to be serialised straight away.
+     * @return a record of this work item
+     */
+    public WorkItemRecord toWorkItemRecord() {
+        WorkItemRecord wir = new WorkItemRecord(getCaseID().toString(), getTaskID(),
+                orEmpty(_specID.getUri()), _status.toString());
+        Map<String, String> attributes = new YAttributeMap();
+        if (_attributes != null) {
+            for (String key : _attributes.keySet()) {
+                attributes.put(key, _attributes.get(key));
+            }
+        }
+        wir.setExtendedAttributes(attributes);
+        wir.setUniqueID(orEmpty(getUniqueID()));
+        wir.setTaskName(orEmpty(_task.getName()));
+        wir.setDocumentation(orEmpty(getDocumentation()));
+        wir.setSpecIdentifier(_specID.getIdentifier());
+        wir.setSpecVersion(String.valueOf(_specID.getVersion()));
+        wir.setAllowsDynamicCreation(String.valueOf(_allowsDynamicCreation));
+        wir.setRequiresManualResourcing(String.valueOf(_requiresManualResourcing));
+        wir.setCodelet(orEmpty(_codelet));
+        wir.setDeferredChoiceGroupID(_deferredChoiceGroupID);
+        wir.setDataList(_dataList);
+        wir.setEnablementTimeMs(String.valueOf(getEnablementTime().getTime()));
+        if (getFiringTime() != null) {
+            wir.setFiringTimeMs(String.valueOf(getFiringTime().getTime()));
+        }
+        if (getStartTime() != null) {
+            wir.setStartTimeMs(String.valueOf(getStartTime().getTime()));
+            if (_externalClient != null) {
+                wir.setStartedBy(_externalClient.getUserName());
+            }
+        }
+        if (_timerParameters != null) {
+            long expiry = _timerExpiry > 0 ? _timerExpiry : _parent != null ?
+                    _parent.getTimerExpiry() : 0;
+            YWorkItemTimer.Trigger trigger = _timerParameters.getTrigger();
+            if (trigger != null && expiry > 0) {
+                wir.setTimerTrigger(trigger.name());
+                wir.setTimerExpiry(String.valueOf(expiry));
+            }
+        }
+        if (_customFormURL != null) {
+            wir.setCustomFormURL(_customFormURL.toString());
+        }
+        YDecomposition decomp = _task.getDecompositionPrototype();
+        if (decomp != null) {
+            YLogPredicate logPredicate = decomp.getLogPredicate();
+            if (logPredicate != null) {
+                wir.setLogPredicateStarted(logPredicate.getStartPredicate());
+                wir.setLogPredicateCompletion(logPredicate.getCompletionPredicate());
+            }
+        }
+        return wir;
+    }
+
+
+    // elements always written to the xml are read back as empty when null
+    private String orEmpty(String s) {
+        return s != null ? s : "";
+    }
+
     
     private YLogDataItemList createLogDataList(String tag) {
         YLogDataItemList itemList = new YLogDataItemList();
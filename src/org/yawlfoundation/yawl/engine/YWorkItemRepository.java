@@ -32,6 +32,11 @@ import static org.yawlfoundation.yawl.engine.YWorkItemStatus.*;
 
 /**
  * A cache of active workitems.
+ * <p/>
+ * As well as by id, the items are indexed by status, by root case and by
+ * specification and task, so that queries on those return their items without
+ * scanning the whole cache. The status index is kept current by the items as their
+ * status changes (see {@link #statusChanged}).
  * 
  * @author Lachlan Aldred
  * Date: 30/05/2003
@@ -44,15 +49,55 @@ public class YWorkItemRepository {
     private final Map<String, YWorkItem> _itemMap; //[case&taskIDStr=YWorkItem]
     private final Logger _logger;
 
+    // secondary indexes
+    private final Map<YWorkItemStatus, Set<YWorkItem>> _statusIndex;
+    private final Map<String, Set<YWorkItem>> _caseIndex;      // [root case id, items]
+    private final Map<SpecTaskKey, Set<YWorkItem>> _specTaskIndex;
+    private final Object _indexLock = new Object();
+
     public YWorkItemRepository() {
         _itemMap = new ConcurrentHashMap<String, YWorkItem>(500);
         _logger = LogManager.getLogger(YWorkItemRepository.class);
+        _statusIndex = new EnumMap<YWorkItemStatus, Set<YWorkItem>>(YWorkItemStatus.class);
+        for (YWorkItemStatus status : YWorkItemStatus.values()) {
+            _statusIndex.put(status, newItemSet());
+        }
+        _caseIndex = new ConcurrentHashMap<String, Set<YWorkItem>>();
+        _specTaskIndex = new ConcurrentHashMap<SpecTaskKey, Set<YWorkItem>>();
     }
 
 
     protected YWorkItem add(YWorkItem workItem) {
         _logger.debug("--> YWorkItemRepository#add: {}", workItem.getIDString());
-        return _itemMap.put(workItem.getIDString(), workItem);
+        synchronized (_indexLock) {
+            YWorkItem previous = _itemMap.put(workItem.getIDString(), workItem);
+            if (previous != workItem) {
+                if (previous != null) unindex(previous, previous.getStatus());
+                index(workItem);
+            }
+            return previous;
+        }
+    }
+
+
+    /**
+     * Moves an item to the index of its new status. Called by the item each time its
+     * status changes.
+     * @param workItem the item
+     * @param oldStatus the item's status before the change
+     */
+    protected void statusChanged(YWorkItem workItem, YWorkItemStatus oldStatus) {
+        if (workItem.getStatus() == oldStatus || workItem.getWorkItemID() == null) {
+            return;                                     // unchanged, or being restored
+        }
+        synchronized (_indexLock) {
+            if (_itemMap.get(workItem.getIDString()) == workItem) {   // not yet added
+                if (oldStatus != null) _statusIndex.get(oldStatus).remove(workItem);
+                if (workItem.getStatus() != null) {
+                    _statusIndex.get(workItem.getStatus()).add(workItem);
+                }
+            }
+        }
     }
 
 
@@ -68,10 +113,27 @@ public class YWorkItemRepository {
 
     public YWorkItem remove(YWorkItem workItem) {
         _logger.debug("--> YWorkItemRepository#remove: {}", workItem.getIDString());
-        return _itemMap.remove(workItem.getIDString());
+        return remove(workItem.getIDString());
     }
 
-    public void clear() { _itemMap.clear(); }
+
+    private YWorkItem remove(String itemID) {
+        synchronized (_indexLock) {
+            YWorkItem removed = _itemMap.remove(itemID);
+            if (removed != null) unindex(removed, removed.getStatus());
+            return removed;
+        }
+    }
+
+
+    public void clear() {
+        synchronized (_indexLock) {
+            _itemMap.clear();
+            for (Set<YWorkItem> items : _statusIndex.values()) items.clear();
+            _caseIndex.clear();
+            _specTaskIndex.clear();
+        }
+    }
 
 
     public Set<YWorkItem> removeWorkItemFamily(YWorkItem workItem) {
@@ -97,7 +159,7 @@ public class YWorkItemRepository {
      */
     public Set<YWorkItem> cancelNet(YIdentifier caseIDForNet) {
         Set<String> itemsToRemove = new HashSet<String>();
-        for (YWorkItem item : _itemMap.values()) {
+        for (YWorkItem item : getIndexed(_caseIndex, getRootCaseID(caseIDForNet))) {
             YIdentifier identifier = item.getWorkItemID().getCaseID();
             if (identifier.isImmediateChildOf(caseIDForNet) ||
                     identifier.toString().equals(caseIDForNet.toString())) {
@@ -112,7 +174,7 @@ public class YWorkItemRepository {
     private Set<YWorkItem> removeItems(Set<String> itemsToRemove) {
         Set<YWorkItem> removedSet = new HashSet<YWorkItem>();
         for (String workItemID : itemsToRemove) {
-            YWorkItem item = _itemMap.remove(workItemID);
+            YWorkItem item = remove(workItemID);
             if (item != null) removedSet.add(item);
         }
         return removedSet;
@@ -141,7 +203,7 @@ public class YWorkItemRepository {
 
     public Set<YWorkItem> getExecutingWorkItems(String serviceName) {
         Set<YWorkItem> executingItems = new HashSet<YWorkItem>();
-        for (YWorkItem workitem : getWorkItems(statusExecuting)) {
+        for (YWorkItem workitem : _statusIndex.get(statusExecuting)) {
             if (workitem.getExternalClient().getUserName().equals(serviceName)) {
                 executingItems.add(workitem);
             }
@@ -156,13 +218,7 @@ public class YWorkItemRepository {
 
 
     public Set<YWorkItem> getWorkItems(YWorkItemStatus status) {
-        Set<YWorkItem> itemSet = new HashSet<YWorkItem>();
-        for (YWorkItem workitem : _itemMap.values()) {
-            if (workitem.getStatus() == status) {
-                itemSet.add(workitem);
-            }
-        }
-        return itemSet;
+        return new HashSet<YWorkItem>(_statusIndex.get(status));
     }
 
 
@@ -174,24 +230,42 @@ public class YWorkItemRepository {
 
     // check that the items in the repository are in synch with the engine
     public void cleanseRepository() {
+        cleanse(_itemMap.values());
+    }
+
+
+    // removes any of the items that are out of synch with the engine
+    // returns the items that remain
+    private Set<YWorkItem> cleanse(Collection<YWorkItem> items) {
         Set<String> itemsToRemove = new HashSet<String>();
-        for (YWorkItem workitem : _itemMap.values()) {
-            YNetRunner runner = YEngine.getInstance().getNetRunnerRepository().get(workitem);
-
-            if (runner != null) {                                      //MLF can be null
-                boolean foundOne = false;
-                for (YTask task : runner.getActiveTasks()) {
-                    if (task.getID().equals(workitem.getTaskID())) {
-                        foundOne = true;
-                        break;
-                    }
-                }
+        for (YWorkItem workitem : items) {
+            if (! isActive(workitem)) {
 
                 //clean up all the work items that are out of synch with the engine.
-                if (! foundOne) itemsToRemove.add(workitem.getIDString());
+                itemsToRemove.add(workitem.getIDString());
             }
         }
-        if (! itemsToRemove.isEmpty()) removeItems(itemsToRemove);
+        Set<YWorkItem> remaining = new HashSet<YWorkItem>(items);
+        if (! itemsToRemove.isEmpty()) remaining.removeAll(removeItems(itemsToRemove));
+        return remaining;
+    }
+
+
+    // an item is out of synch if its runner no longer has its task active. The runner
+    // is read under its case's lock, so that it is not read while another thread is
+    // progressing the case
+    private boolean isActive(YWorkItem workitem) {
+        YEngine engine = YEngine.getInstance();
+        synchronized (engine.getCaseLock(workitem.getCaseID().toString())) {
+            YNetRunner runner = engine.getNetRunnerRepository().get(workitem);
+            if (runner == null) return true;                           //MLF can be null
+            for (YTask task : runner.getActiveTasks()) {
+                if (task.getID().equals(workitem.getTaskID())) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
 
@@ -225,19 +299,8 @@ public class YWorkItemRepository {
             throw new IllegalArgumentException("the argument <caseID> is not valid.");
         }
         
-        List<YWorkItem> caseItems = new ArrayList<YWorkItem>();
-        for (YWorkItem item : getWorkItems()) {
-            YWorkItemID wid = item.getWorkItemID();
-
-            //get the root id for this work item's case
-            YIdentifier rootCaseID = wid.getCaseID().getRootAncestor();
-
-            //if a work item's root case id matches case passed in save it
-            if (rootCaseID.toString().equals(caseID.toString())) {
-                caseItems.add(item);
-            }
-        }
-        return caseItems;
+        return new ArrayList<YWorkItem>(
+                cleanse(getIndexed(_caseIndex, caseID.toString())));
     }
 
 
@@ -245,16 +308,27 @@ public class YWorkItemRepository {
         Set<YWorkItem> matches = new HashSet<YWorkItem>() ;
 
         // find out which items belong to the specified case/spec/task
-        for (YWorkItem item : getWorkItems()) {
-            if ((idType.equalsIgnoreCase("spec") &&
-                 item.getSpecificationID().getUri().equals(id)) ||
-                (idType.equalsIgnoreCase("case") &&
-                 (item.getCaseID().toString().equals(id) ||
-                  item.getCaseID().toString().startsWith(id + "."))) ||
-                (idType.equalsIgnoreCase("task") && item.getTaskID().equals(id)))
-
-                matches.add(item);
+        if (idType.equalsIgnoreCase("case")) {
+            int dotPos = id.indexOf('.');
+            String rootID = dotPos > -1 ? id.substring(0, dotPos) : id;
+            for (YWorkItem item : getIndexed(_caseIndex, rootID)) {
+                if (item.getCaseID().toString().equals(id) ||
+                        item.getCaseID().toString().startsWith(id + ".")) {
+                    matches.add(item);
+                }
+            }
         }
+        else {
+            boolean bySpec = idType.equalsIgnoreCase("spec");
+            if (bySpec || idType.equalsIgnoreCase("task")) {
+                for (SpecTaskKey key : _specTaskIndex.keySet()) {
+                    if (bySpec ? key.hasSpecURI(id) : key.taskID.equals(id)) {
+                        matches.addAll(getIndexed(_specTaskIndex, key));
+                    }
+                }
+            }
+        }
+        if (! matches.isEmpty()) matches = cleanse(matches);
         if (matches.isEmpty()) matches = null ;
         return matches ;
     }
@@ -264,19 +338,70 @@ public class YWorkItemRepository {
         Set<YWorkItem> matches = new HashSet<YWorkItem>();
         YAWLServiceReference defWorklist = YEngine.getInstance().getDefaultWorklist();
 
-        // find out which items belong to the specified service
-        for (YWorkItem item : getWorkItems()) {
-            YAWLServiceGateway gateway =
-                     ((YAWLServiceGateway) item.getTask().getDecompositionPrototype());
+        // find out which items belong to the specified service - all the items of a
+        // task share the task's decomposition, so each task need only be checked once
+        for (SpecTaskKey key : _specTaskIndex.keySet()) {
+            Set<YWorkItem> taskItems = getIndexed(_specTaskIndex, key);
+            if (taskItems.isEmpty()) continue;
+            YTask task = taskItems.iterator().next().getTask();
+            YAWLServiceGateway gateway = (task != null) ?
+                     ((YAWLServiceGateway) task.getDecompositionPrototype()) : null;
             if (gateway != null) {
                 YAWLServiceReference service = gateway.getYawlService();
                 if (service == null) service = defWorklist;
                 if ((service != null) && (service.getURI().equals(serviceURI))) {
-                    matches.add(item);
+                    matches.addAll(taskItems);
+                }
+            }
+        }
+        return matches.isEmpty() ? matches : cleanse(matches);
+    }
+
+
+    /**
+     * Checks the secondary indexes against the items in the repository. Each item
+     * must be in exactly the index entries that match its status, case, specification
+     * and task, and the indexes must hold no other items.
+     * @return a description of each inconsistency found (an empty list if none)
+     */
+    public List<String> checkIndexes() {
+        List<String> problems = new ArrayList<String>();
+        synchronized (_indexLock) {
+            int statusCount = 0;
+            for (YWorkItemStatus status : _statusIndex.keySet()) {
+                for (YWorkItem item : _statusIndex.get(status)) {
+                    statusCount++;
+                    if (item.getStatus() != status) {
+                        problems.add(item.getIDString() + " is indexed as " + status +
+                                " but is " + item.getStatus());
+                    }
+                }
+            }
+            problems.addAll(checkIndex("case", _caseIndex));
+            problems.addAll(checkIndex("spec/task", _specTaskIndex));
+            int withStatus = 0;
+            for (YWorkItem item : _itemMap.values()) {
+                if (item.getStatus() != null) {
+                    withStatus++;
+                    if (! _statusIndex.get(item.getStatus()).contains(item)) {
+                        problems.add(item.getIDString() + " is missing from the " +
+                                item.getStatus() + " index");
+                    }
                 }
+                if (! getIndexed(_caseIndex, getRootCaseID(item)).contains(item)) {
+                    problems.add(item.getIDString() + " is missing from the case index");
+                }
+                if (! getIndexed(_specTaskIndex, new SpecTaskKey(item)).contains(item)) {
+                    problems.add(item.getIDString() +
+                            " is missing from the spec/task index");
+                }
+            }
+            if (statusCount != withStatus) {
+                problems.add("The status index holds " + statusCount + " items, the " +
+                        "repository " + withStatus);
             }
         }
-        return matches;
+        return problems;
     }
 
 
@@ -295,4 +420,108 @@ public class YWorkItemRepository {
         logger.debug("*** DUMP OF CASE_2_NETRUNNER_MAP ENDS");
     }
 
+
+    private void index(YWorkItem item) {
+        if (item.getStatus() != null) _statusIndex.get(item.getStatus()).add(item);
+        addToIndex(_caseIndex, getRootCaseID(item), item);
+        addToIndex(_specTaskIndex, new SpecTaskKey(item), item);
+    }
+
+
+    private void unindex(YWorkItem item, YWorkItemStatus status) {
+        if (status != null) _statusIndex.get(status).remove(item);
+        removeFromIndex(_caseIndex, getRootCaseID(item), item);
+        removeFromIndex(_specTaskIndex, new SpecTaskKey(item), item);
+    }
+
+
+    private <K> void addToIndex(Map<K, Set<YWorkItem>> index, K key, YWorkItem item) {
+        Set<YWorkItem> items = index.get(key);
+        if (items == null) {
+            items = newItemSet();
+            index.put(key, items);
+        }
+        items.add(item);
+    }
+
+
+    private <K> void removeFromIndex(Map<K, Set<YWorkItem>> index, K key,
+                                     YWorkItem item) {
+        Set<YWorkItem> items = index.get(key);
+        if (items != null) {
+            items.remove(item);
+            if (items.isEmpty()) index.remove(key);
+        }
+    }
+
+
+    private <K> Set<YWorkItem> getIndexed(Map<K, Set<YWorkItem>> index, K key) {
+        Set<YWorkItem> items = index.get(key);
+        return items != null ? items : Collections.<YWorkItem>emptySet();
+    }
+
+
+    // each indexed item must be in the repository
+    private <K> List<String> checkIndex(String name, Map<K, Set<YWorkItem>> index) {
+        List<String> problems = new ArrayList<String>();
+        for (K key : index.keySet()) {
+            Set<YWorkItem> items = index.get(key);
+            if (items.isEmpty()) problems.add("Empty " + name + " index entry " + key);
+            for (YWorkItem item : items) {
+                if (_itemMap.get(item.getIDString()) != item) {
+                    problems.add(item.getIDString() + " is in the " + name +
+                            " index but not in the repository");
+                }
+            }
+        }
+        return problems;
+    }
+
+
+    private String getRootCaseID(YWorkItem item) {
+        return getRootCaseID(item.getWorkItemID().getCaseID());
+    }
+
+
+    private String getRootCaseID(YIdentifier caseID) {
+        return caseID.getRootAncestor().toString();
+    }
+
+
+    private Set<YWorkItem> newItemSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<YWorkItem, Boolean>());
+    }
+
+
+    /*******************************************************************************/
+
+    // identifies the items of a task in a specification
+    private static class SpecTaskKey {
+
+        final YSpecificationID specID;
+        final String taskID;
+
+        SpecTaskKey(YWorkItem item) {
+            specID = item.getSpecificationID();
+            taskID = item.getTaskID();
+        }
+
+        boolean hasSpecURI(String uri) {
+            return specID != null && uri.equals(specID.getUri());
+        }
+
+        public boolean equals(Object o) {
+            if (! (o instanceof SpecTaskKey)) return false;
+            SpecTaskKey other = (SpecTaskKey) o;
+            return (specID != null ? specID.equals(other.specID) : other.specID == null)
+                    && taskID.equals(other.taskID);
+        }
+
+        public int hashCode() {
+            return 31 * (specID != null ? specID.hashCode() : 0) + taskID.hashCode();
+        }
+
+        public String toString() { return specID + ":" + taskID; }
+    }
+
 }
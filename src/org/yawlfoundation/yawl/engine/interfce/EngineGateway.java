@@ -53,8 +53,21 @@ public interface EngineGateway extends Remote {
 
     void setAllowAdminID(boolean allow);
 
+    void setCaseLevelLocking(boolean enable);
+
+    void setNetStructureSharing(boolean share);
+
+    void setXQueryCacheSize(int size);
+
+    void setAnnouncementBatching(int maxBatchSize, int maxBatchDelay);
+
+    void configureAnnouncementQueues(int capacity, String overflowPolicy,
+                                     String directory, boolean journal);
+
     void disableLogging();
 
+    void setProcessLogBatching(int batchSize, int flushInterval);
+
     void setHibernateStatisticsEnabled(boolean enable);
 
     void shutdown();
@@ -128,6 +141,14 @@ public interface EngineGateway extends Remote {
 
     String getWorkItemsForService(String serviceURI, String sessionHandle) throws RemoteException;
 
+    // compact lists of work items are encoded by WorkItemRecordCodec
+
+    String describeAllWorkItems(String sessionHandle, boolean compact) throws RemoteException;
+
+    String getWorkItemsWithIdentifier(String idType, String itemID, String sessionHandle, boolean compact) throws RemoteException;
+
+    String getWorkItemsForService(String serviceURI, String sessionHandle, boolean compact) throws RemoteException;
+
     String connect(String userID, String password, long timeOutSeconds) throws RemoteException;
 
     String checkConnection(String sessionHandle) throws RemoteException;
@@ -172,6 +193,8 @@ public interface EngineGateway extends Remote {
 
     String getChildrenOfWorkItem(String workItemID, String sessionHandle) throws RemoteException;
 
+    String getChildrenOfWorkItem(String workItemID, String sessionHandle, boolean compact) throws RemoteException;
+
     String getWorkItemOptions(String workItemID, String thisURL, String sessionHandle) throws RemoteException;
 
     String loadSpecification(String specification, String sessionHandle) throws RemoteException;
@@ -242,6 +265,12 @@ public interface EngineGateway extends Remote {
 
     String getHibernateStatistics(String sessionHandle);
 
+    String getXQueryCacheStatistics(String sessionHandle);
+
+    String getAnnouncementStatistics(String sessionHandle);
+
+    String getRestoreProgress(String sessionHandle);
+
     String reannounceEnabledWorkItems(String sessionHandle);
 
     String reannounceExecutingWorkItems(String sessionHandle);
@@ -216,6 +216,61 @@ public class EngineGatewayImpl implements EngineGateway {
     }
 
 
+    /**
+     * Enables or disables case-level locking of engine operations
+     * @param enable true to lock per case, false to lock engine-wide
+     */
+    public void setCaseLevelLocking(boolean enable) {
+        _engine.setCaseLevelLocking(enable);
+    }
+
+
+    /**
+     * Sets whether case instances share their nets' structure or clone it
+     * @param share true to share net structure, false to clone it for each case
+     */
+    public void setNetStructureSharing(boolean share) {
+        _engine.setNetStructureSharing(share);
+    }
+
+
+    /**
+     * Sets the maximum number of compiled XQueries held in the query cache
+     * @param size the maximum number of queries to cache (0 disables caching)
+     */
+    public void setXQueryCacheSize(int size) {
+        SaxonUtil.setQueryCacheSize(size);
+    }
+
+
+    /**
+     * Sets whether announcements are posted to each service individually or in batches
+     * @param maxBatchSize the maximum number of announcements to post to a service in
+     *                     one request (1 or less disables batching)
+     * @param maxBatchDelay the maximum msecs an announcement waits to join a batch
+     */
+    public void setAnnouncementBatching(int maxBatchSize, int maxBatchDelay) {
+        _engine.getAnnouncer().setAnnouncementBatching(maxBatchSize, maxBatchDelay);
+    }
+
+
+    /**
+     * Configures the queues of notifications waiting to be passed to each observer
+     * gateway
+     * @param capacity the maximum notifications queued in memory per gateway (0 for
+     *                 unbounded)
+     * @param overflowPolicy one of 'block', 'spill' or 'dropOldest'
+     * @param directory the directory for spill and journal files (null for temp)
+     * @param journal true to journal notifications until they are delivered
+     */
+    public void configureAnnouncementQueues(int capacity, String overflowPolicy,
+                                            String directory, boolean journal) {
+        _engine.getAnnouncer().configureAnnouncementQueues(capacity,
+                ObserverGatewayController.OverflowPolicy.fromString(overflowPolicy),
+                directory, journal);
+    }
+
+
     /**
      * Disables the recording of events in the process logs
      */
@@ -224,6 +279,16 @@ public class EngineGatewayImpl implements EngineGateway {
     }
 
 
+    /**
+     * Sets how process log events are grouped for writing to the database
+     * @param batchSize the maximum number of events written in one transaction
+     * @param flushInterval the maximum msecs an event waits to join a batch
+     */
+    public void setProcessLogBatching(int batchSize, int flushInterval) {
+        _engine.setProcessLogBatching(batchSize, flushInterval);
+    }
+
+
     /**
      * Enables or disables the gathering of hibernate statistics
      * @param enabled true to enable, false to disable
@@ -577,30 +642,57 @@ public class EngineGatewayImpl implements EngineGateway {
      * @throws RemoteException
      */
     public String describeAllWorkItems(String sessionHandle) throws RemoteException {
+        return describeAllWorkItems(sessionHandle, false);
+    }
+
+
+    /**
+     *
+     * @param sessionHandle
+     * @param compact true to encode the list with WorkItemRecordCodec, false for xml
+     * @return a description (record) of all currently active workitems
+     * @throws RemoteException
+     */
+    public String describeAllWorkItems(String sessionHandle, boolean compact)
+            throws RemoteException {
         String sessionMessage = checkSession(sessionHandle);
         if (isFailureMessage(sessionMessage)) return sessionMessage;
 
-        return describeWorkItems(_engine.getAllWorkItems());
+        return describeWorkItems(_engine.getAllWorkItems(), compact);
     }
 
 
     public String getWorkItemsWithIdentifier(String idType, String itemID,
                                              String sessionHandle) throws RemoteException {
+        return getWorkItemsWithIdentifier(idType, itemID, sessionHandle, false);
+    }
+
+
+    public String getWorkItemsWithIdentifier(String idType, String itemID,
+                                             String sessionHandle, boolean compact)
+            throws RemoteException {
         String sessionMessage = checkSession(sessionHandle);
         if (isFailureMessage(sessionMessage)) return sessionMessage;
 
-        return describeWorkItems(
-                _engine.getWorkItemRepository().getWorkItemsWithIdentifier(idType, itemID));
+        return describeWorkItems(_engine.getWorkItemRepository()
+                .getWorkItemsWithIdentifier(idType, itemID), compact);
     }
 
 
     public String getWorkItemsForService(String serviceURI, String sessionHandle)
             throws RemoteException {
+        return getWorkItemsForService(serviceURI, sessionHandle, false);
+    }
+
+
+    public String getWorkItemsForService(String serviceURI, String sessionHandle,
+                                         boolean compact) throws RemoteException {
         String sessionMessage = checkSession(sessionHandle);
         if (isFailureMessage(sessionMessage)) return sessionMessage;
 
         return describeWorkItems(
-                _engine.getWorkItemRepository().getWorkItemsForService(serviceURI));
+                _engine.getWorkItemRepository().getWorkItemsForService(serviceURI),
+                compact);
     }
 
 
@@ -976,11 +1068,17 @@ public class EngineGatewayImpl implements EngineGateway {
      * @throws RemoteException
      */
     public String getChildrenOfWorkItem(String workItemID, String sessionHandle) throws RemoteException {
+        return getChildrenOfWorkItem(workItemID, sessionHandle, false);
+    }
+
+
+    public String getChildrenOfWorkItem(String workItemID, String sessionHandle,
+                                        boolean compact) throws RemoteException {
         String sessionMessage = checkSession(sessionHandle);
         if (isFailureMessage(sessionMessage)) return sessionMessage;
 
         YWorkItem item = _engine.getWorkItem(workItemID);
-        return describeWorkItems(_engine.getChildrenOfWorkItem(item));
+        return describeWorkItems(_engine.getChildrenOfWorkItem(item), compact);
     }
 
 
@@ -1341,7 +1439,16 @@ public class EngineGatewayImpl implements EngineGateway {
 
 
 
-    private String describeWorkItems(Set<YWorkItem> workItems) {
+    private String describeWorkItems(Set<YWorkItem> workItems, boolean compact) {
+        if (compact) {
+            List<WorkItemRecord> records = new ArrayList<WorkItemRecord>();
+            if (workItems != null) {
+                for (YWorkItem workitem : workItems) {
+                    records.add(workitem.toWorkItemRecord());
+                }
+            }
+            return WorkItemRecordCodec.encodeToString(records);
+        }
         StringBuilder result = new StringBuilder();
         if (workItems != null) {
             for (YWorkItem workitem : workItems) {
@@ -1656,6 +1763,27 @@ public class EngineGatewayImpl implements EngineGateway {
         return _engine.getHibernateStatistics();
     }
 
+    public String getXQueryCacheStatistics(String sessionHandle) {
+        String sessionMessage = checkSession(sessionHandle);
+        if (isFailureMessage(sessionMessage)) return sessionMessage;
+
+        return SaxonUtil.getQueryCacheStatistics();
+    }
+
+    public String getAnnouncementStatistics(String sessionHandle) {
+        String sessionMessage = checkSession(sessionHandle);
+        if (isFailureMessage(sessionMessage)) return sessionMessage;
+
+        return _engine.getAnnouncer().getAnnouncementStatistics();
+    }
+
+    public String getRestoreProgress(String sessionHandle) {
+        String sessionMessage = checkSession(sessionHandle);
+        if (isFailureMessage(sessionMessage)) return sessionMessage;
+
+        return _engine.getRestoreProgress().toXML();
+    }
+
     @Override
     public String promote(String sessionHandle) throws YPersistenceException {
         String sessionMessage = checkSession(sessionHandle);
@@ -41,6 +41,9 @@ public class Interface_Client {
     // allows the prevention of socket reads from blocking indefinitely
     private static int READ_TIMEOUT = 0;              // default: wait indefinitely
 
+    // true if lists of work items are requested in compact form
+    private volatile boolean _compactWorkItems = false;
+
 
     /**
      * Executes a HTTP POST request on the url specified.
@@ -57,6 +60,52 @@ public class Interface_Client {
     }
 
 
+    /**
+     * Executes a HTTP POST request on the url specified, copying the reply to a
+     * stream as it is received rather than reading it into a String.
+     *
+     * @param urlStr the URL to send the POST to
+     * @param paramsMap a set of attribute-value pairs that make up the posted data
+     * @param os the stream to copy the reply to (it is not closed)
+     * @throws IOException when there's some kind of communication problem
+     */
+    protected void executePost(String urlStr, Map<String, String> paramsMap,
+                               OutputStream os) throws IOException {
+        final int BUF_SIZE = 16384;
+        HttpURLConnection connection = initPostConnection(urlStr);
+        sendData(connection, encodeData(paramsMap));
+
+        InputStream inStream = connection.getInputStream();
+        byte[] buffer = new byte[BUF_SIZE];
+        int bytesRead;
+        while ((bytesRead = inStream.read(buffer, 0, BUF_SIZE)) > 0) {
+            os.write(buffer, 0, bytesRead);
+        }
+        inStream.close();
+        connection.disconnect();
+    }
+
+
+    /**
+     * Executes a HTTP POST request on the url specified, over a persistent connection
+     * that is returned to the connection pool for reuse by later requests to the same
+     * host, rather than being closed once the reply has been received.
+     *
+     * @param urlStr the URL to send the POST to
+     * @param paramsMap a set of attribute-value pairs that make up the posted data
+     * @return the result of the POST request
+     * @throws IOException when there's some kind of communication problem
+     */
+    protected String executeKeepAlivePost(String urlStr, Map<String, String> paramsMap)
+            throws IOException {
+        HttpURLConnection connection = initPostConnection(urlStr, true);
+        sendData(connection, encodeData(paramsMap));
+
+        // reading the reply fully & closing its stream frees the connection for reuse
+        return stripOuterElement(getReply(connection.getInputStream()));
+    }
+
+
     /**
      * Executes a rerouted HTTP GET request as a POST on the specified URL
      *
@@ -86,6 +135,38 @@ public class Interface_Client {
     }
 
 
+    /**
+     * Initialises a map for transporting parameters of a request for a list of work
+     * items, asking for the list in compact form if that is enabled for this client
+     * @param action the name of the action to take
+     * @param handle the current engine session handle
+     * @return the initialised Map
+     */
+    protected Map<String, String> prepareWorkItemListParamMap(String action,
+                                                              String handle) {
+        Map<String, String> paramMap = prepareParamMap(action, handle);
+        if (_compactWorkItems) {
+            paramMap.put(WorkItemRecordCodec.REQUEST_PARAM,
+                    String.valueOf(WorkItemRecordCodec.VERSION));
+        }
+        return paramMap;
+    }
+
+
+    /**
+     * Sets whether lists of work items are requested from the server in the compact
+     * form of WorkItemRecordCodec rather than as xml. A server that doesn't support
+     * the compact form replies with xml, after which the extending class should
+     * disable it for this client.
+     * @param compact true to request lists in compact form
+     */
+    public void setCompactWorkItems(boolean compact) {
+        _compactWorkItems = compact;
+    }
+
+    public boolean isCompactWorkItems() { return _compactWorkItems; }
+
+
     /**
      * Set the read timeout value for future connections
      * @param timeout the timeout value in milliseconds. A value of -1 (the default)
@@ -144,6 +225,19 @@ public class Interface_Client {
      * @throws IOException when there's some kind of communication problem
      */
     protected HttpURLConnection initPostConnection(String urlStr) throws IOException {
+        return initPostConnection(urlStr, false);
+    }
+
+
+    /**
+     * Initialises a HTTP POST connection
+     * @param urlStr the url to connect to
+     * @param keepAlive true if the connection may be reused for later requests
+     * @return an initialised POST connection
+     * @throws IOException when there's some kind of communication problem
+     */
+    protected HttpURLConnection initPostConnection(String urlStr, boolean keepAlive)
+            throws IOException {
         URL url = new URL(urlStr);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setDoOutput(true);
@@ -152,7 +246,8 @@ public class Interface_Client {
 
         // required to ensure the connection is not reused. When not set, spurious
         // intermittent problems (double posts, missing posts) occur under heavy load.
-        connection.setRequestProperty("Connection", "close");
+        // Persistent connections are only used where requests on them are serialised.
+        if (! keepAlive) connection.setRequestProperty("Connection", "close");
         return connection ;
     }
 
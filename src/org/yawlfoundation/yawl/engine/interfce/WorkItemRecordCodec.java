@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.engine.interfce;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jdom2.Element;
+import org.yawlfoundation.yawl.elements.YAttributeMap;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact binary encoding of lists of WorkItemRecords, as an alternative to their
+ * XML form when passing them across Interface B.
+ *
+ * An encoded list begins with a header of a three byte magic number, a format version
+ * byte, the number of fields in each record and the number of records. Each record
+ * follows as its length in bytes, then its extended attributes as a count and a set
+ * of key-value pairs, then its fields in a fixed order. Every number is written as an
+ * unsigned varint, and every string as its UTF-8 length plus one (zero for null)
+ * followed by its bytes. Data lists are carried as strings.
+ *
+ * A reader reads the fields it knows of and skips any others at the end of a record,
+ * so fields may be added without a change of version. The version is only increased
+ * when the layout changes in a way an earlier reader could not skip over.
+ *
+ * Since the interfaces pass strings, encoded lists are sent as Base64 text. A client
+ * asks for the encoding by adding the REQUEST_PARAM parameter to a request for a list
+ * of work items, with the highest version it can read as its value.
+ */
+public class WorkItemRecordCodec {
+
+    public static final int VERSION = 1;
+    public static final String REQUEST_PARAM = "wirCodec";
+
+    private static final byte[] MAGIC = { 'Y', 'W', 'R' };
+
+    // three bytes encode to a fixed four characters, the prefix of every encoded list
+    private static final String PREFIX = Base64.encodeBase64String(MAGIC);
+
+    private static final int FIELD_COUNT = 28;
+
+
+    private WorkItemRecordCodec() { }
+
+
+    /**
+     * @param requested the value of a REQUEST_PARAM parameter, or null if there was
+     *                  no such parameter
+     * @return true if the value is a version that can read lists encoded by this codec
+     */
+    public static boolean isAccepted(String requested) {
+        if (requested != null) {
+            try {
+                return Integer.parseInt(requested) >= VERSION;
+            }
+            catch (NumberFormatException nfe) {
+                // fall through
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @param s a string received from an interface
+     * @return true if the string is an encoded list of records
+     */
+    public static boolean isEncoded(String s) {
+        return s != null && s.startsWith(PREFIX);
+    }
+
+
+    public static String encodeToString(Collection<WorkItemRecord> records) {
+        return Base64.encodeBase64String(encode(records));
+    }
+
+
+    public static List<WorkItemRecord> decodeFromString(String s) throws IOException {
+        return decode(Base64.decodeBase64(s.trim()));
+    }
+
+
+    /**
+     * Encodes a list of records
+     * @param records the records to encode
+     * @return the encoded list
+     */
+    public static byte[] encode(Collection<WorkItemRecord> records) {
+        Writer writer = new Writer(records.size() * 512 + 16);
+        writer.write(MAGIC, 0, MAGIC.length);
+        writer.write(VERSION);
+        writer.writeVarint(FIELD_COUNT);
+        writer.writeVarint(records.size());
+        Writer recordWriter = new Writer(1024);
+        for (WorkItemRecord wir : records) {
+            recordWriter.reset();
+            writeRecord(recordWriter, wir);
+            writer.writeVarint(recordWriter.size());
+            recordWriter.copyTo(writer);
+        }
+        return writer.toByteArray();
+    }
+
+
+    /**
+     * Decodes a list of records
+     * @param bytes an encoded list
+     * @return the list of records
+     * @throws IOException if the bytes are not an encoded list, or were encoded by an
+     * incompatible version of this codec
+     */
+    public static List<WorkItemRecord> decode(byte[] bytes) throws IOException {
+        Reader reader = new Reader(bytes);
+        for (byte b : MAGIC) {
+            if (reader.readByte() != b) {
+                throw new IOException("Not an encoded list of work item records");
+            }
+        }
+        int version = reader.readByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported work item record encoding version: " +
+                    version);
+        }
+        int fieldCount = reader.readVarint();
+        int count = reader.readVarint();
+        List<WorkItemRecord> records = new ArrayList<WorkItemRecord>(
+                Math.min(count, bytes.length));
+        DataLists dataLists = new DataLists();
+        for (int i = 0; i < count; i++) {
+            int length = reader.readVarint();
+            int end = reader.pos + length;
+            if (end > bytes.length) throw new IOException("Truncated work item record");
+            records.add(readRecord(reader, fieldCount, dataLists));
+            reader.pos = end;                              // skip any unknown fields
+        }
+        dataLists.parse();
+        return records;
+    }
+
+
+    /*******************************************************************************/
+
+    // the order of fields written here is the schema of each record - new fields
+    // may only be added to the end, and FIELD_COUNT increased to match
+    private static void writeRecord(Writer writer, WorkItemRecord wir) {
+        Map<String, String> attributes = wir.getAttributeTable();
+        if (attributes != null) {
+            writer.writeVarint(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.writeString(entry.getValue());
+            }
+        }
+        else writer.writeVarint(0);
+
+        writer.writeString(wir.getSpecIdentifier());
+        writer.writeString(wir.getSpecVersion());
+        writer.writeString(wir.getSpecURI());
+        writer.writeString(wir.getCaseID());
+        writer.writeString(wir.getTaskID());
+        writer.writeString(wir.getUniqueID());
+        writer.writeString(wir.getTaskName());
+        writer.writeString(wir.getDocumentation());
+        writer.writeString(wir.getAllowsDynamicCreation());
+        writer.writeString(wir.getRequiresManualResourcing());
+        writer.writeString(wir.getCodelet());
+        writer.writeString(wir.getDeferredChoiceGroupID());
+        writer.writeString(wir.getEnablementTimeMs());
+        writer.writeString(wir.getFiringTimeMs());
+        writer.writeString(wir.getStartTimeMs());
+        writer.writeString(wir.getCompletionTimeMs());
+        writer.writeString(wir.getTimerTrigger());
+        writer.writeString(wir.getTimerExpiry());
+        writer.writeString(wir.getStatus());
+        writer.writeString(wir.getResourceStatus());
+        writer.writeString(wir.getStartedBy());
+        writer.writeString(wir.getCompletedBy());
+        writer.writeString(wir.getTag());
+        writer.writeString(wir.getCustomFormURL());
+        writer.writeString(wir.getLogPredicateStarted());
+        writer.writeString(wir.getLogPredicateCompletion());
+        writer.writeString(toString(wir.getDataList()));
+        writer.writeString(toString(wir.getUpdatedData()));
+    }
+
+
+    private static WorkItemRecord readRecord(Reader reader, int fieldCount,
+                                             DataLists dataLists) throws IOException {
+        Map<String, String> attributes = new YAttributeMap();      // as Marshaller
+        int attributeCount = reader.readVarint();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(reader.readString(), reader.readString());
+        }
+
+        String[] fields = new String[FIELD_COUNT];
+        for (int i = 0; i < Math.min(fieldCount, FIELD_COUNT); i++) {
+            fields[i] = reader.readString();
+        }
+
+        WorkItemRecord wir = new WorkItemRecord(fields[3], fields[4], fields[2],
+                fields[18]);
+        wir.setExtendedAttributes(attributes);
+        wir.setSpecIdentifier(fields[0]);
+        wir.setSpecVersion(fields[1]);
+        wir.setUniqueID(fields[5]);
+        wir.setTaskName(fields[6]);
+        wir.setDocumentation(fields[7]);
+        wir.setAllowsDynamicCreation(fields[8]);
+        wir.setRequiresManualResourcing(fields[9]);
+        wir.setCodelet(fields[10]);
+        wir.setDeferredChoiceGroupID(fields[11]);
+        wir.setEnablementTimeMs(fields[12]);
+        wir.setFiringTimeMs(fields[13]);
+        wir.setStartTimeMs(fields[14]);
+        wir.setCompletionTimeMs(fields[15]);
+        wir.setTimerTrigger(fields[16]);
+        wir.setTimerExpiry(fields[17]);
+        wir.setResourceStatus(fields[19]);
+        wir.setStartedBy(fields[20]);
+        wir.setCompletedBy(fields[21]);
+        wir.setTag(fields[22]);
+        wir.setCustomFormURL(fields[23]);
+        wir.setLogPredicateStarted(fields[24]);
+        wir.setLogPredicateCompletion(fields[25]);
+        dataLists.add(wir, fields[26], false);
+        dataLists.add(wir, fields[27], true);
+        return wir;
+    }
+
+
+    private static String toString(Element e) {
+        return e != null ? JDOMUtil.elementToStringDump(e) : null;
+    }
+
+
+    /*******************************************************************************/
+
+    // the data lists of a set of records, parsed together since setting up each parse
+    // costs much more than the parse of a typical data list
+    private static class DataLists {
+
+        final List<WorkItemRecord> records = new ArrayList<WorkItemRecord>();
+        final List<Boolean> updated = new ArrayList<Boolean>();
+        final StringBuilder xml = new StringBuilder("<dataLists>");
+
+        void add(WorkItemRecord wir, String data, boolean isUpdated) {
+            if (data != null) {
+                records.add(wir);
+                updated.add(isUpdated);
+                xml.append(data);
+            }
+        }
+
+        void parse() throws IOException {
+            if (records.isEmpty()) return;
+            Element root = JDOMUtil.stringToElement(xml.append("</dataLists>").toString());
+            if (root == null || root.getChildren().size() != records.size()) {
+                throw new IOException("Malformed data in work item record");
+            }
+            List<Element> children = new ArrayList<Element>(root.getChildren());
+            for (int i = 0; i < children.size(); i++) {
+                Element data = children.get(i).detach();
+                if (updated.get(i)) records.get(i).setUpdatedData(data);
+                else records.get(i).setDataList(data);
+            }
+        }
+    }
+
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) { super(size); }
+
+        void copyTo(Writer other) { other.write(buf, 0, count); }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarint(0);
+            }
+            else {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length + 1);
+                write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+
+    private static class Reader {
+
+        final byte[] bytes;
+        int pos;
+
+        Reader(byte[] bytes) { this.bytes = bytes; }
+
+        int readByte() throws IOException {
+            if (pos >= bytes.length) throw new IOException("Truncated work item record");
+            return bytes[pos++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) break;
+                    return value;
+                }
+            }
+            throw new IOException("Malformed length in work item record");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint() - 1;
+            if (length < 0) return null;
+            if (length > bytes.length - pos) {
+                throw new IOException("Truncated work item record");
+            }
+            String s = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+
+}
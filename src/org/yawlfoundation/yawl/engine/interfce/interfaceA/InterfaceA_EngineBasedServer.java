@@ -213,6 +213,15 @@ public class InterfaceA_EngineBasedServer extends YHttpServlet {
                 else if ("getHibernateStatistics".equals(action)) {
                     msg.append(_engine.getHibernateStatistics(sessionHandle));
                 }
+                else if ("getXQueryCacheStatistics".equals(action)) {
+                    msg.append(_engine.getXQueryCacheStatistics(sessionHandle));
+                }
+                else if ("getAnnouncementStatistics".equals(action)) {
+                    msg.append(_engine.getAnnouncementStatistics(sessionHandle));
+                }
+                else if ("getRestoreProgress".equals(action)) {
+                    msg.append(_engine.getRestoreProgress(sessionHandle));
+                }
                 else if ("promote".equals(action)) {
                     msg.append(_engine.promote(sessionHandle));
                 }
@@ -451,6 +451,21 @@ public class InterfaceA_EnvironmentBasedClient extends Interface_Client {
         return executeGet(_backEndURIStr, params);
     }
 
+    public String getXQueryCacheStatistics(String sessionHandle) throws IOException {
+        Map<String, String> params = prepareParamMap("getXQueryCacheStatistics", sessionHandle);
+        return executeGet(_backEndURIStr, params);
+    }
+
+    public String getAnnouncementStatistics(String sessionHandle) throws IOException {
+        Map<String, String> params = prepareParamMap("getAnnouncementStatistics", sessionHandle);
+        return executeGet(_backEndURIStr, params);
+    }
+
+    public String getRestoreProgress(String sessionHandle) throws IOException {
+        Map<String, String> params = prepareParamMap("getRestoreProgress", sessionHandle);
+        return executeGet(_backEndURIStr, params);
+    }
+
     public String promote(String sessionHandle) throws IOException {
         Map<String, String> params = prepareParamMap("promote", sessionHandle);
         return executePost(_backEndURIStr, params);
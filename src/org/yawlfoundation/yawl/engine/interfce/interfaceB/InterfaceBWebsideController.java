@@ -54,6 +54,7 @@ public abstract class InterfaceBWebsideController {
     protected IBControllerCache _ibCache;
     private AuthenticationConfig _authConfig4WS;
     protected String _report;
+    private boolean _compactWorkItems;
 
     protected static final String XSD_STRINGTYPE = "string";
     protected static final String XSD_ANYURI_TYPE = "anyURI";
@@ -83,6 +84,19 @@ public abstract class InterfaceBWebsideController {
      */
     public void setUpInterfaceBClient(String backEndURI) {
         _interfaceBClient = new InterfaceB_EnvironmentBasedClient(backEndURI);
+        _interfaceBClient.setCompactWorkItems(_compactWorkItems);
+    }
+
+
+    /**
+     * Sets whether lists of work items are requested from the engine in compact
+     * (binary) form rather than as xml, for this and any later Interface B clients.
+     * @param compact true to request lists in compact form
+     * @see org.yawlfoundation.yawl.engine.interfce.WorkItemRecordCodec
+     */
+    public void setCompactWorkItems(boolean compact) {
+        _compactWorkItems = compact;
+        if (_interfaceBClient != null) _interfaceBClient.setCompactWorkItems(compact);
     }
 
 
@@ -34,13 +34,12 @@ import org.yawlfoundation.yawl.engine.interfce.Interface_Client;
 import org.yawlfoundation.yawl.unmarshal.YDecompositionParser;
 import org.yawlfoundation.yawl.util.HttpURLValidator;
 import org.yawlfoundation.yawl.util.JDOMUtil;
+import org.yawlfoundation.yawl.util.XNode;
 
 import java.io.IOException;
 import java.net.ConnectException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 
 import static org.yawlfoundation.yawl.engine.announcement.YEngineEvent.*;
 
@@ -60,6 +59,17 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
     protected static final Logger _logger = LogManager.getLogger(InterfaceB_EngineBasedClient.class);
     private final Map<YAWLServiceReference, ExecutorService> _executorMap = new ConcurrentHashMap<>();
 
+    // the action of a post containing a batch of announcements
+    public static final String BATCH_ACTION = "announceBatch";
+
+    // when batching is enabled, announcements to each service are queued and posted
+    // together over a persistent connection, up to _maxBatchSize announcements per
+    // post, with each waiting at most _maxBatchDelay msecs for others to join it
+    private final Map<YAWLServiceReference, BatchSender> _batchSenderMap = new ConcurrentHashMap<>();
+    private final Map<YAWLServiceReference, DeliveryStatistics> _statisticsMap = new ConcurrentHashMap<>();
+    private volatile int _maxBatchSize = 1;                    // 1 = batching disabled
+    private volatile long _maxBatchDelay = 0;
+
 
     /**
      * Indicates which protocol this shim services.
@@ -67,6 +77,43 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
      */
     public String getScheme() { return "http"; }
 
+
+    /**
+     * Sets whether announcements are posted to each service individually (the default)
+     * or in batches. A batch is posted to a service as soon as it holds
+     * <code>maxBatchSize</code> announcements, or when its first announcement has
+     * waited <code>maxBatchDelay</code> msecs, whichever comes first. Services that
+     * do not acknowledge a batch continue to receive their announcements individually.
+     * @param maxBatchSize the maximum number of announcements to post to a service in
+     *                     one request. A value of 1 or less disables batching
+     * @param maxBatchDelay the maximum msecs an announcement will wait for others
+     *                      to join its batch
+     */
+    public void setAnnouncementBatching(int maxBatchSize, long maxBatchDelay) {
+        _maxBatchSize = Math.max(maxBatchSize, 1);
+        _maxBatchDelay = Math.max(maxBatchDelay, 0);
+    }
+
+
+    public boolean isBatchingAnnouncements() { return _maxBatchSize > 1; }
+
+
+    /**
+     * Gets the statistics of announcement deliveries to each service so far
+     * @return an XNode containing, for each service, the number of announcements
+     * waiting to be sent, the number of posts and announcements sent, the mean and
+     * maximum announcements per post, the failed announcements, and the mean and
+     * maximum msecs between an announcement being made and its receipt acknowledged
+     */
+    public XNode getDeliveryStatistics() {
+        XNode node = new XNode("gateway");
+        node.addAttribute("scheme", getScheme());
+        for (YAWLServiceReference service : _statisticsMap.keySet()) {
+            node.addChild(_statisticsMap.get(service).toXNode(service, getQueueDepth(service)));
+        }
+        return node;
+    }
+
     /**
      * PRE: The work item is enabled.
      * announces a work item to a YAWL Service.
@@ -78,7 +125,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         YAWLServiceReference service = announcement.getYawlService();
         Handler handler = new Handler(service, paramsMap);
         handler.setWorkItem(announcement.getItem());         // needed for possible redirect
-        getServiceExecutor(service).execute(handler);
+        dispatch(handler);
     }
 
 
@@ -107,7 +154,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
     public void cancelWorkItem(YAWLServiceReference yawlService, YWorkItem workItem) {
         Map<String, String> paramsMap = prepareParamMap(ITEM_CANCEL);
         paramsMap.put("workItem", workItem.toXML());
-        getServiceExecutor(yawlService).execute(new Handler(yawlService, paramsMap));
+        dispatch(new Handler(yawlService, paramsMap));
     }
 
 
@@ -119,7 +166,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         Map<String, String> paramsMap = prepareParamMap(TIMER_EXPIRED);
         paramsMap.put("workItem", announcement.getItem().toXML());
         YAWLServiceReference yawlService = announcement.getYawlService();
-        getServiceExecutor(yawlService).execute(new Handler(yawlService, paramsMap));
+        dispatch(new Handler(yawlService, paramsMap));
     }
 
 
@@ -164,7 +211,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         paramsMap.put("oldStatus", oldStatus.toString());
         paramsMap.put("newStatus", newStatus.toString());
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -187,7 +234,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         paramsMap.put("launchingService", launchingService);
         paramsMap.put("delayed", String.valueOf(delayed));
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -214,7 +261,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         Map<String, String> paramsMap = prepareParamMap(CASE_COMPLETE);
         paramsMap.put("caseID", caseID.toString());
         paramsMap.put("casedata", JDOMUtil.documentToString(caseData));
-        getServiceExecutor(yawlService).execute(new Handler(yawlService, paramsMap));
+        dispatch(new Handler(yawlService, paramsMap));
     }
 
 
@@ -227,7 +274,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         Map<String, String> paramsMap = prepareParamMap(ENGINE_INIT);
         paramsMap.put("maxWaitSeconds", String.valueOf(maxWaitSeconds));
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -241,7 +288,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         Map<String, String> paramsMap = prepareParamMap(CASE_CANCELLED);
         paramsMap.put("caseID", id.toString());
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -260,7 +307,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         for (YTask task : tasks) list.add(task.getID());
         paramsMap.put("tasks", list.toString());
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -273,6 +320,9 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         for (ExecutorService executor : _executorMap.values()) {
             executor.shutdownNow();
         }
+        for (BatchSender sender : _batchSenderMap.values()) {
+            sender.shutdown();
+        }
 
     	// Nothing else to do - Interface B Clients handle shutdown within their own servlet.
     }
@@ -312,7 +362,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         Map<String, String> paramsMap = prepareParamMap(event);
         paramsMap.put("caseID", caseID.toString());
         for (YAWLServiceReference service : services) {
-            getServiceExecutor(service).execute(new Handler(service, paramsMap));
+            dispatch(new Handler(service, paramsMap));
         }
     }
 
@@ -321,6 +371,54 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
         return super.prepareParamMap(event.label(), null);
     }
 
+    // queues batchable announcements for their service's batch sender, if batching is
+    // enabled and the service accepts batches, else posts the announcement directly
+    private void dispatch(Handler handler) {
+        YAWLServiceReference service = handler.getService();
+        if (isBatchingAnnouncements() && handler.isBatchable()) {
+            BatchSender sender = getBatchSender(service);
+            if (sender.acceptsBatches()) {
+                sender.add(handler);
+                return;
+            }
+        }
+        getServiceExecutor(service).execute(handler);
+    }
+
+
+    private synchronized BatchSender getBatchSender(YAWLServiceReference service) {
+        BatchSender sender = _batchSenderMap.get(service);
+        if (sender == null) {
+            sender = new BatchSender(service);
+            _batchSenderMap.put(service, sender);
+        }
+        return sender;
+    }
+
+
+    private synchronized DeliveryStatistics getStatistics(YAWLServiceReference service) {
+        DeliveryStatistics statistics = _statisticsMap.get(service);
+        if (statistics == null) {
+            statistics = new DeliveryStatistics();
+            _statisticsMap.put(service, statistics);
+        }
+        return statistics;
+    }
+
+
+    // the number of announcements for a service waiting to be posted
+    private int getQueueDepth(YAWLServiceReference service) {
+        int depth = 0;
+        BatchSender sender = _batchSenderMap.get(service);
+        if (sender != null) depth += sender.getQueueDepth();
+        ExecutorService executor = _executorMap.get(service);
+        if (executor instanceof ThreadPoolExecutor) {
+            depth += ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return depth;
+    }
+
+
     // use a different 2-thread executor for each destination service
     private ExecutorService getServiceExecutor(YAWLServiceReference service) {
         ExecutorService executor = _executorMap.get(service);
@@ -344,15 +442,30 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
 
         private final YAWLServiceReference _yawlService;
         private final Map<String, String> _paramsMap ;
+        private final long _created;
         private YWorkItem _workItem;
 
         public Handler(YAWLServiceReference yawlService, Map<String, String> paramsMap) {
             _yawlService = yawlService;
             _paramsMap = paramsMap;
+            _created = System.nanoTime();
         }
 
         void setWorkItem(YWorkItem item) { _workItem = item; }
 
+        YAWLServiceReference getService() { return _yawlService; }
+
+        Map<String, String> getParams() { return _paramsMap; }
+
+        // msecs since the announcement was made
+        long getAge() { return (System.nanoTime() - _created) / 1000000; }
+
+        // engine init announcements wait for the service to be available, so are
+        // always posted individually
+        boolean isBatchable() {
+            return ! ENGINE_INIT.label().equals(_paramsMap.get("action"));
+        }
+
 
         /**
          * POST the message to the custom service
@@ -366,8 +479,22 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
                 }
                 
                 executePost(_yawlService.getURI(), _paramsMap);
+                getStatistics(_yawlService).recordDelivery(Collections.singletonList(this));
+            }
+            catch (IOException ioe) {
+                getStatistics(_yawlService).recordFailure(1);
+                handleFailure(ioe);
             }
-            catch (ConnectException ce) {
+        }
+
+
+        /**
+         * Handles a failure to post the message to the custom service
+         * @param e the exception raised by the post
+         */
+        void handleFailure(IOException e) {
+            String event = _paramsMap.get("action");
+            if (e instanceof ConnectException) {
                 if (event.equals(ITEM_ADD.label())) {
                     redirectWorkItem(true);
                 }
@@ -382,7 +509,7 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
                     }
                 }
             }
-            catch (IOException e) {
+            else {
 
                 if (event.equals(ITEM_ADD.label())) {
                     redirectWorkItem(false);
@@ -421,4 +548,157 @@ public class InterfaceB_EngineBasedClient extends Interface_Client implements Ob
             }
         }
     }
+
+
+    /*******************************************************************************/
+
+    /*
+     * Queues the announcements for a service, and posts them to the service in
+     * batches on a single thread, so that successive posts can reuse a persistent
+     * connection
+     */
+
+    private class BatchSender implements Runnable {
+
+        private final YAWLServiceReference _yawlService;
+        private final BlockingQueue<Handler> _queue = new LinkedBlockingQueue<>();
+        private final ExecutorService _executor = Executors.newSingleThreadExecutor();
+        private volatile boolean _acceptsBatches = true;
+
+        BatchSender(YAWLServiceReference yawlService) {
+            _yawlService = yawlService;
+            _executor.execute(this);
+        }
+
+        void add(Handler handler) { _queue.add(handler); }
+
+        int getQueueDepth() { return _queue.size(); }
+
+        boolean acceptsBatches() { return _acceptsBatches; }
+
+        void shutdown() { _executor.shutdownNow(); }
+
+
+        public void run() {
+            List<Handler> batch = new ArrayList<Handler>();
+            try {
+                while (! Thread.currentThread().isInterrupted()) {
+                    batch.add(_queue.take());
+                    long deadline = System.nanoTime() +
+                            TimeUnit.MILLISECONDS.toNanos(_maxBatchDelay);
+                    while (batch.size() < _maxBatchSize) {
+                        Handler next = _queue.poll(deadline - System.nanoTime(),
+                                TimeUnit.NANOSECONDS);
+                        if (next == null) break;                   // delay expired
+                        batch.add(next);
+                    }
+                    post(batch);
+                    batch.clear();
+                }
+            }
+            catch (InterruptedException ie) {
+                // shutdown - any queued announcements are dropped
+            }
+        }
+
+
+        private void post(List<Handler> batch) {
+            if (! _acceptsBatches) {
+                postIndividually(batch);
+                return;
+            }
+            Map<String, String> paramsMap = prepareParamMap(BATCH_ACTION, null);
+            paramsMap.put("announcements", toXML(batch));
+            try {
+                String reply = executeKeepAlivePost(_yawlService.getURI(), paramsMap);
+
+                // a service that predates batches acknowledges any post with 'OK'
+                if (String.valueOf(batch.size()).equals(reply)) {
+                    getStatistics(_yawlService).recordDelivery(batch);
+                }
+                else {
+                    _acceptsBatches = false;
+                    _logger.info("YAWL service at URI {} does not accept batched " +
+                            "announcements - announcements will be posted individually",
+                            _yawlService.getURI());
+                    postIndividually(batch);
+                }
+            }
+            catch (IOException ioe) {
+                getStatistics(_yawlService).recordFailure(batch.size());
+                for (Handler handler : batch) {
+                    handler.handleFailure(ioe);
+                }
+            }
+        }
+
+
+        private void postIndividually(List<Handler> batch) {
+            ExecutorService executor = getServiceExecutor(_yawlService);
+            for (Handler handler : batch) {
+                executor.execute(handler);
+            }
+        }
+
+
+        private String toXML(List<Handler> batch) {
+            XNode node = new XNode("announcements");
+            for (Handler handler : batch) {
+                XNode announcement = node.addChild("announcement");
+                Map<String, String> paramsMap = handler.getParams();
+                for (String key : paramsMap.keySet()) {
+                    String value = paramsMap.get(key);
+                    if (value != null) announcement.addChild(key, value, true);
+                }
+            }
+            return node.toString();
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    /*
+     * Accumulates the delivery statistics of announcements to a service
+     */
+
+    private static class DeliveryStatistics {
+
+        private long _posts;
+        private long _announcements;
+        private long _failures;
+        private long _maxBatchSize;
+        private long _totalLatency;
+        private long _maxLatency;
+
+        synchronized void recordDelivery(List<Handler> handlers) {
+            _posts++;
+            _announcements += handlers.size();
+            _maxBatchSize = Math.max(_maxBatchSize, handlers.size());
+            for (Handler handler : handlers) {
+                long latency = handler.getAge();
+                _totalLatency += latency;
+                _maxLatency = Math.max(_maxLatency, latency);
+            }
+        }
+
+        synchronized void recordFailure(int count) { _failures += count; }
+
+        synchronized XNode toXNode(YAWLServiceReference service, int queueDepth) {
+            XNode node = new XNode("service");
+            node.addAttribute("name", service.getServiceName());
+            node.addAttribute("uri", service.getURI());
+            node.addChild("queueDepth", queueDepth);
+            node.addChild("posts", _posts);
+            node.addChild("announcements", _announcements);
+            node.addChild("failures", _failures);
+            node.addChild("meanBatchSize", String.format("%.2f",
+                    _posts > 0 ? (double) _announcements / _posts : 0));
+            node.addChild("maxBatchSize", _maxBatchSize);
+            node.addChild("meanLatency", String.format("%.2f",
+                    _announcements > 0 ? (double) _totalLatency / _announcements : 0));
+            node.addChild("maxLatency", _maxLatency);
+            return node;
+        }
+    }
 }
@@ -24,6 +24,7 @@ import org.yawlfoundation.yawl.engine.ObserverGateway;
 import org.yawlfoundation.yawl.engine.YEngine;
 import org.yawlfoundation.yawl.engine.YSpecificationID;
 import org.yawlfoundation.yawl.engine.interfce.*;
+import org.yawlfoundation.yawl.engine.time.YTimer;
 import org.yawlfoundation.yawl.engine.time.workdays.HolidayLoader;
 import org.yawlfoundation.yawl.exceptions.YAWLException;
 import org.yawlfoundation.yawl.exceptions.YPersistenceException;
@@ -77,6 +78,21 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                 boolean persist = getBooleanFromContext("EnablePersistence");
                 boolean enableHbnStats = getBooleanFromContext("EnableHibernateStatisticsGathering");
                 boolean redundantMode = getBooleanFromContext("StartInRedundantMode");
+
+                // set the number of threads that rebuild cases when state is restored
+                int restoreThreads = StringUtil.strToInt(
+                        context.getInitParameter("RestoreThreads"), 0);
+                if (restoreThreads > 0) YEngine.setRestoreThreads(restoreThreads);
+
+                // keep an image of live case state to restart from (if a dir is set)
+                String snapshotDir = context.getInitParameter("SnapshotDirectory");
+                if (! StringUtil.isNullOrEmpty(snapshotDir)) {
+                    YEngine.setSnapshotDirectory(snapshotDir,
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "SnapshotFlushInterval"), 1000),
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "SnapshotInterval"), 10) * 60000L);
+                }
                 _engine = new EngineGatewayImpl(engineImpl, persist,
                         enableHbnStats, redundantMode);
                 _engine.setActualFilePath(context.getRealPath("/"));
@@ -93,6 +109,13 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                 _engine.disableLogging();
             }
 
+            // group process log events into batches, each written in one transaction
+            int logBatchSize = StringUtil.strToInt(
+                    context.getInitParameter("LogBatchSize"), 100);
+            int logFlushInterval = StringUtil.strToInt(
+                    context.getInitParameter("LogFlushInterval"), 50);
+            _engine.setProcessLogBatching(logBatchSize, logFlushInterval);
+
             // add the reference to the default worklist
             _engine.setDefaultWorklist(context.getInitParameter("DefaultWorklist"));
 
@@ -102,12 +125,47 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                 _engine.setAllowAdminID(true);
             }
 
+            // lock engine operations per case rather than engine-wide (if set to true)
+            _engine.setCaseLevelLocking(getBooleanFromContext("EnableCaseLevelLocking"));
+
+            // share net structure between case instances rather than cloning it
+            _engine.setNetStructureSharing(getBooleanFromContext("ShareNetStructure"));
+
+            // override the max number of compiled XQueries cached for reuse
+            int cacheSize = StringUtil.strToInt(
+                    context.getInitParameter("XQueryCacheSize"), -1);
+            if (cacheSize >= 0) _engine.setXQueryCacheSize(cacheSize);
+
+            // post announcements to services in batches rather than individually
+            int batchSize = StringUtil.strToInt(
+                    context.getInitParameter("AnnouncementBatchSize"), 1);
+            int batchDelay = StringUtil.strToInt(
+                    context.getInitParameter("AnnouncementBatchDelay"), 0);
+            _engine.setAnnouncementBatching(batchSize, batchDelay);
+
+            // bound the queue of notifications for each gateway, and set what happens
+            // when one is full; optionally journal notifications until delivered
+            int queueCapacity = StringUtil.strToInt(
+                    context.getInitParameter("AnnouncementQueueCapacity"), 0);
+            String queueDir = context.getInitParameter("AnnouncementQueueDirectory");
+            _engine.configureAnnouncementQueues(queueCapacity,
+                    context.getInitParameter("AnnouncementOverflowPolicy"),
+                    StringUtil.isNullOrEmpty(queueDir) ? null : queueDir,
+                    getBooleanFromContext("EnableAnnouncementJournal"));
+
             // override the max time that initialisation events wait for between
             // final engine init and server start completion
             int maxWait = StringUtil.strToInt(
                     context.getInitParameter("InitialisationAnnouncementTimeout"), -1);
             if (maxWait >= 0) maxWaitSeconds = maxWait;
 
+            // set the number of threads that handle expired timers, and the number of
+            // expired timers each may hold waiting
+            YTimer.getInstance().setExpiryWorkers(
+                    StringUtil.strToInt(context.getInitParameter("TimerExpiryWorkers"), 4),
+                    StringUtil.strToInt(
+                            context.getInitParameter("TimerExpiryQueueSize"), 10000));
+
             // set the country/region codes used for calculating work-day-only timers (if any)
             String timerLocationConfig = context.getInitParameter("WorkdayTimerGeoCodes");
             if (timerLocationConfig != null) {
@@ -256,6 +314,8 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
         String specVersion = request.getParameter("specversion");
         String specURI = request.getParameter("specuri");
         String taskID = request.getParameter("taskID");
+        boolean compact = WorkItemRecordCodec.isAccepted(
+                request.getParameter(WorkItemRecordCodec.REQUEST_PARAM));
         long start = System.nanoTime();
         
         try {
@@ -334,7 +394,7 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                     msg.append(_engine.startWorkItem(userID, sessionHandle));
                 }
                 else if (action.equals("getLiveItems")) {
-                    msg.append(_engine.describeAllWorkItems(sessionHandle));
+                    msg.append(_engine.describeAllWorkItems(sessionHandle, compact));
                 }
                 else if (action.equals("getAllRunningCases")) {
                     msg.append(_engine.getAllRunningCases(sessionHandle));
@@ -342,11 +402,13 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                 else if (action.equals("getWorkItemsWithIdentifier")) {
                     String idType = request.getParameter("idType");
                     String id = request.getParameter("id");
-                    msg.append(_engine.getWorkItemsWithIdentifier(idType, id, sessionHandle));
+                    msg.append(_engine.getWorkItemsWithIdentifier(idType, id,
+                            sessionHandle, compact));
                 }
                 else if (action.equals("getWorkItemsForService")) {
                     String serviceURI = request.getParameter("serviceuri");
-                    msg.append(_engine.getWorkItemsForService(serviceURI, sessionHandle));
+                    msg.append(_engine.getWorkItemsForService(serviceURI,
+                            sessionHandle, compact));
                 }
                 else if (action.equals("taskInformation")) {
                     YSpecificationID specID =
@@ -421,7 +483,8 @@ public class InterfaceB_EngineBasedServer extends YHttpServlet {
                     msg.append(_engine.getCaseData(caseID, sessionHandle));
                 }
                 else if (action.equals("getChildren")) {
-                    msg.append(_engine.getChildrenOfWorkItem(workItemID, sessionHandle));
+                    msg.append(_engine.getChildrenOfWorkItem(workItemID,
+                            sessionHandle, compact));
                 }
                 else if (action.equals("getWorkItemExpiryTime")) {
                     msg.append(_engine.getWorkItemExpiryTime(workItemID, sessionHandle));
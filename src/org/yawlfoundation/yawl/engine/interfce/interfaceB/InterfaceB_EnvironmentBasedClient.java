@@ -95,7 +95,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getCompleteListOfLiveWorkItems(String sessionHandle)
             throws IOException {
-        return unPackWorkItemList(getCompleteListOfLiveWorkItemsAsXML(sessionHandle));
+        return unPackWorkItemList(executeGet(_backEndURIStr,
+                prepareWorkItemListParamMap("getLiveItems", sessionHandle)));
     }
 
     /**
@@ -153,7 +154,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getWorkItemsForCase(String caseID, String sessionHandle)
             throws IOException {
-        Map<String, String> params = prepareParamMap("getWorkItemsWithIdentifier", sessionHandle);
+        Map<String, String> params = prepareWorkItemListParamMap(
+                "getWorkItemsWithIdentifier", sessionHandle);
         params.put("id", caseID) ;
         params.put("idType", "case");
         return unPackWorkItemList(executeGet(_backEndURIStr, params));
@@ -169,7 +171,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getWorkItemsForSpecification(String specName, String sessionHandle)
             throws IOException {
-        Map<String, String> params = prepareParamMap("getWorkItemsWithIdentifier", sessionHandle);
+        Map<String, String> params = prepareWorkItemListParamMap(
+                "getWorkItemsWithIdentifier", sessionHandle);
         params.put("id", specName) ;
         params.put("idType", "spec");
         return unPackWorkItemList(executeGet(_backEndURIStr, params));
@@ -185,7 +188,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getWorkItemsForTask(String taskID, String sessionHandle)
             throws IOException {
-        Map<String, String> params = prepareParamMap("getWorkItemsWithIdentifier", sessionHandle);
+        Map<String, String> params = prepareWorkItemListParamMap(
+                "getWorkItemsWithIdentifier", sessionHandle);
         params.put("id", taskID) ;
         params.put("idType", "task");
         return unPackWorkItemList(executeGet(_backEndURIStr, params));
@@ -227,7 +231,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getWorkItemsForService(String serviceURI, String sessionHandle)
             throws IOException {
-        Map<String, String> params = prepareParamMap("getWorkItemsForService", sessionHandle);
+        Map<String, String> params = prepareWorkItemListParamMap(
+                "getWorkItemsForService", sessionHandle);
         params.put("serviceuri", serviceURI) ;
         return unPackWorkItemList(executeGet(_backEndURIStr, params));
     }
@@ -1027,7 +1032,8 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
      */
     public List<WorkItemRecord> getChildrenOfWorkItem(String workItemID,
                                                String sessionHandle) throws IOException{
-        Map<String, String> params = prepareParamMap("getChildren", sessionHandle);
+        Map<String, String> params = prepareWorkItemListParamMap("getChildren",
+                sessionHandle);
         params.put("workItemID", workItemID);
         return unPackWorkItemList(executeGet(_backEndURIStr, params));
     }
@@ -1181,13 +1187,23 @@ public class InterfaceB_EnvironmentBasedClient extends Interface_Client {
 
 
     /**
-     * Transforms an xml-string set of WorkItemRecords into a list 
+     * Transforms an xml-string set of WorkItemRecords into a list. If the list was
+     * requested in compact form, and the engine replied with xml, the engine doesn't
+     * support the compact form and it is no longer requested.
      * @param xml the string describing the WorkItemRecords
      * @return a list of WorkItemRecord objects
+     * @throws IOException if a compact list could not be decoded
      */
-    private List<WorkItemRecord> unPackWorkItemList(String xml) {
+    private List<WorkItemRecord> unPackWorkItemList(String xml) throws IOException {
         List<WorkItemRecord> result = new ArrayList<WorkItemRecord>();
         if (xml != null && successful(xml)) {
+            if (isCompactWorkItems()) {
+                String content = stripOuterElement(xml);
+                if (WorkItemRecordCodec.isEncoded(content)) {
+                    return WorkItemRecordCodec.decodeFromString(content);
+                }
+                setCompactWorkItems(false);
+            }
             Document doc = JDOMUtil.stringToDocument(xml);
             if (doc != null) {
                 for (Element item : doc.getRootElement().getChildren()) {
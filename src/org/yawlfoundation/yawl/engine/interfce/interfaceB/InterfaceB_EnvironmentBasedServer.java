@@ -26,6 +26,8 @@ import org.yawlfoundation.yawl.engine.interfce.Marshaller;
 import org.yawlfoundation.yawl.engine.interfce.ServletUtils;
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.util.StringUtil;
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -36,8 +38,10 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -101,6 +105,10 @@ public class InterfaceB_EnvironmentBasedServer extends HttpServlet {
             if (logonName != null) _controller.setEngineLogonName(logonName);
             if (logonPassword != null) _controller.setEngineLogonPassword(logonPassword);
 
+            // request lists of work items in compact form?
+            _controller.setCompactWorkItems("true".equalsIgnoreCase(
+                    context.getInitParameter("CompactWorkItems")));
+
             context.setAttribute("controller", _controller);
         }
         catch (Exception e) {
@@ -130,10 +138,18 @@ public class InterfaceB_EnvironmentBasedServer extends HttpServlet {
             paramsMap.put(name, request.getParameter(name));
         }
 
-        // only a request for parameter info needs a non-default response
+        // only a request for parameter info or a batch of announcements needs a
+        // non-default response
         String action = request.getParameter("action");
         String result = "OK";
-        if ("ParameterInfoRequest".equals(action)) {
+        List<Map<String, String>> batch = null;
+        if (InterfaceB_EngineBasedClient.BATCH_ACTION.equals(action)) {
+            batch = parseBatch(paramsMap.get("announcements"));
+
+            // acknowledge receipt by returning the number of announcements received
+            result = StringUtil.wrap(String.valueOf(batch.size()), "response");
+        }
+        else if ("ParameterInfoRequest".equals(action)) {
             YParameter[] params = _controller.describeRequiredParams();
             StringBuilder output = new StringBuilder();
             for (YParameter param : params) {
@@ -149,7 +165,34 @@ public class InterfaceB_EnvironmentBasedServer extends HttpServlet {
         outputWriter.close();
 
         // for all event actions, send the notification to services
-       _executor.execute(new EventHandler(paramsMap));
+        if (batch != null) {
+            for (Map<String, String> announcement : batch) {
+                _executor.execute(new EventHandler(announcement));     // in sent order
+            }
+        }
+        else _executor.execute(new EventHandler(paramsMap));
+    }
+
+
+    /**
+     * Unpacks a batch of announcements
+     * @param xml the batched announcements, as posted by the engine
+     * @return a list of the parameter maps of each announcement in the batch
+     */
+    private List<Map<String, String>> parseBatch(String xml) {
+        List<Map<String, String>> batch = new ArrayList<>();
+        XNode node = new XNodeParser().parse(xml);
+        if (node != null) {
+            for (XNode announcement : node.getChildren()) {
+                Map<String, String> paramsMap = new HashMap<>();
+                for (XNode param : announcement.getChildren()) {
+                    paramsMap.put(param.getName(), param.getText(true));
+                }
+                batch.add(paramsMap);
+            }
+        }
+        else _logger.error("Unable to parse batched announcements: {}", xml);
+        return batch;
     }
 
     
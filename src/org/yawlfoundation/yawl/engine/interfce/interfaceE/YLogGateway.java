@@ -29,7 +29,9 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -84,6 +86,10 @@ public class YLogGateway extends HttpServlet {
                 result = _engine.checkConnection(handle) ;
             else result = _noEngine ;
         }
+        else if (action.equals("exportSpecificationXESLog") && validConnection(handle)) {
+            exportSpecificationXESLog(req, res);           // written directly to res
+            return;
+        }
         else if (validConnection(handle)) {
             synchronized(_logSvr.getPersistenceManager()) {
                 boolean isLocalTransaction = _logSvr.startTransaction();
@@ -210,6 +216,33 @@ public class YLogGateway extends HttpServlet {
     }
 
 
+    /**
+     * Streams the XES log of a specification to the response as it is read, optionally
+     * gzipped, rather than building it as a String.
+     */
+    private void exportSpecificationXESLog(HttpServletRequest req, HttpServletResponse res)
+            throws IOException {
+        YSpecificationID specID = getSpecificationID(req);
+        boolean withData = "true".equalsIgnoreCase(req.getParameter("withdata"));
+        boolean ignoreUnknowns = "true".equalsIgnoreCase(req.getParameter("ignoreUnknowns"));
+        boolean gzip = "true".equalsIgnoreCase(req.getParameter("gzip"));
+        long from = strToLong(req.getParameter("from"));
+        long to = strToLong(req.getParameter("to"));
+
+        OutputStream out;
+        if (gzip) {
+            res.setContentType("application/gzip");
+            out = new GZIPOutputStream(res.getOutputStream(), 65536);
+        }
+        else {
+            res.setContentType("text/xml; charset=UTF-8");
+            out = res.getOutputStream();
+        }
+        _logSvr.writeSpecificationXESLog(specID, withData, ignoreUnknowns, from, to, out);
+        out.close();                                   // also completes any gzip
+    }
+
+
     private boolean validConnection(String handle) {
         try {
             String result = _engine.checkConnection(handle) ;
@@ -23,6 +23,7 @@ import org.yawlfoundation.yawl.engine.interfce.Interface_Client;
 import org.yawlfoundation.yawl.util.PasswordEncryptor;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 /**
@@ -562,6 +563,38 @@ public class YLogGatewayClient extends Interface_Client {
     }
 
 
+    /**
+     * Writes a complete listing of all the cases launched from the specification data
+     * passed, in OpenXES format, to a stream. The log is streamed by the engine as it
+     * is read from the process logs, so there is no limit to its size.
+     * @param specID the unique identifier of the specification
+     * @param withData if true, all data change events will be included
+     * @param ignoreUnknownEventLabels if true, all data events with descriptor 'unknown'
+     *                                 will NOT be included
+     * @param from if greater than zero, only events at or after this time are included
+     * @param to if not negative, only events at or before this time are included
+     * @param gzip if true, the log is sent (and written to the stream) gzip compressed
+     * @param os the stream to write the log (or an error message) to
+     * @param handle an active sessionhandle
+     * @throws java.io.IOException if there's a problem connecting to the engine
+     * @see #getSpecificationXESLog(String, String, String, boolean, boolean, String)
+     */
+    public void exportSpecificationXESLog(YSpecificationID specID, boolean withData,
+                        boolean ignoreUnknownEventLabels, long from, long to,
+                        boolean gzip, OutputStream os, String handle) throws IOException {
+        Map<String, String> params = prepareParamMap("exportSpecificationXESLog", handle);
+        params.put("identifier", specID.getIdentifier());
+        params.put("version", specID.getVersionAsString());
+        params.put("uri", specID.getUri());
+        params.put("withdata", String.valueOf(withData));
+        params.put("ignoreUnknowns", String.valueOf(ignoreUnknownEventLabels));
+        params.put("from", String.valueOf(from));
+        params.put("to", String.valueOf(to));
+        params.put("gzip", String.valueOf(gzip));
+        executePost(_logURI, params, os);
+    }
+
+
 
     /*****************************************************************************/
 
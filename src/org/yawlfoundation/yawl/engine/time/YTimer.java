@@ -18,25 +18,67 @@
 
 package org.yawlfoundation.yawl.engine.time;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import javax.xml.datatype.Duration;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
+ * Schedules the expiry of timed objects (work item timers and delayed case launches).
+ * <p/>
+ * Timers are held in a hierarchical timing wheel, so that scheduling and cancelling a
+ * timer each take constant time, however many timers are scheduled. A single thread
+ * advances the wheel each tick and passes the timers that have expired to a bounded
+ * pool of workers, so that a burst of expiries is handled in parallel rather than one
+ * after the other. The timers of a case are always handled by the same worker, in the
+ * order they expire. When a worker's queue is full, the wheel thread handles the
+ * expiry itself, which slows the wheel until the workers catch up. A timer cancelled
+ * after it expires but before a worker handles it is not handled.
+ *
  * Author: Michael Adams
  * Creation Date: 31/01/2008
  */
 
-public class YTimer extends Timer {
+public class YTimer {
 
     public enum TimeUnit { YEAR, MONTH, WEEK, DAY, HOUR, MIN, SEC, MSEC }
 
+    private static final long TICK_MSEC = 10;                 // the wheel's resolution
+    private static final int WHEEL_BITS = 8;                  // 256 slots per level
+    private static final int LEVELS = 4;                      // 2^32 ticks (~497 days)
+    private static final int SLOT_MASK = (1 << WHEEL_BITS) - 1;
+    private static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
     private static YTimer _me;
-    private final Hashtable<String, TimeKeeper> _runners;
+
+    private final Logger _log = LogManager.getLogger(YTimer.class);
+    private final Map<String, TimeKeeper> _runners;      // [owner id, its timer]
+    private final Map<String, Set<String>> _caseIndex;   // [root case id, owner ids]
+    private final TimeKeeper[] _slots;       // list heads, [level * slots + slot]
+    private long _currentTick;               // timers due by this tick have expired
+    private int _wheelSize;                  // the number of timers in the wheel
+    private Thread _ticker;
+    private boolean _idle;                   // is the ticker waiting for a timer?
+    private ThreadPoolExecutor[] _workers;
+    private int _workerCount = 4;
+    private int _workerQueueSize = 10000;
+
+    private long _scheduled;                 // totals, for statistics
+    private long _expired;
+    private long _cancelled;
+    private long _maxLag;       // the most msecs a timer has been handled after expiry
 
 
     private YTimer() {
-        super(true) ;
-        _runners = new Hashtable<String, TimeKeeper>();
+        _runners = new HashMap<String, TimeKeeper>();
+        _caseIndex = new HashMap<String, Set<String>>();
+        _slots = new TimeKeeper[LEVELS << WHEEL_BITS];
+        _currentTick = System.currentTimeMillis() / TICK_MSEC;
     }
 
 
@@ -46,31 +88,62 @@ public class YTimer extends Timer {
     }
 
 
-    public boolean hasActiveTimer(String itemID) {
+    /**
+     * Sets the number of threads that handle expired timers, and the maximum number
+     * of expired timers each holds waiting to be handled. Expired timers waiting on
+     * the current workers are passed to the new ones.
+     * @param workers the number of worker threads
+     * @param queueSize the maximum number of expired timers queued for each worker
+     */
+    public void setExpiryWorkers(int workers, int queueSize) {
+        ThreadPoolExecutor[] current;
+        synchronized (this) {
+            _workerCount = Math.max(1, workers);
+            _workerQueueSize = Math.max(1, queueSize);
+            current = _workers;
+            _workers = null;                             // new ones started when needed
+        }
+        if (current != null) {
+            List<Runnable> waiting = new ArrayList<Runnable>();
+            for (ThreadPoolExecutor worker : current) {
+                worker.shutdown();
+                worker.getQueue().drainTo(waiting);
+            }
+            for (Runnable timer : waiting) dispatch((TimeKeeper) timer);
+        }
+    }
+
+
+    public synchronized boolean hasActiveTimer(String itemID) {
         return _runners.containsKey(itemID);
     }
 
     public YTimedObject cancelTimerTask(String itemID) {
-        YTimedObject result = null;
-        TimeKeeper timer = _runners.get(itemID);
-        if (timer != null) {
-            result = timer.getOwner();
-            timer.cancel();                           // cancel the scheduled timertask
-            result.cancel();                          // cancel the YWorkItemTimer
-            _runners.remove(itemID);
+        TimeKeeper timer;
+        synchronized (this) {
+            timer = _runners.remove(itemID);
+            if (timer == null) return null;
+            unindex(timer);
+            if (timer.isScheduled()) unlink(timer);      // else expired or expiring
+            timer.cancelled = true;                      // so a worker won't handle it
+            _cancelled++;
         }
+        YTimedObject result = timer.getOwner();
+        result.cancel();                                 // cancel the YWorkItemTimer
         return result;
     }
 
     public void cancelTimersForCase(String caseID) {
-        Set<String> toRemove = new HashSet<String>();
-        for (String itemID : _runners.keySet()) {
-            if (itemID.startsWith(caseID + ":") || itemID.startsWith(caseID + ".")) {
-                toRemove.add(itemID);
-            }
+        List<String> toRemove;
+        synchronized (this) {
+            Set<String> itemIDs = _caseIndex.get(getRootCaseID(caseID));
+            if (itemIDs == null) return;
+            toRemove = new ArrayList<String>(itemIDs);
         }
         for (String itemID : toRemove) {
-            cancelTimerTask(itemID);
+            if (itemID.startsWith(caseID + ":") || itemID.startsWith(caseID + ".")) {
+                cancelTimerTask(itemID);
+            }
         }
     }
 
@@ -78,17 +151,66 @@ public class YTimer extends Timer {
     public void cancelAll() {
 
         // avoid concurrency issues
-        Set<String> timedIDs = new HashSet<String>(_runners.keySet());
+        Set<String> timedIDs;
+        synchronized (this) {
+            timedIDs = new HashSet<String>(_runners.keySet());
+        }
         for (String id : timedIDs) {
             cancelTimerTask(id);
         }
     }
 
 
+    /**
+     * Discards all scheduled timers without cancelling their owners, so that any
+     * persisted timers are restored when the engine restarts, and stops the worker
+     * threads once any expiries they are handling are done.
+     */
     public void shutdown() {
-        for (TimeKeeper timer : _runners.values()) {
-            timer.cancel();
+        ThreadPoolExecutor[] workers;
+        synchronized (this) {
+            Arrays.fill(_slots, null);
+            _wheelSize = 0;
+            for (TimeKeeper timer : _runners.values()) {
+                timer.cancelled = true;                  // any waiting on a worker
+            }
+            _runners.clear();
+            _caseIndex.clear();
+            workers = _workers;
+            _workers = null;
         }
+        if (workers != null) {
+            for (ThreadPoolExecutor worker : workers) {
+                worker.getQueue().clear();
+                worker.shutdown();
+            }
+        }
+    }
+
+
+    /**
+     * Discards all scheduled timers and stops the timer's threads. They are started
+     * again if another timer is scheduled.
+     */
+    public void cancel() {
+        shutdown();
+        synchronized (this) {
+            if (_ticker != null) {
+                _ticker.interrupt();
+                _ticker = null;
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of timers scheduled, expired and cancelled, the number
+     * waiting to expire, and the longest delay between a timer's expiry and its
+     * handling (in msecs)
+     */
+    public synchronized String getStatistics() {
+        return String.format("scheduled: %d, expired: %d, cancelled: %d, pending: %d, " +
+                "max lag: %d", _scheduled, _expired, _cancelled, _wheelSize, _maxLag);
     }
 
 
@@ -96,13 +218,14 @@ public class YTimer extends Timer {
     // the expiry time
 
     public long schedule(YTimedObject timee, long durationAsMilliseconds) {
-        schedule(new TimeKeeper(timee), durationAsMilliseconds) ;
-        return System.currentTimeMillis() + durationAsMilliseconds;
+        long expiryTime = System.currentTimeMillis() + durationAsMilliseconds;
+        schedule(new TimeKeeper(timee, expiryTime));
+        return expiryTime;
     }
 
     
     public long schedule(YTimedObject timee, Date expiryTime) {
-        schedule(new TimeKeeper(timee), expiryTime) ;
+        schedule(new TimeKeeper(timee, expiryTime.getTime()));
         return expiryTime.getTime();
     }
     
@@ -136,23 +259,276 @@ public class YTimer extends Timer {
     
     /********************************************************************************/
 
+    // adds a timer to the wheel, replacing any registered for the same owner id (the
+    // timer replaced still expires as scheduled)
+    private synchronized void schedule(TimeKeeper timer) {
+        if (_wheelSize == 0) {
+            _currentTick = Math.max(_currentTick, System.currentTimeMillis() / TICK_MSEC);
+        }
+        place(timer);
+        TimeKeeper replaced = _runners.put(timer.getOwnerID(), timer);
+        if (replaced == null) index(timer);
+        _scheduled++;
+        if (_ticker == null) {
+            _ticker = new Thread(new Ticker(), "YTimer");
+            _ticker.setDaemon(true);
+            _ticker.start();
+        }
+        else if (_idle) notifyAll();
+    }
+
+
+    // puts a timer in the wheel level and slot for its expiry, relative to the
+    // current tick. Timers already due expire on the next tick; those due beyond the
+    // wheel's span are put in its last slot, and placed again when it is reached
+    private void place(TimeKeeper timer) {
+        long ticks = Math.min(Math.max(timer.getDueTick() - _currentTick, 1), MAX_TICKS);
+        long tick = _currentTick + ticks;
+        int level = 0;
+        while (ticks >= (1L << (WHEEL_BITS * (level + 1)))) level++;
+        int slot = (int) (tick >>> (WHEEL_BITS * level)) & SLOT_MASK;
+        int bucket = (level << WHEEL_BITS) | slot;
+        timer.bucket = bucket;
+        timer.prev = null;
+        timer.next = _slots[bucket];
+        if (timer.next != null) timer.next.prev = timer;
+        _slots[bucket] = timer;
+        _wheelSize++;
+    }
+
+
+    private void unlink(TimeKeeper timer) {
+        if (timer.prev != null) timer.prev.next = timer.next;
+        else _slots[timer.bucket] = timer.next;
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+        timer.bucket = -1;
+        _wheelSize--;
+    }
+
+
+    // removes and returns all the timers in a slot, as a list linked by 'next'
+    private TimeKeeper takeSlot(int bucket) {
+        TimeKeeper head = _slots[bucket];
+        _slots[bucket] = null;
+        for (TimeKeeper timer = head; timer != null; timer = timer.next) {
+            timer.bucket = -1;
+            _wheelSize--;
+        }
+        return head;
+    }
+
+
+    // moves the wheel on one tick, and adds the timers that expire to the list. The
+    // slots of the higher levels that are reached are first cascaded to lower levels
+    private void advance(List<TimeKeeper> expired) {
+        long tick = ++_currentTick;
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = WHEEL_BITS * level;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                int slot = (int) (tick >>> shift) & SLOT_MASK;
+                TimeKeeper timer = takeSlot((level << WHEEL_BITS) | slot);
+                while (timer != null) {
+                    TimeKeeper next = timer.next;
+                    timer.prev = timer.next = null;
+                    if (timer.getDueTick() <= tick) expired.add(timer);
+                    else place(timer);
+                    timer = next;
+                }
+            }
+        }
+        TimeKeeper timer = takeSlot((int) tick & SLOT_MASK);
+        while (timer != null) {
+            TimeKeeper next = timer.next;
+            timer.prev = timer.next = null;
+            expired.add(timer);
+            timer = next;
+        }
+    }
 
-    private class TimeKeeper extends TimerTask {
 
-        private YTimedObject _owner ;
+    // passes each expired timer to the worker for its case
+    private void dispatch(List<TimeKeeper> expired) {
+        for (TimeKeeper timer : expired) {
+            dispatch(timer);
+        }
+    }
+
+
+    private void dispatch(TimeKeeper timer) {
+        if (timer.cancelled) return;
+        ThreadPoolExecutor[] workers = getWorkers();
+        int hash = timer.getCaseID().hashCode() & Integer.MAX_VALUE;
+        workers[hash % workers.length].execute(timer);
+    }
+
 
-        protected TimeKeeper(YTimedObject owner) {
+    // called by a worker when a timer's owner has handled its expiry
+    private synchronized void expired(TimeKeeper timer, long lag) {
+        if (_runners.get(timer.getOwnerID()) == timer) {
+            _runners.remove(timer.getOwnerID());
+            unindex(timer);
+        }
+        _expired++;
+        _maxLag = Math.max(_maxLag, lag);
+    }
+
+
+    private synchronized ThreadPoolExecutor[] getWorkers() {
+        if (_workers == null) {
+            _workers = new ThreadPoolExecutor[_workerCount];
+            for (int i = 0; i < _workerCount; i++) {
+                _workers[i] = new ThreadPoolExecutor(1, 1, 0,
+                        java.util.concurrent.TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(_workerQueueSize),
+                        new WorkerFactory(i), new FullQueueHandler());
+            }
+        }
+        return _workers;
+    }
+
+
+    private void index(TimeKeeper timer) {
+        Set<String> itemIDs = _caseIndex.get(timer.getCaseID());
+        if (itemIDs == null) {
+            itemIDs = new HashSet<String>();
+            _caseIndex.put(timer.getCaseID(), itemIDs);
+        }
+        itemIDs.add(timer.getOwnerID());
+    }
+
+
+    private void unindex(TimeKeeper timer) {
+        Set<String> itemIDs = _caseIndex.get(timer.getCaseID());
+        if (itemIDs != null) {
+            itemIDs.remove(timer.getOwnerID());
+            if (itemIDs.isEmpty()) _caseIndex.remove(timer.getCaseID());
+        }
+    }
+
+
+    // the root case of a work item id (eg. '12' of '12.1.2:taskA')
+    private static String getRootCaseID(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '.' || c == ':') return id.substring(0, i);
+        }
+        return id;
+    }
+
+
+    /********************************************************************************/
+
+    // advances the wheel in step with the clock
+    private class Ticker implements Runnable {
+
+        public void run() {
+            List<TimeKeeper> expired = new ArrayList<TimeKeeper>();
+            while (true) {
+                synchronized (YTimer.this) {
+                    try {
+                        long nowTick = System.currentTimeMillis() / TICK_MSEC;
+                        while (_currentTick < nowTick && _wheelSize > 0) {
+                            advance(expired);
+                        }
+                        if (expired.isEmpty()) {
+                            if (_wheelSize == 0) {
+                                _idle = true;
+                                YTimer.this.wait();
+                                _idle = false;
+                            }
+                            else {
+                                long wait = (_currentTick + 1) * TICK_MSEC -
+                                        System.currentTimeMillis();
+                                if (wait > 0) YTimer.this.wait(wait);
+                            }
+                        }
+                    }
+                    catch (InterruptedException ie) {
+                        _idle = false;
+                        if (_ticker != Thread.currentThread()) break;       // cancelled
+                    }
+                    if (_ticker != Thread.currentThread()) break;
+                }
+                if (! expired.isEmpty()) {
+                    dispatch(expired);                    // outside the lock
+                    expired.clear();
+                }
+            }
+        }
+    }
+
+
+    private static class WorkerFactory implements ThreadFactory {
+
+        private final int _index;
+
+        WorkerFactory(int index) { _index = index; }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "YTimer-expiry-" + _index);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+
+    // runs an expiry on the calling thread when a worker's queue is full, or passes it
+    // to the current workers when the worker has been replaced
+    private class FullQueueHandler implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable timer, ThreadPoolExecutor worker) {
+            if (worker.isShutdown()) {
+                dispatch((TimeKeeper) timer);
+            }
+            else timer.run();
+        }
+    }
+
+
+    private class TimeKeeper implements Runnable {
+
+        private final YTimedObject _owner ;
+        private final String _caseID;
+        private final long _expiryTime;
+        private final long _dueTick;
+
+        private TimeKeeper prev;                         // the wheel slot's list
+        private TimeKeeper next;
+        private int bucket = -1;
+        private volatile boolean cancelled;
+
+        protected TimeKeeper(YTimedObject owner, long expiryTime) {
             _owner = owner;
-            _runners.put(owner.getOwnerID(), this);
+            _caseID = getRootCaseID(owner.getOwnerID());
+            _expiryTime = expiryTime;
+            _dueTick = (expiryTime + TICK_MSEC - 1) / TICK_MSEC;        // never early
         }
 
 
         public YTimedObject getOwner() { return _owner; }
 
+        public String getOwnerID() { return _owner.getOwnerID(); }
+
+        public String getCaseID() { return _caseID; }
 
-        public synchronized void run() {
-            _owner.handleTimerExpiry();
-            _runners.remove(_owner.getOwnerID());
+        public long getDueTick() { return _dueTick; }
+
+        public boolean isScheduled() { return bucket > -1; }
+
+
+        public void run() {
+            if (cancelled) return;                       // after it expired
+            long lag = System.currentTimeMillis() - _expiryTime;
+            try {
+                _owner.handleTimerExpiry();
+            }
+            catch (RuntimeException re) {
+                _log.error("Failed to handle the expiry of timer: " + getOwnerID(), re);
+            }
+            finally {
+                expired(this, lag);
+            }
         }
     }
 }
@@ -20,6 +20,12 @@ package org.yawlfoundation.yawl.logging;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.yawlfoundation.yawl.logging.table.*;
 import org.yawlfoundation.yawl.util.HibernateEngine;
 import org.yawlfoundation.yawl.util.StringUtil;
@@ -36,6 +42,15 @@ public class SpecHistory {
     private final Map<String, Set<Object[]>> _dataMap = new HashMap<String, Set<Object[]>>();
     private final Logger _log = LogManager.getLogger(this.getClass());
 
+    // the state of a scroll through the cases of a specification
+    private StatelessSession _session;
+    private Transaction _tx;
+    private ScrollableResults _results;
+    private Object[] _nextRow;                  // the first row of the next case
+    private boolean _withData;
+
+    private static final int FETCH_SIZE = 1000;
+
     private static final String EVENT_QUERY = "select ni,ti,e,t" +
             " FROM YLogNetInstance ni, YLogTaskInstance ti, YLogEvent e, YLogTask t" +
             " WHERE e.instanceID = ti.taskInstanceID" +
@@ -54,6 +69,17 @@ public class SpecHistory {
             " AND e.rootNetInstanceID = ni.netInstanceID" +
             " AND ni.netID = (:id)";
 
+    // orders the events of a scroll by case, numerically for numeric case ids
+    private static final String CASE_ORDER = " ORDER BY length(ni.engineInstanceID)," +
+            " ni.engineInstanceID, ni.netInstanceID, ti.taskInstanceID, e.eventID";
+
+    private static final String CASE_DATA_QUERY = "select di,dt" +
+            " FROM YLogEvent e, YLogDataItemInstance di, YLogDataType dt" +
+            " WHERE e.descriptor='DataValueChange'" +
+            " AND di.eventID=e.eventID" +
+            " AND dt.dataTypeID=di.dataTypeID" +
+            " AND e.rootNetInstanceID = (:id)";
+
 
     public SpecHistory() {  }
 
@@ -64,46 +90,141 @@ public class SpecHistory {
     }
 
     
-    private List getEvents(HibernateEngine logDb, long specKey) {
+    private List<?> getEvents(HibernateEngine logDb, long specKey) {
         return get(logDb, specKey, EVENT_QUERY);
     }
 
 
-    private List getDataEvents(HibernateEngine logDb, long specKey) {
+    private List<?> getDataEvents(HibernateEngine logDb, long specKey) {
         return get(logDb, specKey, DATA_QUERY);
     }
 
 
-    private List get(HibernateEngine logDb, long specKey, String query) {
+    private List<?> get(HibernateEngine logDb, long specKey, String query) {
         return logDb.createQuery(query).setLong("id", specKey).list();
     }
 
 
-    private XNode processResults(List events, boolean withData) {
+    /**
+     * Reads the events of a specification's cases through a scrolled query ordered by
+     * case, so that only one case at a time is held in memory. Each case is a 'case'
+     * node of the same form as the children of the node returned by {@link #get}, and
+     * the cases are returned in case number order. The scroll reads through a
+     * stateless session of its own, so it holds neither the log database's current
+     * session nor its transaction. The session is closed when the last case is read,
+     * or by calling {@link #close}.
+     * @param logDb the log database
+     * @param specKey the key of the specification's root net
+     * @param withData true to include data change events
+     * @param from if greater than zero, the earliest event time to include
+     * @param to if not negative, the latest event time to include
+     * @return an iterator over the specification's cases
+     */
+    public Iterator<XNode> scroll(HibernateEngine logDb, long specKey, boolean withData,
+                                  long from, long to) {
+        close();
+        _withData = withData;
+        StringBuilder queryString = new StringBuilder(EVENT_QUERY);
+        if (from > 0) queryString.append(" AND e.timestamp >= (:from)");
+        if (to > -1) queryString.append(" AND e.timestamp <= (:to)");
+        queryString.append(CASE_ORDER);
+
+        try {
+            _session = logDb.openStatelessSession();
+            _tx = _session.beginTransaction();
+            Query query = _session.createQuery(queryString.toString());
+            query.setLong("id", specKey);
+            if (from > 0) query.setLong("from", from);
+            if (to > -1) query.setLong("to", to);
+            _results = query.setReadOnly(true).setFetchSize(FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            _nextRow = nextRow();
+        }
+        catch (HibernateException he) {
+            _log.error("Caught Exception: Error scrolling log events", he);
+            close();
+        }
+        return new CaseIterator();
+    }
+
+
+    /**
+     * Closes the query and session of a scroll, if they are still open
+     */
+    public void close() {
+        try {
+            if (_results != null) _results.close();
+            if (_tx != null && _tx.isActive()) _tx.commit();     // read only
+        }
+        catch (HibernateException he) {
+            _log.error("Caught Exception: Error closing log event scroll", he);
+        }
+        finally {
+            if (_session != null) _session.close();
+            _results = null;
+            _tx = null;
+            _session = null;
+            _nextRow = null;
+        }
+    }
+
+
+    private Object[] nextRow() {
+        if (_results.next()) {
+            return _results.get();
+        }
+        close();
+        return null;
+    }
+
+
+    // reads the rows of the next case from the scroll. As in the node built by get(),
+    // the rows of all root net instances with the same case id are one case
+    private XNode readCase() {
+        String caseID = getCaseID(_nextRow);
+        Map<String, XNode> caseMap = new HashMap<String, XNode>();
+        XNode caseNode = getOrCreateCaseNode(caseMap, caseID);
+        XNode netNode = null;
+        long netInstanceID = -1;
+
+        do {
+            YLogNetInstance netInstance = (YLogNetInstance) _nextRow[0];
+            if (netNode == null || netInstance.getNetInstanceID() != netInstanceID) {
+                netInstanceID = netInstance.getNetInstanceID();
+                netNode = getOrCreateNetNode(caseNode, netInstanceID);
+                if (_withData) {
+                    processDataResults(getCaseDataEvents(netInstanceID));
+                }
+            }
+            addEvent(netNode, _nextRow, _withData);
+            _nextRow = nextRow();
+        } while (_nextRow != null && caseID.equals(getCaseID(_nextRow)));
+
+        _dataMap.clear();
+        return caseNode;
+    }
+
+
+    private String getCaseID(Object[] row) {
+        return ((YLogNetInstance) row[0]).getEngineInstanceID();
+    }
+
+
+    private List<?> getCaseDataEvents(long netInstanceID) {
+        return _session.createQuery(CASE_DATA_QUERY)
+                .setLong("id", netInstanceID).list();
+    }
+
+
+    private XNode processResults(List<?> events, boolean withData) {
         _log.debug("XES #process: begins");
         Map<String, XNode> caseMap = new TreeMap<String, XNode>();
         for (Object o : events) {
             Object[] array = (Object[]) o;
             YLogNetInstance netInstance = (YLogNetInstance) array[0];
-            YLogTaskInstance taskInstance = (YLogTaskInstance) array[1];
-            YLogEvent eventInstance = (YLogEvent) array[2];
-            YLogTask task = (YLogTask) array[3];
-
             XNode caseNode = getOrCreateCaseNode(caseMap, netInstance.getEngineInstanceID());
             XNode netNode = getOrCreateNetNode(caseNode, netInstance.getNetInstanceID());
-            XNode taskNode = getOrCreateTaskNode(netNode, taskInstance.getTaskInstanceID(),
-                    task, taskInstance.getEngineInstanceID());
-
-            String eventDescriptor = eventInstance.getDescriptor();
-
-            // don't include data change events if withData is false
-            if (withData || (!eventDescriptor.equals("DataValueChange"))) {
-                XNode eventNode = getOrCreateEventNode(taskNode, eventInstance.getEventID(),
-                        eventDescriptor, eventInstance.getTimestampString());
-                if (eventDescriptor.equals("DataValueChange")) {
-                    addDataNodes(eventNode);
-               }
-            }
+            addEvent(netNode, array, withData);
         }
 
         XNode cases = new XNode("cases");
@@ -122,6 +243,27 @@ public class SpecHistory {
     }
 
 
+    private void addEvent(XNode netNode, Object[] array, boolean withData) {
+        YLogTaskInstance taskInstance = (YLogTaskInstance) array[1];
+        YLogEvent eventInstance = (YLogEvent) array[2];
+        YLogTask task = (YLogTask) array[3];
+
+        XNode taskNode = getOrCreateTaskNode(netNode, taskInstance.getTaskInstanceID(),
+                task, taskInstance.getEngineInstanceID());
+
+        String eventDescriptor = eventInstance.getDescriptor();
+
+        // don't include data change events if withData is false
+        if (withData || (!eventDescriptor.equals("DataValueChange"))) {
+            XNode eventNode = getOrCreateEventNode(taskNode, eventInstance.getEventID(),
+                    eventDescriptor, eventInstance.getTimestampString());
+            if (eventDescriptor.equals("DataValueChange")) {
+                addDataNodes(eventNode);
+            }
+        }
+    }
+
+
     private XNode getOrCreateCaseNode(Map<String, XNode> caseMap, String caseID) {
         XNode caseNode = caseMap.get(caseID);
         if (caseNode == null) {
@@ -168,8 +310,10 @@ public class SpecHistory {
 
     private void addDataNodes(XNode eventNode) {
         XNode dataItemNode = eventNode.getOrAddChild("dataItems");
+        Set<Object[]> dataItems = _dataMap.get(eventNode.getAttributeValue("id"));
+        if (dataItems == null) return;
 
-        for (Object[] array : _dataMap.get(eventNode.getAttributeValue("id"))) {
+        for (Object[] array : dataItems) {
             XNode dataNode = dataItemNode.addChild("dataItem");
             YLogDataItemInstance dataItemInstance = (YLogDataItemInstance) array[0];
             YLogDataType dataType = (YLogDataType) array[1];
@@ -207,7 +351,7 @@ public class SpecHistory {
     }
 
 
-    private void processDataResults(List dataValues) {
+    private void processDataResults(List<?> dataValues) {
         for (Object o : dataValues) {
             Object[] array = (Object[]) o;
             YLogDataItemInstance dataItemInstance = (YLogDataItemInstance) array[0];
@@ -221,4 +365,19 @@ public class SpecHistory {
         }
     }
 
+
+    /*******************************************************************************/
+
+    private class CaseIterator implements Iterator<XNode> {
+
+        public boolean hasNext() { return _nextRow != null; }
+
+        public XNode next() {
+            if (_nextRow == null) throw new NoSuchElementException();
+            return readCase();
+        }
+
+        public void remove() { throw new UnsupportedOperationException(); }
+    }
+
 }
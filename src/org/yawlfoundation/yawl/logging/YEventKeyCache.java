@@ -138,6 +138,20 @@ public class YEventKeyCache {
     }
 
 
+    // removes all cached keys (but not schemas), e.g. when some may refer to rows
+    // that were never written
+    protected void clearKeys() {
+        services.clear();
+        dataDefn.clear();
+        specEntries.clear();
+        rootNets.clear();
+        nets.clear();
+        tasks.clear();
+        netInstances.clear();
+        taskInstances.clear();
+    }
+
+
     /****************************************************************************/
 
     private <K, S, V> V getID(Map<K, Map<S, V>> map, K key, S subKey) {
@@ -21,6 +21,8 @@ package org.yawlfoundation.yawl.logging;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Query;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
 import org.yawlfoundation.yawl.authentication.YClient;
 import org.yawlfoundation.yawl.authentication.YSession;
 import org.yawlfoundation.yawl.elements.YAWLServiceReference;
@@ -33,12 +35,11 @@ import org.yawlfoundation.yawl.schema.XSDType;
 import org.yawlfoundation.yawl.schema.internal.YInternalType;
 import org.yawlfoundation.yawl.util.HibernateEngine;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.yawlfoundation.yawl.engine.YWorkItemStatus.statusIsParent;
 
@@ -91,8 +92,10 @@ public class YEventLogger {
             YLogDataItemInstance.class, YLogDataType.class, YLogService.class
     };
 
-    private static final ExecutorService _executor =
-                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // the max number of rows sent to the database in each JDBC batch
+    private static final int JDBC_BATCH_SIZE = 50;
+
+    private final BatchWriter _writer = new BatchWriter();
 
     // PUBLIC INTERFACE METHODS //
 
@@ -104,7 +107,7 @@ public class YEventLogger {
      */
     public static YEventLogger getInstance(YEngine engine) {
         if (INSTANCE == null) INSTANCE = new YEventLogger();
-        INSTANCE._engine = engine;
+        INSTANCE.setEngine(engine);
         if (! YEngine.isPersisting()) {
             INSTANCE.disable();
             INSTANCE._log.warn("Process logging disabled because Engine persistence is disabled.");
@@ -120,6 +123,10 @@ public class YEventLogger {
     }
 
 
+    // sets the engine to get specification, task and session details from
+    void setEngine(YEngine engine) { _engine = engine; }
+
+
     /* enables event logging (the default) */
     public void enable() { _enabled = true; }
 
@@ -130,6 +137,37 @@ public class YEventLogger {
     public boolean isEnabled() { return _enabled; }
 
 
+    /**
+     * Sets how log events are grouped for writing. Events are written by a single
+     * thread in the order they occur, each batch of events in one transaction.
+     * @param batchSize the maximum number of events written in one transaction (1 to
+     *                  write each event in its own transaction)
+     * @param flushInterval the maximum msecs an event waits for others to join its
+     *                      batch before the batch is written
+     */
+    public void setBatching(int batchSize, long flushInterval) {
+        _writer.setBatching(batchSize, flushInterval);
+    }
+
+
+    /**
+     * Waits until all the events logged so far have been written to the database
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        _writer.flush();
+    }
+
+
+    /**
+     * Writes any events waiting to be written, then stops the writer thread. It
+     * is restarted if any further events are logged.
+     */
+    public void shutdown() {
+        _writer.shutdown();
+    }
+
+
     public String getDataSchema(YSpecificationID specID, String dataTypeName) {
         if (XSDType.isBuiltInType(dataTypeName)) {
             return dataTypeName;                        // most likely scenario
@@ -162,13 +200,15 @@ public class YEventLogger {
                                final YIdentifier caseID, final YLogDataItemList datalist,
                                final String serviceRef) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     long netInstanceID = YEventLogger.this.insertNetInstance(caseID,
                             YEventLogger.this.getRootNetID(ySpecID), -1);
                     long serviceID = YEventLogger.this.getServiceID(serviceRef);
-                    YEventLogger.this.logEvent(netInstanceID, CASE_START, datalist, serviceID, netInstanceID);
+                    YEventLogger.this.logEvent(netInstanceID, CASE_START, datalist, serviceID,
+                            netInstanceID, timestamp);
                     _keyCache.netInstances.put(caseID, netInstanceID);
                 }
             });
@@ -186,7 +226,8 @@ public class YEventLogger {
     public void logSubNetCreated(final YSpecificationID ySpecID,
                                  final YNetRunner runner, final String engineTaskID, final YLogDataItemList datalist) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     // get the required foreign key values
@@ -201,12 +242,14 @@ public class YEventLogger {
                         parentTaskInstanceID = YEventLogger.this.insertTaskInstance(subnetID.toString(),
                                 taskID, -1, YEventLogger.this.getNetInstanceID(subnetID.getParent()));
                     }
-                    YEventLogger.this.logEvent(parentTaskInstanceID, NET_UNFOLD, null, -1, rootNetInstanceID);
+                    YEventLogger.this.logEvent(parentTaskInstanceID, NET_UNFOLD, null, -1,
+                            rootNetInstanceID, timestamp);
 
                     // now log the subnet launch
                     long netInstanceID = YEventLogger.this.insertNetInstance(subnetID, netID,
                             parentTaskInstanceID);
-                    YEventLogger.this.logEvent(netInstanceID, NET_START, datalist, -1, rootNetInstanceID);
+                    YEventLogger.this.logEvent(netInstanceID, NET_START, datalist, -1,
+                            rootNetInstanceID, timestamp);
                 }
             });
         }
@@ -222,13 +265,14 @@ public class YEventLogger {
     public void logCaseCancelled(final YIdentifier caseID,
                                  final YLogDataItemList datalist, final String serviceRef) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     long netInstanceID = YEventLogger.this.getNetInstanceID(caseID);
                     long serviceID = YEventLogger.this.getServiceID(serviceRef);
                     YEventLogger.this.logEvent(netInstanceID, CASE_CANCEL, datalist, serviceID,
-                            YEventLogger.this.getRootNetInstanceID(caseID));
+                            YEventLogger.this.getRootNetInstanceID(caseID), timestamp);
                     _keyCache.removeCase(caseID);
                 }
             });
@@ -245,7 +289,8 @@ public class YEventLogger {
     public void logNetCompleted(final YIdentifier engineNetID,
                                 final YLogDataItemList datalist) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     String event;
@@ -260,7 +305,8 @@ public class YEventLogger {
                         event = CASE_COMPLETE;
                         _keyCache.removeCase(engineNetID);
                     }
-                    YEventLogger.this.logEvent(netInstanceID, event, datalist, -1, rootNetInstanceID);
+                    YEventLogger.this.logEvent(netInstanceID, event, datalist, -1,
+                            rootNetInstanceID, timestamp);
                 }
             });
         }
@@ -270,7 +316,8 @@ public class YEventLogger {
      public void logNetCancelled(final YSpecificationID ySpecID, final YNetRunner runner,
                                  final String engineTaskID, final YLogDataItemList datalist) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     // get the required foreign key values
@@ -282,7 +329,7 @@ public class YEventLogger {
                     // log the composite task cancellation
                     long parentTaskInstanceID = YEventLogger.this.getTaskInstanceID(subnetID, taskID);
                     YEventLogger.this.logEvent(parentTaskInstanceID, NET_CANCEL, datalist, -1,
-                            rootNetInstanceID);
+                            rootNetInstanceID, timestamp);
                 }
             });
         }
@@ -298,7 +345,8 @@ public class YEventLogger {
     public void logWorkItemEvent(final YWorkItem workItem, final String eventName,
                                  final YLogDataItemList datalist) {
         if (loggingEnabled()) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     long taskInstanceID = YEventLogger.this.getTaskInstanceID(workItem);
@@ -307,7 +355,8 @@ public class YEventLogger {
                     }
                     YEventLogger.this.logEvent(taskInstanceID, eventName, datalist,
                             YEventLogger.this.getServiceID(workItem),
-                            YEventLogger.this.getRootNetInstanceID(workItem.getCaseID()));
+                            YEventLogger.this.getRootNetInstanceID(workItem.getCaseID()),
+                            timestamp);
                 }
             });
         }
@@ -320,15 +369,10 @@ public class YEventLogger {
      * @param event the event that has occurred
      * @param datalist a list of data entries to log with this event
      */
-    public void logWorkItemEvent(final YWorkItem workItem,
-                                 final YWorkItemStatus event, final YLogDataItemList datalist) {
-        _executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                String eventName = event.equals(statusIsParent) ? "Decompose" : event.toString();
-                YEventLogger.this.logWorkItemEvent(workItem, eventName, datalist);
-            }
-        });
+    public void logWorkItemEvent(YWorkItem workItem, YWorkItemStatus event,
+                                 YLogDataItemList datalist) {
+        String eventName = event.equals(statusIsParent) ? "Decompose" : event.toString();
+        logWorkItemEvent(workItem, eventName, datalist);
     }
 
 
@@ -341,13 +385,15 @@ public class YEventLogger {
     public void logDataEvent(final YWorkItem workitem, final String descriptor,
                              final YLogDataItemList datalist) {
         if (loggingEnabled() && (datalist.size() > 0)) {
-            _executor.execute(new Runnable() {
+            final long timestamp = now();
+            _writer.submit(new Runnable() {
                 @Override
                 public void run() {
                     long instanceID = YEventLogger.this.getTaskInstanceID(workitem);
                     YEventLogger.this.populateDataListSchemas(workitem.getSpecificationID(), datalist);
                     YEventLogger.this.logEvent(instanceID, descriptor, datalist, -1,
-                            YEventLogger.this.getRootNetInstanceID(workitem.getCaseID()));
+                            YEventLogger.this.getRootNetInstanceID(workitem.getCaseID()),
+                            timestamp);
                 }
             });
         }
@@ -769,10 +815,12 @@ public class YEventLogger {
      * @param serviceID a foreign key to the client service initiating the event
      * @param rootNetInstanceID a foreign key to the root net instance that (eventually)
      * encapsulates this event
+     * @param timestamp the time the event occurred
      */
-    private void logEvent(long instanceID, String descriptor,
-                          YLogDataItemList datalist, long serviceID, long rootNetInstanceID) {
-        long eventID = insertEvent(instanceID, descriptor, serviceID, rootNetInstanceID) ;
+    private void logEvent(long instanceID, String descriptor, YLogDataItemList datalist,
+                          long serviceID, long rootNetInstanceID, long timestamp) {
+        long eventID = insertEvent(instanceID, descriptor, serviceID, rootNetInstanceID,
+                timestamp);
         insertDataItems(eventID, datalist);
     }
 
@@ -785,11 +833,12 @@ public class YEventLogger {
      * @param serviceID a foreign key to the service that triggered the event
      * @param rootNetInstanceID a foreign key to the root net instance that (eventually)
      * encapsulates this event
+     * @param timestamp the time the event occurred
      * @return the primary key of the inserted record
      */
-    private long insertEvent(long instanceID, String descriptor,
-                             long serviceID, long rootNetInstanceID) {
-        YLogEvent logEvent = new YLogEvent(instanceID, descriptor, now(), serviceID,
+    private long insertEvent(long instanceID, String descriptor, long serviceID,
+                             long rootNetInstanceID, long timestamp) {
+        YLogEvent logEvent = new YLogEvent(instanceID, descriptor, timestamp, serviceID,
                                            rootNetInstanceID);
         insertRow(logEvent);
         return logEvent.getEventID();        
@@ -879,7 +928,7 @@ public class YEventLogger {
      * @param o the object representing the contents of the row to insert
      */
     private void insertRow(Object o) {
-        getDb().exec(o, HibernateEngine.DB_INSERT, true);
+        getDb().exec(o, HibernateEngine.DB_INSERT, false);      // committed with batch
     }
 
 
@@ -888,16 +937,204 @@ public class YEventLogger {
      * @param o the object representing the contents of the row to update
      */
     private void updateRow(Object o) {
-        getDb().exec(o, HibernateEngine.DB_UPDATE, true);
+        getDb().exec(o, HibernateEngine.DB_UPDATE, false);
     }
 
 
     protected HibernateEngine getDb() {
         if (_db == null) {
             Set<Class> classSet = new HashSet<Class>(Arrays.asList(LOG_CLASSES));
-            _db = new HibernateEngine(true, classSet);
+
+            // the properties from hibernate.properties, plus insert batching
+            Properties props = new Configuration().getProperties();
+            props.setProperty("hibernate.jdbc.batch_size", String.valueOf(JDBC_BATCH_SIZE));
+            props.setProperty("hibernate.order_inserts", "true");
+            _db = new HibernateEngine(true, classSet, props);
         }
         return _db;
     }
-    
+
+
+    /**
+     * Writes a batch of log events in a single transaction. If any event fails, the
+     * whole transaction is rolled back and the events are written again, each in its
+     * own transaction, so that only the failing events are lost
+     * @param batch the events to write, in the order they occurred
+     */
+    private void write(List<Runnable> batch) {
+        if (writeAll(batch) || batch.size() == 1) return;
+
+        _log.warn("Failed to write a batch of events to the process logs - " +
+                "writing its events one at a time");
+        for (Runnable event : batch) {
+            writeAll(Collections.singletonList(event));
+        }
+    }
+
+
+    /**
+     * Writes log events in a single transaction
+     * @param events the events to write, in the order they occurred
+     * @return true if all the events were written, false if the transaction was
+     * rolled back
+     */
+    private boolean writeAll(List<Runnable> events) {
+        HibernateEngine db = getDb();
+        Transaction tx = db.getOrBeginTransaction();
+        try {
+            for (Runnable event : events) {
+                event.run();
+
+                // a failed insert or select rolls back the transaction, and any
+                // later write would begin a new one without the rows before it
+                if (tx == null || ! tx.isActive()) {
+                    return failed(db, null);
+                }
+            }
+            tx.commit();
+            return true;
+        }
+        catch (RuntimeException re) {
+            return failed(db, re);
+        }
+    }
+
+
+    private boolean failed(HibernateEngine db, RuntimeException re) {
+        if (re != null) _log.warn(getWarnMsg("an event"), re);
+        db.rollback();
+
+        // cached keys may refer to rows rolled back with the failed transaction
+        _keyCache.clearKeys();
+        return false;
+    }
+
+
+    /*******************************************************************************/
+
+    /*
+     * A single writer thread that takes the log events as they are queued and writes
+     * them in batches, in the order they were queued
+     */
+    private class BatchWriter implements Runnable {
+
+        private final BlockingQueue<Runnable> _queue = new LinkedBlockingQueue<Runnable>();
+        private volatile int _batchSize = 100;
+        private volatile long _flushInterval = 50;                      // msecs
+        private Thread _thread;
+
+
+        void setBatching(int batchSize, long flushInterval) {
+            _batchSize = Math.max(1, batchSize);
+            _flushInterval = Math.max(0, flushInterval);
+        }
+
+
+        synchronized void submit(Runnable event) {
+            _queue.add(event);
+            if (_thread == null) {
+                _thread = new Thread(this, "YEventLogger");
+                _thread.setDaemon(true);
+                _thread.start();
+            }
+        }
+
+
+        void flush() throws InterruptedException {
+            FlushMarker marker = new FlushMarker();
+            submit(marker);
+            marker.await();
+        }
+
+
+        // the writer isn't interrupted, since that may close the database connection
+        void shutdown() {
+            Thread thread;
+            StopMarker marker = new StopMarker();
+            synchronized (this) {
+                thread = _thread;
+                _thread = null;
+                if (thread != null) _queue.add(marker);
+            }
+            if (thread != null) {
+                try {
+                    marker.await();
+                }
+                catch (InterruptedException ie) {
+                    // fall through
+                }
+            }
+        }
+
+
+        public void run() {
+            List<Runnable> batch = new ArrayList<Runnable>();
+            try {
+                while (true) {
+                    batch.add(_queue.take());
+                    fill(batch);
+                    boolean stop = last(batch) instanceof StopMarker;
+                    writeBatch(batch);
+                    if (stop) break;
+                }
+            }
+            catch (InterruptedException ie) {
+                _log.warn("Process log writer interrupted - unwritten events are lost");
+            }
+        }
+
+
+        // adds queued events to a batch until it is full, the flush interval has
+        // elapsed since the first was taken, or a flush is requested
+        private void fill(List<Runnable> batch) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + _flushInterval;
+            while (batch.size() < _batchSize && ! (last(batch) instanceof FlushMarker)) {
+                Runnable event = _queue.poll();
+                if (event == null) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    event = _queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (event == null) break;
+                }
+                batch.add(event);
+            }
+        }
+
+
+        private void writeBatch(List<Runnable> batch) {
+            try {
+                write(batch);
+            }
+            catch (RuntimeException re) {
+                _log.error("Failed to write a batch of events to the process logs", re);
+            }
+            for (Runnable event : batch) {
+                if (event instanceof FlushMarker) ((FlushMarker) event).done();
+            }
+            batch.clear();
+        }
+
+
+        private Runnable last(List<Runnable> batch) {
+            return batch.get(batch.size() - 1);
+        }
+    }
+
+
+    // marks the point in the queue a flush() call is waiting for
+    private static class FlushMarker implements Runnable {
+
+        private final CountDownLatch _latch = new CountDownLatch(1);
+
+        public void run() { }
+
+        void done() { _latch.countDown(); }
+
+        void await() throws InterruptedException { _latch.await(); }
+    }
+
+
+    // marks the end of the events to write before the writer stops
+    private static class StopMarker extends FlushMarker { }
+
 }
@@ -30,6 +30,9 @@ import org.yawlfoundation.yawl.util.HibernateEngine;
 import org.yawlfoundation.yawl.util.StringUtil;
 import org.yawlfoundation.yawl.util.XNode;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -740,6 +743,61 @@ public class YLogServer {
                             specid.toString() + "'.</failure>";
     }
 
+
+    /**
+     * Writes the OpenXES log of a specification's cases directly to a stream. Unlike
+     * getSpecificationXESLog, the events are read and written one case at a time, so
+     * the log is never held in memory as a whole. Only the specification is read
+     * through the log database's current session; the events are read through a
+     * session of their own, so that neither the log database nor its transaction is
+     * held while the log is written.
+     * @param specid the specification
+     * @param withData if true, data values are included
+     * @param ignoreUnknownEventLabels if true, events with unknown labels are excluded
+     * @param from if greater than zero, the earliest event time to include
+     * @param to if not negative, the latest event time to include
+     * @param os the stream to write to - it is not closed
+     * @return the number of traces written, or -1 if a failure message was written
+     * instead of the log
+     * @throws IOException if there's a problem writing to the stream
+     */
+    public int writeSpecificationXESLog(YSpecificationID specid, boolean withData,
+                                        boolean ignoreUnknownEventLabels, long from,
+                                        long to, OutputStream os) throws IOException {
+        if (! isEnabled()) {
+            os.write(CONNECTION_ERROR.getBytes("UTF-8"));
+            return -1;
+        }
+        YLogSpecification spec;
+        synchronized(_logDb) {
+            boolean isLocalTransaction = startTransaction();
+            try {
+                spec = getSpecification(specid);
+            }
+            finally {
+                if (isLocalTransaction) commitTransaction();
+            }
+        }
+        if (spec == null) {
+            os.write(("<failure>No records for specification '" +
+                    specid.toString() + "'.</failure>").getBytes("UTF-8"));
+            return -1;
+        }
+
+        SpecHistory history = new SpecHistory();
+        try {
+            return new YXESStreamWriter(ignoreUnknownEventLabels).write(specid,
+                    history.scroll(_logDb, spec.getRootNetID(), withData, from, to), os);
+        }
+        catch (XMLStreamException xse) {
+            throw new IOException("Unable to write XES log for specification '" +
+                    specid.toString() + "'", xse);
+        }
+        finally {
+            history.close();
+        }
+    }
+
     /**
      * ******************************************************************
      */
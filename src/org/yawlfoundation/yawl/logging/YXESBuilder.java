@@ -59,13 +59,24 @@ public class YXESBuilder {
 
     protected void processEvents(XNode root, XNode yawlEvents) {
         for (XNode yawlEvent : yawlEvents.getChildren()) {
-            XNode trace = root.addChild(traceNode(yawlEvent.getAttributeValue("id")));
-            processCaseEvents(yawlEvent, trace);
-            trace.sort(new XESTimestampComparator());
+            root.addChild(buildTrace(yawlEvent));
         }
     }
 
 
+    /**
+     * Builds the XES trace for one case
+     * @param yawlCase the case's events, as a 'case' node from SpecHistory
+     * @return the trace, its events sorted by timestamp
+     */
+    protected XNode buildTrace(XNode yawlCase) {
+        XNode trace = traceNode(yawlCase.getAttributeValue("id"));
+        processCaseEvents(yawlCase, trace);
+        trace.sort(new XESTimestampComparator());
+        return trace;
+    }
+
+
     protected String translateEvent(String yawlEvent) {
         String xesEvent;
         if (yawlEvent.equals(YWorkItemStatus.statusEnabled.toString())) {
@@ -136,11 +147,14 @@ public class YXESBuilder {
     }
 
 
-    /**
-     * *********************************************************************
-     */
+    // escapes a data value for output as an attribute value
+    protected String escape(String value) {
+        return JDOMUtil.encodeEscapes(value);
+    }
 
-    private XNode beginLogOutput(YSpecificationID specid) {
+
+    // the log element with its header, before any traces are added
+    protected XNode beginLogOutput(YSpecificationID specid) {
         XNode log = new XNode("log");
 
         log.addComment(getComment());
@@ -181,6 +195,10 @@ public class YXESBuilder {
     }
 
 
+    /**
+     * *********************************************************************
+     */
+
     private XNode extensionNode(String name, String prefix, String uri) {
         XNode extn = new XNode("extension");
         extn.addAttribute("name", name);
@@ -301,7 +319,7 @@ public class YXESBuilder {
     private XNode formatDataNode(String name, String value, String typeDefinition) {
         String tag = getTagType(typeDefinition);
         value = tag.equals("date") ? formatDateValue(typeDefinition, value) :
-                JDOMUtil.encodeEscapes(value);
+                escape(value);
         return entryNode(tag, name, value);
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.yawlfoundation.yawl.logging;
+
+import org.yawlfoundation.yawl.engine.YSpecificationID;
+import org.yawlfoundation.yawl.util.XNode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes an OpenXES log directly to a stream, one trace at a time, so that a log of
+ * any size can be written without holding it all in memory.
+ */
+public class YXESStreamWriter extends YXESBuilder {
+
+    private static final String INDENT = "  ";
+
+    public YXESStreamWriter() { super(); }
+
+    public YXESStreamWriter(boolean ignoreUnknownEvents) {
+        super(ignoreUnknownEvents);
+    }
+
+
+    /**
+     * Writes the log of a specification's cases
+     * @param specid the specification
+     * @param cases the cases, as read by SpecHistory#scroll
+     * @param os the stream to write to - it is flushed but not closed
+     * @return the number of traces written
+     * @throws XMLStreamException if there's a problem writing to the stream
+     */
+    public int write(YSpecificationID specid, Iterator<XNode> cases, OutputStream os)
+            throws XMLStreamException {
+        XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                .createXMLStreamWriter(os, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+
+        // the header is written as built, and the traces follow it one by one
+        XNode log = beginLogOutput(specid);
+        newLine(writer, 0);
+        writer.writeStartElement(log.getName());
+        writeAttributes(writer, log);
+        for (XNode child : log.getChildren()) {
+            writeNode(writer, child, 1);
+        }
+        int traceCount = 0;
+        while (cases.hasNext()) {
+            writeNode(writer, buildTrace(cases.next()), 1);
+            traceCount++;
+        }
+        newLine(writer, 0);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();                             // leaves the stream open
+        return traceCount;
+    }
+
+
+    // values are escaped by the stream writer
+    @Override
+    protected String escape(String value) {
+        return value;
+    }
+
+
+    private void writeNode(XMLStreamWriter writer, XNode node, int depth)
+            throws XMLStreamException {
+        newLine(writer, depth);
+        if (node.isComment()) {
+            writer.writeComment(node.getText());
+            return;
+        }
+        String text = node.getText();
+        if (text == null && ! node.hasChildren()) {
+            writer.writeEmptyElement(node.getName());
+            writeAttributes(writer, node);
+            return;
+        }
+        writer.writeStartElement(node.getName());
+        writeAttributes(writer, node);
+        if (text != null) writer.writeCharacters(text);
+        if (node.hasChildren()) {
+            for (XNode child : node.getChildren()) {
+                writeNode(writer, child, depth + 1);
+            }
+            newLine(writer, depth);
+        }
+        writer.writeEndElement();
+    }
+
+
+    private void writeAttributes(XMLStreamWriter writer, XNode node)
+            throws XMLStreamException {
+        for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+            String value = attribute.getValue() != null ? attribute.getValue() : "";
+            if (attribute.getKey().equals("xmlns")) {
+                writer.writeDefaultNamespace(value);
+            }
+            else writer.writeAttribute(attribute.getKey(), value);
+        }
+    }
+
+
+    private void newLine(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        StringBuilder s = new StringBuilder("\n");
+        for (int i = 0; i < depth; i++) s.append(INDENT);
+        writer.writeCharacters(s.toString());
+    }
+
+}
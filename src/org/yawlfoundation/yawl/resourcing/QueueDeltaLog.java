@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing;
+
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.QueueDeltas.Action;
+import org.yawlfoundation.yawl.resourcing.QueueDeltas.Delta;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the changes made to the work queues of each participant followed by a
+ * worklist client, so that the client can keep its copy of the queues current by
+ * getting only the changes since it last asked, rather than the queues in full.
+ * <p/>
+ * A participant is followed from the first time a client asks for its changes, until
+ * no client has asked for a while. Up to a set number of the latest changes are kept
+ * for each followed participant. A client asking for changes may wait (i.e. long
+ * poll) until there are some to return. Since each waiting client holds a request
+ * thread, the number of clients waiting at once is capped; a client asking while
+ * the cap is reached is answered at once.
+ * <p/>
+ * Each change is given a sequence number, unique within the epoch (the start time
+ * of this log), from a single counter shared by all participants.
+ */
+public class QueueDeltaLog {
+
+    private static final QueueDeltaLog INSTANCE = new QueueDeltaLog();
+
+    private final long _epoch = System.currentTimeMillis();
+    private final AtomicLong _sequence = new AtomicLong();
+    private final AtomicInteger _waiting = new AtomicInteger();  // clients, all logs
+    private final ConcurrentHashMap<String, ParticipantLog> _logs =
+            new ConcurrentHashMap<String, ParticipantLog>();
+
+    private volatile int _capacity = 1000;             // changes kept per participant
+    private volatile long _idleTimeout = 10 * 60 * 1000;            // msecs
+    private volatile long _maxWait = 30 * 1000;                     // msecs
+    private volatile int _maxWaiters = 50;
+    private volatile long _lastSweep = System.currentTimeMillis();
+
+
+    protected QueueDeltaLog() { }
+
+
+    public static QueueDeltaLog getInstance() { return INSTANCE; }
+
+
+    /**
+     * @param capacity the number of changes kept for each followed participant
+     * @param idleTimeout the msecs after which a participant is no longer followed,
+     *                    if no client has asked for its changes in that time
+     * @param maxWait the longest msecs a client may wait for changes
+     * @param maxWaiters the most clients that may wait for changes at once
+     */
+    public void configure(int capacity, long idleTimeout, long maxWait,
+                          int maxWaiters) {
+        _capacity = Math.max(1, capacity);
+        _idleTimeout = Math.max(1000, idleTimeout);
+        _maxWait = Math.max(0, maxWait);
+        _maxWaiters = Math.max(0, maxWaiters);
+    }
+
+
+    public long getEpoch() { return _epoch; }
+
+
+    /**
+     * @return the number of participants currently followed
+     */
+    public int getFollowedCount() { return _logs.size(); }
+
+
+    /**
+     * @return the number of clients currently waiting for changes
+     */
+    public int getWaitingCount() { return _waiting.get(); }
+
+
+    /**
+     * Records a change to a participant's queue, if the participant is followed
+     * @param ownerID the id of the queue's owner
+     * @param queueType the type of the queue
+     * @param action the kind of change
+     * @param itemID the id of the work item changed (null for a cleared queue)
+     * @param wir the work item added or changed (null otherwise)
+     */
+    public void record(String ownerID, int queueType, Action action, String itemID,
+                       WorkItemRecord wir) {
+        ParticipantLog log = ownerID != null ? _logs.get(ownerID) : null;
+        if (log != null) log.add(queueType, action, itemID, wir);
+    }
+
+
+    /**
+     * Gets the changes made to a participant's queues since a given sequence number,
+     * waiting for a while if there are none yet, unless the most clients allowed are
+     * already waiting. The first call for a participant
+     * begins following it, and will report that a resync is required.
+     * @param participantID the participant's id
+     * @param epoch the epoch of the sequence number
+     * @param since the sequence number of the last change the client has seen, or
+     *              -1 if it has seen none
+     * @param wait the maximum msecs to wait for changes, if there are none already
+     * @return the changes since the sequence number, or an empty batch marked as
+     * requiring a resync if the changes since then are not all available
+     */
+    public QueueDeltas getDeltas(String participantID, long epoch, long since,
+                                 long wait) {
+        sweep();
+        ParticipantLog log = _logs.get(participantID);
+        if (log == null) {
+            log = new ParticipantLog(participantID, _sequence.get());
+            ParticipantLog existing = _logs.putIfAbsent(participantID, log);
+            if (existing != null) log = existing;
+        }
+        try {
+            return log.get(epoch, since, Math.min(Math.max(0, wait), _maxWait));
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return new QueueDeltas(participantID, _epoch, since, false);
+        }
+    }
+
+
+    // true if another client may wait for changes, which it must end by calling
+    // endWait()
+    private boolean beginWait() {
+        if (_waiting.incrementAndGet() <= _maxWaiters) return true;
+        _waiting.decrementAndGet();
+        return false;
+    }
+
+
+    private void endWait() { _waiting.decrementAndGet(); }
+
+
+    // stops following participants no client has asked about for a while
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        if (now - _lastSweep < 60 * 1000) return;
+        _lastSweep = now;
+        Iterator<ParticipantLog> itr = _logs.values().iterator();
+        while (itr.hasNext()) {
+            if (itr.next().isIdle(now - _idleTimeout)) itr.remove();
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    private class ParticipantLog {
+
+        private final String _participantID;
+        private final ArrayDeque<Delta> _deltas = new ArrayDeque<Delta>();
+        private long _lastSequence;           // of the latest change for the participant
+        private long _lostSequence;           // of the latest change not kept
+        private long _lastAccess;
+        private int _waiters;
+
+        // changes made before the participant was followed are lost
+        ParticipantLog(String participantID, long startSequence) {
+            _participantID = participantID;
+            _lastSequence = startSequence;
+            _lostSequence = startSequence;
+            _lastAccess = System.currentTimeMillis();
+        }
+
+
+        synchronized void add(int queueType, Action action, String itemID,
+                              WorkItemRecord wir) {
+            _lastSequence = _sequence.incrementAndGet();
+            _deltas.addLast(new Delta(_lastSequence, queueType, action, itemID, wir));
+            while (_deltas.size() > _capacity) {
+                _lostSequence = _deltas.removeFirst().getSequence();
+            }
+            if (_waiters > 0) notifyAll();
+        }
+
+
+        synchronized QueueDeltas get(long epoch, long since, long wait)
+                throws InterruptedException {
+            _lastAccess = System.currentTimeMillis();
+            if (epoch != _epoch || since < _lostSequence || since > _sequence.get()) {
+                return new QueueDeltas(_participantID, _epoch, _lastSequence, true);
+            }
+            if (since >= _lastSequence && wait > 0 && beginWait()) {
+                long deadline = _lastAccess + wait;
+                _waiters++;
+                try {
+                    long remaining = wait;
+                    while (since >= _lastSequence && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+                finally {
+                    _waiters--;
+                    endWait();
+                    _lastAccess = System.currentTimeMillis();
+                }
+                if (since < _lostSequence) {              // lost while waiting
+                    return new QueueDeltas(_participantID, _epoch, _lastSequence, true);
+                }
+            }
+
+            QueueDeltas deltas = new QueueDeltas(_participantID, _epoch, since, false);
+            Iterator<Delta> itr = _deltas.descendingIterator();
+            ArrayDeque<Delta> newer = new ArrayDeque<Delta>();
+            while (itr.hasNext()) {
+                Delta delta = itr.next();
+                if (delta.getSequence() <= since) break;
+                newer.addFirst(delta);
+            }
+            for (Delta delta : newer) deltas.add(delta);
+            return deltas;
+        }
+
+
+        synchronized boolean isIdle(long cutoff) {
+            return _waiters == 0 && _lastAccess < cutoff;
+        }
+    }
+
+}
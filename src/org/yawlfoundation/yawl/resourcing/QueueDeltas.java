@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing;
+
+import org.jdom2.Element;
+import org.yawlfoundation.yawl.engine.interfce.Marshaller;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+import org.yawlfoundation.yawl.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of changes to the work queues of a participant, as taken from the queue
+ * delta log. A worklist client that holds a copy of a participant's queues keeps it
+ * current by applying each batch in turn, then asking for the changes after the
+ * batch's sequence number.
+ * <p/>
+ * Sequence numbers are only meaningful within an epoch (one run of the resource
+ * service). If the batch is marked as needing a resync, the client's copy can't be
+ * brought up to date from the log (because it is from a previous epoch, or the
+ * changes since it was taken have been dropped from the log), so the client must
+ * get the queues in full, then ask for the changes after this batch's sequence.
+ * Since applying a change is idempotent (an 'added' change replaces any copy of
+ * the item), a client may get a change it has already seen in the full queues.
+ */
+public class QueueDeltas {
+
+    public enum Action { added, removed, changed, cleared }
+
+    private String _participantID;
+    private long _epoch;
+    private long _sequence;                      // of the last change in this batch
+    private boolean _resync;
+    private final List<Delta> _deltas = new ArrayList<Delta>();
+
+
+    public QueueDeltas() { }
+
+    public QueueDeltas(String participantID, long epoch, long sequence, boolean resync) {
+        _participantID = participantID;
+        _epoch = epoch;
+        _sequence = sequence;
+        _resync = resync;
+    }
+
+
+    public String getParticipantID() { return _participantID; }
+
+    public long getEpoch() { return _epoch; }
+
+    public long getSequence() { return _sequence; }
+
+    public boolean isResyncRequired() { return _resync; }
+
+    public List<Delta> getDeltas() { return _deltas; }
+
+    public boolean isEmpty() { return _deltas.isEmpty(); }
+
+
+    public void add(Delta delta) {
+        _deltas.add(delta);
+        _sequence = Math.max(_sequence, delta.getSequence());
+    }
+
+
+    /**
+     * Applies this batch of changes to a copy of a participant's queues
+     * @param qSet the copy to update
+     */
+    public void applyTo(QueueSet qSet) {
+        for (Delta delta : _deltas) {
+            int queue = delta.getQueueType();
+            WorkQueue wq = qSet.getQueue(queue);
+            switch (delta.getAction()) {
+                case added:
+                case changed:
+                    if (delta.getWorkItem() != null) {
+                        qSet.addToQueue(delta.getWorkItem(), queue, false);
+                    }
+                    break;
+                case removed:
+                    if (wq != null) wq.remove(wq.get(delta.getItemID()));
+                    break;
+                case cleared:
+                    if (wq != null) wq.clear();
+                    break;
+            }
+        }
+    }
+
+
+    public String toXML() {
+        StringBuilder xml = new StringBuilder(128 + _deltas.size() * 512);
+        xml.append(String.format("<queueDeltas participantid=\"%s\" epoch=\"%d\" " +
+                "sequence=\"%d\" resync=\"%b\">", JDOMUtil.encodeEscapes(_participantID),
+                _epoch, _sequence, _resync));
+        for (Delta delta : _deltas) xml.append(delta.toXML());
+        xml.append("</queueDeltas>");
+        return xml.toString();
+    }
+
+
+    public void fromXML(String xml) {
+        fromXML(JDOMUtil.stringToElement(xml));
+    }
+
+
+    public void fromXML(Element element) {
+        if (element == null) return;
+        _participantID = element.getAttributeValue("participantid");
+        _epoch = StringUtil.strToLong(element.getAttributeValue("epoch"), 0);
+        _sequence = StringUtil.strToLong(element.getAttributeValue("sequence"), 0);
+        _resync = "true".equals(element.getAttributeValue("resync"));
+        _deltas.clear();
+        for (Element e : element.getChildren("delta")) {
+            Element wirElem = e.getChild("workItemRecord");
+            _deltas.add(new Delta(
+                    StringUtil.strToLong(e.getAttributeValue("sequence"), 0),
+                    StringUtil.strToInt(e.getAttributeValue("queue"), WorkQueue.UNDEFINED),
+                    Action.valueOf(e.getAttributeValue("action")),
+                    e.getAttributeValue("itemid"),
+                    wirElem != null ? JDOMUtil.elementToString(wirElem) : null));
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    /**
+     * A single change to a participant's queue: a work item added, removed or
+     * changed (i.e. its status has changed, but not its queue), or the queue cleared
+     */
+    public static class Delta {
+
+        private final long _sequence;
+        private final int _queueType;
+        private final Action _action;
+        private final String _itemID;                 // null when cleared
+        private final String _wirXML;                 // null when removed or cleared
+
+        /**
+         * @param wir the work item added or changed, as it is now. Since the record
+         *            may change later, its xml is taken now and the record isn't kept
+         */
+        public Delta(long sequence, int queueType, Action action, String itemID,
+                     WorkItemRecord wir) {
+            this(sequence, queueType, action, itemID, wir != null ? wir.toXML() : null);
+        }
+
+        public Delta(long sequence, int queueType, Action action, String itemID,
+                     String wirXML) {
+            _sequence = sequence;
+            _queueType = queueType;
+            _action = action;
+            _itemID = itemID;
+            _wirXML = wirXML;
+        }
+
+        public long getSequence() { return _sequence; }
+
+        public int getQueueType() { return _queueType; }
+
+        public Action getAction() { return _action; }
+
+        public String getItemID() { return _itemID; }
+
+        public WorkItemRecord getWorkItem() {
+            return _wirXML != null ? Marshaller.unmarshalWorkItem(_wirXML) : null;
+        }
+
+        public String toXML() {
+            StringBuilder xml = new StringBuilder(String.format(
+                    "<delta sequence=\"%d\" queue=\"%d\" action=\"%s\"",
+                    _sequence, _queueType, _action.name()));
+            if (_itemID != null) {
+                xml.append(" itemid=\"").append(JDOMUtil.encodeEscapes(_itemID)).append('"');
+            }
+            if (_wirXML != null) {
+                xml.append('>').append(_wirXML).append("</delta>");
+            }
+            else xml.append("/>");
+            return xml.toString();
+        }
+    }
+
+}
@@ -38,14 +38,14 @@ import java.util.Set;
 public class QueueSet {
 
     // participant queues
-    private WorkQueue _qOffered ;
-    private WorkQueue _qAllocated ;
-    private WorkQueue _qStarted ;
-    private WorkQueue _qSuspended ;
+    private volatile WorkQueue _qOffered ;
+    private volatile WorkQueue _qAllocated ;
+    private volatile WorkQueue _qStarted ;
+    private volatile WorkQueue _qSuspended ;
 
     // administrator queues
-    private WorkQueue _qUnoffered ;
-    private WorkQueue _qWorklisted ;
+    private volatile WorkQueue _qUnoffered ;
+    private volatile WorkQueue _qWorklisted ;
 
     private String _ownerID ;
     private setType _type ;
@@ -130,7 +130,7 @@ public class QueueSet {
     }
     
     /** instantiates the queue if it is not yet instantiated */
-    private void checkQueueExists(int queue) {
+    private synchronized void checkQueueExists(int queue) {
         if (isNullQueue(queue)) {
             setQueue(new WorkQueue(_ownerID, queue, _persisting));
         }
@@ -20,13 +20,13 @@ package org.yawlfoundation.yawl.resourcing;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.hibernate.Hibernate;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.yawlfoundation.yawl.authentication.YExternalClient;
 import org.yawlfoundation.yawl.elements.YAWLServiceReference;
 import org.yawlfoundation.yawl.elements.YSpecification;
 import org.yawlfoundation.yawl.elements.data.YParameter;
+import org.yawlfoundation.yawl.engine.YCaseLockTable;
 import org.yawlfoundation.yawl.engine.YSpecificationID;
 import org.yawlfoundation.yawl.engine.interfce.SpecificationData;
 import org.yawlfoundation.yawl.engine.interfce.TaskInformation;
@@ -41,6 +41,7 @@ import org.yawlfoundation.yawl.resourcing.calendar.CalendarException;
 import org.yawlfoundation.yawl.resourcing.calendar.ResourceCalendar;
 import org.yawlfoundation.yawl.resourcing.datastore.PersistedAutoTask;
 import org.yawlfoundation.yawl.resourcing.datastore.WorkItemCache;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AllocationStatistics;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.LogMiner;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
@@ -49,6 +50,7 @@ import org.yawlfoundation.yawl.resourcing.datastore.orgdata.EmptyDataSource;
 import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet;
 import org.yawlfoundation.yawl.resourcing.datastore.orgdata.util.OrgDataRefresher;
 import org.yawlfoundation.yawl.resourcing.datastore.persistence.Persister;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournal;
 import org.yawlfoundation.yawl.resourcing.interactions.AbstractInteraction;
 import org.yawlfoundation.yawl.resourcing.interactions.AllocateInteraction;
 import org.yawlfoundation.yawl.resourcing.jsf.ApplicationBean;
@@ -72,6 +74,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The ResourceManager singleton manages all aspects of the resource perspective,
@@ -113,9 +117,19 @@ public final class ResourceManager extends InterfaceBWebsideController {
     private boolean _isNonDefaultOrgDB;                  // flag for non-yawl org model
 
     private final Object _autoTaskMutex = new Object();   // for executing autotasks
-    private final Object _ibEventMutex = new Object();    // for synchronizing ib events
     private final Object _removalMutex = new Object();    // for removing participants
 
+    // ib events synchronize on the monitor for their case while holding the gate's
+    // read lock; initialisation takes the write lock to hold off all ib events
+    private final ReadWriteLock _ibEventGate = new ReentrantReadWriteLock();
+    private volatile YCaseLockTable _ibEventLocks = new YCaseLockTable(1);
+
+    // updates the queues of large sets of participants in parallel
+    private final ParallelQueueUpdater _queueUpdater = new ParallelQueueUpdater();
+
+    // the participants whose queues have been modified by the current thread's ib event
+    private final ThreadLocal<QueueChanges> _queueChanges = new ThreadLocal<QueueChanges>();
+
     private OrgDataRefresher _orgDataRefresher;        // if set, reloads db at intervals
 
     private boolean _serviceEnabled = true;          // will disable if no participants
@@ -212,7 +226,12 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
     public synchronized void finaliseInitialisation() {
         _workItemCache.setPersist(_persisting);
-        if (_persisting) restoreWorkQueues();
+        _workItemCache.setReconciler(new CachedItemReconciler(), 30);
+        _cache.restoreTaskCompleters(_persisting);
+        if (_persisting) {
+            restoreWorkQueues();
+            AllocationStatistics.getInstance().seed();
+        }
         _calendar = ResourceCalendar.getInstance();
 
         // if tomcat is up, it means this was a 'hot' reload, so the final initialisation
@@ -327,38 +346,50 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
     // Interface B implemented methods //
     public void handleEnabledWorkItemEvent(WorkItemRecord wir) {
-        synchronized (_ibEventMutex) {
-            if (_serviceEnabled) {
-                if (_workItemCache.contains(wir)) {
-                    _log.warn("Duplicate post received for new work item [{}]" +
-                            " - no further action required.", wir.getID());
-                    return;
-                }
-                if (wir.isAutoTask()) {
-                    handleAutoTask(wir, false);
-                } else {
+        Object caseLock = lockCase(wir.getCaseID());
+        try {
+            synchronized (caseLock) {
+                if (_serviceEnabled) {
+                    if (_workItemCache.contains(wir)) {
+                        _log.warn("Duplicate post received for new work item [{}]" +
+                                " - no further action required.", wir.getID());
+                        return;
+                    }
+                    if (wir.isAutoTask()) {
+                        handleAutoTask(wir, false);
+                    } else {
 
-                    // pre 2.0 specs don't have any resourcing info
-                    ResourceMap rMap = getResourceMap(wir);
-                    wir = rMap != null ? rMap.distribute(wir) : offerToAll(wir);
+                        // pre 2.0 specs don't have any resourcing info
+                        ResourceMap rMap = getResourceMap(wir);
+                        wir = rMap != null ? rMap.distribute(wir) : offerToAll(wir);
+                    }
                 }
-            }
 
-            // service disabled, so route directly to admin's unoffered queue
-            else _resAdmin.addToUnoffered(wir);
+                // service disabled, so route directly to admin's unoffered queue
+                else _resAdmin.addToUnoffered(wir);
 
-            // store all manually-resourced workitems in the local cache
-            if (!wir.isAutoTask()) _workItemCache.add(wir);
+                // store all manually-resourced workitems in the local cache
+                if (!wir.isAutoTask()) _workItemCache.add(wir);
+            }
+        }
+        finally {
+            unlockCase();
         }
     }
 
 
     public void handleCancelledWorkItemEvent(WorkItemRecord wir) {
-        synchronized (_ibEventMutex) {
-            if (cleanupWorkItemReferences(wir)) {
-                EventLogger.log(wir, null, EventLogger.event.cancel);
+        Object caseLock = lockCase(wir.getCaseID());
+        try {
+            synchronized (caseLock) {
+                if (cleanupWorkItemReferences(wir)) {
+                    EventLogger.log(wir, null, EventLogger.event.cancel);
+                }
             }
         }
+        finally {
+            unlockCase();
+        }
     }
 
 
@@ -384,6 +415,8 @@ public final class ResourceManager extends InterfaceBWebsideController {
                 removeChain(caseID);
                 removeActiveCalendarEntriesForCase(caseID);
                 _services.removeCaseFromDocStore(caseID);
+                AllocationStatistics.getInstance().removeCase(caseID);
+                _workItemCache.removeCase(caseID);                   // last, once done
   //          }
         }
     }
@@ -415,59 +448,65 @@ public final class ResourceManager extends InterfaceBWebsideController {
         // if its a status change this service didn't cause
         if (!(cachedWir == null || newStatus.equals(cachedWir.getStatus()))) {
 
-            synchronized (_ibEventMutex) {
-
-                // if it has been 'finished', remove it from all queues
-                if ((newStatus.equals(WorkItemRecord.statusComplete)) ||
-                        (newStatus.equals(WorkItemRecord.statusDeadlocked)) ||
-                        (newStatus.equals(WorkItemRecord.statusFailed)) ||
-                        (newStatus.equals(WorkItemRecord.statusDiscarded)) ||
-                        (newStatus.equals(WorkItemRecord.statusForcedComplete))) {
+            Object caseLock = lockCase(cachedWir.getCaseID());
+            try {
+                synchronized (caseLock) {
 
-                    cleanupWorkItemReferences(cachedWir);
-                }
+                    // if it has been 'finished', remove it from all queues
+                    if ((newStatus.equals(WorkItemRecord.statusComplete)) ||
+                            (newStatus.equals(WorkItemRecord.statusDeadlocked)) ||
+                            (newStatus.equals(WorkItemRecord.statusFailed)) ||
+                            (newStatus.equals(WorkItemRecord.statusDiscarded)) ||
+                            (newStatus.equals(WorkItemRecord.statusForcedComplete))) {
 
-                // if it has been 'suspended', find it on a 'started' queue & move it
-                else if (newStatus.equals(WorkItemRecord.statusSuspended)) {
-                    Participant p = getParticipantAssignedWorkItem(cachedWir, WorkQueue.STARTED);
-                    if (p != null) {
-                        p.getWorkQueues().movetoSuspend(cachedWir);
-                        _workItemCache.updateResourceStatus(
-                                cachedWir, WorkItemRecord.statusResourceSuspended);
+                        cleanupWorkItemReferences(cachedWir);
                     }
-                    _workItemCache.updateStatus(cachedWir, newStatus);
-                }
-
-                // if it has moved to started status
-                else if (newStatus.equals(WorkItemRecord.statusExecuting)) {
 
-                    // ...and was previously suspended
-                    if (cachedWir.hasStatus(WorkItemRecord.statusSuspended)) {
-                        Participant p = getParticipantAssignedWorkItem(cachedWir, WorkQueue.SUSPENDED);
+                    // if it has been 'suspended', find it on a 'started' queue & move it
+                    else if (newStatus.equals(WorkItemRecord.statusSuspended)) {
+                        Participant p = getParticipantAssignedWorkItem(cachedWir, WorkQueue.STARTED);
                         if (p != null) {
-                            p.getWorkQueues().movetoUnsuspend(cachedWir);
+                            p.getWorkQueues().movetoSuspend(cachedWir);
                             _workItemCache.updateResourceStatus(
-                                    cachedWir, WorkItemRecord.statusResourceStarted);
+                                    cachedWir, WorkItemRecord.statusResourceSuspended);
                         }
                         _workItemCache.updateStatus(cachedWir, newStatus);
                     }
-                }
 
-                // if it was 'suspended', it's been unsuspended or rolled back
-                else if (oldStatus.equals(WorkItemRecord.statusSuspended)) {
-                    _workItemCache.updateStatus(cachedWir, newStatus);
-                    for (Participant p : getParticipantsAssignedWorkItem(cachedWir)) {
-                        p.getWorkQueues().refresh(cachedWir);
+                    // if it has moved to started status
+                    else if (newStatus.equals(WorkItemRecord.statusExecuting)) {
+
+                        // ...and was previously suspended
+                        if (cachedWir.hasStatus(WorkItemRecord.statusSuspended)) {
+                            Participant p = getParticipantAssignedWorkItem(cachedWir, WorkQueue.SUSPENDED);
+                            if (p != null) {
+                                p.getWorkQueues().movetoUnsuspend(cachedWir);
+                                _workItemCache.updateResourceStatus(
+                                        cachedWir, WorkItemRecord.statusResourceStarted);
+                            }
+                            _workItemCache.updateStatus(cachedWir, newStatus);
+                        }
                     }
-                }
 
-                // if it is 'Is Parent', its just been newly started and has spawned
-                // child items. Since we don't know who started it, all we can do is
-                // pass responsibility to the starting service & remove knowledge of it
-                else if (newStatus.equals(WorkItemRecord.statusIsParent)) {
-                    cleanupWorkItemReferences(cachedWir);
+                    // if it was 'suspended', it's been unsuspended or rolled back
+                    else if (oldStatus.equals(WorkItemRecord.statusSuspended)) {
+                        _workItemCache.updateStatus(cachedWir, newStatus);
+                        for (Participant p : getParticipantsAssignedWorkItem(cachedWir)) {
+                            p.getWorkQueues().refresh(cachedWir);
+                        }
+                    }
+
+                    // if it is 'Is Parent', its just been newly started and has spawned
+                    // child items. Since we don't know who started it, all we can do is
+                    // pass responsibility to the starting service & remove knowledge of it
+                    else if (newStatus.equals(WorkItemRecord.statusIsParent)) {
+                        cleanupWorkItemReferences(cachedWir);
+                    }
                 }
             }
+            finally {
+                unlockCase();
+            }
         }
     }
 
@@ -517,7 +556,8 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
 
     private void doFinalServiceToEngineInitialisation(boolean reloaded) {
-        synchronized (_ibEventMutex) {
+        _ibEventGate.writeLock().lock();          // no ib events until done
+        try {
 
             // if the engine or the service has been restarted during this session
             if (_initCompleted || reloaded) {
@@ -536,6 +576,7 @@ public final class ResourceManager extends InterfaceBWebsideController {
             // (these things are only to be done once per service start)
             if (!_initCompleted) {
                 restoreAutoTasks();
+                pruneTaskCompleters();
                 for (WorkItemRecord wir : _cache.getOrphanedItems()) {
                     checkinItem(null, wir);
                 }
@@ -543,11 +584,15 @@ public final class ResourceManager extends InterfaceBWebsideController {
                 _initCompleted = true;
             }
         }
+        finally {
+            _ibEventGate.writeLock().unlock();
+        }
     }
 
     private boolean cleanupWorkItemReferences(WorkItemRecord wir) {
         if (_serviceEnabled) {
             if (!removeFromAll(wir)) return false;                    // workqueues
+            _workItemCache.markUnresolved(wir.getID());
             ResourceMap rMap = getResourceMap(wir);
             if (rMap != null) {
                 rMap.removeIgnoreList(wir);
@@ -668,8 +713,8 @@ public final class ResourceManager extends InterfaceBWebsideController {
             WorkItemRecord deadWir = _workItemCache.get(missingID);
 
             // remove from queues first to avoid a db foreign key violation
-            // then let the cache 'cleanser' runner remove it
             removeFromAll(deadWir);
+            _workItemCache.remove(missingID);
             _log.info("Cached workitem '{}' did not exist in the Engine and so was removed.",
                     missingID);
         }
@@ -721,13 +766,15 @@ public final class ResourceManager extends InterfaceBWebsideController {
         _workItemCache.restore();
         List<WorkQueue> orphanedQueues = new ArrayList<WorkQueue>();
 
-        // restore the queues and attach to their owners
+        // restore the queues and their members, and attach to their owners
         List<WorkQueue> qList = _persister.select("WorkQueue");
+        Map<String, Set<String>> members = QueueJournal.getInstance().restore();
 
         if (qList != null) {
             for (WorkQueue wq : qList) {
                 wq.setPersisting(true);
-                Hibernate.initialize(wq.getQueueAsMap());   // avoid lazy loading errors
+                wq.restoreItems(members.get(QueueJournal.getKey(wq.getOwnerID(),
+                        wq.getQueueType())), _workItemCache);
                 if (wq.getOwnerID().equals(ADMIN_STR)) {
                     _resAdmin.attachWorkQueue(wq, _persisting);
                 } else {
@@ -929,18 +976,42 @@ public final class ResourceManager extends InterfaceBWebsideController {
     public WorkItemRecord offerToAll(WorkItemRecord wir) {
         if (_orgDataSet.getParticipantCount() > 0) {
             _workItemCache.updateResourceStatus(wir, WorkItemRecord.statusResourceOffered);
-            for (Participant p : _orgDataSet.getParticipants()) {
-                QueueSet qSet = p.getWorkQueues();
-                if (qSet == null) qSet = p.createQueueSet(_persisting);
-                qSet.addToQueue(wir, WorkQueue.OFFERED);
-                announceModifiedQueue(p.getID());
-            }
+            addToQueues(_orgDataSet.getParticipants(), wir, WorkQueue.OFFERED);
         } else _resAdmin.addToUnoffered(wir);
 
         return wir;
     }
 
 
+    /**
+     * Adds a work item to a queue of each of a set of participants, and announces
+     * the modified queues
+     * @param pSet the participants
+     * @param wir the work item
+     * @param queue the queue type
+     */
+    public void addToQueues(Collection<Participant> pSet, WorkItemRecord wir, int queue) {
+        for (String pid : _queueUpdater.addToQueue(pSet, wir, queue, _persisting)) {
+            announceModifiedQueue(pid);
+        }
+    }
+
+
+    /**
+     * Removes a work item from a queue of each of a set of participants, and
+     * announces the modified queues
+     * @param pSet the participants
+     * @param wir the work item
+     * @param queue the queue type
+     */
+    public void removeFromQueues(Collection<Participant> pSet, WorkItemRecord wir,
+                                 int queue) {
+        for (String pid : _queueUpdater.removeFromQueue(pSet, wir, queue)) {
+            announceModifiedQueue(pid);
+        }
+    }
+
+
     private void withdrawOffer(ResourceMap rMap, WorkItemRecord wir) {
         if (rMap != null && rMap.hasOffers(wir.getID())) {
             rMap.withdrawOffer(wir);     // rMap has record of who was offered wir
@@ -1013,8 +1084,7 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
             // either start is user-initiated or there's no resource map (beta spec) 
             wir.setResourceStatus(WorkItemRecord.statusResourceAllocated);
-            QueueSet qSet = p.getWorkQueues();
-            if (qSet == null) qSet = p.createQueueSet(_persisting);
+            QueueSet qSet = p.getOrCreateWorkQueues(_persisting);
             qSet.addToQueue(wir, WorkQueue.ALLOCATED);
         }
 
@@ -1591,11 +1661,8 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
 
     private String getSpecIdentifierForCase(String caseID) {
-        for (WorkItemRecord wir : _workItemCache.values()) {
-            if (wir.getRootCaseID().equals(caseID))
-                return wir.getSpecIdentifier();
-        }
-        return "";
+        Set<WorkItemRecord> items = _workItemCache.getCaseItems(caseID);
+        return items.isEmpty() ? "" : items.iterator().next().getSpecIdentifier();
     }
 
     private void cleanCaches() {
@@ -1789,23 +1856,36 @@ public final class ResourceManager extends InterfaceBWebsideController {
 
     public Set<Participant> getWhoCompletedTask(String taskID, WorkItemRecord wir) {
         String caseID = wir.getRootCaseID();
-        Set<Participant> completers = _cache.getTaskCompleters(taskID, caseID);
-        if (completers.isEmpty()) {          // empty if tomcat restarted mid-case
-            LogMiner miner = LogMiner.getInstance();
-            String xml = miner.getCaseEvents(caseID);
-            if (! (xml == null || xml.startsWith("<fail"))) {
-                XNode root = new XNodeParser().parse(xml);
-                for (XNode eventNode : root.getChildren()) {
-                    String eTaskID = eventNode.getChildText("taskid");
-                    String eType = eventNode.getChildText("eventtype");
-                    if (! (eTaskID == null || eType == null) &&
-                            eTaskID.equals(taskID) && eType.equals("complete")) {
-                        String pid = eventNode.getChildText("resourceid");
-                        Participant p = _orgDataSet.getParticipant(pid);
-                        if (p != null) {
-                            completers.add(p);
-                        }
+        if (! _cache.hasTaskCompleters(caseID)) {
+            _cache.addTaskCompleters(caseID, getTaskCompletersFromLog(caseID));
+        }
+        return _cache.getTaskCompleters(taskID, caseID);
+    }
+
+
+    /**
+     * Gets the completers of each task of a case from the event log. Only needed for
+     * a case not yet in the task completer index, i.e. one with no completions so
+     * far, or one begun before the index was persisted (or while persistence was off)
+     * @param caseID the root case id
+     * @return a map of [task id, ids of the participants who completed it]
+     */
+    private Map<String, Set<String>> getTaskCompletersFromLog(String caseID) {
+        Map<String, Set<String>> completers = new HashMap<String, Set<String>>();
+        String xml = LogMiner.getInstance().getCaseEvents(caseID);
+        if (! (xml == null || xml.startsWith("<fail"))) {
+            XNode root = new XNodeParser().parse(xml);
+            for (XNode eventNode : root.getChildren()) {
+                String eTaskID = eventNode.getChildText("taskid");
+                String eType = eventNode.getChildText("eventtype");
+                String pid = eventNode.getChildText("resourceid");
+                if (! (eTaskID == null || pid == null) && "complete".equals(eType)) {
+                    Set<String> pids = completers.get(eTaskID);
+                    if (pids == null) {
+                        pids = new HashSet<String>();
+                        completers.put(eTaskID, pids);
                     }
+                    pids.add(pid);
                 }
             }
         }
@@ -1813,6 +1893,24 @@ public final class ResourceManager extends InterfaceBWebsideController {
     }
 
 
+    // removes the task completers of cases that completed while the service was down
+    private void pruneTaskCompleters() {
+        XNode caseNode = _services.getAllRunningCases();
+        if (caseNode != null) {                         // null if engine call failed
+            Set<String> runningIDs = new HashSet<String>();
+            for (XNode specNode : caseNode.getChildren()) {
+                for (XNode idNode : specNode.getChildren()) {
+                    runningIDs.add(idNode.getText());
+                }
+            }
+            int pruned = _cache.pruneTaskCompleters(runningIDs);
+            if (pruned > 0) {
+                _log.info("Removed task completers for {} completed cases", pruned);
+            }
+        }
+    }
+
+
     /**
      * get the workitem's (task) decomposition id
      *
@@ -1912,6 +2010,10 @@ public final class ResourceManager extends InterfaceBWebsideController {
                         }
                     }
                     freeSecondaryResources(wir);
+
+                    // the item, and its parent if it was the last child, are done
+                    _workItemCache.markUnresolved(wir.getID());
+                    _workItemCache.markUnresolved(wir.getParentID());
                 } else {
                     _cache.removeTaskCompleter(p, wir);
 
@@ -2162,9 +2264,11 @@ public final class ResourceManager extends InterfaceBWebsideController {
     public void shutdown() {
         try {
             _cache.shutdown();
+            QueueJournal.getInstance().shutdown();         // write pending entries
+            _workItemCache.shutdown();                     // ... and cached items
+            _queueUpdater.shutdown();
             _persister.closeDB();
             if (_orgDataRefresher != null) _orgDataRefresher.cancel();
-            _workItemCache.stopCleanserThread();
         } catch (Exception e) {
             _log.error("Unsuccessful audit log update on shutdown.");
         }
@@ -2243,36 +2347,42 @@ public final class ResourceManager extends InterfaceBWebsideController {
      * @throws IOException if there's trouble talking to the engine
      */
     public String cancelCase(String caseID, String userHandle) throws IOException {
-        synchronized (_ibEventMutex) {
-            List<WorkItemRecord> liveItems = _services.getLiveWorkItemsForCase(caseID);
-            YSpecificationID specID = null;                           // for logging only
-
-            // cancel the case in the engine
-            String result = _services.cancelCase(caseID);
-
-            // remove live items for case from workqueues and cache
-            if (successful(result)) {
-                if (liveItems != null) {
-                    for (WorkItemRecord wir : liveItems) {
-                        if (specID == null) specID = new YSpecificationID(wir);
-                        if (removeFromAll(wir)) {
-                            freeSecondaryResources(wir);
+        Object caseLock = lockCase(caseID);
+        try {
+            synchronized (caseLock) {
+                List<WorkItemRecord> liveItems = _services.getLiveWorkItemsForCase(caseID);
+                YSpecificationID specID = null;                           // for logging only
+
+                // cancel the case in the engine
+                String result = _services.cancelCase(caseID);
+
+                // remove live items for case from workqueues and cache
+                if (successful(result)) {
+                    if (liveItems != null) {
+                        for (WorkItemRecord wir : liveItems) {
+                            if (specID == null) specID = new YSpecificationID(wir);
+                            if (removeFromAll(wir)) {
+                                freeSecondaryResources(wir);
+                            }
+                            EventLogger.log(wir, null, EventLogger.event.cancelled_by_case);
                         }
-                        EventLogger.log(wir, null, EventLogger.event.cancelled_by_case);
+                        _cache.removeChainedCase(caseID);
                     }
-                    _cache.removeChainedCase(caseID);
+
+                    // log the cancellation
+                    Participant p = _cache.getParticipantWithSessionHandle(userHandle);
+                    String pid = (p != null) ? p.getID() : ADMIN_STR;
+                    EventLogger.log(specID, caseID, pid, false);
+                } else {
+                    _log.error("Error attempting to cancel case {}: {}",
+                            caseID, StringUtil.unwrap(result));
                 }
 
-                // log the cancellation
-                Participant p = _cache.getParticipantWithSessionHandle(userHandle);
-                String pid = (p != null) ? p.getID() : ADMIN_STR;
-                EventLogger.log(specID, caseID, pid, false);
-            } else {
-                _log.error("Error attempting to cancel case {}: {}",
-                        caseID, StringUtil.unwrap(result));
+                return result;
             }
-
-            return result;
+        }
+        finally {
+            unlockCase();
         }
     }
 
@@ -2451,13 +2561,98 @@ public final class ResourceManager extends InterfaceBWebsideController {
     }
 
 
+    /**
+     * Announces that a participant's queues have been modified. During an ib event,
+     * the announcements are collected and made once per participant when the event
+     * has been handled.
+     * @param pid the participant's id
+     */
     public void announceModifiedQueue(String pid) {
-        if (_jsfApplicationReference != null) {
+        QueueChanges changes = _queueChanges.get();
+        if (changes != null) {
+            changes.pids.add(pid);
+        }
+        else if (_jsfApplicationReference != null) {
             _jsfApplicationReference.refreshUserWorkQueues(pid);
         }
     }
 
 
+    /**
+     * Sets whether ib events for different cases are handled concurrently. Must be
+     * called before any events are received.
+     * @param enable if true, events are serialised per case; if false, all events
+     *               are serialised
+     */
+    public void setCaseLevelEventHandling(boolean enable) {
+        _ibEventLocks = enable ? new YCaseLockTable() : new YCaseLockTable(1);
+    }
+
+
+    /**
+     * @param threshold the smallest set of participants whose queues are updated in
+     *                  parallel when an item is distributed to them. A value less
+     *                  than 1 disables parallel updates.
+     */
+    public void setQueueFanOutThreshold(int threshold) {
+        _queueUpdater.setThreshold(threshold);
+    }
+
+
+    // takes the gate's read lock and begins collecting queue announcements, then
+    // returns the monitor to synchronize the case's ib event on
+    private Object lockCase(String caseID) {
+        _ibEventGate.readLock().lock();
+        QueueChanges changes = _queueChanges.get();
+        if (changes == null) {
+            changes = new QueueChanges();
+            _queueChanges.set(changes);
+        }
+        changes.depth++;
+        return _ibEventLocks.getLock(caseID != null ? caseID : "");
+    }
+
+
+    // makes the collected queue announcements, then releases the gate's read lock
+    private void unlockCase() {
+        try {
+            QueueChanges changes = _queueChanges.get();
+            if (--changes.depth == 0) {
+                _queueChanges.remove();
+                for (String pid : changes.pids) announceModifiedQueue(pid);
+            }
+        }
+        finally {
+            _ibEventGate.readLock().unlock();
+        }
+    }
+
+
+    // the ids of the participants with modified queues, for one thread's ib event(s)
+    private static class QueueChanges {
+        int depth;
+        final Set<String> pids = new HashSet<String>();
+    }
+
+
+    // an unresolved cached item is still needed if it is in a work queue, or if the
+    // engine still has it
+    private class CachedItemReconciler implements WorkItemCache.Reconciler {
+
+        public boolean isLive(WorkItemRecord wir) throws IOException {
+            if (getParticipantsAssignedWorkItem(wir) != null) return true;
+            QueueSet adminQueues = _resAdmin.getWorkQueues();
+            if (adminQueues != null &&
+                    (adminQueues.hasWorkItemInQueue(wir.getID(), WorkQueue.UNOFFERED) ||
+                    adminQueues.hasWorkItemInQueue(wir.getID(), WorkQueue.WORKLISTED))) {
+                return true;
+            }
+            return successful(_interfaceBClient.getWorkItem(wir.getID(),
+                    getEngineSessionHandle()));
+        }
+    }
+
+
     public String addRegisteredService(YAWLServiceReference service) throws IOException {
         String result = _services.addRegisteredService(service);
         if (successful(result)) {
@@ -32,6 +32,7 @@ import org.yawlfoundation.yawl.resourcing.resource.SecondaryResources;
 import org.yawlfoundation.yawl.resourcing.util.TaggedStringList;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -66,7 +67,7 @@ public class ResourceMap {
 
     // workitem id - offered-to-participants mapping
     private Map<String, Set<Participant>> _offered = new
-            HashMap<String, Set<Participant>>() ;
+            ConcurrentHashMap<String, Set<Participant>>() ;
 
     private static final Logger _log = LogManager.getLogger(ResourceMap.class) ;
 
@@ -233,7 +234,7 @@ public class ResourceMap {
     public boolean isPersisting() { return (_persister != null); }
 
 
-    public void ignore(WorkItemRecord wir, Participant p) {
+    public synchronized void ignore(WorkItemRecord wir, Participant p) {
         TaggedStringList ignoredForWorkItem = getIgnoredList(wir.getID());
         if (ignoredForWorkItem != null)
             ignoredForWorkItem.add(p.getID());
@@ -242,7 +243,7 @@ public class ResourceMap {
     }
 
 
-    public TaggedStringList getIgnoredList(String key) {
+    public synchronized TaggedStringList getIgnoredList(String key) {
         TaggedStringList result = null;
         for (TaggedStringList list : _ignoreSet) {
             if (list.getTag().equals(key)) {
@@ -363,12 +364,7 @@ public class ResourceMap {
         if (_allocate.getInitiator() == AbstractInteraction.USER_INITIATED) {
 
             // for each participant in set, place workitem on their offered queue
-            for (Participant p : distributionSet) {
-                QueueSet qs = p.getWorkQueues() ;
-                if (qs == null) qs = p.createQueueSet(getRM().isPersisting());
-                qs.addToQueue(wir, WorkQueue.OFFERED);
-                getRM().announceModifiedQueue(p.getID());
-            }
+            getRM().addToQueues(distributionSet, wir, WorkQueue.OFFERED);
             _offered.put(wir.getID(), distributionSet);
         }
         else {
@@ -394,8 +390,7 @@ public class ResourceMap {
 
     private void doStart(Participant p, WorkItemRecord wir) {
         boolean started = false ;
-        QueueSet qs = p.getWorkQueues() ;
-        if (qs == null) qs = p.createQueueSet(getRM().isPersisting());
+        QueueSet qs = p.getOrCreateWorkQueues(getRM().isPersisting());
 
         if (_start.getInitiator() == AbstractInteraction.SYSTEM_INITIATED) {
             started = getRM().startImmediate(p, wir) ;
@@ -429,19 +424,18 @@ public class ResourceMap {
     }
 
 
+    // an available participant has no calendar entries for the current moment
     private void removeUnavailableParticipants(Set<Participant> distributionSet) {
-        Set<Participant> unavailable = new HashSet<Participant>();
-        for (Participant p : distributionSet) {
-            if (! p.isAvailable()) unavailable.add(p);
-        }
-        distributionSet.removeAll(unavailable);
+        long now = System.currentTimeMillis();
+        distributionSet.retainAll(getRM().getCalendar().getAvailableResources(
+                distributionSet, now, now, 100));
     }
     
 
     private ResourceManager getRM() { return ResourceManager.getInstance(); }
 
 
-    public void removeIgnoreList(WorkItemRecord wir) {
+    public synchronized void removeIgnoreList(WorkItemRecord wir) {
         TaggedStringList ignoredForWorkItem = getIgnoredList(wir.getID());
         if (ignoredForWorkItem != null) {
             _ignoreSet.remove(ignoredForWorkItem) ;
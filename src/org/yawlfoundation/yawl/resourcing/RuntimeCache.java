@@ -24,6 +24,7 @@ import org.yawlfoundation.yawl.engine.interfce.SpecificationData;
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
 import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.TaskCompleterIndex;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 import org.yawlfoundation.yawl.resourcing.rsInterface.ConnectionCache;
 import org.yawlfoundation.yawl.resourcing.rsInterface.ServiceConnection;
@@ -32,6 +33,7 @@ import org.yawlfoundation.yawl.resourcing.rsInterface.UserConnectionCache;
 import org.yawlfoundation.yawl.resourcing.util.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Michael Adams
@@ -59,18 +61,18 @@ public class RuntimeCache {
 
     // handled deferred choice groups ids for a case: <caseID, groupIDs>
     private Map<String, TaggedStringList> _deferredItemGroups = 
-            new HashMap<String, TaggedStringList>();
+            new ConcurrentHashMap<String, TaggedStringList>();
 
     // cases that have workitems chained to a participant: <caseid, Participant>
-    private Map<String, Participant> _chainedCases = new HashMap<String, Participant>();
+    private Map<String, Participant> _chainedCases =
+            new ConcurrentHashMap<String, Participant>();
 
-    // cache of who completed tasks, for four-eyes and retain familiar use <caseid, cache>
-    private Map<String, FourEyesCache> _taskCompleters =
-            new HashMap<String, FourEyesCache>();
+    // who completed tasks, for four-eyes and retain familiar use <caseid, <taskid, pids>>
+    private final TaskCompleterIndex _taskCompleters = new TaskCompleterIndex();
 
     // map of workitem id -> CodeletRunner running codelet for it
     private Map<String, CodeletRunner> _codeletRunners =
-            new HashMap<String, CodeletRunner>();
+            new ConcurrentHashMap<String, CodeletRunner>();
 
     // started workitems that have been restored for a no longer existing participant.
     // these are force-completed once start-up has completed
@@ -205,33 +207,51 @@ public class RuntimeCache {
 
     /******************************************************************************/
     
+    protected void restoreTaskCompleters(boolean persisting) {
+        _taskCompleters.setPersisting(persisting);
+        _taskCompleters.restore();
+    }
+
+
     protected void addTaskCompleter(Participant p, WorkItemRecord wir) {
-        String caseID = wir.getRootCaseID();
-        FourEyesCache cache = _taskCompleters.get(caseID);
-        if (cache == null) {
-            cache = new FourEyesCache(caseID);
-            _taskCompleters.put(caseID, cache);
-        }
-        cache.addCompleter(wir.getTaskID(), p);
+        _taskCompleters.add(wir.getRootCaseID(), wir.getTaskID(), p.getID());
+    }
+
+
+    protected void addTaskCompleters(String caseID, Map<String, Set<String>> completers) {
+        _taskCompleters.addCase(caseID, completers);
+    }
+
+
+    protected boolean hasTaskCompleters(String caseID) {
+        return _taskCompleters.containsCase(caseID);
     }
 
 
     protected Set<Participant> getTaskCompleters(String taskID, String caseID) {
         Set<Participant> result = new HashSet<Participant>();
-        FourEyesCache cache = _taskCompleters.get(caseID);
-        if (cache != null) result = cache.getCompleters(taskID);
+        for (String pid : _taskCompleters.get(caseID, taskID)) {
+            Participant p = _orgDataSet.getParticipant(pid);
+            if (p != null) result.add(p);
+        }
         return result ;
     }
 
 
     protected void removeTaskCompleter(Participant p, WorkItemRecord wir) {
-        FourEyesCache cache = _taskCompleters.get(wir.getRootCaseID());
-        if (cache != null) cache.removeCompleter(wir.getTaskID(), p);
+        if (p != null) {
+            _taskCompleters.remove(wir.getRootCaseID(), wir.getTaskID(), p.getID());
+        }
     }
 
 
     protected void removeCaseFromTaskCompleters(String caseid) {
-        _taskCompleters.remove(caseid);
+        _taskCompleters.removeCase(caseid);
+    }
+
+
+    protected int pruneTaskCompleters(Set<String> runningCaseIDs) {
+        return _taskCompleters.prune(runningCaseIDs);
     }
 
 
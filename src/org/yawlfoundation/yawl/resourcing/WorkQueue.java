@@ -24,6 +24,7 @@ import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.datastore.WorkItemCache;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
 import org.yawlfoundation.yawl.resourcing.datastore.persistence.Persister;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournal;
 import org.yawlfoundation.yawl.util.JDOMUtil;
 import org.yawlfoundation.yawl.util.StringUtil;
 
@@ -97,14 +98,33 @@ public class WorkQueue {
 
     // PRIVATE METHODS //
 
-    /** Called when this workqueue's contents have changed.
+    /** Called when this workqueue's contents have changed, to record the change in
+     *  the queue journal.
      *  Note that the admin worklisted queue is dynamically constructed from the union
      *  of all participant queues and thus does not need to be persisted
      */
-    private void persistThis() {
+    private void journal(int action, String itemID) {
         if (_persisting && _queueType < WORKLISTED) {
-            Persister.getInstance().update(this);
-        }    
+            QueueJournal.getInstance().record(_ownerID, _queueType, action, itemID);
+        }
+    }
+
+
+    private void journal(int action, Set<String> itemIDs) {
+        for (String itemID : itemIDs) journal(action, itemID);
+    }
+
+
+    /** Records a change for any worklist client following this queue's owner */
+    private void announce(QueueDeltas.Action action, String itemID, WorkItemRecord wir) {
+        QueueDeltaLog.getInstance().record(_ownerID, _queueType, action, itemID, wir);
+    }
+
+
+    private void announce(QueueDeltas.Action action, Map<String, WorkItemRecord> map) {
+        for (WorkItemRecord wir : map.values()) {
+            if (wir != null) announce(action, wir.getID(), wir);
+        }
     }
 
 
@@ -153,7 +173,8 @@ public class WorkQueue {
      */
     public void add(WorkItemRecord item, boolean log) {
         _workitems.put(item.getID(), item) ;
-        persistThis() ;
+        journal(QueueJournal.ADD, item.getID()) ;
+        announce(QueueDeltas.Action.added, item.getID(), item);
         if (log) logEvent(item);
     }
 
@@ -163,7 +184,8 @@ public class WorkQueue {
      */
     public void addQueue(Map<String, WorkItemRecord> queueMap) {
         _workitems.putAll(queueMap);
-        persistThis() ;
+        journal(QueueJournal.ADD, queueMap.keySet()) ;
+        announce(QueueDeltas.Action.added, queueMap);
         logEvent(queueMap) ;
     }
 
@@ -183,7 +205,10 @@ public class WorkQueue {
      */
     public void setQueue(WorkQueue queue) {
         _workitems = queue.getQueueAsMap() ;
-        persistThis() ;
+        journal(QueueJournal.CLEAR, (String) null) ;
+        journal(QueueJournal.ADD, _workitems.keySet()) ;
+        announce(QueueDeltas.Action.cleared, null, null);
+        announce(QueueDeltas.Action.added, _workitems);
         logEvent(_workitems) ;
     }
 
@@ -223,7 +248,8 @@ public class WorkQueue {
         WorkItemRecord removed = null;
         if (item != null && _workitems.containsKey(item.getID())) {
             removed = _workitems.remove(item.getID());
-            persistThis();
+            journal(QueueJournal.REMOVE, item.getID());
+            announce(QueueDeltas.Action.removed, item.getID(), null);
         }
         return removed != null;
     }
@@ -246,15 +272,17 @@ public class WorkQueue {
     public void clear() {
         if (! _workitems.isEmpty()) {
             _workitems.clear();
-            persistThis() ;
+            journal(QueueJournal.CLEAR, (String) null) ;
+            announce(QueueDeltas.Action.cleared, null, null);
         }    
     }
 
 
+    // membership is unchanged, so there's nothing to journal
     public void refresh(WorkItemRecord wir) {
         if (_workitems.containsKey(wir.getID())) {
             _workitems.put(wir.getID(), wir);
-            persistThis();
+            announce(QueueDeltas.Action.changed, wir.getID(), wir);
         }
     }
 
@@ -262,18 +290,38 @@ public class WorkQueue {
     public void cleanse(WorkItemCache cache) {
         Set<String> clonedQueue = new HashSet<String>(_workitems.keySet());
         for (String itemID : clonedQueue) {
-            if (cache.get(itemID) == null) _workitems.remove(itemID);
+            if (cache.get(itemID) == null && _workitems.remove(itemID) != null) {
+                journal(QueueJournal.REMOVE, itemID);
+                announce(QueueDeltas.Action.removed, itemID, null);
+            }
         }
-        if (_workitems.size() != clonedQueue.size()) persistThis();
     }
 
     
     public void removeCase(String caseID) {
         Set<WorkItemRecord> clonedQueue = new HashSet<WorkItemRecord>(_workitems.values());
         for (WorkItemRecord wir : clonedQueue) {
-            if (wir.getRootCaseID().equals(caseID)) _workitems.remove(wir.getID());
+            if (wir.getRootCaseID().equals(caseID) &&
+                    _workitems.remove(wir.getID()) != null) {
+                journal(QueueJournal.REMOVE, wir.getID());
+                announce(QueueDeltas.Action.removed, wir.getID(), null);
+            }
+        }
+    }
+
+
+    /**
+     * Restores this queue's members on startup, as rebuilt from the queue journal
+     * @param itemIDs the ids of the queue's members (may be null)
+     * @param cache the restored cache of work items
+     */
+    public void restoreItems(Set<String> itemIDs, WorkItemCache cache) {
+        if (itemIDs != null) {
+            for (String itemID : itemIDs) {
+                WorkItemRecord wir = cache.get(itemID);
+                if (wir != null) _workitems.put(itemID, wir);
+            }
         }
-        if (_workitems.size() != clonedQueue.size()) persistThis();
     }
 
 
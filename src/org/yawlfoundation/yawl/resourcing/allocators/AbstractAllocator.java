@@ -23,8 +23,8 @@ import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.AbstractSelector;
 import org.yawlfoundation.yawl.resourcing.ResourceManager;
 import org.yawlfoundation.yawl.resourcing.client.CostClient;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AllocationStatistics;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
 import org.yawlfoundation.yawl.resourcing.datastore.persistence.Persister;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 import org.yawlfoundation.yawl.util.XNode;
@@ -87,7 +87,8 @@ public abstract class AbstractAllocator extends AbstractSelector {
 
     /**
      * Gets a list of all resource log rows for a given specification + task + event
-     * combination.
+     * combination. Note that this queries the entire log; where possible, use the
+     * running statistics available via getTaskProfile instead.
      * @param wir a workitem record which is an instance of the specification+task in
      * question.
      * @param event the type of event to get records for
@@ -172,99 +173,32 @@ public abstract class AbstractAllocator extends AbstractSelector {
     }
 
 
+    /**
+     * Gets the running statistics for the task of a work item
+     * @param wir a workitem record which is an instance of the specification+task in
+     * question.
+     * @return the statistics for the task
+     */
+    protected AllocationStatistics.TaskProfile getTaskProfile(WorkItemRecord wir) {
+        long specKey = EventLogger.getSpecificationKey(new YSpecificationID(wir));
+        return AllocationStatistics.getInstance().getTaskProfile(specKey, wir.getTaskID());
+    }
+
+
     /**
      * Gets the average duration (in msecs) between two events for each participant
      * recorded against those events for a task
      * @param fromEvent the earlier event (start of duration)
      * @param toEvent the later event (end of duration)
      * @param wir a work item to allocate
+     * @param pids the ids of the participants in the distribution set
      * @return a Map of participant ids and average durations
      */
     protected Map<String, Long> getAvgDurations(EventLogger.event fromEvent,
                                                 EventLogger.event toEvent,
-                                                WorkItemRecord wir) {
-        List fromEvents = getLoggedEvents(wir, fromEvent);
-        List toEvents = getLoggedEvents(wir, toEvent);
-        return getAvgDurations(pairEvents(fromEvents, toEvents).values());
-    }
-
-
-    protected Map<String, Long> getAvgDurations(Collection<EventPair> pairs) {
-        Map<String, Set<Long>> participantTimes = getParticipantTimes(pairs);
-        Map<String, Long> avgDurations = new Hashtable<String, Long>();
-        for (String pid : participantTimes.keySet()) {
-            avgDurations.put(pid, getAverage(participantTimes.get(pid)));
-        }
-        return avgDurations;
-    }
-
-
-    /**
-     * Merges a list of starting events and a list of ending events for a task's
-     * instances into a map of event pairs
-     * @param fromEvents the list of earlier events (start of duration)
-     * @param toEvents the list of later events (end of duration)
-     * @return a map of work item ids and the corresponding event pair
-     */
-    private Map<String, EventPair> pairEvents(List fromEvents, List toEvents) {
-        Map<String, EventPair> pairedEvents = new Hashtable<String, EventPair>();
-        if (! ((fromEvents == null) || (toEvents == null))) {
-            for (Object o : fromEvents) {
-                ResourceEvent re = (ResourceEvent) o;
-                EventPair pair = new EventPair();
-                pair.fromEvent = re;
-                pairedEvents.put(re.get_itemID(), pair);
-            }
-            for (Object o : toEvents) {
-                ResourceEvent re = (ResourceEvent) o;
-                EventPair pair = pairedEvents.get(re.get_itemID());
-                if (pair != null) pair.toEvent = re;
-            }
-        }
-        return pairedEvents;
-    }
-
-
-    /**
-     * Gets a set of durations for each participant referenced by a map of event pairs
-     * @param pairedEvents a set of event pairs
-     * @return a map of participant ids, each to a set of durations (in msecs)
-     */
-    private Map<String, Set<Long>> getParticipantTimes(Collection<EventPair> pairedEvents) {
-        Map<String, Set<Long>> participantTimes = new Hashtable<String, Set<Long>>();
-        for (EventPair pair : pairedEvents) {
-            if (pair.hasPair()) {
-                Set<Long> times = participantTimes.get(pair.fromEvent.get_resourceID());
-                if (times == null) {
-                    times = new HashSet<Long>();
-                    participantTimes.put(pair.fromEvent.get_resourceID(), times);
-                }
-                times.add(pair.getDuration());
-            }
-        }
-        return participantTimes;
-    }
-
-
-    /**
-     * Gets the average of a set of long values
-     * @param setOfLongs the set
-     * @return the average of the set's values
-     */
-    private long getAverage(Set<Long> setOfLongs) {
-        long total = 0;
-        for (long l : setOfLongs) total += l;
-        return total / setOfLongs.size();
-    }
-
-
-    protected class EventPair {
-        ResourceEvent fromEvent;
-        ResourceEvent toEvent;
-
-        boolean hasPair() { return ! ((fromEvent == null) || (toEvent == null)); }
-
-        long getDuration() { return toEvent.get_timeStamp() - fromEvent.get_timeStamp(); }
+                                                WorkItemRecord wir,
+                                                Collection<String> pids) {
+        return getTaskProfile(wir).getAverageDurations(fromEvent, toEvent, pids);
     }
 
 
@@ -76,7 +76,8 @@ public class CheapestCompleter extends AbstractAllocator {
         String choice = null;
         if (costMap != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.start, EventLogger.event.complete, wir);
+                    EventLogger.event.start, EventLogger.event.complete, wir,
+                    costMap.keySet());
             double lowest = Double.MAX_VALUE;
             for (String pid : costMap.keySet()) {
                 if (durationMap.containsKey(pid)) {
@@ -77,7 +77,8 @@ public class CheapestStarter extends AbstractAllocator {
         String choice = null;
         if (costMap != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.allocate, EventLogger.event.start, wir);
+                    EventLogger.event.allocate, EventLogger.event.start, wir,
+                    costMap.keySet());
             double lowest = Double.MAX_VALUE;
             for (String pid : costMap.keySet()) {
                 if (durationMap.containsKey(pid)) {
@@ -77,7 +77,8 @@ public class CheapestToAllocate extends AbstractAllocator {
         String choice = null;
         if (costMap != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.offer, EventLogger.event.allocate, wir);
+                    EventLogger.event.offer, EventLogger.event.allocate, wir,
+                    costMap.keySet());
             double lowest = Double.MAX_VALUE;
             for (String pid : costMap.keySet()) {
                 if (durationMap.containsKey(pid)) {
@@ -20,7 +20,6 @@ package org.yawlfoundation.yawl.resourcing.allocators;
 
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 
 import java.util.*;
@@ -75,48 +74,22 @@ public class FastestResource extends AbstractAllocator {
     private String getFastestAverage(Collection<String> pSet, WorkItemRecord wir) {
         String choice = null;
         if (pSet != null) {
-            List completes = getLoggedEvents(wir, EventLogger.event.complete);
-            if (completes != null) {
-
-                // only want to count items that completed
-                Map<String, EventPair> pairs = new Hashtable<String, EventPair>();
-                for (Object o : completes) {
-                    ResourceEvent event = (ResourceEvent) o;
-                    EventPair pair = new EventPair();
-                    pair.toEvent = event;
-                    pairs.put(event.get_resourceID(), pair);
-                }
-                processEvents(getLoggedEvents(wir, EventLogger.event.start), pairs);
-                processEvents(getLoggedEvents(wir, EventLogger.event.allocate), pairs);
-                processEvents(getLoggedEvents(wir, EventLogger.event.offer), pairs);
-
-                Map<String, Long> durationMap = getAvgDurations(pairs.values());
-                double lowest = Double.MAX_VALUE;
-                for (String pid : pSet) {
-                    if (durationMap.containsKey(pid)) {
-                        long duration = durationMap.get(pid);
-                        if ((duration > 0) && (duration < lowest)) {
-                            choice = pid;
-                            lowest = duration;
-                        }
+
+            // durations from the first event logged for each item to its completion
+            Map<String, Long> durationMap = getAvgDurations(
+                    null, EventLogger.event.complete, wir, pSet);
+            double lowest = Double.MAX_VALUE;
+            for (String pid : pSet) {
+                if (durationMap.containsKey(pid)) {
+                    long duration = durationMap.get(pid);
+                    if ((duration > 0) && (duration < lowest)) {
+                        choice = pid;
+                        lowest = duration;
                     }
                 }
             }
         }
         return choice;
     }
-        
-        
-    private void processEvents(List events, Map<String, EventPair> pairs) {
-        if (! ((events == null) || (pairs == null))) {
-            for (Object o : events) {
-                ResourceEvent event = (ResourceEvent) o;
-                EventPair pair = pairs.get(event.get_resourceID());
-                if (pair != null) {
-                    pair.fromEvent = event;
-                }
-            }
-        }
-    }
 
 }
@@ -77,7 +77,7 @@ public class FastestToAllocate extends AbstractAllocator {
         String choice = null;
         if (pSet != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.offer, EventLogger.event.allocate, wir);
+                    EventLogger.event.offer, EventLogger.event.allocate, wir, pSet);
             double lowest = Double.MAX_VALUE;
             for (String pid : pSet) {
                 if (durationMap.containsKey(pid)) {
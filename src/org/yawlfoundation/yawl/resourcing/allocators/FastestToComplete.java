@@ -77,7 +77,7 @@ public class FastestToComplete extends AbstractAllocator {
         String choice = null;
         if (pSet != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.start, EventLogger.event.complete, wir);
+                    EventLogger.event.start, EventLogger.event.complete, wir, pSet);
             double lowest = Double.MAX_VALUE;
             for (String pid : pSet) {
                 if (durationMap.containsKey(pid)) {
@@ -77,7 +77,7 @@ public class FastestToStart extends AbstractAllocator {
         String choice = null;
         if (pSet != null) {
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.allocate, EventLogger.event.start, wir);
+                    EventLogger.event.allocate, EventLogger.event.start, wir, pSet);
             double lowest = Double.MAX_VALUE;
             for (String pid : pSet) {
                 if (durationMap.containsKey(pid)) {
@@ -20,7 +20,6 @@ package org.yawlfoundation.yawl.resourcing.allocators;
 
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 import org.yawlfoundation.yawl.util.XNode;
 
@@ -81,13 +80,10 @@ public class RiskAssessment extends AbstractAllocator {
         String choice = null;
         if (pSet != null) {
 //          Get Average durations
-            Map<String, Double> frequencyUX = getFrequencyUX(wir, 6000);
+            Map<String, Double> frequencyUX = getFrequencyUX(wir, pSet, 6000);
 
             Map<String, Long> durationMap = getAvgDurations(
-                    EventLogger.event.allocate, EventLogger.event.complete, wir);
-
-//          Get amount of completions of this activity
-            List events = getLoggedEvents(wir, EventLogger.event.complete);
+                    EventLogger.event.allocate, EventLogger.event.complete, wir, pSet);
 
             double lowest = Double.MAX_VALUE;
 //          Check each participant in the participant set
@@ -119,74 +115,11 @@ public class RiskAssessment extends AbstractAllocator {
     }
 
 
-    private Map<String, Double> getFrequencyUX(WorkItemRecord wir, long threshold) {
-        // get a map of durations
-        Map<String, List<Long>> durations = getDurations(EventLogger.event.allocate,EventLogger.event.complete, wir);
-
-        Map<String, Double> probabilities = new HashMap<String, Double>();
-
-        for (String pid : durations.keySet()) {
-            List<Long> pidDurations = durations.get(pid);
-
-            int countUnderThreshold = 0;
-            for (Long period : pidDurations) {
-                if (period <= threshold) {
-                    countUnderThreshold++;
-                }
-            }
-
-//          probability is the number of times under threshold / all times for pid
-            double probability = countUnderThreshold / (double) pidDurations.size();
-            probabilities.put(pid, probability);
-        }
-
-        return probabilities;
-    }
-
-
-    protected Map<String, List<Long>> getDurations(EventLogger.event fromEvent,
-                                                EventLogger.event toEvent,
-                                                WorkItemRecord wir) {
-        List fromEvents = getLoggedEvents(wir, fromEvent);
-        List toEvents = getLoggedEvents(wir, toEvent);
+    private Map<String, Double> getFrequencyUX(WorkItemRecord wir,
+                                               Collection<String> pSet, long threshold) {
 
-        Collection<EventPair> pairs = pairEvents(fromEvents, toEvents).values();
-
-        return getParticipantTimes(pairs);
-    }
-
-    
-    private Map<String, List<Long>> getParticipantTimes(Collection<EventPair> pairedEvents) {
-        Map<String, List<Long>> participantTimes = new Hashtable<String, List<Long>>();
-        for (EventPair pair : pairedEvents) {
-            if (pair.hasPair()) {
-                List<Long> times = participantTimes.get(pair.fromEvent.get_resourceID());
-                if (times == null) {
-                    times = new ArrayList<Long>();
-                    participantTimes.put(pair.fromEvent.get_resourceID(), times);
-                }
-                times.add(pair.getDuration());
-            }
-        }
-        return participantTimes;
-    }
-
-
-    private Map<String, EventPair> pairEvents(List fromEvents, List toEvents) {
-        Map<String, EventPair> pairedEvents = new Hashtable<String, EventPair>();
-        if (! ((fromEvents == null) || (toEvents == null))) {
-            for (Object o : fromEvents) {
-                ResourceEvent re = (ResourceEvent) o;
-                EventPair pair = new EventPair();
-                pair.fromEvent = re;
-                pairedEvents.put(re.get_itemID(), pair);
-            }
-            for (Object o : toEvents) {
-                ResourceEvent re = (ResourceEvent) o;
-                EventPair pair = pairedEvents.get(re.get_itemID());
-                if (pair != null) pair.toEvent = re;
-            }
-        }
-        return pairedEvents;
+//      probability is the number of times under threshold / all times for pid
+        return getTaskProfile(wir).getProportionsWithin(EventLogger.event.allocate,
+                EventLogger.event.complete, pSet, threshold);
     }
 }
@@ -19,12 +19,9 @@
 package org.yawlfoundation.yawl.resourcing.allocators;
 
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AllocationStatistics;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 
-import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -60,10 +57,10 @@ public class RoundRobinByExperience extends AbstractAllocator {
             }
             else {
                 // more than one part. in the set
-                List events = getLoggedEvents(wir, EventLogger.event.complete);
-                if (! events.isEmpty()) {
+                AllocationStatistics.TaskProfile profile = getTaskProfile(wir);
+                if (profile.getCompletionCount() > 0) {
                     for (Participant p : participants) {
-                        long frequency = getFrequency(events, p);
+                        long frequency = profile.getCompletionCount(p.getID());
                         if (frequency > mostFrequent) {
                             chosen = p ;
                             mostFrequent = frequency ;
@@ -80,16 +77,4 @@ public class RoundRobinByExperience extends AbstractAllocator {
         return chosen;
     }
 
-
-    private long getFrequency(List events, Participant p) {
-        long result = 0;
-        Iterator itr = events.iterator();
-        while (itr.hasNext()) {
-            ResourceEvent event = (ResourceEvent) itr.next();
-            if (event.get_resourceID().equals(p.getID()))
-                result++;
-        }
-        return result;
-    }
-
 }
\ No newline at end of file
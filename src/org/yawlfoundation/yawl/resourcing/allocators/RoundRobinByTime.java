@@ -19,12 +19,9 @@
 package org.yawlfoundation.yawl.resourcing.allocators;
 
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
-import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AllocationStatistics;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 
-import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -59,10 +56,10 @@ public class RoundRobinByTime extends AbstractAllocator {
             }
             else {
                 // more than one part. in the set
-                List events = getLoggedEvents(wir, EventLogger.event.complete);
-                if (! events.isEmpty()) {
+                AllocationStatistics.TaskProfile profile = getTaskProfile(wir);
+                if (profile.getCompletionCount() > 0) {
                     for (Participant p : participants) {
-                        long eventTime = getEarliestTime(events, p);
+                        long eventTime = profile.getFirstCompletionTime(p.getID());
                         if (eventTime == Long.MAX_VALUE) {
                             chosen = p; break;         // this p has never performed item
                         }
@@ -84,18 +81,4 @@ public class RoundRobinByTime extends AbstractAllocator {
         return chosen;
     }
 
-
-    private long getEarliestTime(List events, Participant p) {
-        long result = Long.MAX_VALUE;
-        Iterator itr = events.iterator();
-        while (itr.hasNext()) {
-            ResourceEvent event = (ResourceEvent) itr.next();
-            if (event.get_resourceID().equals(p.getID()) &&
-               (event.get_timeStamp() < result))
-                 result = event.get_timeStamp();
-        }
-        return result;
-    }
-
-
 }
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.calendar;
+
+import java.util.*;
+
+/**
+ * An in-memory index of the calendar entries, kept in step with the CalendarEntry
+ * table by the ResourceCalendar, so that availability checks need not query the
+ * database.
+ *
+ * The entries of each resource id (or resource group id) are held in two balanced
+ * trees, one ordered by start time and one by end time, each node carrying the count
+ * and workload total of its subtree. Since an entry overlaps a period [from, to)
+ * unless it starts at or after 'to' or ends at or before 'from', the count and
+ * workload of the entries overlapping a period are found in O(log n). The start-time
+ * tree also carries the latest end time of each subtree, so that the overlapping
+ * entries themselves can be listed in O(log n + k).
+ */
+public class CalendarIndex {
+
+    // [resource or group id, the entries for that id]
+    private final Map<String, IntervalSet> _resources = new HashMap<String, IntervalSet>();
+
+    // [entry id, the entry as indexed]
+    private final Map<Long, Interval> _entries = new HashMap<Long, Interval>();
+
+    private final Random _random = new Random();
+
+
+    public CalendarIndex() { }
+
+
+    /**
+     * Replaces the contents of the index
+     * @param entries the complete set of calendar entries
+     */
+    public synchronized void load(Collection<CalendarEntry> entries) {
+        _resources.clear();
+        _entries.clear();
+        for (CalendarEntry entry : entries) put(entry);
+    }
+
+
+    /**
+     * Adds an entry to the index, replacing any previous version of the entry
+     * @param entry the added or updated entry
+     */
+    public synchronized void put(CalendarEntry entry) {
+        remove(entry.getEntryID());
+        Interval interval = new Interval(entry);
+        _entries.put(interval.id, interval);
+        IntervalSet set = _resources.get(interval.resourceID);
+        if (set == null) {
+            set = new IntervalSet();
+            _resources.put(interval.resourceID, set);
+        }
+        set.add(interval);
+    }
+
+
+    /**
+     * Removes an entry from the index
+     * @param entryID the id of the entry to remove
+     * @return true if the entry was indexed
+     */
+    public synchronized boolean remove(long entryID) {
+        Interval interval = _entries.remove(entryID);
+        if (interval != null) {
+            IntervalSet set = _resources.get(interval.resourceID);
+            set.remove(interval);
+            if (set.isEmpty()) _resources.remove(interval.resourceID);
+        }
+        return interval != null;
+    }
+
+
+    /**
+     * Removes all the entries for a resource
+     * @param resourceID the id of the resource (or resource group)
+     */
+    public synchronized void removeAll(String resourceID) {
+        IntervalSet set = _resources.get(resourceID);
+        if (set != null) {
+            for (Interval interval : set.getOverlapping(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                remove(interval.id);
+            }
+        }
+    }
+
+
+    /**
+     * Removes the entries for a resource that overlap a period
+     * @param resourceID the id of the resource (or resource group)
+     * @param from the start of the period
+     * @param to the end of the period
+     */
+    public synchronized void removeOverlapping(String resourceID, long from, long to) {
+        IntervalSet set = _resources.get(resourceID);
+        if (set != null) {
+            for (Interval interval : set.getOverlapping(from, to)) {
+                remove(interval.id);
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the entries that end before a time
+     * @param time the time
+     */
+    public synchronized void removeEndingBefore(long time) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Interval interval : _entries.values()) {
+            if (interval.end < time) ids.add(interval.id);
+        }
+        for (Long id : ids) remove(id);
+    }
+
+
+    /**
+     * @param ids the resource and resource group ids to check
+     * @param from the start of the period
+     * @param to the end of the period
+     * @param idsToIgnore the ids of entries to exclude, or null to exclude none
+     * @return the number of entries for the ids that overlap the period
+     */
+    public synchronized int getOverlapCount(Collection<String> ids, long from, long to,
+                                            Set<Long> idsToIgnore) {
+        int count = 0;
+        for (String id : ids) {
+            IntervalSet set = _resources.get(id);
+            if (set != null) count += set.getOverlapCount(from, to);
+        }
+        return count - getIgnored(ids, from, to, idsToIgnore).size();
+    }
+
+
+    /**
+     * @param ids the resource and resource group ids to check
+     * @param from the start of the period
+     * @param to the end of the period
+     * @param idsToIgnore the ids of entries to exclude, or null to exclude none
+     * @return the workload total of the entries for the ids that overlap the period
+     */
+    public synchronized long getWorkload(Collection<String> ids, long from, long to,
+                                         Set<Long> idsToIgnore) {
+        long workload = 0;
+        for (String id : ids) {
+            IntervalSet set = _resources.get(id);
+            if (set != null) workload += set.getWorkload(from, to);
+        }
+        for (Interval ignored : getIgnored(ids, from, to, idsToIgnore)) {
+            workload -= ignored.workload;
+        }
+        return workload;
+    }
+
+
+    /**
+     * @param ids the resource and resource group ids to check
+     * @param from the start of the period
+     * @param to the end of the period
+     * @return copies of the entries for the ids that overlap the period, ordered by
+     * start time
+     */
+    public synchronized List<CalendarEntry> getOverlapping(Collection<String> ids,
+                                                           long from, long to) {
+        List<Interval> intervals = new ArrayList<Interval>();
+        for (String id : ids) {
+            IntervalSet set = _resources.get(id);
+            if (set != null) intervals.addAll(set.getOverlapping(from, to));
+        }
+        if (ids.size() > 1) Collections.sort(intervals);
+        List<CalendarEntry> entries = new ArrayList<CalendarEntry>(intervals.size());
+        for (Interval interval : intervals) entries.add(interval.toEntry());
+        return entries;
+    }
+
+
+    public synchronized int size() { return _entries.size(); }
+
+
+    /*******************************************************************************/
+
+    private List<Interval> getIgnored(Collection<String> ids, long from, long to,
+                                      Set<Long> idsToIgnore) {
+        if (idsToIgnore == null || idsToIgnore.isEmpty()) return Collections.emptyList();
+        List<Interval> ignored = new ArrayList<Interval>();
+        for (Long entryID : idsToIgnore) {
+            Interval interval = _entries.get(entryID);
+            if (interval != null && ids.contains(interval.resourceID) &&
+                    interval.overlaps(from, to)) {
+                ignored.add(interval);
+            }
+        }
+        return ignored;
+    }
+
+
+    /*******************************************************************************/
+
+    // an immutable copy of the indexed fields of a calendar entry
+    private static class Interval implements Comparable<Interval> {
+        final long id;
+        final String resourceID;
+        final long start;
+        final long end;
+        final int workload;
+        final String status;
+
+        Interval(CalendarEntry entry) {
+            id = entry.getEntryID();
+            resourceID = entry.getResourceID();
+            start = entry.getStartTime();
+            end = entry.getEndTime();
+            workload = entry.getWorkload();
+            status = entry.getStatus();
+        }
+
+        // matches the 'ce.startTime < :end AND ce.endTime > :start' query condition
+        boolean overlaps(long from, long to) {
+            return start < to && end > from;
+        }
+
+        CalendarEntry toEntry() {
+            CalendarEntry entry = new CalendarEntry(resourceID, start, end, status,
+                    workload, null, null);
+            entry.setEntryID(id);
+            return entry;
+        }
+
+        public int compareTo(Interval other) {
+            if (start != other.start) return start < other.start ? -1 : 1;
+            return id < other.id ? -1 : (id == other.id ? 0 : 1);
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // the entries of one resource id
+    private class IntervalSet {
+        Node byStart;                                 // keyed on start time
+        Node byEnd;                                   // keyed on end time
+        int size;
+
+        // entries that end at or before they start can't be found via the trees,
+        // since they may both start after a period and end before it
+        final List<Interval> inverted = new ArrayList<Interval>();
+
+        void add(Interval interval) {
+            if (interval.end <= interval.start) {
+                inverted.add(interval);
+            }
+            else {
+                byStart = insert(byStart, new Node(interval, interval.start));
+                byEnd = insert(byEnd, new Node(interval, interval.end));
+            }
+            size++;
+        }
+
+        void remove(Interval interval) {
+            if (interval.end <= interval.start) {
+                inverted.remove(interval);
+            }
+            else {
+                byStart = delete(byStart, interval.start, interval.id);
+                byEnd = delete(byEnd, interval.end, interval.id);
+            }
+            size--;
+        }
+
+        boolean isEmpty() { return size == 0; }
+
+        int getOverlapCount(long from, long to) {
+            int count = 0;
+            if (from <= to) {
+
+                // those starting before 'to', less those of them ending at or before
+                // 'from' (which, since from <= to, is all of those ending by 'from')
+                count = countBelow(byStart, to, false) - countBelow(byEnd, from, true);
+            }
+            else count = getOverlapping(byStart, from, to).size();
+
+            for (Interval interval : inverted) {
+                if (interval.overlaps(from, to)) count++;
+            }
+            return count;
+        }
+
+        long getWorkload(long from, long to) {
+            long workload = 0;
+            if (from <= to) {
+                workload = loadBelow(byStart, to, false) - loadBelow(byEnd, from, true);
+            }
+            else for (Interval interval : getOverlapping(byStart, from, to)) {
+                workload += interval.workload;
+            }
+
+            for (Interval interval : inverted) {
+                if (interval.overlaps(from, to)) workload += interval.workload;
+            }
+            return workload;
+        }
+
+        List<Interval> getOverlapping(long from, long to) {
+            List<Interval> overlapping = getOverlapping(byStart, from, to);
+            if (! inverted.isEmpty()) {
+                for (Interval interval : inverted) {
+                    if (interval.overlaps(from, to)) overlapping.add(interval);
+                }
+                Collections.sort(overlapping);
+            }
+            return overlapping;
+        }
+
+        private List<Interval> getOverlapping(Node root, long from, long to) {
+            List<Interval> overlapping = new ArrayList<Interval>();
+            collect(root, from, to, overlapping);
+            return overlapping;
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // TREAP //
+
+    private class Node {
+        final Interval interval;
+        final long key;
+        final int priority;
+        Node left;
+        Node right;
+        int count;                                     // of this subtree
+        long load;                                     // workload total of subtree
+        long maxEnd;                                   // latest end time in subtree
+
+        Node(Interval i, long k) {
+            interval = i;
+            key = k;
+            priority = _random.nextInt();
+            update();
+        }
+
+        void update() {
+            count = 1 + count(left) + count(right);
+            load = interval.workload + load(left) + load(right);
+            maxEnd = interval.end;
+            if (left != null && left.maxEnd > maxEnd) maxEnd = left.maxEnd;
+            if (right != null && right.maxEnd > maxEnd) maxEnd = right.maxEnd;
+        }
+
+        boolean isBefore(long k, long id) {
+            return key < k || (key == k && interval.id < id);
+        }
+    }
+
+
+    private static int count(Node node) { return node != null ? node.count : 0; }
+
+    private static long load(Node node) { return node != null ? node.load : 0; }
+
+
+    // splits a tree into the nodes before [key, id] and those at or after it
+    private Node[] split(Node node, long key, long id) {
+        if (node == null) return new Node[] { null, null };
+        if (node.isBefore(key, id)) {
+            Node[] parts = split(node.right, key, id);
+            node.right = parts[0];
+            node.update();
+            return new Node[] { node, parts[1] };
+        }
+        else {
+            Node[] parts = split(node.left, key, id);
+            node.left = parts[1];
+            node.update();
+            return new Node[] { parts[0], node };
+        }
+    }
+
+
+    // merges two trees, where every node of the first is before every node of the second
+    private Node merge(Node first, Node second) {
+        if (first == null) return second;
+        if (second == null) return first;
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            first.update();
+            return first;
+        }
+        else {
+            second.left = merge(first, second.left);
+            second.update();
+            return second;
+        }
+    }
+
+
+    private Node insert(Node root, Node node) {
+        Node[] parts = split(root, node.key, node.interval.id);
+        return merge(merge(parts[0], node), parts[1]);
+    }
+
+
+    private Node delete(Node root, long key, long id) {
+        Node[] parts = split(root, key, id);
+        Node[] rest = split(parts[1], key, id + 1);
+        return merge(parts[0], rest[1]);
+    }
+
+
+    // the number of nodes with a key less than (or equal to) the key passed
+    private int countBelow(Node node, long key, boolean inclusive) {
+        int count = 0;
+        while (node != null) {
+            if (node.key < key || (inclusive && node.key == key)) {
+                count += count(node.left) + 1;
+                node = node.right;
+            }
+            else node = node.left;
+        }
+        return count;
+    }
+
+
+    // the workload total of nodes with a key less than (or equal to) the key passed
+    private long loadBelow(Node node, long key, boolean inclusive) {
+        long load = 0;
+        while (node != null) {
+            if (node.key < key || (inclusive && node.key == key)) {
+                load += load(node.left) + node.interval.workload;
+                node = node.right;
+            }
+            else node = node.left;
+        }
+        return load;
+    }
+
+
+    // in start time order; skips subtrees that end before the period or start after it
+    private void collect(Node node, long from, long to, List<Interval> overlapping) {
+        if (node == null || node.maxEnd <= from) return;
+        collect(node.left, from, to, overlapping);
+        if (node.key < to) {
+            if (node.interval.end > from) overlapping.add(node.interval);
+            collect(node.right, from, to, overlapping);
+        }
+    }
+
+}
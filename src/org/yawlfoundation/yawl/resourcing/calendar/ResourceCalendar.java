@@ -52,6 +52,11 @@ public class ResourceCalendar {
     private final Persister _persister;
     private Transaction _tx;
 
+    // an in-memory copy of the calendar table, used for availability checks. It is
+    // loaded on first use and kept in step with each write to the table.
+    private volatile CalendarIndex _index;
+    private final Object _indexMutex = new Object();
+
 
     private ResourceCalendar() {
         _persister = Persister.getInstance();
@@ -76,6 +81,7 @@ public class ResourceCalendar {
     public void rollBackTransaction() {
         _persister.rollback();
         _tx = null;
+        _index = null;                     // the rolled back writes are in the index
     }
 
     private boolean getCommitFlag() {
@@ -163,8 +169,11 @@ public class ResourceCalendar {
      */
     public int clean(long priorTo) {
         if (priorTo > System.currentTimeMillis()) return -1;
-        return _persister.execUpdate("DELETE FROM CalendarEntry AS ce WHERE ce.endTime<" +
+        int removed = _persister.execUpdate("DELETE FROM CalendarEntry AS ce WHERE ce.endTime<" +
                 priorTo, getCommitFlag());
+        CalendarIndex index = _index;
+        if (index != null) index.removeEndingBefore(priorTo);
+        return removed;
     }
 
 
@@ -183,16 +192,9 @@ public class ResourceCalendar {
     public boolean isAvailable(Set<Long> idsToIgnore, AbstractResource resource,
                                long from, long to) {
         if (resource == null) return false;
-        List list = getTimeSlotEntries(resource, from, to);
-
-        int excludeCount = 0;
-        if ((idsToIgnore != null) && (! list.isEmpty())) {
-            for (Object o : list) {
-                CalendarEntry entry = (CalendarEntry) o;
-                if (idsToIgnore.contains(entry.getEntryID())) ++excludeCount;
-            }
-        }
-        return list.size() == excludeCount;
+        if (to <= 0) to = Long.MAX_VALUE;
+        return getIndex().getOverlapCount(createIDListForQuery(resource),
+                from, to, idsToIgnore) == 0;
     }
 
 
@@ -227,16 +229,9 @@ public class ResourceCalendar {
                                long from, long to, int workload) {
         if (resource == null) return false;
         if (workload == 100) return isAvailable(idsToIgnore, resource, from, to);
-        List list = getTimeSlotEntries(resource, from, to);
-        if (list != null) {
-            for (Object o : list) {
-                CalendarEntry entry = (CalendarEntry) o;
-                if ((idsToIgnore == null) || (! idsToIgnore.contains(entry.getEntryID()))) {
-                    workload += entry.getWorkload();
-                }
-            }
-        }
-        return workload < 100;
+        if (to <= 0) to = Long.MAX_VALUE;
+        return workload + getIndex().getWorkload(createIDListForQuery(resource),
+                from, to, idsToIgnore) < 100;
     }
 
 
@@ -244,6 +239,54 @@ public class ResourceCalendar {
         return isAvailable(null, resource, from, to, workload);
     }
 
+
+    /**
+     * Gets the workload total of the calendar entries for a resource, including those
+     * for all resources and all resources of its type, that overlap a period
+     * @param resource the resource to get the workload for
+     * @param from the start of the period
+     * @param to the end of the period (-ve value for all end times)
+     * @return the workload total
+     */
+    public long getWorkload(AbstractResource resource, long from, long to) {
+        if (resource == null) return 0;
+        if (to <= 0) to = Long.MAX_VALUE;
+        return getIndex().getWorkload(createIDListForQuery(resource), from, to, null);
+    }
+
+
+    /**
+     * Finds each resource of a set that is available for a workload within a period.
+     * Equivalent to calling isAvailable(resource, from, to, workload) for each, but
+     * the entries for all resources and for each resource type are totalled only once.
+     * @param resources the resources to check
+     * @param from the start of the period
+     * @param to the end of the period (-ve value for all end times)
+     * @param workload the percentage workload to check for (0-100)
+     * @return the subset of resources that are available
+     */
+    public <T extends AbstractResource> Set<T> getAvailableResources(
+            Collection<T> resources, long from, long to, int workload) {
+        Set<T> available = new HashSet<T>();
+        if (resources == null || resources.isEmpty()) return available;
+        if (to <= 0) to = Long.MAX_VALUE;
+        CalendarIndex index = getIndex();
+        String all = getEntryString(ResourceGroup.AllResources);
+        String human = getEntryString(ResourceGroup.HumanResources);
+        String nonHuman = getEntryString(ResourceGroup.NonHumanResources);
+        boolean countOnly = workload == 100;
+
+        long allLoad = getLoad(index, all, from, to, countOnly);
+        long humanLoad = getLoad(index, human, from, to, countOnly);
+        long nonHumanLoad = getLoad(index, nonHuman, from, to, countOnly);
+        for (T resource : resources) {
+            long load = getLoad(index, resource.getID(), from, to, countOnly) + allLoad +
+                    (resource instanceof Participant ? humanLoad : nonHumanLoad);
+            if (countOnly ? load == 0 : load + workload < 100) available.add(resource);
+        }
+        return available;
+    }
+
     /**
      * Checks if the resource is available within the specified period. Will return
      * true if the workload total of all the entries in the calendar table for the
@@ -320,7 +363,9 @@ public class ResourceCalendar {
         if (endTime > startTime) {
 
             // get each unavailable slot for the resource
-            List entries = getTimeSlotEntries(resource, startTime, endTime);
+            List entries = resource != null ? getIndex().getOverlapping(
+                    createIDListForQuery(resource), startTime, endTime) :
+                    Collections.EMPTY_LIST;
             if (! entries.isEmpty()) {
                 long endOfPrevSlot = startTime;
                 for (Object o : entries) {
@@ -633,6 +678,7 @@ public class ResourceCalendar {
                 try {
                     entry = (CalendarEntry) _persister.load(CalendarEntry.class, entryID);
                     _persister.delete(entry, tx);
+                    unindex(entryID);
                 }
                 catch (ObjectNotFoundException onfe) {
                     // nothing to remove if not found
@@ -643,6 +689,7 @@ public class ResourceCalendar {
                 if (entry != null) {
                     entry.setStatus(status);
                     _persister.update(entry, tx);
+                    index(entry);
                 }
             }
         }
@@ -663,6 +710,7 @@ public class ResourceCalendar {
                         resourceIDs.add(calEntry.getResourceID());
                     }
                     _persister.delete(calEntry, tx);
+                    unindex(calEntry.getEntryID());
                     notifyStatusChange(calEntry);
                 }
             }
@@ -704,6 +752,7 @@ public class ResourceCalendar {
         if (entry.getEndTime() > entry.getStartTime()) {
             if (_tx != null) _persister.insert(entry, _tx);
             else _persister.insert(entry);
+            index(entry);
             return entry.getEntryID();
         }
         else throw new CalendarException("Failed to add Entry: End time is before Start time.");
@@ -773,6 +822,7 @@ public class ResourceCalendar {
      */
     public void updateEntry(CalendarEntry entry) {
         _persister.update(entry, getCommitFlag());
+        index(entry);
     }
 
 
@@ -782,6 +832,7 @@ public class ResourceCalendar {
      * @return true if the removal was successful
      */
     private boolean removeEntry(long entryID) {
+        unindex(entryID);
         return _persister.execUpdate("DELETE FROM CalendarEntry AS ce WHERE ce.entryID="
                 + entryID, getCommitFlag()) > 0;
     }
@@ -793,6 +844,7 @@ public class ResourceCalendar {
      */
     private void removeEntry(CalendarEntry entry) {
         _persister.delete(entry, getCommitFlag());
+        unindex(entry.getEntryID());
     }
 
 
@@ -812,6 +864,8 @@ public class ResourceCalendar {
      * @return the number of entries removed
      */
     private int removeEntries(String id) {
+        CalendarIndex index = _index;
+        if (index != null) index.removeAll(id);
         return _persister.execUpdate("DELETE FROM CalendarEntry AS ce WHERE ce.resourceID='"
                 + id + "'", getCommitFlag());
     }
@@ -840,6 +894,8 @@ public class ResourceCalendar {
         String cmd = String.format(
                 "DELETE FROM CalendarEntry AS ce WHERE ce.resourceID='%s' " +
                 "AND ce.startTime < %d AND ce.endTime > %d", id, to, from);
+        CalendarIndex index = _index;
+        if (index != null) index.removeOverlapping(id, from, to);
         return _persister.execUpdate(cmd, getCommitFlag());
     }
 
@@ -852,6 +908,10 @@ public class ResourceCalendar {
      * @param isParticipant true for human resources, false for non-human resources
      * @return the list of possible id values to match
      */
+    private List<String> createIDListForQuery(AbstractResource resource) {
+        return createIDListForQuery(resource.getID(), resource instanceof Participant);
+    }
+
     private List<String> createIDListForQuery(String resourceID, boolean isParticipant) {
         return Arrays.asList(
                    resourceID,
@@ -895,6 +955,50 @@ public class ResourceCalendar {
     }
 
 
+    /**
+     * Gets the index of calendar entries, loading it from the calendar table if
+     * it hasn't yet been loaded (or has been discarded after a rollback)
+     * @return the index
+     */
+    private CalendarIndex getIndex() {
+        CalendarIndex index = _index;
+        if (index == null) {
+            synchronized (_indexMutex) {
+                index = _index;
+                if (index == null) {
+                    index = new CalendarIndex();
+                    List entries = _persister.createQuery("FROM CalendarEntry").list();
+                    List<CalendarEntry> entryList = new ArrayList<CalendarEntry>();
+                    for (Object o : entries) entryList.add((CalendarEntry) o);
+                    index.load(entryList);
+                    _index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+
+    // an index not yet loaded will pick up the change when it is
+    private void index(CalendarEntry entry) {
+        CalendarIndex index = _index;
+        if (index != null) index.put(entry);
+    }
+
+    private void unindex(long entryID) {
+        CalendarIndex index = _index;
+        if (index != null) index.remove(entryID);
+    }
+
+
+    private long getLoad(CalendarIndex index, String id, long from, long to,
+                         boolean countOnly) {
+        List<String> ids = Collections.singletonList(id);
+        return countOnly ? index.getOverlapCount(ids, from, to, null) :
+                index.getWorkload(ids, from, to, null);
+    }
+
+
     private boolean canUpdateStatus(long entryID, Status requiredStatus)
             throws CalendarException {
         CalendarEntry entry = getEntry(entryID);
@@ -935,8 +1039,12 @@ public class ResourceCalendar {
             for (CalendarEntry entry : entries) {
                 CalendarEntry blocked = (CalendarEntry) _persister.get(
                         CalendarEntry.class, entry.getChainID());
-                if (blocked != null) _persister.delete(blocked, tx);
+                if (blocked != null) {
+                    _persister.delete(blocked, tx);
+                    unindex(blocked.getEntryID());
+                }
                 _persister.delete(entry, tx);
+                unindex(entry.getEntryID());
                 notifyStatusChange(entry);
             }
         }
@@ -28,6 +28,8 @@ import org.yawlfoundation.yawl.resourcing.calendar.CalendarLogEntry;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AuditEvent;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.SpecLog;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournalEntry;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.TaskCompleter;
 import org.yawlfoundation.yawl.resourcing.resource.*;
 import org.yawlfoundation.yawl.resourcing.resource.nonhuman.NonHumanCategory;
 import org.yawlfoundation.yawl.resourcing.resource.nonhuman.NonHumanResource;
@@ -58,7 +60,8 @@ public class HibernateEngine extends org.yawlfoundation.yawl.util.HibernateEngin
             WorkQueue.class, ResourceMap.class, PersistedAutoTask.class,
             CalendarEntry.class, WorkItemRecord.class, ResourceEvent.class,
             AuditEvent.class, SpecLog.class, CalendarLogEntry.class,
-            NonHumanCategory.class, NonHumanSubCategory.class
+            NonHumanCategory.class, NonHumanSubCategory.class, QueueJournalEntry.class,
+            TaskCompleter.class
     };
 
 
@@ -18,17 +18,26 @@
 
 package org.yawlfoundation.yawl.resourcing.datastore;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.datastore.persistence.Persister;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.WorkItemWriter;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.*;
 
 
 /**
  * A workitem record hashmap with added persistence.
+ * <p/>
+ * The items are also indexed by root case, so that the items of a case can be found
+ * and removed when the case completes or is cancelled without searching the cache.
+ * Changes are persisted by a write-behind {@link WorkItemWriter}. Items whose state
+ * in the engine is no longer known, such as those that have left every work queue,
+ * are marked as unresolved; a cleanser later reconciles each of them (and only them)
+ * and removes those no longer needed.
  *
  *  @author Michael Adams
  *  v0.1, 15/09/2007
@@ -36,14 +45,25 @@ import java.util.concurrent.*;
 
 public class WorkItemCache extends ConcurrentHashMap<String, WorkItemRecord> {
 
-    private Persister _persister;
+    private WorkItemWriter _writer;
     private Cleanser _cleanser;
+    private Reconciler _reconciler;
     private boolean _persistOn = false;
 
+    // [root case id, ids of the case's cached items]
+    private final Map<String, Set<String>> _caseIndex =
+            new ConcurrentHashMap<String, Set<String>>();
+
+    // ids of the items waiting to be reconciled by the cleanser
+    private final Set<String> _unresolved =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private long _cleanseDelay = 30;                                        // secs
+
     private static WorkItemCache INSTANCE = new WorkItemCache();
 
 
-    private WorkItemCache() {
+    protected WorkItemCache() {
         super();
     }
 
@@ -59,15 +79,33 @@ public class WorkItemCache extends ConcurrentHashMap<String, WorkItemRecord> {
 
     public void setPersist(boolean persist) {
         _persistOn = persist;
-        if (persist) {
-            _persister = Persister.getInstance();
-            _cleanser = new Cleanser();                    // start scheduled cleanse
-        }
+        if (persist) getWriter();
     }
 
     public boolean isPersistOn() { return _persistOn ; }
 
 
+    /**
+     * @return the writer that persists the changes to the cache
+     */
+    public synchronized WorkItemWriter getWriter() {
+        if (_writer == null) _writer = newWriter();
+        return _writer;
+    }
+
+
+    /**
+     * Sets how unresolved items are reconciled by the cleanser
+     * @param reconciler decides whether an unresolved item is still needed
+     * @param delay the seconds an item waits after being marked as unresolved before
+     *              it is reconciled, to allow any work in progress on it to finish
+     */
+    public void setReconciler(Reconciler reconciler, long delay) {
+        _reconciler = reconciler;
+        _cleanseDelay = Math.max(0, delay);
+    }
+
+
     public WorkItemRecord add(WorkItemRecord wir) {
         return (wir != null) ? this.put(wir.getID(), wir) : null;
     }
@@ -90,6 +128,100 @@ public class WorkItemCache extends ConcurrentHashMap<String, WorkItemRecord> {
     }
 
 
+    /**
+     * @param caseID the id of a root case
+     * @return the cached items of the case and its sub-nets
+     */
+    public Set<WorkItemRecord> getCaseItems(String caseID) {
+        Set<WorkItemRecord> items = new HashSet<WorkItemRecord>();
+        Set<String> itemIDs = _caseIndex.get(caseID);
+        if (itemIDs != null) {
+            for (String itemID : itemIDs) {
+                WorkItemRecord wir = get(itemID);
+                if (wir != null) items.add(wir);
+            }
+        }
+        return items;
+    }
+
+
+    /**
+     * Removes the items of a case that has completed or been cancelled
+     * @param caseID the id of a root case
+     * @return the number of items removed
+     */
+    public synchronized int removeCase(String caseID) {
+        Set<String> itemIDs = _caseIndex.get(caseID);
+        if (itemIDs == null) return 0;
+        int removed = 0;
+        for (String itemID : new ArrayList<String>(itemIDs)) {
+            if (remove(itemID) != null) removed++;
+        }
+        return removed;
+    }
+
+
+    /**
+     * @return the number of root cases that have items in the cache
+     */
+    public int getCaseCount() { return _caseIndex.size(); }
+
+
+    /**
+     * Marks an item as unresolved, i.e. whose state in the engine is no longer known,
+     * for the cleanser to reconcile.
+     * @param itemID the id of the item
+     */
+    public void markUnresolved(String itemID) {
+        if (itemID != null && containsKey(itemID) && _unresolved.add(itemID)) {
+            getCleanser().schedule();
+        }
+    }
+
+
+    /**
+     * @return the number of items waiting to be reconciled
+     */
+    public int getUnresolvedCount() { return _unresolved.size(); }
+
+
+    /**
+     * Reconciles the items marked as unresolved, removing those no longer needed.
+     * Items that can't be reconciled now remain unresolved, and the cleanser is
+     * scheduled to try them again later.
+     * @return the number of items removed
+     */
+    public int reconcile() {
+        Set<String> itemIDs = new HashSet<String>(_unresolved);
+        _unresolved.removeAll(itemIDs);
+        int removed = 0;
+        boolean retry = false;
+        for (String itemID : itemIDs) {
+            WorkItemRecord wir = get(itemID);
+            if (wir == null) continue;                          // already removed
+            try {
+                if (_reconciler == null || ! _reconciler.isLive(wir)) {
+                    if (remove(itemID) != null) removed++;
+                }
+            }
+            catch (IOException ioe) {
+                retry = _unresolved.add(itemID) || retry;       // try again later
+            }
+        }
+        if (retry) getCleanser().schedule();
+        return removed;
+    }
+
+
+    /**
+     * Writes any pending changes, then stops the writer and cleanser threads
+     */
+    public void shutdown() {
+        if (_writer != null) _writer.shutdown();
+        stopCleanserThread();
+    }
+
+
     public void stopCleanserThread() {
         if (_cleanser != null) _cleanser.cancel();
     }
@@ -97,91 +229,146 @@ public class WorkItemCache extends ConcurrentHashMap<String, WorkItemRecord> {
 
     public void restore() {
         if (_persistOn) {
-            List wirList = _persister.select("WorkItemRecord") ;
+            Persister persister = Persister.getInstance();
+            List wirList = persister.select("WorkItemRecord") ;
 
             if (wirList != null) {
                 for (Object o : wirList) {
                     WorkItemRecord wir = (WorkItemRecord) o ;
                     super.put(wir.getID(), wir);
+                    index(wir);
                 }
             }
-            _persister.commit();
+            persister.commit();
         }
     }
 
 
     // OVERRIDES //
 
+    // only the in-memory maps are updated here - the writer persists the change
     public synchronized WorkItemRecord put(String id, WorkItemRecord wir) {
-        if (_persistOn) {
-            if (containsKey(id))
-                _persister.update(wir) ;
-            else
-                _persister.insert(wir) ;
+        WorkItemRecord previous = super.put(id, wir);
+        if (previous == null) {
+            index(wir);
+            if (_persistOn) _writer.insert(wir);
+        }
+        else if (_persistOn) _writer.update(wir);
+        return previous;
+    }
+
+
+    public synchronized WorkItemRecord remove(Object id) {
+        WorkItemRecord removed = super.remove(id);
+        if (removed != null) {
+            unindex(removed);
+            _unresolved.remove(id);
+            if (_persistOn) _writer.delete(removed);
+        }
+        return removed;
+    }
+
+
+    /**
+     * Creates the writer used to persist the changes to the cache
+     * @return the writer
+     */
+    protected WorkItemWriter newWriter() {
+        return new WorkItemWriter();
+    }
+
+
+    private void index(WorkItemRecord wir) {
+        String caseID = wir.getRootCaseID();
+        if (caseID == null) return;
+        Set<String> itemIDs = _caseIndex.get(caseID);
+        if (itemIDs == null) {
+            itemIDs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            _caseIndex.put(caseID, itemIDs);
         }
-        return super.put(id, wir);
+        itemIDs.add(wir.getID());
     }
 
 
-    // this method must ONLY be called from the Cleanser below
-    protected synchronized void remove(Set<String> idSet) {
-        boolean unpersisted;
-        for (String id : idSet) {
-            unpersisted = !_persistOn || _persister.delete(get(id), false);
-            if (unpersisted) super.remove(id);
+    private void unindex(WorkItemRecord wir) {
+        String caseID = wir.getRootCaseID();
+        if (caseID == null) return;
+        Set<String> itemIDs = _caseIndex.get(caseID);
+        if (itemIDs != null) {
+            itemIDs.remove(wir.getID());
+            if (itemIDs.isEmpty()) _caseIndex.remove(caseID);
         }
-        _persister.commit();
+    }
+
+
+    private synchronized Cleanser getCleanser() {
+        if (_cleanser == null) _cleanser = new Cleanser();
+        return _cleanser;
+    }
+
+
+    /*****************************************************************************/
+
+    /**
+     * Decides whether an unresolved item is still needed
+     */
+    public interface Reconciler {
+
+        /**
+         * @param wir an unresolved item
+         * @return true if the item is still needed, false if it can be removed
+         * @throws IOException if the item's state can't be determined now
+         */
+        boolean isLive(WorkItemRecord wir) throws IOException;
     }
 
 
     /*****************************************************************************/
 
-    // removes unreferenced items from the cache on a regular basis
+    // removes unresolved items from the cache, some time after they are marked
     class Cleanser {
 
         final ScheduledExecutorService _scheduler;
         ScheduledFuture<?> _cleanseTask;
-
-        final static int INTERVAL = 5;                           // run every 5 minutes
+        final Logger _log = LogManager.getLogger(WorkItemCache.class);
 
         Cleanser() {
-            _scheduler = Executors.newScheduledThreadPool(1);
-            _cleanseTask = _scheduler.scheduleAtFixedRate(new CleanseRunnable(),
-                    INTERVAL, INTERVAL, TimeUnit.MINUTES);
+            _scheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+
+        synchronized void schedule() {
+            if ((_cleanseTask == null || _cleanseTask.isDone()) &&
+                    ! _scheduler.isShutdown()) {
+                _cleanseTask = _scheduler.schedule(new CleanseRunnable(),
+                        _cleanseDelay, TimeUnit.SECONDS);
+            }
         }
 
         public void cancel() {
-            if (_cleanseTask != null) _cleanseTask.cancel(true);
+            _scheduler.shutdownNow();
         }
 
         class CleanseRunnable implements Runnable {
             public void run() {
-                Set<String> cachedItems = new HashSet<String>(INSTANCE.keySet());
-                Set<String> referencedIDs = getReferencedIDs();
-                Set<String> toRemove = new HashSet<String>();
-                if (referencedIDs != null) {
-                    for (String id : cachedItems) {
-                        if (!referencedIDs.contains(id)) {
-                            toRemove.add(id);
-                        }
+                try {
+                    int removed = reconcile();
+                    if (removed > 0) {
+                        _log.debug("Removed {} unreferenced items from the work " +
+                                "item cache", removed);
                     }
-                    remove(toRemove);
                 }
-            }
-
-            
-            Set<String> getReferencedIDs() {
+                catch (RuntimeException re) {
+                    _log.error("Failed to reconcile unresolved cached work items", re);
+                }
+                finally {
 
-                // plain SQL is used because table is not a hibernate mapped class
-                List list = _persister.execSQLQuery("SELECT key_id FROM rs_queueItems");
-                if (list != null) {
-                    Set<String> idSet = new HashSet<String>();
-                    for (Object o : list) {        // list may be empty
-                        idSet.add((String) o);
+                    // items left to retry, or marked while this run was under way
+                    // (which couldn't schedule it again), wait for the next run
+                    synchronized (Cleanser.this) {
+                        _cleanseTask = null;
+                        if (! _unresolved.isEmpty()) schedule();
                     }
-                    return idSet;
                 }
-                return null;     // error reading table
             }
         }
 
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.eventlog;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Query;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.Persister;
+
+import java.util.*;
+
+/**
+ * Keeps running per-task, per-participant statistics of the resource events logged,
+ * for use by the allocators that choose a participant based on past performance.
+ * <p/>
+ * The statistics are seeded once from the resource event log at startup, then
+ * updated as each event is logged, so that an allocator need only look up the
+ * participants in its distribution set rather than query the log. Seeding reads the
+ * events logged before it began; events logged while it runs are held back until it
+ * is done, and any of those already read by it are then ignored.
+ * <p/>
+ * A duration between two events for a work item (e.g. allocate to complete) is
+ * credited to the participant of the later event. The count, total and the most
+ * recent durations are kept for each participant.
+ */
+public class AllocationStatistics {
+
+    // the events that mark the progress of a work item through a participant's queues
+    private static final EventLogger.event[] PROGRESS_EVENTS = {
+            EventLogger.event.offer, EventLogger.event.allocate,
+            EventLogger.event.start, EventLogger.event.complete };
+
+    private static final int SAMPLE_SIZE = 500;     // durations kept for distributions
+    private static final int PAGE_SIZE = 5000;      // log rows read per query on seeding
+
+    private static AllocationStatistics INSTANCE;
+
+    private final Logger _log = LogManager.getLogger(AllocationStatistics.class);
+
+    // [specKey:taskID, stats] and [itemID, the item's progress so far]
+    private final Map<String, TaskProfile> _tasks = new HashMap<String, TaskProfile>();
+    private final Map<String, ItemProgress> _items = new HashMap<String, ItemProgress>();
+    private boolean _seeded;
+    private boolean _seeding;
+    private long _seedMark;                  // the id of the last logged event seeded
+    private final List<ResourceEvent> _heldBack = new ArrayList<ResourceEvent>();
+
+
+    protected AllocationStatistics() { }
+
+
+    public static synchronized AllocationStatistics getInstance() {
+        if (INSTANCE == null) INSTANCE = new AllocationStatistics();
+        return INSTANCE;
+    }
+
+
+    /**
+     * Reads the resource event log, in pages of events after the last one read, to
+     * build the initial statistics. The log is read without holding the statistics,
+     * so that they can be used while it is read. Only the first call has any effect.
+     */
+    public void seed() {
+        synchronized (this) {
+            if (_seeded) return;
+            _seeded = true;
+            _seeding = true;
+        }
+        long start = System.currentTimeMillis();
+        long mark = 0;
+        int count = 0;
+        try {
+            mark = readLastID();
+            long lastID = 0;
+            List<ResourceEvent> page;
+            do {
+                page = readLog(lastID, mark, PAGE_SIZE);
+                synchronized (this) {
+                    for (ResourceEvent event : page) apply(event);
+                }
+                if (! page.isEmpty()) lastID = page.get(page.size() - 1).get_id();
+                count += page.size();
+            } while (page.size() == PAGE_SIZE);
+        }
+        finally {
+            synchronized (this) {
+                _seedMark = mark;
+                _seeding = false;
+                for (ResourceEvent event : _heldBack) update(event);
+                _heldBack.clear();
+            }
+        }
+        _log.info("Allocation statistics seeded from {} logged events in {} msecs",
+                count, System.currentTimeMillis() - start);
+    }
+
+
+    /**
+     * Updates the statistics for a logged event. While the statistics are being
+     * seeded, the update waits until seeding is done. Events already read when
+     * seeding are ignored.
+     * @param event the event
+     */
+    public synchronized void update(ResourceEvent event) {
+        if (_seeding) {
+            _heldBack.add(event);
+        }
+        else if (event.get_id() <= 0 || event.get_id() > _seedMark) {
+            apply(event);
+        }
+    }
+
+
+    /**
+     * Stops tracking the items of a case (and of any of its sub-cases) once the case
+     * has completed or been cancelled, since those items will log no more events
+     * @param caseID the id of the case
+     */
+    public synchronized void removeCase(String caseID) {
+        if (caseID == null) return;
+        Iterator<ItemProgress> itr = _items.values().iterator();
+        while (itr.hasNext()) {
+            String itemCaseID = itr.next().caseID;
+            if (itemCaseID != null && (itemCaseID.equals(caseID) ||
+                    itemCaseID.startsWith(caseID + "."))) {
+                itr.remove();
+            }
+        }
+    }
+
+
+    private void apply(ResourceEvent event) {
+        EventLogger.event eType = EventLogger.getEventByName(event.get_event());
+        if (eType == null) return;
+        String itemID = event.get_itemID();
+        switch (eType) {
+            case offer:
+            case allocate:
+            case start: progress(event, eType); break;
+            case complete: {
+                progress(event, eType);
+                _items.remove(itemID);
+                break;
+            }
+            case cancel:
+            case cancelled_by_case:
+            case timer_expired:
+            case skip: if (itemID != null) _items.remove(itemID); break;
+            case cancel_case: removeCase(event.get_caseID()); break;
+        }
+    }
+
+
+    /**
+     * Gets the statistics for a task
+     * @param specKey the log key of the task's specification
+     * @param taskID the task's id
+     * @return the task's statistics, which will be empty if the task has no
+     * logged events
+     */
+    public synchronized TaskProfile getTaskProfile(long specKey, String taskID) {
+        TaskProfile profile = _tasks.get(getKey(specKey, taskID));
+        return profile != null ? profile : new TaskProfile();
+    }
+
+
+    /**
+     * @return the number of work items currently being tracked, that is, those with
+     * logged progress events but not yet completed or cancelled
+     */
+    public synchronized int getOpenItemCount() { return _items.size(); }
+
+
+    /**
+     * @return the id of the last event in the log, or 0 if the log is empty
+     */
+    protected long readLastID() {
+        Persister persister = Persister.getInstance();
+        List<?> result = persister.execQuery("select max(_id) from ResourceEvent");
+        persister.commit();
+        Object lastID = (result == null || result.isEmpty()) ? null : result.get(0);
+        return lastID != null ? ((Number) lastID).longValue() : 0;
+    }
+
+
+    /**
+     * Reads a page of resource events from the log, in the order they were logged
+     * @param afterID the id of the last event already read (0 for none)
+     * @param lastID the id of the last event to read
+     * @param max the maximum number of events to read
+     * @return the list of events read, which will be empty at the end of the log
+     */
+    protected List<ResourceEvent> readLog(long afterID, long lastID, int max) {
+        List<ResourceEvent> events = new ArrayList<ResourceEvent>();
+        Persister persister = Persister.getInstance();
+        Query query = persister.createQuery("from ResourceEvent" +
+                " where _id > :afterID and _id <= :lastID" +
+                " and (_itemID is not null or _event = '" +
+                EventLogger.event.cancel_case.name() + "') order by _id");
+        if (query != null) {
+            query.setLong("afterID", afterID).setLong("lastID", lastID);
+            query.setMaxResults(max);
+            for (Object o : query.list()) events.add((ResourceEvent) o);
+        }
+        persister.commit();
+        return events;
+    }
+
+
+    /*******************************************************************************/
+
+    private String getKey(long specKey, String taskID) { return specKey + ":" + taskID; }
+
+
+    // records a progress event, and the durations to it from any earlier ones
+    private void progress(ResourceEvent event, EventLogger.event eType) {
+        String itemID = event.get_itemID();
+        if (itemID == null) return;
+        ItemProgress item = _items.get(itemID);
+        if (item == null) {
+            item = new ItemProgress(event.get_caseID(), event.get_timeStamp());
+            _items.put(itemID, item);
+        }
+
+        String pid = event.get_resourceID();
+        if (! (pid == null || pid.isEmpty())) {
+            TaskProfile profile = getOrCreateProfile(event);
+            ParticipantStats stats = profile.getOrCreate(pid);
+            long time = event.get_timeStamp();
+            for (EventLogger.event from : PROGRESS_EVENTS) {
+                if (from == eType) break;
+                Long fromTime = item.times.get(from);
+                if (fromTime != null) stats.addDuration(from, eType, time - fromTime);
+            }
+            if (eType == EventLogger.event.allocate) {
+                stats.lastAllocated = time;
+            }
+            else if (eType == EventLogger.event.complete) {
+                stats.addDuration(null, eType, time - item.created);
+                stats.completions++;
+                stats.firstCompleted = Math.min(stats.firstCompleted, time);
+                stats.lastCompleted = Math.max(stats.lastCompleted, time);
+                profile.completions++;
+            }
+        }
+        item.times.put(eType, event.get_timeStamp());
+    }
+
+
+    private TaskProfile getOrCreateProfile(ResourceEvent event) {
+        String key = getKey(event.get_specKey(), event.get_taskID());
+        TaskProfile profile = _tasks.get(key);
+        if (profile == null) {
+            profile = new TaskProfile();
+            _tasks.put(key, profile);
+        }
+        return profile;
+    }
+
+
+    /*******************************************************************************/
+
+    /**
+     * The statistics for a single task. The query methods are safe to call while the
+     * statistics are being updated.
+     */
+    public class TaskProfile {
+
+        private final Map<String, ParticipantStats> _participants =
+                new HashMap<String, ParticipantStats>();
+        private long completions;
+
+        private TaskProfile() { }
+
+
+        /** @return the number of completions of the task by any participant */
+        public long getCompletionCount() {
+            synchronized (AllocationStatistics.this) {
+                return completions;
+            }
+        }
+
+
+        /**
+         * @param pid a participant id
+         * @return the number of times the participant has completed the task
+         */
+        public long getCompletionCount(String pid) {
+            synchronized (AllocationStatistics.this) {
+                ParticipantStats stats = _participants.get(pid);
+                return stats != null ? stats.completions : 0;
+            }
+        }
+
+
+        /**
+         * @param pid a participant id
+         * @return the time the participant first completed the task, or Long.MAX_VALUE
+         * if never
+         */
+        public long getFirstCompletionTime(String pid) {
+            synchronized (AllocationStatistics.this) {
+                ParticipantStats stats = _participants.get(pid);
+                return stats != null ? stats.firstCompleted : Long.MAX_VALUE;
+            }
+        }
+
+
+        /**
+         * @param pid a participant id
+         * @return the time the participant last completed the task, or -1 if never
+         */
+        public long getLastCompletionTime(String pid) {
+            synchronized (AllocationStatistics.this) {
+                ParticipantStats stats = _participants.get(pid);
+                return stats != null ? stats.lastCompleted : -1;
+            }
+        }
+
+
+        /**
+         * @param pid a participant id
+         * @return the time the task was last allocated to the participant, or -1 if
+         * never
+         */
+        public long getLastAllocationTime(String pid) {
+            synchronized (AllocationStatistics.this) {
+                ParticipantStats stats = _participants.get(pid);
+                return stats != null ? stats.lastAllocated : -1;
+            }
+        }
+
+
+        /**
+         * Gets the average durations, between two events, of instances of the task
+         * for each of a set of participants
+         * @param fromEvent the earlier event (start of duration), or null for the
+         *                  first logged event of each work item
+         * @param toEvent the later event (end of duration)
+         * @param pids the participant ids to get the durations for
+         * @return a map of participant id to average duration (in msecs), for each of
+         * the participants that have a duration recorded
+         */
+        public Map<String, Long> getAverageDurations(EventLogger.event fromEvent,
+                                                     EventLogger.event toEvent,
+                                                     Collection<String> pids) {
+            Map<String, Long> averages = new HashMap<String, Long>();
+            synchronized (AllocationStatistics.this) {
+                for (String pid : pids) {
+                    DurationStats durations = getDurations(pid, fromEvent, toEvent);
+                    if (durations != null) averages.put(pid, durations.getAverage());
+                }
+            }
+            return averages;
+        }
+
+
+        /**
+         * Gets, for each of a set of participants, the proportion of their recent
+         * durations between two events that were no longer than some threshold
+         * @param fromEvent the earlier event (start of duration)
+         * @param toEvent the later event (end of duration)
+         * @param pids the participant ids to get the proportions for
+         * @param threshold the maximum duration (in msecs)
+         * @return a map of participant id to proportion (0..1), for each of the
+         * participants that have a duration recorded
+         */
+        public Map<String, Double> getProportionsWithin(EventLogger.event fromEvent,
+                                                        EventLogger.event toEvent,
+                                                        Collection<String> pids,
+                                                        long threshold) {
+            Map<String, Double> proportions = new HashMap<String, Double>();
+            synchronized (AllocationStatistics.this) {
+                for (String pid : pids) {
+                    DurationStats durations = getDurations(pid, fromEvent, toEvent);
+                    if (durations != null) {
+                        proportions.put(pid, durations.getProportionWithin(threshold));
+                    }
+                }
+            }
+            return proportions;
+        }
+
+
+        private DurationStats getDurations(String pid, EventLogger.event fromEvent,
+                                           EventLogger.event toEvent) {
+            ParticipantStats stats = _participants.get(pid);
+            return stats != null ? stats.durations.get(
+                    ParticipantStats.getKey(fromEvent, toEvent)) : null;
+        }
+
+
+        private ParticipantStats getOrCreate(String pid) {
+            ParticipantStats stats = _participants.get(pid);
+            if (stats == null) {
+                stats = new ParticipantStats();
+                _participants.put(pid, stats);
+            }
+            return stats;
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // the progress of a work item that has not yet completed
+    private static class ItemProgress {
+        final String caseID;
+        final long created;
+        final Map<EventLogger.event, Long> times =
+                new EnumMap<EventLogger.event, Long>(EventLogger.event.class);
+
+        ItemProgress(String caseID, long created) {
+            this.caseID = caseID;
+            this.created = created;
+        }
+    }
+
+
+    // the statistics for one participant's instances of a task
+    private static class ParticipantStats {
+        long completions;
+        long firstCompleted = Long.MAX_VALUE;
+        long lastCompleted = -1;
+        long lastAllocated = -1;
+        final Map<String, DurationStats> durations = new HashMap<String, DurationStats>();
+
+        static String getKey(EventLogger.event fromEvent, EventLogger.event toEvent) {
+            return (fromEvent != null ? fromEvent.name() : "") + ">" + toEvent.name();
+        }
+
+        void addDuration(EventLogger.event fromEvent, EventLogger.event toEvent,
+                         long duration) {
+            String key = getKey(fromEvent, toEvent);
+            DurationStats stats = durations.get(key);
+            if (stats == null) {
+                stats = new DurationStats();
+                durations.put(key, stats);
+            }
+            stats.add(duration);
+        }
+    }
+
+
+    // the count and total of a set of durations, and a ring of the most recent ones
+    private static class DurationStats {
+        long count;
+        long total;
+        long[] recent = new long[8];
+
+        void add(long duration) {
+            if (count < SAMPLE_SIZE && count == recent.length) {
+                recent = Arrays.copyOf(recent, Math.min(recent.length * 2, SAMPLE_SIZE));
+            }
+            recent[(int) (count % recent.length)] = duration;
+            count++;
+            total += duration;
+        }
+
+        long getAverage() { return total / count; }
+
+        double getProportionWithin(long threshold) {
+            int size = (int) Math.min(count, recent.length);
+            int within = 0;
+            for (int i = 0; i < size; i++) {
+                if (recent[i] <= threshold) within++;
+            }
+            return within / (double) size;
+        }
+    }
+
+}
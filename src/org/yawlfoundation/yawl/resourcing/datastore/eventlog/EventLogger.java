@@ -161,6 +161,7 @@ public class EventLogger {
         long specKey = getSpecificationKey(specID);
         ResourceEvent resEvent = new ResourceEvent(specKey, caseID, pid, eType);
         insertEvent(resEvent);
+        AllocationStatistics.getInstance().update(resEvent);
         announceEvent(specID, resEvent);
     }
 
@@ -170,6 +171,7 @@ public class EventLogger {
         long specKey = getSpecificationKey(specID);
         ResourceEvent resEvent = new ResourceEvent(specKey, wir, pid, eType);
         insertEvent(resEvent);
+        AllocationStatistics.getInstance().update(resEvent);
         announceEvent(specID, resEvent);
     }
 
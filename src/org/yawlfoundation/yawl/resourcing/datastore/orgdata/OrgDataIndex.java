@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.orgdata;
+
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet.ResUnit;
+import org.yawlfoundation.yawl.resourcing.resource.*;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of the org structure of a ResourceDataSet, precomputed so
+ * that membership queries are answered by lookups and set operations rather than by
+ * walking the org data object graphs.
+ *
+ * Each participant is given an index, and each set of participants (the members of a
+ * role and its descendant roles, the holders of a capability, those reporting to a
+ * position, and so on) is held as a BitSet of those indexes.
+ *
+ * A snapshot is built from the data set's change stamps. When they change, a new
+ * snapshot is built that reuses each part of the previous one whose units have not
+ * changed.
+ */
+public final class OrgDataIndex {
+
+    private final long[] _stamps;                      // change stamp of each ResUnit
+    private final ParticipantPart _participants;
+    private final RolePart _roles;
+    private final PositionPart _positions;
+    private final OrgGroupPart _orgGroups;
+    private final CapabilityPart _capabilities;
+
+
+    private OrgDataIndex(ResourceDataSet ds, long[] stamps, OrgDataIndex previous) {
+        _stamps = stamps;
+        boolean reuse = previous != null && ! previous.changed(stamps, ResUnit.Participant);
+        _participants = reuse ? previous._participants : new ParticipantPart(ds);
+
+        _roles = reuse && ! previous.changed(stamps, ResUnit.Role) ?
+                previous._roles : new RolePart(ds, _participants);
+        _positions = reuse && ! previous.changed(stamps, ResUnit.Position) ?
+                previous._positions : new PositionPart(ds, _participants);
+        _orgGroups = reuse && ! previous.changed(stamps, ResUnit.Position,
+                ResUnit.OrgGroup) ? previous._orgGroups : new OrgGroupPart(ds, _positions);
+        _capabilities = reuse && ! previous.changed(stamps, ResUnit.Capability) ?
+                previous._capabilities : new CapabilityPart(ds, _participants);
+    }
+
+
+    /**
+     * Builds an index of a data set, reusing the unchanged parts of a previous index
+     * @param ds the data set to index
+     * @param previous a previous index of the data set, or null to build it all
+     * @return the new index
+     */
+    static OrgDataIndex build(ResourceDataSet ds, OrgDataIndex previous) {
+        return new OrgDataIndex(ds, getStamps(ds), previous);
+    }
+
+
+    /**
+     * @param ds the data set this index was built from
+     * @return true if the data set has not changed since this index was built
+     */
+    boolean isCurrent(ResourceDataSet ds) {
+        return Arrays.equals(_stamps, getStamps(ds));
+    }
+
+
+    /******************************************************************************/
+
+    // NAME LOOKUPS //
+
+    public Participant getParticipantByUserID(String userID) {
+        return _participants.userIDs.get(userID);
+    }
+
+    public Role getRoleByName(String name) {
+        return name != null ? _roles.names.get(name.toLowerCase()) : null;
+    }
+
+    public Position getPositionByTitle(String title) {
+        return _positions.titles.get(title);
+    }
+
+    public OrgGroup getOrgGroupByName(String name) {
+        return _orgGroups.names.get(name);
+    }
+
+    public Capability getCapabilityByLabel(String label) {
+        return _capabilities.labels.get(label);
+    }
+
+
+    /******************************************************************************/
+
+    // MEMBERSHIP SETS //
+
+    /**
+     * @param rid the id of a role
+     * @param withDescendants if true, include the members of the role's descendant
+     *                        roles (the roles that ultimately belong to it)
+     * @return the indexes of the role's members
+     */
+    public BitSet getRoleMembers(String rid, boolean withDescendants) {
+        BitSet members = copy(_roles.members.get(rid));
+        if (withDescendants) members.or(getDescendantRoleMembers(rid));
+        return members;
+    }
+
+    /**
+     * @param rid the id of a role
+     * @return the indexes of the members of the roles that ultimately belong to it
+     */
+    public BitSet getDescendantRoleMembers(String rid) {
+        return copy(_roles.descendantMembers.get(rid));
+    }
+
+    public BitSet getCapabilityHolders(String cid) {
+        return copy(_capabilities.holders.get(cid));
+    }
+
+    public BitSet getPositionHolders(String posID) {
+        return copy(_positions.holders.get(posID));
+    }
+
+    /**
+     * @param posID the id of a position
+     * @return the indexes of the holders of positions that ultimately report to it
+     */
+    public BitSet getReportingTo(String posID) {
+        return copy(_positions.reportingTo.get(posID));
+    }
+
+    /**
+     * @param oid the id of an org group
+     * @return the indexes of the holders of positions in the group or any of the
+     * groups that ultimately belong to it
+     */
+    public BitSet getOrgGroupMembers(String oid) {
+        return copy(_orgGroups.members.get(oid));
+    }
+
+
+    /******************************************************************************/
+
+    // CONVERSIONS //
+
+    /**
+     * @param p a participant
+     * @return the participant's index, or -1 if it is not in this index
+     */
+    public int indexOf(Participant p) {
+        Integer i = p != null ? _participants.indexes.get(p.getID()) : null;
+        return i != null ? i : -1;
+    }
+
+    public BitSet toBitSet(Collection<? extends AbstractResource> resources) {
+        BitSet bits = new BitSet(_participants.size());
+        for (AbstractResource resource : resources) {
+            Integer i = _participants.indexes.get(resource.getID());
+            if (i != null) bits.set(i);
+        }
+        return bits;
+    }
+
+    public Set<Participant> toParticipantSet(BitSet bits) {
+        Set<Participant> pSet = new HashSet<Participant>(
+                (int) (bits.cardinality() / 0.75) + 1);
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            pSet.add(_participants.byIndex[i]);
+        }
+        return pSet;
+    }
+
+    public Set<AbstractResource> toResourceSet(BitSet bits) {
+        return new HashSet<AbstractResource>(toParticipantSet(bits));
+    }
+
+
+    /******************************************************************************/
+
+    // PRIVATE //
+
+    private static long[] getStamps(ResourceDataSet ds) {
+        long[] stamps = new long[ResUnit.values().length];
+        for (ResUnit unit : ResUnit.values()) {
+            stamps[unit.ordinal()] = ds.getChangeStamp(unit);
+        }
+        return stamps;
+    }
+
+
+    private boolean changed(long[] stamps, ResUnit... units) {
+        for (ResUnit unit : units) {
+            if (_stamps[unit.ordinal()] != stamps[unit.ordinal()]) return true;
+        }
+        return false;
+    }
+
+
+    private static BitSet copy(BitSet bits) {
+        return bits != null ? (BitSet) bits.clone() : new BitSet();
+    }
+
+
+    // adds the members of each of a set of units to each of its ancestors
+    private static <T> Map<String, BitSet> closure(Map<String, BitSet> members,
+                                                    Map<String, T> units,
+                                                    Parent<T> parent) {
+        Map<String, BitSet> closure = new HashMap<String, BitSet>();
+        for (String id : members.keySet()) {
+            Set<T> visited = new HashSet<T>();               // guard against cycles
+            T ancestor = parent.of(units.get(id));
+            while (ancestor != null && visited.add(ancestor)) {
+                String ancestorID = ((AbstractResourceAttribute) ancestor).getID();
+                BitSet bits = closure.get(ancestorID);
+                if (bits == null) {
+                    bits = new BitSet();
+                    closure.put(ancestorID, bits);
+                }
+                bits.or(members.get(id));
+                ancestor = parent.of(ancestor);
+            }
+        }
+        return closure;
+    }
+
+
+    private static Map<String, BitSet> getMembers(
+            Collection<? extends AbstractResourceAttribute> attributes,
+            ParticipantPart participants) {
+        Map<String, BitSet> members = new HashMap<String, BitSet>();
+        for (AbstractResourceAttribute attribute : attributes) {
+            BitSet bits = new BitSet(participants.size());
+            for (AbstractResource resource : attribute.getResources()) {
+                Integer i = participants.indexes.get(resource.getID());
+                if (i != null) bits.set(i);
+            }
+            members.put(attribute.getID(), bits);
+        }
+        return members;
+    }
+
+
+    private interface Parent<T> {
+        T of(T child);
+    }
+
+
+    /******************************************************************************/
+
+    private static class ParticipantPart {
+        final Participant[] byIndex;
+        final Map<String, Integer> indexes;
+        final Map<String, Participant> userIDs;
+
+        ParticipantPart(ResourceDataSet ds) {
+            Set<Participant> participants = ds.getParticipants();
+            byIndex = participants.toArray(new Participant[participants.size()]);
+            indexes = new HashMap<String, Integer>();
+            userIDs = new HashMap<String, Participant>();
+            for (int i = 0; i < byIndex.length; i++) {
+                indexes.put(byIndex[i].getID(), i);
+                String userID = byIndex[i].getUserID();
+                if (userID != null && ! userIDs.containsKey(userID)) {
+                    userIDs.put(userID, byIndex[i]);
+                }
+            }
+        }
+
+        int size() { return byIndex.length; }
+    }
+
+
+    private static class RolePart {
+        final Map<String, Role> names = new HashMap<String, Role>();
+        final Map<String, BitSet> members;
+        final Map<String, BitSet> descendantMembers;
+
+        RolePart(ResourceDataSet ds, ParticipantPart participants) {
+            Map<String, Role> roles = ds.getRoleMap();
+            for (Role role : roles.values()) {
+                String name = role.getName();
+                if (name != null && ! names.containsKey(name.toLowerCase())) {
+                    names.put(name.toLowerCase(), role);
+                }
+            }
+            members = getMembers(roles.values(), participants);
+            descendantMembers = closure(members, roles, new Parent<Role>() {
+                public Role of(Role child) { return child.getOwnerRole(); }
+            });
+        }
+    }
+
+
+    private static class PositionPart {
+        final Map<String, Position> titles = new HashMap<String, Position>();
+        final Map<String, Position> positions;
+        final Map<String, BitSet> holders;
+        final Map<String, BitSet> reportingTo;
+
+        PositionPart(ResourceDataSet ds, ParticipantPart participants) {
+            positions = new HashMap<String, Position>(ds.getPositionMap());
+            for (Position position : positions.values()) {
+                String title = position.getTitle();
+                if (title != null && ! titles.containsKey(title)) {
+                    titles.put(title, position);
+                }
+            }
+            holders = getMembers(positions.values(), participants);
+            reportingTo = closure(holders, positions, new Parent<Position>() {
+                public Position of(Position child) { return child.getReportsTo(); }
+            });
+        }
+    }
+
+
+    private static class OrgGroupPart {
+        final Map<String, OrgGroup> names = new HashMap<String, OrgGroup>();
+        final Map<String, BitSet> members = new HashMap<String, BitSet>();
+
+        // an org group's members hold a position in it or in one of its descendants
+        OrgGroupPart(ResourceDataSet ds, PositionPart positions) {
+            for (OrgGroup group : ds.getOrgGroups()) {
+                String name = group.getGroupName();
+                if (name != null && ! names.containsKey(name)) names.put(name, group);
+            }
+            for (Position position : positions.positions.values()) {
+                Set<OrgGroup> visited = new HashSet<OrgGroup>();
+                OrgGroup group = position.getOrgGroup();
+                while (group != null && visited.add(group)) {
+                    BitSet bits = members.get(group.getID());
+                    if (bits == null) {
+                        bits = new BitSet();
+                        members.put(group.getID(), bits);
+                    }
+                    bits.or(positions.holders.get(position.getID()));
+                    group = group.getBelongsTo();
+                }
+            }
+        }
+    }
+
+
+    private static class CapabilityPart {
+        final Map<String, Capability> labels = new HashMap<String, Capability>();
+        final Map<String, BitSet> holders;
+
+        CapabilityPart(ResourceDataSet ds, ParticipantPart participants) {
+            Collection<Capability> capabilities = ds.getCapabilityMap().values();
+            for (Capability capability : capabilities) {
+                String label = capability.getCapability();
+                if (label != null && ! labels.containsKey(label)) {
+                    labels.put(label, capability);
+                }
+            }
+            holders = getMembers(capabilities, participants);
+        }
+    }
+
+}
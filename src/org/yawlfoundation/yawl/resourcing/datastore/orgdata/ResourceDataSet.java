@@ -63,6 +63,10 @@ public class ResourceDataSet {
     // stores a timestamp of each entity's last change
     private Map<ResUnit, Long> _changeStamp = new Hashtable<ResUnit, Long>();
 
+    // a precomputed index of the org structure, rebuilt when the change stamps change
+    private volatile OrgDataIndex _index;
+    private final Object _indexMutex = new Object();
+
 
     public ResourceDataSet(DataSource source) {
         initUnitMaps(source);
@@ -88,8 +92,11 @@ public class ResourceDataSet {
     }
 
 
-    private void setChangeStamp(ResUnit unit) {
-        _changeStamp.put(unit, System.currentTimeMillis());        
+    // stamps are kept strictly increasing, so that changes made in the same msec
+    // are still seen as changes
+    private synchronized void setChangeStamp(ResUnit unit) {
+        _changeStamp.put(unit, Math.max(System.currentTimeMillis(),
+                getLastChangeStamp() + 1));
     }
 
 
@@ -193,43 +200,70 @@ public class ResourceDataSet {
         return lastChange;
     }
 
+
+    /**
+     * Gets the index of the current org structure. If the org data has changed since
+     * the index was last built, the changed parts are rebuilt first.
+     * @return the current index
+     */
+    public OrgDataIndex getIndex() {
+        OrgDataIndex index = _index;
+        if (index == null || ! index.isCurrent(this)) {
+            synchronized (_indexMutex) {
+                index = _index;
+                if (index == null || ! index.isCurrent(this)) {
+                    index = OrgDataIndex.build(this, index);
+                    _index = index;
+                }
+            }
+        }
+        return index;
+    }
+
     /************************************/
 
     public void setParticipants(Map<String, Participant> participants, DataSource source) {
         participantMap = participants;
         setDataSource(ResUnit.Participant, source);
+        setChangeStamp(ResUnit.Participant);
     }
 
     public void setRoles(Map<String, Role> roles, DataSource source) {
         roleMap = roles;
         setDataSource(ResUnit.Role, source);
+        setChangeStamp(ResUnit.Role);
     }
 
     public void setCapabilities(Map<String, Capability> capabilities, DataSource source) {
         capabilityMap = capabilities;
         setDataSource(ResUnit.Capability, source);
+        setChangeStamp(ResUnit.Capability);
     }
 
     public void setPositions(Map<String, Position> positions, DataSource source) {
         positionMap = positions;
         setDataSource(ResUnit.Position, source);
+        setChangeStamp(ResUnit.Position);
     }
 
     public void setOrgGroups(Map<String, OrgGroup> groups, DataSource source) {
         orgGroupMap = groups;
         setDataSource(ResUnit.OrgGroup, source);
+        setChangeStamp(ResUnit.OrgGroup);
     }
 
     public void setNonHumanResources(Map<String, NonHumanResource> resources,
                                      DataSource source) {
         nonHumanMap = resources;
         setDataSource(ResUnit.NonHumanResource, source);
+        setChangeStamp(ResUnit.NonHumanResource);
     }
 
     public void setNonHumanCategories(Map<String, NonHumanCategory> resources,
                                       DataSource source) {
         nonHumanCategoryMap = resources;
         setDataSource(ResUnit.NonHumanCategory, source);
+        setChangeStamp(ResUnit.NonHumanCategory);
     }
 
 
@@ -888,38 +922,19 @@ public class ResourceDataSet {
 
 
     public Role getRoleByName(String roleName) {
-        for (Role r : roleMap.values()) {
-            if (r.getName().equalsIgnoreCase(roleName))
-                return r ;
-        }
-        return null ;                    // no match
+        return getIndex().getRoleByName(roleName);
     }
 
     public Position getPositionByLabel(String label) {
-        for (Position p : positionMap.values()) {
-            if (p.getTitle().equals(label)) {
-                return p;
-            }
-        }
-        return null;
+        return getIndex().getPositionByTitle(label);
     }
 
     public OrgGroup getOrgGroupByLabel(String label) {
-        for (OrgGroup o : orgGroupMap.values()) {
-            if (o.getGroupName().equals(label)) {
-                return o;
-            }
-        }
-        return null;
+        return getIndex().getOrgGroupByName(label);
     }
 
     public Capability getCapabilityByLabel(String label) {
-        for (Capability c : capabilityMap.values()) {
-            if (c.getCapability().equals(label)) {
-                return c;
-            }
-        }
-        return null;
+        return getIndex().getCapabilityByLabel(label);
     }
 
     public NonHumanResource getNonHumanResourceByName(String name) {
@@ -1097,13 +1112,11 @@ public class ResourceDataSet {
 
             // filter role members by capability
             if (cid != null) {
-                Capability cap = getCapability(cid);
-                if (cap != null) {
-                    for (AbstractResource member : role.getResources()) {
-                        if (((Participant) member).getCapabilities().contains(cap)) {
-                           resourceSet.add(member);
-                        }
-                    }
+                if (isKnownCapability(cid)) {
+                    OrgDataIndex index = getIndex();
+                    BitSet members = index.getRoleMembers(rid, false);
+                    members.and(index.getCapabilityHolders(cid));
+                    resourceSet = index.toResourceSet(members);
                 }
             }
             else resourceSet = role.getResources();         // no cid means don't filter
@@ -1160,11 +1173,9 @@ public class ResourceDataSet {
 
 
     public Set<Participant> getOrgGroupMembers(OrgGroup o) {
-        Set<Participant> result = new HashSet<Participant>();
-        for (Participant p : participantMap.values()) {
-            if (p.isOrgGroupMember(o)) result.add(p);
-        }
-        return result;
+        if (o == null) return new HashSet<Participant>();
+        OrgDataIndex index = getIndex();
+        return index.toParticipantSet(index.getOrgGroupMembers(o.getID()));
     }
 
     
@@ -1223,12 +1234,7 @@ public class ResourceDataSet {
 
 
     public Participant getParticipantFromUserID(String userID) {
-        for (Participant p : getParticipants()) {
-            if (p.getUserID().equals(userID)) {
-                return p;
-            }
-        }
-        return null;
+        return getIndex().getParticipantByUserID(userID);
     }
 
 
@@ -1257,13 +1263,13 @@ public class ResourceDataSet {
      * @return the set of Particpants 'managed' by this Participant
      */
     public Set<Participant> getParticipantsReportingTo(String pid) {
-        Set<Participant> result = new HashSet<Participant>() ;
+        OrgDataIndex index = getIndex();
+        BitSet managed = new BitSet();
         Set<Position> posSet = getParticipantPositions(pid) ;
         for (Position pos : posSet) {
-            result.addAll(getParticipantsReportingToPosition(pos)) ;
+            managed.or(index.getReportingTo(pos.getID())) ;
         }
-        if (result.isEmpty()) result = null ;
-        return result ;
+        return managed.isEmpty() ? null : index.toParticipantSet(managed) ;
     }
 
 
@@ -1273,14 +1279,8 @@ public class ResourceDataSet {
      * @return the set of Particpants 'managed' by this Position
      */
     public Set<Participant> getParticipantsReportingToPosition(Position manager) {
-        Set<Participant> result = new HashSet<Participant>() ;
-        Set<Position> posSet = getPositions();
-        for (Position pos : posSet) {
-            if (pos.ultimatelyReportsTo(manager)) {
-                result.addAll(castToParticipantSet(pos.getResources()));
-            }
-        }
-        return result ;
+        OrgDataIndex index = getIndex();
+        return index.toParticipantSet(index.getReportingTo(manager.getID())) ;
     }
 
 
@@ -1322,14 +1322,8 @@ public class ResourceDataSet {
 
 
     public Set<Participant> getParticipantsInDescendantRoles(Role owner) {
-        Set<Participant> result = new HashSet<Participant>();
-        Set<Role> roleSet = getRoles();
-        for (Role role : roleSet) {
-            if (role.ultimatelyBelongsTo(owner)) {
-                result.addAll(castToParticipantSet(role.getResources()));
-            }
-        }
-        return result;
+        OrgDataIndex index = getIndex();
+        return index.toParticipantSet(index.getDescendantRoleMembers(owner.getID()));
     }
 
 
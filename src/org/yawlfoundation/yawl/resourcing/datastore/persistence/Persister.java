@@ -101,6 +101,10 @@ public final class Persister implements Serializable {
         return _db.execUpdate(statement, commit);
     }
 
+    public int execSQLUpdate(String statement) { return _db.execSQLUpdate(statement); }
+
+    public boolean tableExists(String tableName) { return _db.tableExists(tableName); }
+
     public Query createQuery(String query) {
         return _db.createQuery(query);
     }
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Transaction;
+
+import java.util.*;
+
+/**
+ * An append-only journal of the changes to the membership of the persisted work
+ * queues. Rather than rewriting a queue's entire item collection each time an item
+ * is added or removed, each change is recorded as a single journal entry.
+ * <p/>
+ * Entries are recorded in memory and written by a single background thread, in the
+ * order recorded, each batch in one transaction. Once enough entries have been
+ * written, the journal is compacted: the entries are replaced by a single 'add'
+ * entry for each item currently in each queue. On restart, the membership of each
+ * queue is rebuilt by replaying the journal.
+ */
+public class QueueJournal implements Runnable {
+
+    // the kinds of entry
+    public static final int ADD = 0;
+    public static final int REMOVE = 1;
+    public static final int CLEAR = 2;
+
+    // the table used to store queue items before the journal was introduced
+    private static final String LEGACY_TABLE = "rs_queueItems";
+
+    private static QueueJournal INSTANCE;
+
+    private final Logger _log = LogManager.getLogger(QueueJournal.class);
+    private final List<QueueJournalEntry> _pending = new ArrayList<QueueJournalEntry>();
+    private final Object _writeLock = new Object();
+
+    private int _batchSize = 500;
+    private long _flushInterval = 100;                                // msecs
+    private int _compactionThreshold = 10000;
+
+    private Thread _thread;
+    private boolean _stopping;
+    private int _flushWaiters;
+    private long _recorded;                      // the number of entries recorded ...
+    private long _written;                       // ... and written (or failed)
+    private long _sinceCompaction;
+    private long _batches;
+    private long _compactions;
+
+
+    protected QueueJournal() { }
+
+
+    public static synchronized QueueJournal getInstance() {
+        if (INSTANCE == null) INSTANCE = new QueueJournal();
+        return INSTANCE;
+    }
+
+
+    /**
+     * @param ownerID the id of a queue's owner
+     * @param queueType the type of the queue
+     * @return the key that identifies the queue in the journal
+     */
+    public static String getKey(String ownerID, int queueType) {
+        return ownerID + ":" + queueType;
+    }
+
+
+    /**
+     * Sets how the journal is written and compacted
+     * @param batchSize the maximum number of entries written in one transaction
+     * @param flushInterval the maximum msecs an entry waits to join a batch
+     * @param compactionThreshold the number of entries written between compactions
+     */
+    public synchronized void configure(int batchSize, long flushInterval,
+                                       int compactionThreshold) {
+        _batchSize = Math.max(1, batchSize);
+        _flushInterval = Math.max(0, flushInterval);
+        _compactionThreshold = Math.max(1, compactionThreshold);
+    }
+
+
+    /**
+     * Records a change to a queue's membership, to be written with the next batch
+     * @param ownerID the id of the queue's owner
+     * @param queueType the type of the queue
+     * @param action one of ADD, REMOVE or CLEAR
+     * @param itemID the id of the work item added or removed (null for CLEAR)
+     */
+    public synchronized void record(String ownerID, int queueType, int action,
+                                    String itemID) {
+        _pending.add(new QueueJournalEntry(ownerID, queueType, action, itemID));
+        _recorded++;
+        if (_thread == null) {
+            _thread = new Thread(this, "QueueJournal");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+        else if (_pending.size() >= _batchSize) notifyAll();
+    }
+
+
+    /**
+     * Waits until all the entries recorded so far have been written
+     */
+    public synchronized void flush() {
+        long target = _recorded;
+        _flushWaiters++;
+        notifyAll();
+        try {
+            while (_written < target && _thread != null) wait();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            _flushWaiters--;
+        }
+    }
+
+
+    /**
+     * Writes any entries waiting to be written, then stops the writer thread. It is
+     * restarted if any further entries are recorded.
+     */
+    public synchronized void shutdown() {
+        _stopping = true;
+        notifyAll();
+        try {
+            while (_thread != null) wait();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            _stopping = false;
+        }
+    }
+
+
+    /**
+     * Rebuilds the membership of each queue from the journal, then compacts it. Items
+     * stored in the pre-journal queue items table are first moved to the journal.
+     * @return a map of [queue key, set of the ids of the items in the queue]
+     */
+    public Map<String, Set<String>> restore() {
+        flush();
+        synchronized (_writeLock) {
+            migrateLegacyItems();
+            return compact();
+        }
+    }
+
+
+    /**
+     * @return a summary of the entries written, the number of batches and compactions,
+     * and the number of entries waiting to be written
+     */
+    public synchronized String getStatistics() {
+        return String.format("recorded: %d, written: %d, pending: %d, batches: %d, " +
+                "compactions: %d", _recorded, _written, _pending.size(), _batches,
+                _compactions);
+    }
+
+
+    /**
+     * Writes the recorded entries in batches until shutdown
+     */
+    public void run() {
+        while (true) {
+            List<QueueJournalEntry> batch = takeBatch();
+            if (batch == null) break;                                       // stopped
+            synchronized (_writeLock) {
+                try {
+                    write(batch);
+                }
+                catch (RuntimeException re) {
+                    _log.error("Failed to write " + batch.size() +
+                            " entries to the work queue journal", re);
+                }
+                _sinceCompaction += batch.size();
+                if (_sinceCompaction >= _compactionThreshold) {
+                    try {
+                        compact();
+                    }
+                    catch (RuntimeException re) {
+                        _log.error("Failed to compact the work queue journal", re);
+                    }
+                }
+            }
+            synchronized (this) {
+                _written += batch.size();
+                _batches++;
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Replays a list of journal entries to get the resultant queue memberships
+     * @param entries the entries, in the order they were recorded
+     * @return a map of [queue key, set of the ids of the items in the queue]
+     */
+    public static Map<String, Set<String>> replay(List<QueueJournalEntry> entries) {
+        Map<String, Set<String>> queues = new HashMap<String, Set<String>>();
+        for (QueueJournalEntry entry : entries) {
+            Set<String> members = queues.get(entry.getQueueKey());
+            if (members == null) {
+                members = new HashSet<String>();
+                queues.put(entry.getQueueKey(), members);
+            }
+            switch (entry.getAction()) {
+                case ADD: members.add(entry.getItemID()); break;
+                case REMOVE: members.remove(entry.getItemID()); break;
+                case CLEAR: members.clear(); break;
+            }
+        }
+        Iterator<Set<String>> itr = queues.values().iterator();
+        while (itr.hasNext()) {
+            if (itr.next().isEmpty()) itr.remove();
+        }
+        return queues;
+    }
+
+
+    /*******************************************************************************/
+
+    // STORAGE METHODS //
+
+    /**
+     * Writes a batch of entries in a single transaction
+     * @param entries the entries to write, in the order they were recorded
+     */
+    protected void write(List<QueueJournalEntry> entries) {
+        Persister persister = Persister.getInstance();
+        Transaction tx = persister.getOrBeginTransaction();
+        for (QueueJournalEntry entry : entries) {
+            persister.insert(entry, tx);
+        }
+        persister.commit();
+    }
+
+
+    /**
+     * @return all the entries in the journal, in the order they were written
+     */
+    protected List<QueueJournalEntry> readAll() {
+        Persister persister = Persister.getInstance();
+        List<?> list = persister.execQuery("from QueueJournalEntry order by _id");
+        persister.commit();
+        List<QueueJournalEntry> entries = new ArrayList<QueueJournalEntry>();
+        if (list != null) {
+            for (Object o : list) entries.add((QueueJournalEntry) o);
+        }
+        return entries;
+    }
+
+
+    /**
+     * Replaces the entries up to and including a given entry with a new set of
+     * entries, in a single transaction
+     * @param lastID the id of the last entry to replace
+     * @param entries the replacement entries
+     */
+    protected void replace(long lastID, List<QueueJournalEntry> entries) {
+        Persister persister = Persister.getInstance();
+        Transaction tx = persister.getOrBeginTransaction();
+        persister.execUpdate("delete from QueueJournalEntry where _id <= " + lastID, false);
+        for (QueueJournalEntry entry : entries) {
+            persister.insert(entry, tx);
+        }
+        persister.commit();
+    }
+
+
+    /**
+     * Moves any items stored in the pre-journal queue items table to the journal,
+     * then empties that table
+     */
+    protected void migrateLegacyItems() {
+        Persister persister = Persister.getInstance();
+        if (! persister.tableExists(LEGACY_TABLE)) return;
+        List<?> rows = persister.execSQLQuery("SELECT q.ownerID, q.queueType, i.key_id " +
+                "FROM " + LEGACY_TABLE + " i, rs_WorkQueue q WHERE i.q_id = q.q_id");
+        if (rows != null && ! rows.isEmpty()) {
+            List<QueueJournalEntry> entries = new ArrayList<QueueJournalEntry>();
+            for (Object o : rows) {
+                Object[] row = (Object[]) o;
+                entries.add(new QueueJournalEntry((String) row[0],
+                        ((Number) row[1]).intValue(), ADD, (String) row[2]));
+            }
+            write(entries);
+            persister.execSQLUpdate("DELETE FROM " + LEGACY_TABLE);
+            _log.info("Moved {} work queue items to the work queue journal",
+                    entries.size());
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // waits for the next batch of entries, returning null if stopped
+    private synchronized List<QueueJournalEntry> takeBatch() {
+        try {
+            while (_pending.isEmpty() && ! _stopping) wait();
+            long deadline = System.currentTimeMillis() + _flushInterval;
+            while (_pending.size() < _batchSize && ! _stopping && _flushWaiters == 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) break;
+                wait(wait);
+            }
+        }
+        catch (InterruptedException ie) {
+            _log.warn("Work queue journal writer interrupted - unwritten entries are lost");
+            _pending.clear();
+        }
+        if (_pending.isEmpty()) {
+            _thread = null;
+            notifyAll();
+            return null;
+        }
+        List<QueueJournalEntry> head = _pending.subList(0,
+                Math.min(_pending.size(), _batchSize));
+        List<QueueJournalEntry> batch = new ArrayList<QueueJournalEntry>(head);
+        head.clear();
+        return batch;
+    }
+
+
+    // replaces the written entries with one for each current queue member
+    private Map<String, Set<String>> compact() {
+        List<QueueJournalEntry> entries = readAll();
+        Map<String, Set<String>> queues = replay(entries);
+        List<QueueJournalEntry> compacted = new ArrayList<QueueJournalEntry>();
+        for (QueueJournalEntry entry : entries) {                  // one add per member
+            Set<String> members = queues.get(entry.getQueueKey());
+            if (entry.getAction() == ADD && members != null &&
+                    members.remove(entry.getItemID())) {
+                compacted.add(new QueueJournalEntry(entry.getOwnerID(),
+                        entry.getQueueType(), ADD, entry.getItemID()));
+            }
+        }
+        if (compacted.size() < entries.size()) {
+            replace(entries.get(entries.size() - 1).get_id(), compacted);
+            synchronized (this) {
+                _compactions++;
+            }
+        }
+        _sinceCompaction = 0;
+        return replay(compacted);
+    }
+
+}
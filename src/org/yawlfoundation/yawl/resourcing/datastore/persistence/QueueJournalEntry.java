@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.persistence;
+
+/**
+ * A single change to the membership of a work queue, as recorded in the queue journal:
+ * a work item added to or removed from a queue, or a queue cleared.
+ */
+public class QueueJournalEntry {
+
+    private long _id;                             // hibernate primary key, and sequence
+    private String _ownerID;
+    private int _queueType;
+    private int _action;
+    private String _itemID;                       // null when a queue is cleared
+
+
+    public QueueJournalEntry() { }
+
+    public QueueJournalEntry(String ownerID, int queueType, int action, String itemID) {
+        _ownerID = ownerID;
+        _queueType = queueType;
+        _action = action;
+        _itemID = itemID;
+    }
+
+
+    /** @return the key of the queue this entry applies to */
+    public String getQueueKey() { return QueueJournal.getKey(_ownerID, _queueType); }
+
+    public String getOwnerID() { return _ownerID; }
+
+    public int getQueueType() { return _queueType; }
+
+    public int getAction() { return _action; }
+
+    public String getItemID() { return _itemID; }
+
+
+    // hibernate mappings
+
+    public long get_id() { return _id; }
+
+    public void set_id(long id) { _id = id; }
+
+    public String get_ownerID() { return _ownerID; }
+
+    public void set_ownerID(String ownerID) { _ownerID = ownerID; }
+
+    public int get_queueType() { return _queueType; }
+
+    public void set_queueType(int queueType) { _queueType = queueType; }
+
+    public int get_action() { return _action; }
+
+    public void set_action(int action) { _action = action; }
+
+    public String get_itemID() { return _itemID; }
+
+    public void set_itemID(String itemID) { _itemID = itemID; }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.persistence;
+
+/**
+ * A record that a participant completed a work item of a task within a case, as
+ * stored by the task completer index.
+ */
+public class TaskCompleter {
+
+    private long _id;                                       // hibernate primary key
+    private String _caseID;                                 // the root case id
+    private String _taskID;
+    private String _participantID;
+
+
+    public TaskCompleter() { }
+
+    public TaskCompleter(String caseID, String taskID, String participantID) {
+        _caseID = caseID;
+        _taskID = taskID;
+        _participantID = participantID;
+    }
+
+
+    public String getCaseID() { return _caseID; }
+
+    public String getTaskID() { return _taskID; }
+
+    public String getParticipantID() { return _participantID; }
+
+
+    // hibernate mappings
+
+    public long get_id() { return _id; }
+
+    public void set_id(long id) { _id = id; }
+
+    public String get_caseID() { return _caseID; }
+
+    public void set_caseID(String caseID) { _caseID = caseID; }
+
+    public String get_taskID() { return _taskID; }
+
+    public void set_taskID(String taskID) { _taskID = taskID; }
+
+    public String get_participantID() { return _participantID; }
+
+    public void set_participantID(String participantID) { _participantID = participantID; }
+
+}
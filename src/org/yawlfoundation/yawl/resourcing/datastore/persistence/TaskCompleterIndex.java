@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.persistence;
+
+import java.util.*;
+
+/**
+ * An index of who completed each task of each running case, used for the four-eyes
+ * (separation of duties) constraint and for familiar participant distribution:
+ * [root case id, [task id, ids of the participants who completed it]].
+ * <p/>
+ * When persisting, each completer added is also written to the rs_TaskCompleter
+ * table, so that the index survives a restart, and a case's completers are removed
+ * from the table when the case completes or is cancelled.
+ */
+public class TaskCompleterIndex {
+
+    private final Map<String, TaskMap> _cases = new HashMap<String, TaskMap>();
+
+    private boolean _persisting;
+
+
+    public TaskCompleterIndex() { }
+
+
+    public void setPersisting(boolean persisting) { _persisting = persisting; }
+
+
+    /**
+     * Loads the index from the persisted completers
+     */
+    public synchronized void restore() {
+        if (! _persisting) return;
+        _cases.clear();
+        for (TaskCompleter completer : readAll()) {
+            getTaskMap(completer.getCaseID()).add(completer.getTaskID(),
+                    completer.getParticipantID());
+        }
+    }
+
+
+    /**
+     * Records that a participant completed a task in a case
+     * @param caseID the root case id
+     * @param taskID the task id
+     * @param participantID the participant's id
+     */
+    public synchronized void add(String caseID, String taskID, String participantID) {
+        if (getTaskMap(caseID).add(taskID, participantID) && _persisting) {
+            insert(new TaskCompleter(caseID, taskID, participantID));
+        }
+    }
+
+
+    /**
+     * Removes a participant as a completer of a task in a case (e.g. when the
+     * completion was rejected by the engine)
+     * @param caseID the root case id
+     * @param taskID the task id
+     * @param participantID the participant's id
+     */
+    public synchronized void remove(String caseID, String taskID, String participantID) {
+        TaskMap tasks = _cases.get(caseID);
+        if (tasks != null) {
+            Set<String> completers = tasks.get(taskID);
+            if (completers != null && completers.remove(participantID) && _persisting) {
+                delete(caseID, taskID, participantID);
+            }
+        }
+    }
+
+
+    /**
+     * @param caseID the root case id
+     * @param taskID the task id
+     * @return the ids of the participants who completed the task in the case
+     */
+    public synchronized Set<String> get(String caseID, String taskID) {
+        TaskMap tasks = _cases.get(caseID);
+        Set<String> completers = tasks != null ? tasks.get(taskID) : null;
+        return completers != null ? new HashSet<String>(completers) :
+                new HashSet<String>();
+    }
+
+
+    /**
+     * @param caseID the root case id
+     * @return true if the index has an entry for the case (which may be empty if
+     * the case has been added but no task completions have been recorded for it)
+     */
+    public synchronized boolean containsCase(String caseID) {
+        return _cases.containsKey(caseID);
+    }
+
+
+    /**
+     * Adds an entry for a case, with its task completers as found from another
+     * source (e.g. the event log for a case started before the index was used)
+     * @param caseID the root case id
+     * @param completers a map of [task id, ids of the participants who completed it]
+     */
+    public synchronized void addCase(String caseID, Map<String, Set<String>> completers) {
+        getTaskMap(caseID);
+        for (String taskID : completers.keySet()) {
+            for (String participantID : completers.get(taskID)) {
+                add(caseID, taskID, participantID);
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the completers of a case
+     * @param caseID the root case id
+     */
+    public synchronized void removeCase(String caseID) {
+        if (_cases.remove(caseID) != null && _persisting) {
+            deleteCase(caseID);
+        }
+    }
+
+
+    /**
+     * Removes the completers of any case that is no longer running (e.g. those that
+     * completed while the service was offline)
+     * @param runningCaseIDs the ids of the cases currently running
+     * @return the number of cases removed
+     */
+    public synchronized int prune(Set<String> runningCaseIDs) {
+        List<String> stale = new ArrayList<String>();
+        for (String caseID : _cases.keySet()) {
+            if (! runningCaseIDs.contains(caseID)) stale.add(caseID);
+        }
+        for (String caseID : stale) removeCase(caseID);
+        return stale.size();
+    }
+
+
+    public synchronized int getCaseCount() { return _cases.size(); }
+
+
+    /*******************************************************************************/
+
+    // STORAGE METHODS //
+
+    protected void insert(TaskCompleter completer) {
+        Persister.getInstance().insert(completer);
+    }
+
+
+    protected void delete(String caseID, String taskID, String participantID) {
+        Persister.getInstance().execUpdate(String.format(
+                "delete from TaskCompleter where _caseID='%s' and _taskID='%s' " +
+                "and _participantID='%s'", caseID, taskID, participantID), true);
+    }
+
+
+    protected void deleteCase(String caseID) {
+        Persister.getInstance().execUpdate(
+                "delete from TaskCompleter where _caseID='" + caseID + "'", true);
+    }
+
+
+    protected List<TaskCompleter> readAll() {
+        Persister persister = Persister.getInstance();
+        List<?> list = persister.execQuery("from TaskCompleter");
+        persister.commit();
+        List<TaskCompleter> completers = new ArrayList<TaskCompleter>();
+        if (list != null) {
+            for (Object o : list) completers.add((TaskCompleter) o);
+        }
+        return completers;
+    }
+
+
+    /*******************************************************************************/
+
+    private TaskMap getTaskMap(String caseID) {
+        TaskMap tasks = _cases.get(caseID);
+        if (tasks == null) {
+            tasks = new TaskMap();
+            _cases.put(caseID, tasks);
+        }
+        return tasks;
+    }
+
+
+    private static class TaskMap extends HashMap<String, Set<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        boolean add(String taskID, String participantID) {
+            Set<String> completers = get(taskID);
+            if (completers == null) {
+                completers = new HashSet<String>();
+                put(taskID, completers);
+            }
+            return completers.add(participantID);
+        }
+    }
+
+}
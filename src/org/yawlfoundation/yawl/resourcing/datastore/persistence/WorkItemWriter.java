@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.datastore.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Transaction;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+
+import java.util.*;
+
+/**
+ * Writes the changes made to the cached work item records behind the cache, rather
+ * than as each change is made. Changes are held in memory and written by a single
+ * background thread, each batch in one transaction. Several changes to the same item
+ * made before it is written are written as one: an item inserted then updated is
+ * inserted in its latest state, and an item inserted then deleted is not written at
+ * all.
+ * <p/>
+ * The number of items waiting to be written is bounded: once the bound is reached,
+ * a caller waits for the writer to catch up.
+ */
+public class WorkItemWriter implements Runnable {
+
+    // the kinds of write
+    public static final int INSERT = 0;
+    public static final int UPDATE = 1;
+    public static final int DELETE = 2;
+
+    private final Logger _log = LogManager.getLogger(WorkItemWriter.class);
+
+    // [item id, pending write] in the order each item was first changed
+    private final Map<String, Write> _pending = new LinkedHashMap<String, Write>();
+
+    private int _batchSize = 200;
+    private long _flushInterval = 100;                                // msecs
+    private int _maxPending = 10000;
+
+    private Thread _thread;
+    private boolean _stopping;
+    private int _flushWaiters;
+    private boolean _writing;                    // is a batch being written?
+    private long _recorded;                      // the number of changes recorded ...
+    private long _coalesced;                     // ... merged with an earlier change
+    private long _written;                       // ... and writes made (or failed)
+    private long _batches;
+    private long _waits;
+
+
+    public WorkItemWriter() { }
+
+
+    /**
+     * Sets how the changes are batched
+     * @param batchSize the maximum number of items written in one transaction
+     * @param flushInterval the maximum msecs a change waits to join a batch
+     * @param maxPending the maximum number of items waiting to be written
+     */
+    public synchronized void configure(int batchSize, long flushInterval,
+                                       int maxPending) {
+        _batchSize = Math.max(1, batchSize);
+        _flushInterval = Math.max(0, flushInterval);
+        _maxPending = Math.max(_batchSize, maxPending);
+    }
+
+
+    public void insert(WorkItemRecord wir) { record(wir, INSERT); }
+
+    public void update(WorkItemRecord wir) { record(wir, UPDATE); }
+
+    public void delete(WorkItemRecord wir) { record(wir, DELETE); }
+
+
+    /**
+     * Waits until all the changes recorded so far have been written
+     */
+    public synchronized void flush() {
+        _flushWaiters++;
+        notifyAll();
+        try {
+            while ((_writing || ! _pending.isEmpty()) && _thread != null) wait();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            _flushWaiters--;
+        }
+    }
+
+
+    /**
+     * Writes any changes waiting to be written, then stops the writer thread. It is
+     * restarted if any further changes are recorded.
+     */
+    public synchronized void shutdown() {
+        _stopping = true;
+        notifyAll();
+        try {
+            while (_thread != null) wait();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            _stopping = false;
+        }
+    }
+
+
+    /**
+     * @return the number of items waiting to be written
+     */
+    public synchronized int getPendingCount() { return _pending.size(); }
+
+
+    /**
+     * @return a summary of the changes recorded and written, the number of batches,
+     * and the number of items waiting to be written
+     */
+    public synchronized String getStatistics() {
+        return String.format("recorded: %d, coalesced: %d, written: %d, pending: %d, " +
+                "batches: %d, waits: %d", _recorded, _coalesced, _written,
+                _pending.size(), _batches, _waits);
+    }
+
+
+    /**
+     * Writes the recorded changes in batches until shutdown
+     */
+    public void run() {
+        while (true) {
+            List<Write> batch = takeBatch();
+            if (batch == null) break;                                       // stopped
+            try {
+                write(batch);
+            }
+            catch (RuntimeException re) {
+                _log.error("Failed to write " + batch.size() +
+                        " cached work items", re);
+            }
+            synchronized (this) {
+                _written += batch.size();
+                _batches++;
+                _writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // STORAGE METHODS //
+
+    /**
+     * Writes a batch of changes in a single transaction. If any fails, the batch is
+     * written again one change at a time, so that only the failed change is lost.
+     * @param batch the changes to write
+     */
+    protected void write(List<Write> batch) {
+        Persister persister = Persister.getInstance();
+        Transaction tx = persister.getOrBeginTransaction();
+        boolean success = true;
+        for (Write write : batch) {
+            success = exec(persister, write, tx);
+            if (! success) break;                               // tx was rolled back
+        }
+        if (success) {
+            persister.commit();
+        }
+        else if (batch.size() > 1) {
+            for (Write write : batch) {
+                if (! exec(persister, write, null)) {
+                    _log.warn("Could not persist the {} of cached work item '{}'",
+                            write.getActionName(), write.getItemID());
+                }
+            }
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    // adds a change to those pending, merging it with any pending for the same item
+    private synchronized void record(WorkItemRecord wir, int action) {
+        if (wir == null) return;
+        while (_pending.size() >= _maxPending && ! _pending.containsKey(wir.getID()) &&
+                _thread != null && Thread.currentThread() != _thread) {
+            _waits++;
+            notifyAll();
+            try {
+                wait();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        _recorded++;
+        Write pending = _pending.get(wir.getID());
+        if (pending == null) {
+            _pending.put(wir.getID(), new Write(wir, action));
+        }
+        else {
+            _coalesced++;
+            pending.wir = wir;
+            if (pending.action == INSERT) {
+                if (action == DELETE) _pending.remove(wir.getID());   // never written
+            }
+            else {
+
+                // an item deleted then added again is still stored, so is updated
+                pending.action = (action == DELETE) ? DELETE : UPDATE;
+            }
+        }
+        if (_thread == null) {
+            _thread = new Thread(this, "WorkItemWriter");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+        else if (_pending.size() >= _batchSize) notifyAll();
+    }
+
+
+    // waits for the next batch of changes, returning null if stopped
+    private synchronized List<Write> takeBatch() {
+        try {
+            while (_pending.isEmpty() && ! _stopping) wait();
+            long deadline = System.currentTimeMillis() + _flushInterval;
+            while (_pending.size() < _batchSize && ! _stopping && _flushWaiters == 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) break;
+                wait(wait);
+            }
+        }
+        catch (InterruptedException ie) {
+            _log.warn("Work item writer interrupted - unwritten items are lost");
+            _pending.clear();
+        }
+        if (_pending.isEmpty()) {
+            _thread = null;
+            notifyAll();
+            return null;
+        }
+        List<Write> batch = new ArrayList<Write>();
+        Iterator<Write> itr = _pending.values().iterator();
+        while (itr.hasNext() && batch.size() < _batchSize) {
+            batch.add(itr.next());
+            itr.remove();
+        }
+        _writing = true;
+        notifyAll();                                           // for any bound waiters
+        return batch;
+    }
+
+
+    private boolean exec(Persister persister, Write write, Transaction tx) {
+        switch (write.getAction()) {
+            case INSERT: return tx != null ? persister.insert(write.getRecord(), tx) :
+                    persister.insert(write.getRecord());
+            case UPDATE: return tx != null ? persister.update(write.getRecord(), tx) :
+                    persister.update(write.getRecord());
+            case DELETE: return tx != null ? persister.delete(write.getRecord(), tx) :
+                    persister.delete(write.getRecord());
+        }
+        return false;
+    }
+
+
+    /*******************************************************************************/
+
+    /**
+     * A pending change to a cached item
+     */
+    public static class Write {
+
+        private WorkItemRecord wir;
+        private int action;
+
+        Write(WorkItemRecord wir, int action) {
+            this.wir = wir;
+            this.action = action;
+        }
+
+        public String getItemID() { return wir.getID(); }
+
+        public WorkItemRecord getRecord() { return wir; }
+
+        public int getAction() { return action; }
+
+        public String getActionName() {
+            switch (action) {
+                case INSERT: return "insert";
+                case UPDATE: return "update";
+                default: return "delete";
+            }
+        }
+    }
+
+}
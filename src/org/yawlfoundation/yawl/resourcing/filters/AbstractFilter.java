@@ -104,5 +104,17 @@ public abstract class AbstractFilter extends AbstractSelector {
      */
     public abstract Set<Participant> performFilter(Set<Participant> resources);
 
+
+    /**
+     * Whether this filter decides on each participant alone, from the org data, so
+     * that the result for a set of participants is the union of the results for each
+     * of them. The result of such a filter on the static part of a task's distribution
+     * set can be reused until the org data changes. Filters are not assumed to be so
+     * unless they say they are.
+     *
+     * @return true if each participant is filtered independently of the others
+     */
+    public boolean isParticipantwise() { return false; }
+
 }
 
@@ -57,6 +57,10 @@ public class CapabilityFilter extends AbstractFilter {
     }
 
 
+    // each participant passes or not on their own capabilities
+    public boolean isParticipantwise() { return true; }
+
+
     private Set<AbstractResource> parse(String expression) {
         if (expression != null) {
             List<Set<AbstractResource>> pSets = new ArrayList<Set<AbstractResource>>();
@@ -46,6 +46,10 @@ public class OrgFilter extends AbstractFilter {
         addKey("Position") ;
     }
 
+
+    // each participant passes or not on their own positions and groups
+    public boolean isParticipantwise() { return true; }
+
     
     /**
      * Filters the distribution set passed based on position and/or org group
@@ -26,6 +26,7 @@ import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
 import org.yawlfoundation.yawl.resourcing.ResourceManager;
 import org.yawlfoundation.yawl.resourcing.WorkQueue;
 import org.yawlfoundation.yawl.resourcing.constraints.AbstractConstraint;
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.OrgDataIndex;
 import org.yawlfoundation.yawl.resourcing.filters.AbstractFilter;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
 import org.yawlfoundation.yawl.resourcing.resource.Role;
@@ -33,6 +34,7 @@ import org.yawlfoundation.yawl.resourcing.util.PluginFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  This class describes the requirements of a task at the offer phase of
@@ -50,7 +52,12 @@ public class OfferInteraction extends AbstractInteraction {
     private HashSet<DynParam> _dynParams  = new HashSet<DynParam>();
 
     // complete distribution set expanded to a set of participants
-    private HashSet<Participant> _distributionSet = new HashSet<Participant>();
+    private Set<Participant> _distributionSet = new HashSet<Participant>();
+
+    // the static part of the distribution set, for the current org data
+    private volatile DistributionPlan _plan;
+    private static final AtomicLong _planHits = new AtomicLong();
+    private static final AtomicLong _planMisses = new AtomicLong();
 
     private HashSet<AbstractFilter> _filters  = new HashSet<AbstractFilter>();
     private HashSet<AbstractConstraint> _constraints  = new HashSet<AbstractConstraint>();
@@ -93,14 +100,14 @@ public class OfferInteraction extends AbstractInteraction {
     public void addParticipant(String id) {
         Participant p = _rm.getOrgDataSet().getParticipant(id);
         if (p != null)
-            _participants.add(p);
+            addToInitialSet(_participants, p);
         else
             _log.warn("Unknown Participant ID in Offer spec: {}", id);
     }
 
     public void addParticipantUnchecked(String id) {
         Participant p = new Participant(id);
-        _participants.add(p);
+        addToInitialSet(_participants, p);
     }
 
 
@@ -110,7 +117,7 @@ public class OfferInteraction extends AbstractInteraction {
      */
     public void addParticipant(Participant p) {
         if (_rm.getOrgDataSet().isKnownParticipant(p))
-           _participants.add(p);
+           addToInitialSet(_participants, p);
         else
             _log.warn("Could not add unknown Participant to Offer: {}", p.getID());
     }
@@ -136,7 +143,7 @@ public class OfferInteraction extends AbstractInteraction {
     public void addRole(String rid) {
         Role r = _rm.getOrgDataSet().getRole(rid);  
         if (r != null)
-            _roles.add(r);
+            addToInitialSet(_roles, r);
         else
             _log.warn("Unknown Role ID in Offer spec: {}", rid);
     }
@@ -144,13 +151,13 @@ public class OfferInteraction extends AbstractInteraction {
     public void addRoleUnchecked(String rid) {
         Role r =  new Role();
         r.setID(rid);
-        _roles.add(r);
+        addToInitialSet(_roles, r);
     }
 
 
     public void addRole(Role r) {
         if (_rm.getOrgDataSet().isKnownRole(r))
-            _roles.add(r) ;
+            addToInitialSet(_roles, r);
         else
             _log.warn("Could not add unknown Role to Offer: {}", r.getID());
     }
@@ -187,11 +194,20 @@ public class OfferInteraction extends AbstractInteraction {
 
     public void addFilters(Set filters) {
         _filters.addAll(filters);
+        _plan = null;
     }
 
 
     public void addFilter(AbstractFilter f) {
         _filters.add(f);
+        _plan = null;
+    }
+
+
+    // any change to the static part of the distribution set invalidates its plan
+    private <T> void addToInitialSet(Set<T> set, T member) {
+        set.add(member);
+        _plan = null;
     }
 
 
@@ -242,64 +258,115 @@ public class OfferInteraction extends AbstractInteraction {
      * @return the final distribution set of Participant objects
      */
     public Set<Participant> performOffer(WorkItemRecord wir) {
-        _distributionSet = new HashSet<Participant>();
+        Set<Participant> distributionSet = new HashSet<Participant>();
 
         // if familiar task specified, get the participant(s) who completed that task,
         // & offer this item to them - no more to do
         if (_familiarParticipantTask != null) {
             Set<Participant> pSet = _rm.getWhoCompletedTask(_familiarParticipantTask, wir);
-            if (pSet != null) _distributionSet.addAll(pSet) ;
+            if (pSet != null) distributionSet.addAll(pSet) ;
         }
         else {
-            // make sure each participant is added only once
-            ArrayList<String> uniqueIDs = new ArrayList<String>() ;
-
-            // add Participants
-            for (Participant p : _participants) {
-                uniqueIDs.add(p.getID()) ;
-                _distributionSet.add(p) ;
+            // start with the participants and role members, already filtered if the
+            // filters allow it
+            DistributionPlan plan = getPlan();
+            distributionSet.addAll(plan.participants);
+
+            // add dynamic params - filtered on their own if the plan has been
+            if (! _dynParams.isEmpty()) {
+                Set<Participant> dynSet = new HashSet<Participant>();
+                for (DynParam param : _dynParams) {
+                    dynSet.addAll(param.evaluate(wir)) ;
+                }
+                distributionSet.addAll(plan.filtered ? applyFilters(dynSet) : dynSet);
             }
 
-            // add roles
+            // apply each filter, if not already applied
+            if (! plan.filtered) distributionSet = applyFilters(distributionSet);
+
+            // apply each constraint
+            for (AbstractConstraint constraint : _constraints)
+                distributionSet = constraint.performConstraint(distributionSet, wir) ;
+
+        }
+
+        // ok - got our final set (local, since items of the task may be offered
+        // concurrently)
+        _distributionSet = distributionSet;
+        return distributionSet ;
+    }
+
+
+    /**
+     * Gets the plan of the static part of the distribution set - the participants, and
+     * the members of the roles and their descendant roles. If every filter decides on
+     * each participant alone, the filters are applied to the plan's set. The plan is
+     * rebuilt when the org data, and so its index, changes.
+     * @return the current plan
+     */
+    private DistributionPlan getPlan() {
+        OrgDataIndex index = _rm.getOrgDataSet().getIndex();
+        DistributionPlan plan = _plan;
+        if (plan != null && plan.index == index) {
+            _planHits.incrementAndGet();
+            return plan;
+        }
+        _planMisses.incrementAndGet();
+
+        // add Participants (the set ensures each participant is added only once)
+        Set<Participant> pSet = new HashSet<Participant>(_participants);
+
+        // add roles, and the members of their descendant roles, as a union of
+        // the precomputed role member sets
+        if (! _roles.isEmpty()) {
+            BitSet members = new BitSet();
             for (Role role : _roles) {
-                Set<Participant> pSet = _rm.getOrgDataSet().castToParticipantSet(role.getResources());
-                pSet.addAll(_rm.getOrgDataSet().getParticipantsInDescendantRoles(role));
-                for (Participant p : pSet) {
-                    addParticipantToDistributionSet(_distributionSet, uniqueIDs, p) ;
-                }
+                members.or(index.getRoleMembers(role.getID(), true));
             }
+            pSet.addAll(index.toParticipantSet(members)) ;
+        }
 
-            // add dynamic params
-            for (DynParam param : _dynParams) {
-                Set<Participant> pSet = param.evaluate(wir);
-                for (Participant p : pSet) {
-                    addParticipantToDistributionSet(_distributionSet, uniqueIDs, p) ;
-                }
-            }
+        boolean filtered = true;
+        for (AbstractFilter filter : _filters) {
+            filtered = filtered && filter.isParticipantwise();
+        }
+        if (filtered) pSet = applyFilters(pSet);
 
-            // apply each filter
-            for (AbstractFilter filter : _filters)
-                _distributionSet =
-                    (HashSet<Participant>) filter.performFilter(_distributionSet) ;
+        plan = new DistributionPlan(index, pSet, filtered);
+        _plan = plan;
+        return plan;
+    }
 
-            // apply each constraint
-            for (AbstractConstraint constraint : _constraints)
-                _distributionSet =
-                    (HashSet<Participant>) constraint.performConstraint(_distributionSet, wir) ;
 
+    private Set<Participant> applyFilters(Set<Participant> pSet) {
+        for (AbstractFilter filter : _filters) {
+            pSet = filter.performFilter(pSet) ;
         }
+        return pSet;
+    }
+
+
+    /**
+     * @return the number of offers that reused the static part of a distribution set
+     */
+    public static long getPlanCacheHits() { return _planHits.get(); }
+
+    /**
+     * @return the number of offers that had to (re)build the static part of a
+     * distribution set, for the first offer of a task or after the org data changed
+     */
+    public static long getPlanCacheMisses() { return _planMisses.get(); }
 
-        // ok - got our final set
-        return _distributionSet ;
+    public static double getPlanCacheHitRate() {
+        long hits = _planHits.get();
+        long total = hits + _planMisses.get();
+        return total > 0 ? (double) hits / total : 0;
     }
 
 
     public void withdrawOffer(WorkItemRecord wir, Set<Participant> offeredSet) {
         if (offeredSet != null) {
-            for (Participant p : offeredSet) {
-                p.getWorkQueues().removeFromQueue(wir, WorkQueue.OFFERED);
-                _rm.announceModifiedQueue(p.getID()) ;
-            }
+            _rm.removeFromQueues(offeredSet, wir, WorkQueue.OFFERED);
         }
 
         // a fired instance of a multi-instance workitem on the unoffered queue will
@@ -311,15 +378,6 @@ public class OfferInteraction extends AbstractInteraction {
     }
 
 
-    private void addParticipantToDistributionSet(HashSet<Participant> distributionSet,
-                                                 ArrayList<String> uniqueIDs,
-                                                 Participant p) {
-        if (! uniqueIDs.contains(p.getID())) {
-            uniqueIDs.add(p.getID()) ;
-            distributionSet.add(p) ;
-        }
-    }
-
     /********************************************************************************/
 
     // Resource Specification Offer Parsing Methods //
@@ -417,7 +475,7 @@ public class OfferInteraction extends AbstractInteraction {
                     AbstractFilter filter = PluginFactory.newFilterInstance(filterClassName);
                     if (filter != null) {
                         filter.setParams(parseParams(eFilter, nsYawl));
-                        _filters.add(filter);
+                        addFilter(filter);
                     }
                     else throw new ResourceParseException("Unknown filter name: " +
                                                                    filterClassName);
@@ -637,4 +695,24 @@ public class OfferInteraction extends AbstractInteraction {
 
     /*******************************************************************************/
 
+    /**
+     * The static part of a task's distribution set, and the org data index it was
+     * built from.
+     */
+    private static class DistributionPlan {
+
+        final OrgDataIndex index;
+        final Set<Participant> participants;
+        final boolean filtered;                      // have the filters been applied?
+
+        DistributionPlan(OrgDataIndex index, Set<Participant> participants,
+                         boolean filtered) {
+            this.index = index;
+            this.participants = participants;
+            this.filtered = filtered;
+        }
+    }
+
+    /*******************************************************************************/
+
 }
@@ -428,6 +428,12 @@ public class Participant extends AbstractResource implements Cloneable {
         return _qSet ;
     }
 
+    /** returns the qSet, creating it first if necessary */
+    public synchronized QueueSet getOrCreateWorkQueues(boolean persisting) {
+        if (_qSet == null) createQueueSet(persisting);
+        return _qSet ;
+    }
+
     public QueueSet createQueueSet(boolean persisting) {
         _qSet = new QueueSet(_resourceID, QueueSet.setType.participantSet, persisting) ;
         return _qSet ;
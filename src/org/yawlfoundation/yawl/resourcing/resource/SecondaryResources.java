@@ -170,12 +170,15 @@ public class SecondaryResources {
             return null;     // none found
         }
         
-        // while the list has resources, remove a random selection and check if a
-        // reservation for it would succeed
+        // check the calendar for all the resources at once, then while the list has
+        // resources, remove a random selection and check if it is disengaged
+        long now = System.currentTimeMillis();
+        resourceList.retainAll(ResourceManager.getInstance().getCalendar()
+                .getAvailableResources(resourceList, now, now, 100));
         while (resourceList.size() > 0) {
             AbstractResource actual = resourceList.remove(
                     (int) Math.floor(Math.random() * resourceList.size()));
-            if (isAvailable(actual)) {
+            if (isDisengaged(actual.getID())) {
                 return actual;                                      // found a candidate
             }
         }
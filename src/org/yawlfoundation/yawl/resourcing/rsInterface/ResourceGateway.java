@@ -20,13 +20,17 @@ package org.yawlfoundation.yawl.resourcing.rsInterface;
 
 import org.yawlfoundation.yawl.engine.interfce.ServletUtils;
 import org.yawlfoundation.yawl.engine.interfce.YHttpServlet;
+import org.yawlfoundation.yawl.resourcing.QueueDeltaLog;
 import org.yawlfoundation.yawl.resourcing.ResourceManager;
 import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
 import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournal;
+import org.yawlfoundation.yawl.resourcing.interactions.OfferInteraction;
 import org.yawlfoundation.yawl.resourcing.resource.*;
 import org.yawlfoundation.yawl.resourcing.resource.nonhuman.NonHumanCategory;
 import org.yawlfoundation.yawl.resourcing.resource.nonhuman.NonHumanResource;
 import org.yawlfoundation.yawl.resourcing.util.PluginFactory;
+import org.yawlfoundation.yawl.util.StringUtil;
 import org.yawlfoundation.yawl.util.XNode;
 
 import javax.servlet.ServletContext;
@@ -88,6 +92,22 @@ public class ResourceGateway extends YHttpServlet {
                     // enable/disable logging of all offers
                     String logOffers = context.getInitParameter("LogOffers");
                     EventLogger.setOfferLogging(getBooleanFromContext("LogOffers", true));
+
+                    // set how work queue changes are batched and compacted
+                    QueueJournal.getInstance().configure(
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "QueueJournalBatchSize"), 500),
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "QueueJournalFlushInterval"), 100),
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "QueueJournalCompactionThreshold"), 10000));
+
+                    // set how changes to cached work items are batched
+                    _rm.getWorkItemCache().getWriter().configure(
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "WorkItemWriteBatchSize"), 200), 100,
+                            StringUtil.strToInt(context.getInitParameter(
+                                    "WorkItemWriteMaxPending"), 10000));
                 }
 
                 // set the org data source and refresh rate
@@ -120,6 +140,24 @@ public class ResourceGateway extends YHttpServlet {
                 // enable/disable the dropping of task piling on logout
                 _rm.setPersistPiling(! getBooleanFromContext("DropTaskPilingOnLogoff"));
 
+                // enable/disable concurrent handling of events for different cases
+                _rm.setCaseLevelEventHandling(
+                        getBooleanFromContext("EnableCaseLevelEventHandling"));
+
+                // set the size of distribution set updated in parallel
+                _rm.setQueueFanOutThreshold(StringUtil.strToInt(
+                        context.getInitParameter("QueueFanOutThreshold"), 200));
+
+                // set the number of queue changes kept for worklist clients, and
+                // how long and how many of them may wait for changes
+                QueueDeltaLog.getInstance().configure(StringUtil.strToInt(
+                        context.getInitParameter("QueueDeltaLogSize"), 1000),
+                        10 * 60 * 1000,
+                        StringUtil.strToLong(context.getInitParameter(
+                                "QueueDeltaMaxWait"), 30) * 1000,
+                        StringUtil.strToInt(context.getInitParameter(
+                                "QueueDeltaMaxWaiters"), 50));
+
                 // enable the visualiser applet, if necessary
                 String enableVisualiser = context.getInitParameter("EnableVisualizer");
                 if (getBooleanFromContext("EnableVisualizer")) {
@@ -635,6 +673,13 @@ public class ResourceGateway extends YHttpServlet {
         else if (action.equalsIgnoreCase("getAllSelectors")) {
             result = PluginFactory.getAllSelectors() ;
         }
+        else if (action.equalsIgnoreCase("getDistributionPlanStatistics")) {
+            XNode node = new XNode("distributionPlans");
+            node.addChild("hits", OfferInteraction.getPlanCacheHits());
+            node.addChild("misses", OfferInteraction.getPlanCacheMisses());
+            node.addChild("hitRate", OfferInteraction.getPlanCacheHitRate());
+            result = node.toString();
+        }
         else if (action.equalsIgnoreCase("getParticipants")) {
             result = getOrgDataSet().getParticipantsAsXML();
         }
@@ -147,6 +147,18 @@ public class ResourceGatewayClient extends Interface_Client {
     }
 
 
+    /**
+     * Gets the number of work item offers that reused, or had to build, the cached
+     * static part of their task's distribution set, and the hit rate of the cache
+     * @param handle a valid session handle
+     * @return the statistics as an XML string
+     * @throws IOException if the service can't be reached
+     */
+    public String getDistributionPlanStatistics(String handle) throws IOException {
+        return performGet("getDistributionPlanStatistics", handle) ;
+    }
+
+
     /**
      * Gets an XML list of all Participants known to the service
      * @param handle a valid session handle
@@ -25,6 +25,7 @@ import org.yawlfoundation.yawl.engine.interfce.Marshaller;
 import org.yawlfoundation.yawl.engine.interfce.ServletUtils;
 import org.yawlfoundation.yawl.engine.interfce.SpecificationData;
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.QueueDeltaLog;
 import org.yawlfoundation.yawl.resourcing.QueueSet;
 import org.yawlfoundation.yawl.resourcing.ResourceManager;
 import org.yawlfoundation.yawl.resourcing.TaskPrivileges;
@@ -235,6 +236,15 @@ public class WorkQueueGateway extends HttpServlet {
                         result = _marshaller.marshallWorkItemRecords((Set<WorkItemRecord>) null);
                 } else result = fail("Unknown participant id: " + pid);
             } else result = fail("Invalid queue type: " + req.getParameter("queue"));
+        } else if (action.equals("getQueueDeltas")) {
+            if (pid != null && (pid.equals("admin") ||
+                    getOrgDataSet().getParticipant(pid) != null)) {
+                long epoch = StringUtil.strToLong(req.getParameter("epoch"), -1);
+                long since = StringUtil.strToLong(req.getParameter("sequence"), -1);
+                long wait = StringUtil.strToLong(req.getParameter("wait"), 0);
+                result = QueueDeltaLog.getInstance().getDeltas(pid, epoch, since, wait)
+                        .toXML();
+            } else result = fail("Unknown participant id: " + pid);
         } else if (action.equals("getParticipantsAssignedWorkItem")) {
             int queueType = getQueueType(req.getParameter("queue"));
             if (WorkQueue.isValidQueueType(queueType)) {
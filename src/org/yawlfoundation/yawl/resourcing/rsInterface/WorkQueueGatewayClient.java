@@ -248,6 +248,28 @@ public class WorkQueueGatewayClient extends Interface_Client {
     }
 
 
+    /**
+     * Gets the changes made to a participant's work queues since those last seen by
+     * the caller, waiting for a while for a change if there are none yet
+     * @param pid the participant's id (or "admin" for the administrator's queues)
+     * @param epoch the epoch of the last changes seen, or -1 if none seen
+     * @param sequence the sequence number of the last change seen, or -1 if none seen
+     * @param wait the maximum msecs to wait for a change (the service may cap this)
+     * @param handle the current session handle
+     * @return an XML'd QueueDeltas object
+     * @throws IOException if the service can't be reached
+     */
+    public String getQueueDeltas(String pid, long epoch, long sequence, long wait,
+                                 String handle) throws IOException {
+        Map<String, String> params = prepareParamMap("getQueueDeltas", handle);
+        params.put("participantid", pid);
+        params.put("epoch", String.valueOf(epoch));
+        params.put("sequence", String.valueOf(sequence));
+        params.put("wait", String.valueOf(wait));
+        return executeGet(_serviceURI, params);
+    }
+
+
     public String getWorkItem(String itemID, String handle) throws IOException {
         Map<String, String> params = prepareParamMap("getWorkItem", handle);
         params.put("workitemid", itemID);
@@ -24,6 +24,7 @@ import org.yawlfoundation.yawl.elements.data.YParameter;
 import org.yawlfoundation.yawl.engine.YSpecificationID;
 import org.yawlfoundation.yawl.engine.interfce.SpecificationData;
 import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.QueueDeltas;
 import org.yawlfoundation.yawl.resourcing.QueueSet;
 import org.yawlfoundation.yawl.resourcing.TaskPrivileges;
 import org.yawlfoundation.yawl.resourcing.resource.Participant;
@@ -318,6 +319,28 @@ public class WorkQueueGatewayClientAdapter {
     }
 
 
+    /**
+     * Gets the changes made to a participant's work queues since a previous batch of
+     * changes. If the batch returned requires a resync, get the queues in full, then
+     * pass the returned batch in the next call.
+     * @param pid the participant's id (or "admin" for the administrator's queues)
+     * @param previous the last batch of changes received, or null for the first call
+     * @param wait the maximum msecs to wait for a change (the service may cap this)
+     * @param handle the current session handle
+     * @return the next batch of changes
+     */
+    public QueueDeltas getQueueDeltas(String pid, QueueDeltas previous, long wait,
+                                      String handle)
+            throws IOException, ResourceGatewayException {
+        long epoch = previous != null ? previous.getEpoch() : -1;
+        long sequence = previous != null ? previous.getSequence() : -1;
+        String xml = _wqclient.getQueueDeltas(pid, epoch, sequence, wait, handle);
+        QueueDeltas deltas = new QueueDeltas();
+        deltas.fromXML(successCheck(xml));
+        return deltas;
+    }
+
+
     public String getWorkItem(String itemID, String handle)
             throws IOException, ResourceGatewayException {
         return successCheck(_wqclient.getWorkItem(itemID, handle));
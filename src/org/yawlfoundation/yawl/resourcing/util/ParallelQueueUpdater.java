@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved.
+ * The YAWL Foundation is a collaboration of individuals and
+ * organisations who are committed to improving workflow technology.
+ *
+ * This file is part of YAWL. YAWL is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation.
+ *
+ * YAWL is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with YAWL. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.yawlfoundation.yawl.resourcing.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.QueueSet;
+import org.yawlfoundation.yawl.resourcing.resource.Participant;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Adds a work item to, or removes it from, the same queue of each of a set of
+ * participants. When the set is large (e.g. an item offered to a role with many
+ * members), the set is split into chunks that are updated in parallel.
+ */
+public class ParallelQueueUpdater {
+
+    private static final int DEFAULT_THRESHOLD = 200;
+
+    private final int _threadCount;
+    private int _threshold;
+    private ExecutorService _executor;
+
+
+    public ParallelQueueUpdater() {
+        this(DEFAULT_THRESHOLD, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * @param threshold the smallest set of participants updated in parallel
+     * @param threadCount the maximum number of threads to update a set with
+     */
+    public ParallelQueueUpdater(int threshold, int threadCount) {
+        _threshold = threshold;
+        _threadCount = Math.max(1, threadCount);
+    }
+
+
+    /**
+     * @param threshold the smallest set of participants updated in parallel. A value
+     *                  less than 1 disables parallel updates.
+     */
+    public void setThreshold(int threshold) { _threshold = threshold; }
+
+
+    /**
+     * Adds a work item to a queue of each participant in a set, creating the queue
+     * if required
+     * @param pSet the participants
+     * @param wir the work item
+     * @param queue the queue type
+     * @param persisting true if any queues created are to be persisted
+     * @return the ids of the participants whose queue was modified
+     */
+    public Set<String> addToQueue(Collection<Participant> pSet,
+                                  final WorkItemRecord wir, final int queue,
+                                  final boolean persisting) {
+        return update(pSet, new Update() {
+            public boolean apply(Participant p) {
+                p.getOrCreateWorkQueues(persisting).addToQueue(wir, queue);
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Removes a work item from a queue of each participant in a set
+     * @param pSet the participants
+     * @param wir the work item
+     * @param queue the queue type
+     * @return the ids of the participants whose queue contained the item
+     */
+    public Set<String> removeFromQueue(Collection<Participant> pSet,
+                                       final WorkItemRecord wir, final int queue) {
+        return update(pSet, new Update() {
+            public boolean apply(Participant p) {
+                QueueSet qSet = p.getWorkQueues();
+                return qSet != null && qSet.removeFromQueue(wir, queue);
+            }
+        });
+    }
+
+
+    /**
+     * Stops the threads used for parallel updates
+     */
+    public synchronized void shutdown() {
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+    }
+
+
+    /*******************************************************************************/
+
+    private Set<String> update(Collection<Participant> pSet, Update update) {
+        if (pSet == null || pSet.isEmpty()) return Collections.emptySet();
+        if (_threshold < 1 || pSet.size() < _threshold || _threadCount == 1) {
+            return update(new ArrayList<Participant>(pSet), update);
+        }
+
+        List<Participant> pList = new ArrayList<Participant>(pSet);
+        int chunkSize = (pList.size() + _threadCount - 1) / _threadCount;
+        List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>();
+        for (int i = chunkSize; i < pList.size(); i += chunkSize) {
+            final List<Participant> chunk = pList.subList(i,
+                    Math.min(i + chunkSize, pList.size()));
+            final Update chunkUpdate = update;
+            futures.add(getExecutor().submit(new Callable<Set<String>>() {
+                public Set<String> call() {
+                    return update(chunk, chunkUpdate);
+                }
+            }));
+        }
+
+        // the calling thread does the first chunk
+        Set<String> updated = new HashSet<String>(update(pList.subList(0, chunkSize), update));
+        for (Future<Set<String>> future : futures) {
+            try {
+                updated.addAll(future.get());
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException ee) {
+                LogManager.getLogger(ParallelQueueUpdater.class).error(
+                        "Failed to update work queues", ee.getCause());
+            }
+        }
+        return updated;
+    }
+
+
+    private Set<String> update(List<Participant> pList, Update update) {
+        Set<String> updated = new HashSet<String>();
+        for (Participant p : pList) {
+            if (update.apply(p)) updated.add(p.getID());
+        }
+        return updated;
+    }
+
+
+    private synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = Executors.newFixedThreadPool(_threadCount - 1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ParallelQueueUpdater");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _executor;
+    }
+
+
+    private interface Update {
+        boolean apply(Participant p);
+    }
+
+}
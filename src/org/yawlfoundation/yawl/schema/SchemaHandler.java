@@ -167,6 +167,34 @@ public class SchemaHandler {
     }
 
 
+    /**
+     * Validates an XML source against the compiled schema. Unlike the other validate
+     * method, messages are reported to the error handler supplied rather than to this
+     * handler, so that this method may be called concurrently.
+     * @param source the instance document to be validated
+     * @param handler receives any errors and warnings raised by the validation
+     * @return true if the source is a valid instance of the schema
+     * @throws IllegalStateException if schema has not been compiled successfully
+     */
+    public boolean validate(Source source, ErrorHandler handler) {
+        if (! compiled) {
+            throw new IllegalStateException("Schema must first have been successfully " +
+                    "compiled before validation can be performed.");
+        }
+
+        try {
+            Validator validator = schema.newValidator();
+            validator.setErrorHandler(handler);
+            validator.validate(source);
+            return handler.isValid();
+        }
+        catch (Exception e) {
+            handler.getErrors().add("Validation failed with exception: " + e.getMessage());
+            return false;
+        }
+    }
+
+
     /**
      * @return all error messages from the last validation/compilation
      */
@@ -1 +1 @@
-/* * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved. * The YAWL Foundation is a collaboration of individuals and * organisations who are committed to improving workflow technology. * * This file is part of YAWL. YAWL is free software: you can * redistribute it and/or modify it under the terms of the GNU Lesser * General Public License as published by the Free Software Foundation. * * YAWL is distributed in the hope that it will be useful, but WITHOUT * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General * Public License for more details. * * You should have received a copy of the GNU Lesser General Public * License along with YAWL. If not, see <http://www.gnu.org/licenses/>. */package org.yawlfoundation.yawl.schema;import org.jdom2.Element;import org.yawlfoundation.yawl.elements.data.YVariable;import org.yawlfoundation.yawl.exceptions.YDataValidationException;import org.yawlfoundation.yawl.schema.internal.YInternalType;import org.yawlfoundation.yawl.util.DOMUtil;import org.yawlfoundation.yawl.util.JDOMUtil;import org.yawlfoundation.yawl.util.StringUtil;import javax.xml.XMLConstants;import java.util.*;/** * This class serves as a validation mechanism for the specification specific * schema and the instance data from either the net or a task. This is performed * by taking the data available at the various validation points and converting * it into conventional XML which is then validated using a SchemaHandler. * * @author Mike Fowler *         Date: 05-Jul-2006 */public class YDataValidator {    // Object that performs the real validation on XML documents    private SchemaHandler handler;    /**     * Constructs a new validator and handler. The     * handler is not ready for use until validateSchema     * has been called.     * @param schema a W3C XML Schema     */    public YDataValidator(String schema) {        this.handler = new SchemaHandler(schema);    }    /**     * Compiles and determines the validity of the current schema     * @return true if the schema compiled without error.     */    public boolean validateSchema() {        return handler.compileSchema();    }    /**     * Validates a single data variable     *     * @param variable to be validated     * @param data XML representation of variable to be validated     * @param source     * @throws YDataValidationException if the data is not valid     */    public void validate(YVariable variable, Element data, String source)            throws YDataValidationException {        List<YVariable> vars = new ArrayList<YVariable>(1);        vars.add(variable);        validate(vars, data, source);    }    /**     * Validates a collection of variables against the schema. This is achieved by     * temporarily adding a schema element declaration for the data. This avoids     * attempting to create a new schema containing only the relevant data types.     *     * @param vars variables to be validated     * @param data XML representation fo the variables to be validated     * @param source     * @throws YDataValidationException if the data is not valid     */    public void validate(Collection vars, Element data, String source)            throws YDataValidationException {        try {            String schema = ensurePrefixedSchema(handler.getSchema());            org.w3c.dom.Document xsd = DOMUtil.getDocumentFromString(schema);            String ns = XMLConstants.W3C_XML_SCHEMA_NS_URI;            //need to determine the prefix for the schema namespace            String prefix = ensureValidPrefix(xsd.lookupPrefix(ns));            org.w3c.dom.Element element = xsd.createElementNS(ns, prefix + "element");            element.setAttribute("name", data.getName());            org.w3c.dom.Element complex = xsd.createElementNS(ns, prefix + "complexType");            org.w3c.dom.Element sequence = xsd.createElementNS(ns, prefix + "sequence");            ArrayList varList = new ArrayList(vars);            Collections.sort(varList);               // sort on YParameter ordering value            for (Object obj : varList) {                YVariable var = (YVariable) obj;                org.w3c.dom.Element child = xsd.createElementNS(ns, prefix + "element");                child.setAttribute("name", var.getName());                String type = var.getDataTypeName();                if (XSDType.isBuiltInType(type)) {                    type = prefix + type;                }                else if (YInternalType.isType(type)) {                    type = prefix + type;                    xsd.getDocumentElement().appendChild(DOMUtil.getDocumentFromString(                            YInternalType.valueOf(type).getSchemaString()).getDocumentElement());                }                child.setAttribute("type", type);                if (var.isOptional()) {                    child.setAttribute("minOccurs", "0");                }                sequence.appendChild(child);            }            complex.appendChild(sequence);            element.appendChild(complex);            xsd.getDocumentElement().appendChild(element);            SchemaHandler handler =                          new SchemaHandler(DOMUtil.getXMLStringFragmentFromNode(xsd));            if (! handler.compileSchema()) {                throw new YDataValidationException(                    handler.getSchema(),                    data,                    handler.getConcatenatedMessage(),                    source,                    "Problem with process model.  Failed to compile schema");            }            if (! handler.validate(JDOMUtil.elementToString(data))) {                throw new YDataValidationException(                    handler.getSchema(),                    data,                    handler.getConcatenatedMessage(),                    source,                    "Problem with process model.  Schema validation failed");            }        }        catch (Exception e) {            if (e instanceof YDataValidationException) throw (YDataValidationException) e;        }    }    /**     * @return String representation of the schema     */    public String getSchema() {        return handler.getSchema();    }    /**     * @return the SchemaHandler for this validator     */    public SchemaHandler getSchemaHandler() { return handler; }    /**     * @return All error/warning messages relating to the last validation/compilation     */    public List<String> getMessages() {        return handler.getMessages();    }    /**     * @return the set of (first-level) type names defined in this schema     */    public Set<String> getPrimaryTypeNames() {        return handler.getPrimaryTypeNames();    }    /**     * Utility method to ensure the prefix is valid (enforces : and     * defaults to xs:)     *     * @param prefix to validate     * @return validated prefix     */    private String ensureValidPrefix(String prefix) {        if (StringUtil.isNullOrEmpty(prefix)) {            return "xs:";        }        else if (! prefix.endsWith(":")) {            return prefix + ":";        }        return prefix;    }    /**     * A schema may not have a valid prefix if a spec contains no complex types, so     * this makes sure it gets one in that case     * @param schema the schema string to check     * @return a correctly (or defaultly) prefixed schema string     */    private String ensurePrefixedSchema(String schema) {        if (!schema.contains(":schema")) {            schema = schema.replaceFirst("schema xmlns", "schema xmlns:xs");            schema = schema.replaceAll("<", "<xs:")                           .replaceAll("<xs:/", "</xs:")                           .replaceAll("type=\"", "type=\"xs:");        }            return schema ;    }}
\ No newline at end of file
+/* * Copyright (c) 2004-2020 The YAWL Foundation. All rights reserved. * The YAWL Foundation is a collaboration of individuals and * organisations who are committed to improving workflow technology. * * This file is part of YAWL. YAWL is free software: you can * redistribute it and/or modify it under the terms of the GNU Lesser * General Public License as published by the Free Software Foundation. * * YAWL is distributed in the hope that it will be useful, but WITHOUT * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General * Public License for more details. * * You should have received a copy of the GNU Lesser General Public * License along with YAWL. If not, see <http://www.gnu.org/licenses/>. */package org.yawlfoundation.yawl.schema;import org.jdom2.Element;import org.jdom2.transform.JDOMSource;import org.xml.sax.Attributes;import org.xml.sax.SAXException;import org.xml.sax.XMLReader;import org.xml.sax.helpers.XMLFilterImpl;import org.yawlfoundation.yawl.elements.data.YVariable;import org.yawlfoundation.yawl.exceptions.YDataValidationException;import org.yawlfoundation.yawl.schema.internal.YInternalType;import org.yawlfoundation.yawl.util.DOMUtil;import org.yawlfoundation.yawl.util.StringUtil;import javax.xml.XMLConstants;import javax.xml.transform.Source;import javax.xml.transform.sax.SAXSource;import java.util.*;import java.util.concurrent.ConcurrentHashMap;/** * This class serves as a validation mechanism for the specification specific * schema and the instance data from either the net or a task. This is performed * by taking the data available at the various validation points and converting * it into conventional XML which is then validated using a SchemaHandler. * * @author Mike Fowler *         Date: 05-Jul-2006 */public class YDataValidator {    // Object that performs the real validation on XML documents    private SchemaHandler handler;    // compiled schemas for each set of variables validated, keyed on a signature of    // the data element name and the (sorted) variable names, types and optionality    private final Map<String, SchemaHandler> compiledSchemas =            new ConcurrentHashMap<String, SchemaHandler>();    // marks a set of variables for which no schema can be built    private static final SchemaHandler NO_SCHEMA = new SchemaHandler("");    /**     * Constructs a new validator and handler. The     * handler is not ready for use until validateSchema     * has been called.     * @param schema a W3C XML Schema     */    public YDataValidator(String schema) {        this.handler = new SchemaHandler(schema);    }    /**     * Compiles and determines the validity of the current schema     * @return true if the schema compiled without error.     */    public boolean validateSchema() {        compiledSchemas.clear();        return handler.compileSchema();    }    /**     * Validates a single data variable     *     * @param variable to be validated     * @param data XML representation of variable to be validated     * @param source     * @throws YDataValidationException if the data is not valid     */    public void validate(YVariable variable, Element data, String source)            throws YDataValidationException {        List<YVariable> vars = new ArrayList<YVariable>(1);        vars.add(variable);        validate(vars, data, source);    }    /**     * Validates a collection of variables against the schema. This is achieved by     * adding a schema element declaration for the data to a copy of the schema. This     * avoids attempting to create a new schema containing only the relevant data types.     * The schema is compiled the first time each set of variables is validated, then     * cached for reuse, so that later validations need only a single pass of the data.     *     * @param vars variables to be validated     * @param data XML representation fo the variables to be validated     * @param source     * @throws YDataValidationException if the data is not valid     */    public void validate(Collection<? extends YVariable> vars, Element data,                         String source)            throws YDataValidationException {        try {            List<YVariable> varList = new ArrayList<YVariable>(vars);            Collections.sort(varList);               // sort on YParameter ordering value            String signature = getSignature(data.getName(), varList);            SchemaHandler compiled = compiledSchemas.get(signature);            if (compiled == null) {                compiled = compileSchema(data, varList, source);                compiledSchemas.put(signature, compiled);            }            if (compiled == NO_SCHEMA) return;            ErrorHandler errorHandler = new ErrorHandler();            if (! compiled.validate(toSource(data), errorHandler)) {                throw new YDataValidationException(                    compiled.getSchema(),                    data,                    getConcatenatedMessage(errorHandler),                    source,                    "Problem with process model.  Schema validation failed");            }        }        catch (Exception e) {            if (e instanceof YDataValidationException) throw (YDataValidationException) e;        }    }    /**     * Builds and compiles a schema for a set of variables.     * @return a handler containing the compiled schema, or NO_SCHEMA if a schema     * can't be built for the variables     * @throws YDataValidationException if the schema fails to compile     */    private SchemaHandler compileSchema(Element data, List<YVariable> varList,                                        String source)            throws YDataValidationException {        try {            String schema = ensurePrefixedSchema(handler.getSchema());            org.w3c.dom.Document xsd = DOMUtil.getDocumentFromString(schema);            String ns = XMLConstants.W3C_XML_SCHEMA_NS_URI;            //need to determine the prefix for the schema namespace            String prefix = ensureValidPrefix(xsd.lookupPrefix(ns));            org.w3c.dom.Element element = xsd.createElementNS(ns, prefix + "element");            element.setAttribute("name", data.getName());            org.w3c.dom.Element complex = xsd.createElementNS(ns, prefix + "complexType");            org.w3c.dom.Element sequence = xsd.createElementNS(ns, prefix + "sequence");            for (YVariable var : varList) {                org.w3c.dom.Element child = xsd.createElementNS(ns, prefix + "element");                child.setAttribute("name", var.getName());                String type = var.getDataTypeName();                if (XSDType.isBuiltInType(type)) {                    type = prefix + type;                }                else if (YInternalType.isType(type)) {                    type = prefix + type;                    xsd.getDocumentElement().appendChild(DOMUtil.getDocumentFromString(                            YInternalType.valueOf(type).getSchemaString()).getDocumentElement());                }                child.setAttribute("type", type);                if (var.isOptional()) {                    child.setAttribute("minOccurs", "0");                }                sequence.appendChild(child);            }            complex.appendChild(sequence);            element.appendChild(complex);            xsd.getDocumentElement().appendChild(element);            SchemaHandler handler =                          new SchemaHandler(DOMUtil.getXMLStringFragmentFromNode(xsd));            if (! handler.compileSchema()) {                throw new YDataValidationException(                    handler.getSchema(),                    data,                    handler.getConcatenatedMessage(),                    source,                    "Problem with process model.  Failed to compile schema");            }            return handler;        }        catch (YDataValidationException yve) {            throw yve;        }        catch (Exception e) {            // the schema can't be built for these variables (e.g. they include an            // internal type), so they aren't validated            return NO_SCHEMA;        }    }    private String getSignature(String dataName, List<YVariable> varList) {        StringBuilder sb = new StringBuilder(dataName);        for (YVariable var : varList) {            sb.append('|').append(var.getName()).append(':')              .append(var.getDataTypeName()).append(var.isOptional() ? "?" : "");        }        return sb.toString();    }    /**     * Gets a source of SAX events for the data, trimming text as is done when the data     * is output as a 'pretty' formatted string.     */    private Source toSource(Element data) {        JDOMSource jdomSource = new JDOMSource(data);        return new SAXSource(new TextTrimmingFilter(jdomSource.getXMLReader()),                jdomSource.getInputSource());    }    private String getConcatenatedMessage(ErrorHandler errorHandler) {        StringBuilder builder = new StringBuilder();        for (String msg : errorHandler.getErrors()) {            builder.append(msg).append("\n");        }        for (String msg : errorHandler.getWarnings()) {            builder.append(msg).append("\n");        }        return builder.toString();    }    /**     * @return String representation of the schema     */    public String getSchema() {        return handler.getSchema();    }    /**     * @return the SchemaHandler for this validator     */    public SchemaHandler getSchemaHandler() { return handler; }    /**     * @return All error/warning messages relating to the last validation/compilation     */    public List<String> getMessages() {        return handler.getMessages();    }    /**     * @return the set of (first-level) type names defined in this schema     */    public Set<String> getPrimaryTypeNames() {        return handler.getPrimaryTypeNames();    }    /**     * Utility method to ensure the prefix is valid (enforces : and     * defaults to xs:)     *     * @param prefix to validate     * @return validated prefix     */    private String ensureValidPrefix(String prefix) {        if (StringUtil.isNullOrEmpty(prefix)) {            return "xs:";        }        else if (! prefix.endsWith(":")) {            return prefix + ":";        }        return prefix;    }    /**     * A schema may not have a valid prefix if a spec contains no complex types, so     * this makes sure it gets one in that case     * @param schema the schema string to check     * @return a correctly (or defaultly) prefixed schema string     */    private String ensurePrefixedSchema(String schema) {        if (!schema.contains(":schema")) {            schema = schema.replaceFirst("schema xmlns", "schema xmlns:xs");            schema = schema.replaceAll("<", "<xs:")                           .replaceAll("<xs:/", "</xs:")                           .replaceAll("type=\"", "type=\"xs:");        }            return schema ;    }    /**     * Buffers the text between element boundaries, and passes it on with leading     * and trailing whitespace removed (and not at all if it is only whitespace).     */    private static class TextTrimmingFilter extends XMLFilterImpl {        private final StringBuilder text = new StringBuilder();        TextTrimmingFilter(XMLReader parent) { super(parent); }        public void startElement(String uri, String localName, String qName,                                 Attributes atts) throws SAXException {            flushText();            super.startElement(uri, localName, qName, atts);        }        public void endElement(String uri, String localName, String qName)                throws SAXException {            flushText();            super.endElement(uri, localName, qName);        }        public void characters(char[] ch, int start, int length) {            text.append(ch, start, length);        }        public void ignorableWhitespace(char[] ch, int start, int length) { }        private void flushText() throws SAXException {            String trimmed = text.toString().trim();            if (trimmed.length() > 0) {                super.characters(trimmed.toCharArray(), 0, trimmed.length());            }            text.setLength(0);        }    }}
\ No newline at end of file
@@ -33,6 +33,7 @@ class SimulatorProperties {
     private YSimulator.SimulationType simType;
     private int caseCount;
     private long interval;
+    private int launchers;
     private Map<String, Map<String, TaskResourceSettings>> tasks;   // [taskName, pid, TaskResourceSettings]
     private Map<String, ResourceLimit> resources;                  // [pid, time limit]
 
@@ -57,6 +58,8 @@ class SimulatorProperties {
 
     protected long getInterval() { return interval; }
 
+    protected int getLaunchers() { return launchers; }
+
     protected ResourceLimit getLimit(String pid) { return resources.get(pid); }
 
 
@@ -82,6 +85,7 @@ class SimulatorProperties {
 
         parseSimType(node);
         parseInterval(node);
+        parseLaunchers(node);
         parseCaseCount(node);
         parseSpecID(node);
         parseServer(node);
@@ -105,6 +109,12 @@ class SimulatorProperties {
         interval = StringUtil.strToInt(node.getAttributeValue("interval"), 0);
     }
 
+    // defaults to launching one case at a time
+    private void parseLaunchers(XNode node) {
+        launchers = StringUtil.strToInt(node.getAttributeValue("launchers"), 1);
+        if (launchers < 1) ySimulator.fail("Invalid launchers value in config");
+    }
+
     private void parseCaseCount(XNode node) {
         caseCount = StringUtil.strToInt(node.getAttributeValue("instances"), 0);
         if (caseCount < 1) ySimulator.fail("Invalid instances value in config");
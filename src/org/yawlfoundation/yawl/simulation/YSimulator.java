@@ -33,6 +33,9 @@ import java.io.IOException;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Michael Adams
@@ -52,6 +55,7 @@ public class YSimulator {
     private long _slowestCaseTime;
     private long _fastestCaseTime;
     private long _totalTime;
+    private ExecutorService _launchPool;
 
     protected static final String DEFAULT_URL = ":8080/resourceService/workqueuegateway";
     private static final String DEFAULT_USER = "admin";
@@ -87,7 +91,7 @@ public class YSimulator {
         _summaryMap = new HashMap<String, ParticipantSummary>();
         _userToPidMap = new HashMap<String, String>();
         _roleToPidsMap = new HashMap<String, Set<String>>();
-        _caseStartTimeMap = new HashMap<String, Long>();
+        _caseStartTimeMap = new ConcurrentHashMap<String, Long>();
         _slowestCaseTime = 0;
         _fastestCaseTime = Long.MAX_VALUE;
         _totalTime = 0;
@@ -154,6 +158,11 @@ public class YSimulator {
     private void start() throws IOException, ResourceGatewayException {
         _startTime = System.currentTimeMillis();
         startPoller();
+
+        // a load test: cases are launched concurrently by a pool of launchers
+        if (_props.getLaunchers() > 1) {
+            _launchPool = Executors.newFixedThreadPool(_props.getLaunchers());
+        }
         for (int i = 1; i <= _props.getCaseCount(); i++) {
             TimedCaseLauncher launcher = new TimedCaseLauncher(i);
             _timer.schedule(launcher, _props.getInterval() * i);
@@ -307,7 +316,11 @@ public class YSimulator {
                 .append(" ms")
                 .append("\n\tAverage case cycle time: ")
                 .append(_totalTime / _props.getCaseCount())
-                .append(" ms");
+                .append(" ms")
+                .append("\n\tThroughput: ")
+                .append(String.format("%.2f", _props.getCaseCount() * 1000.0 /
+                        Math.max(1, now - _startTime)))
+                .append(" cases/sec");
         return s.toString();
     }
 
@@ -408,6 +421,16 @@ public class YSimulator {
 
 
         public void run() {
+            if (_launchPool != null) {
+                _launchPool.execute(new Runnable() {
+                    public void run() { launch(); }
+                });
+            }
+            else launch();
+        }
+
+
+        private void launch() {
             try {
                 String caseID = _wqAdapter.launchCase(_props.getSpecID(), null, _handle);
                 if (!successful(caseID)) fail("Failed to launch case: " + caseID);
@@ -28,10 +28,14 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
 import org.hibernate.exception.JDBCConnectionException;
 import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.jdbc.Work;
 import org.hibernate.service.ServiceRegistry;
 import org.hibernate.tool.hbm2ddl.SchemaUpdate;
 
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -279,6 +283,58 @@ public class HibernateEngine {
     }
 
 
+    /**
+     * executes a plain SQL insert, update or delete statement
+     * @param statement the SQL statement to execute
+     * @return the number of rows affected, or -1 if the statement has some problem
+     */
+    public int execSQLUpdate(String statement) {
+        int result = -1;
+        Transaction tx = null;
+        try {
+            tx = getOrBeginTransaction();
+            result = getSession().createSQLQuery(statement).executeUpdate();
+            commit();
+        }
+        catch (HibernateException he) {
+            _log.error("Caught Exception: Error executing statement: " + statement, he);
+            if (tx != null) tx.rollback();
+        }
+        return result;
+    }
+
+
+    /**
+     * checks whether a database table exists, whether or not it is mapped to a
+     * persisted class (e.g. a table left by an earlier version)
+     * @param tableName the name of the table (case insensitive)
+     * @return true if the table exists
+     */
+    public boolean tableExists(final String tableName) {
+        final boolean[] exists = new boolean[1];
+        Transaction tx = null;
+        try {
+            tx = getOrBeginTransaction();
+            getSession().doWork(new Work() {
+                public void execute(Connection connection) throws SQLException {
+                    ResultSet rs = connection.getMetaData().getTables(
+                            null, null, null, new String[] { "TABLE" });
+                    while (rs.next() && ! exists[0]) {
+                        exists[0] = tableName.equalsIgnoreCase(rs.getString("TABLE_NAME"));
+                    }
+                    rs.close();
+                }
+            });
+            commit();
+        }
+        catch (HibernateException he) {
+            _log.error("Caught Exception: Error reading table names", he);
+            if (tx != null) tx.rollback();
+        }
+        return exists[0];
+    }
+
+
     public int execUpdate(String queryString, boolean commit) {
         int result = -1;
         Transaction tx = null;
@@ -345,6 +401,30 @@ public class HibernateEngine {
     }
 
 
+    /**
+     * opens a session of its own, not bound to the current thread, that keeps no
+     * objects and so suits long reads. The caller must close it
+     * @return the new session
+     */
+    public StatelessSession openStatelessSession() {
+        return _factory.openStatelessSession();
+    }
+
+
+    /**
+     * removes an object from the session, so that it is no longer held by it
+     * @param obj the object to evict
+     */
+    public void evict(Object obj) {
+        try {
+            getSession().evict(obj);
+        }
+        catch (HibernateException he) {
+            _log.error("Caught Exception: Error evicting object", he);
+        }
+    }
+
+
     public List getByCriteria(Class claz, Criterion... criteria) {
         return getByCriteria(claz, true, criteria);
     }
@@ -21,14 +21,17 @@ package org.yawlfoundation.yawl.util;
 import net.sf.saxon.s9api.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jdom2.Content;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.output.DOMOutputter;
+import org.jdom2.*;
+import org.jdom2.transform.JDOMSource;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Michael Adams
@@ -38,9 +41,8 @@ import java.util.List;
 public class SaxonUtil {
 
     private static final Processor _processor = new Processor(false);
-    private static final Serializer _output = new Serializer();
     private static final XQueryCompiler _compiler = _processor.newXQueryCompiler();
-    private static final DOMOutputter _domOutputter = new DOMOutputter();
+    private static final QueryCache _queryCache = new QueryCache();
 
     private static final Logger _log = LogManager.getLogger(SaxonUtil.class);
 
@@ -60,18 +62,11 @@ public class SaxonUtil {
             throws SaxonApiException {
         if (_log.isDebugEnabled()) log(query, dataDoc);
 
-        // initialise, compile & load the evaluator
-        XQueryEvaluator evaluator = initEvaluator(query, dataDoc);
-
-        // create a StringWriter to receive the output of the evaluation
-        StringWriter writer = new StringWriter();
-        _output.setOutputWriter(writer);
-
-        // evaluate the query & return the result as a string
-        evaluator.run(_output);
-        String result = writer.toString();
+        // initialise, compile & load the evaluator, then evaluate the query
+        XdmValue value = initEvaluator(query, new JDOMSource(dataDoc)).evaluate();
+        String result = toString(value);
         if (_log.isDebugEnabled()) log(result, null);
-        return removeHeader(result);
+        return result;
     }
 
 
@@ -79,12 +74,20 @@ public class SaxonUtil {
      * Evaluates an XQuery against a data document
      * @param query the XQuery to evaluate
      * @param dataDoc a JDOM Document containing the data tree
-     * @return a JDOM Element representing the result of the evaluation
+     * @return a JDOM Element representing the result of the evaluation, or null if
+     * the result is not a single element
      * @throws SaxonApiException if there's a problem with the XQuery or Document
      */
     public static Element evaluateTreeQuery(String query, Document dataDoc)
             throws SaxonApiException {
-        return JDOMUtil.stringToElement(evaluateQuery(query, dataDoc));
+        if (_log.isDebugEnabled()) log(query, dataDoc);
+        List<Content> result = toJDOM(initEvaluator(query, new JDOMSource(dataDoc)));
+        if (_log.isDebugEnabled()) log(result.toString(), null);
+        if (result.size() == 1 && result.get(0) instanceof Element) {
+            return (Element) result.get(0);
+        }
+        _log.error("Query result is not a single element: {}", result);
+        return null;
     }
 
 
@@ -97,14 +100,10 @@ public class SaxonUtil {
      */
     public static List<Content> evaluateListQuery(String query, Element dataElem)
             throws SaxonApiException {
-
-        // put the element in a jdom document
-        Document dataDoc = new Document(dataElem.clone());
-        String result = evaluateQuery(query, dataDoc);
-
-        // use the string result to create a doc to get it expressed as an element list
-        Document resultDoc = JDOMUtil.stringToDocument(StringUtil.wrap(result, "root"));
-        return resultDoc.getRootElement().cloneContent();
+        if (_log.isDebugEnabled()) log(query, new Document(dataElem.clone()));
+        List<Content> result = toJDOM(initEvaluator(query, new JDOMSource(dataElem)));
+        if (_log.isDebugEnabled()) log(result.toString(), null);
+        return result;
     }
 
 
@@ -116,8 +115,10 @@ public class SaxonUtil {
      */
     public static XQueryExecutable compileXQuery(String query)
             throws SaxonApiException {
-        ((SaxonErrorListener) _compiler.getErrorListener()).reset();
-        return _compiler.compile(query);
+        synchronized (_compiler) {                      // compiler isn't thread-safe
+            ((SaxonErrorListener) _compiler.getErrorListener()).reset();
+            return _compiler.compile(query);
+        }
     }
 
     public static List<String> getCompilerMessages() {
@@ -125,30 +126,227 @@ public class SaxonUtil {
     }
 
 
-    /******************************************************************************/
 
-    private static XQueryEvaluator initEvaluator(String query, Document dataDoc)
+    /**
+     * Gets the compiled form of an XQuery from the cache of compiled queries,
+     * compiling and caching it first if it is not already cached
+     * @param query the XQuery to get the executable for
+     * @return the executable query
+     * @throws SaxonApiException if there's a problem with the XQuery
+     */
+    public static XQueryExecutable getCompiledXQuery(String query)
             throws SaxonApiException {
+        return _queryCache.get(query);
+    }
+
+
+    /**
+     * Compiles a set of XQueries into the cache of compiled queries, so that they
+     * don't have to be compiled when first evaluated. Queries that fail to compile
+     * are ignored, since they will fail again (and be reported) when evaluated.
+     * @param queries the XQueries to compile
+     * @return the number of queries successfully compiled (or already cached)
+     */
+    public static int precompileXQueries(Collection<String> queries) {
+        int compiled = 0;
+        for (String query : queries) {
+            if (! StringUtil.isNullOrEmpty(query)) {
+                try {
+                    _queryCache.get(query);
+                    compiled++;
+                }
+                catch (SaxonApiException sae) {
+                    _log.debug("Failed to precompile query '{}': {}", query,
+                            sae.getMessage());
+                }
+            }
+        }
+        return compiled;
+    }
+
+
+    /**
+     * Sets the maximum number of compiled queries held in the cache. If the cache
+     * currently holds more than the new maximum, the least recently used queries
+     * are evicted.
+     * @param size the maximum number of queries to cache (0 disables caching)
+     */
+    public static void setQueryCacheSize(int size) { _queryCache.setMaxSize(size); }
+
+    public static int getQueryCacheSize() { return _queryCache.getMaxSize(); }
 
-        // wrap the jdom doc into something saxon understands
-        org.w3c.dom.Document domDoc = toDOM(dataDoc);
+    public static void clearQueryCache() { _queryCache.clear(); }
+
+
+    /**
+     * @return an XML string containing the current size and hit, miss and eviction
+     * counts of the compiled query cache
+     */
+    public static String getQueryCacheStatistics() {
+        return _queryCache.getStatistics().toPrettyString();
+    }
+
+
+    /******************************************************************************/
+
+    private static XQueryEvaluator initEvaluator(String query, JDOMSource dataSource)
+            throws SaxonApiException {
 
         // compile & load query
-        XQueryExecutable executable = compileXQuery(query);
+        XQueryExecutable executable = getCompiledXQuery(query);
         XQueryEvaluator evaluator = executable.load();
 
-        // set the context to the data document
-        evaluator.setContextItem(_processor.newDocumentBuilder().wrap(domDoc));
+        // build a saxon tree directly from the jdom data (via sax events) and
+        // set it as the context of the evaluation
+        evaluator.setContextItem(_processor.newDocumentBuilder().build(dataSource));
         return evaluator ;
     }
 
 
-    private static org.w3c.dom.Document toDOM(Document doc) throws SaxonApiException {
-        try {
-            return _domOutputter.output(doc);
+    // serializes a query result - sequences of atomic values (e.g. the results of
+    // predicates) are joined and escaped as the serializer would escape them as text,
+    // otherwise the result is serialized as xml
+    private static String toString(XdmValue value) throws SaxonApiException {
+        StringBuilder sb = new StringBuilder();
+        for (XdmItem item : value) {
+            if (! item.isAtomicValue()) {
+                StringWriter writer = new StringWriter();
+                Serializer serializer = new Serializer();
+                serializer.setOutputWriter(writer);
+                _processor.writeXdmValue(value, serializer);
+                return removeHeader(writer.toString());
+            }
+            if (sb.length() > 0) sb.append(' ');
+            appendEscaped(sb, item.getStringValue());
+        }
+        return sb.toString();
+    }
+
+
+    private static void appendEscaped(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<'  : sb.append("&lt;"); break;
+                case '>'  : sb.append("&gt;"); break;
+                case '&'  : sb.append("&amp;"); break;
+                case '\r' : sb.append("&#xD;"); break;
+                default   : sb.append(c);
+            }
+        }
+    }
+
+
+    /**
+     * Builds a list of JDOM content directly from the items of a query result. The
+     * content is that which would be produced by serializing the result and
+     * parsing it again (ignoring boundary whitespace), but without the intermediate
+     * string: adjacent atomic values are joined by a space, and text is merged with
+     * adjacent atomic values and text.
+     */
+    private static List<Content> toJDOM(Iterable<XdmItem> items) throws SaxonApiException {
+        List<Content> contents = new ArrayList<Content>();
+        StringBuilder text = new StringBuilder();
+        boolean lastWasAtomic = false;
+        for (XdmItem item : items) {
+            if (item.isAtomicValue()) {
+                if (lastWasAtomic) text.append(' ');
+                text.append(item.getStringValue());
+                lastWasAtomic = true;
+                continue;
+            }
+            lastWasAtomic = false;
+            XdmNode node = (XdmNode) item;
+            switch (node.getNodeKind()) {
+                case TEXT: text.append(node.getStringValue()); break;
+                case DOCUMENT: {
+                    addText(contents, text);
+                    addChildren(contents, node, null);
+                    break;
+                }
+                case ATTRIBUTE:
+                case NAMESPACE: throw new SaxonApiException(
+                        "Cannot serialize a free-standing " +
+                        node.getNodeKind().name().toLowerCase() + " node");
+                default: {
+                    addText(contents, text);
+                    Content content = toJDOM(node, null);
+                    if (content != null) contents.add(content);
+                }
+            }
+        }
+        addText(contents, text);
+        return contents;
+    }
+
+
+    private static Content toJDOM(XdmNode node, Element parent) {
+        switch (node.getNodeKind()) {
+            case ELEMENT: return toJDOMElement(node, parent);
+            case TEXT: return new Text(node.getStringValue());
+            case COMMENT: return new Comment(node.getStringValue());
+            case PROCESSING_INSTRUCTION: return new ProcessingInstruction(
+                    node.getNodeName().getLocalName(), node.getStringValue());
+            default: return null;
         }
-        catch (JDOMException jde) {
-            throw new SaxonApiException("Failed to translate JDOM Document for processing.");
+    }
+
+
+    private static Element toJDOMElement(XdmNode node, Element parent) {
+        QName name = node.getNodeName();
+        Element element = new Element(name.getLocalName(), name.getPrefix(),
+                name.getNamespaceURI());
+
+        // declare any namespaces in scope here that aren't already in scope
+        XdmSequenceIterator itr = node.axisIterator(Axis.NAMESPACE);
+        while (itr.hasNext()) {
+            XdmNode nsNode = (XdmNode) itr.next();
+            String prefix = nsNode.getNodeName() != null ?
+                    nsNode.getNodeName().getLocalName() : "";
+            String uri = nsNode.getStringValue();
+            if (! (prefix.equals("xml") || prefix.equals(element.getNamespacePrefix()))) {
+                Namespace inScope = parent != null ? parent.getNamespace(prefix) : null;
+                if (inScope == null || ! inScope.getURI().equals(uri)) {
+                    element.addNamespaceDeclaration(Namespace.getNamespace(prefix, uri));
+                }
+            }
+        }
+
+        itr = node.axisIterator(Axis.ATTRIBUTE);
+        while (itr.hasNext()) {
+            XdmNode attribute = (XdmNode) itr.next();
+            QName attName = attribute.getNodeName();
+            element.setAttribute(attName.getLocalName(), attribute.getStringValue(),
+                    Namespace.getNamespace(attName.getPrefix(), attName.getNamespaceURI()));
+        }
+
+        addChildren(element.getContent(), node, element);
+        return element;
+    }
+
+
+    // adds the converted children of a node, ignoring whitespace-only text
+    private static void addChildren(List<Content> contents, XdmNode node, Element parent) {
+        XdmSequenceIterator itr = node.axisIterator(Axis.CHILD);
+        while (itr.hasNext()) {
+            XdmNode child = (XdmNode) itr.next();
+            if (child.getNodeKind() == XdmNodeKind.TEXT &&
+                    child.getStringValue().trim().isEmpty()) {
+                continue;
+            }
+            Content content = toJDOM(child, parent);
+            if (content != null) contents.add(content);
+        }
+    }
+
+
+    // adds any non-whitespace text as a text node, and clears it for reuse
+    private static void addText(List<Content> contents, StringBuilder text) {
+        if (text.length() > 0) {
+            if (text.toString().trim().length() > 0) {
+                contents.add(new Text(text.toString()));
+            }
+            text.setLength(0);
         }
     }
 
@@ -172,5 +370,96 @@ public class SaxonUtil {
         else _log.debug("Query result: {}", query);
     }
 
+
+    /******************************************************************************/
+
+    /**
+     * A bounded, least recently used cache of compiled XQueries, keyed on query
+     * text. Compiled queries are immutable and so may be shared between threads.
+     */
+    private static class QueryCache {
+
+        private static final int DEFAULT_MAX_SIZE = 1000;
+
+        private final Map<String, XQueryExecutable> _cache;
+        private final AtomicLong _hits = new AtomicLong();
+        private final AtomicLong _misses = new AtomicLong();
+        private final AtomicLong _evictions = new AtomicLong();
+        private volatile int _maxSize = DEFAULT_MAX_SIZE;
+
+        QueryCache() {
+            _cache = new LinkedHashMap<String, XQueryExecutable>(256, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, XQueryExecutable> eldest) {
+                    if (size() > _maxSize) {
+                        _evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+
+        XQueryExecutable get(String query) throws SaxonApiException {
+            XQueryExecutable executable;
+            synchronized (_cache) {
+                executable = _cache.get(query);
+            }
+            if (executable != null) {
+                _hits.incrementAndGet();
+                return executable;
+            }
+
+            // compile outside the cache lock, so that lookups aren't held up
+            _misses.incrementAndGet();
+            executable = compileXQuery(query);
+            if (_maxSize > 0) {
+                synchronized (_cache) {
+                    _cache.put(query, executable);
+                }
+            }
+            return executable;
+        }
+
+
+        void setMaxSize(int size) {
+            _maxSize = Math.max(size, 0);
+            synchronized (_cache) {
+                Iterator<String> itr = _cache.keySet().iterator();
+                while (_cache.size() > _maxSize && itr.hasNext()) {
+                    itr.next();                                   // oldest first
+                    itr.remove();
+                    _evictions.incrementAndGet();
+                }
+            }
+        }
+
+        int getMaxSize() { return _maxSize; }
+
+
+        void clear() {
+            synchronized (_cache) {
+                _cache.clear();
+            }
+            _hits.set(0);
+            _misses.set(0);
+            _evictions.set(0);
+        }
+
+
+        XNode getStatistics() {
+            XNode node = new XNode("XQueryCacheStatistics");
+            synchronized (_cache) {
+                node.addChild("size", _cache.size());
+            }
+            node.addChild("maxSize", _maxSize);
+            node.addChild("hits", _hits.get());
+            node.addChild("misses", _misses.get());
+            node.addChild("evictions", _evictions.get());
+            return node;
+        }
+    }
+
 }
 
@@ -20,6 +20,13 @@ public class EngineTestSuite extends TestCase{
     public static Test suite(){
         TestSuite suite = new TestSuite();
         suite.addTestSuite(TestCaseCancellation.class);
+        suite.addTestSuite(TestCaseLevelLocking.class);
+        suite.addTestSuite(TestIncrementalEnablement.class);
+        suite.addTestSuite(TestDataMappingAllocation.class);
+        suite.addTestSuite(TestOrJoinAnalysis.class);
+        suite.addTestSuite(TestNetStructureSharing.class);
+        suite.addTestSuite(TestAnnouncementBatching.class);
+        suite.addTestSuite(TestObserverGatewayQueues.class);
    //     suite.addTestSuite(TestEngineAgainstABeta4Spec.class);
    //     suite.addTestSuite(TestEngineAgainstImproperCompletionOfASubnet.class);
    //     suite.addTestSuite(TestEngineSystem1.class);
@@ -32,6 +39,10 @@ public class EngineTestSuite extends TestCase{
         suite.addTestSuite(TestYWorkItem.class);
         suite.addTestSuite(TestYWorkItemID.class);
         suite.addTestSuite(TestYWorkItemRepository.class);
+        suite.addTestSuite(TestWorkItemRecordCodec.class);
+        suite.addTest(TestYTimer.suite());                    // timing run opt-in
+        suite.addTestSuite(TestCaseRestore.class);
+        suite.addTestSuite(TestEngineSnapshot.class);
         return suite;
     }
 
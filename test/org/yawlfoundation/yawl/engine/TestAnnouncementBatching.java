@@ -0,0 +1,281 @@
+package org.yawlfoundation.yawl.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.elements.YAWLServiceReference;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.interfce.interfaceB.InterfaceB_EngineBasedClient;
+import org.yawlfoundation.yawl.util.StringUtil;
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.Executors;
+
+/**
+ * Announces case cancellations to a local stub custom service, individually and in
+ * batches, and checks each announcement is received once and in order, along with
+ * the delivery statistics and the number of posts and connections used.
+ */
+public class TestAnnouncementBatching extends TestCase {
+
+    private static final int TIMEOUT = 10000;                            // msecs
+
+    private StubService _stub;
+    private InterfaceB_EngineBasedClient _client;
+    private YAWLServiceReference _service;
+
+    public TestAnnouncementBatching(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _stub = new StubService();
+        _client = new InterfaceB_EngineBasedClient();
+        _service = new YAWLServiceReference(_stub.getURI(), null, "stubService");
+    }
+
+
+    public void tearDown() throws Exception {
+        _client.shutdown();
+        _stub.stop();
+    }
+
+
+    public void testIndividualDelivery() throws Exception {
+        assertFalse(_client.isBatchingAnnouncements());
+        announce(0, 20);
+        _stub.waitForAnnouncements(20);
+        assertEquals(20, _stub.getPosts());
+        assertEquals(getExpectedCaseIDs(0, 20), _stub.getSortedCaseIDs());
+
+        XNode stats = getStatistics(20);
+        assertEquals("20", stats.getChildText("posts"));
+        assertEquals("20", stats.getChildText("announcements"));
+        assertEquals("1", stats.getChildText("maxBatchSize"));
+    }
+
+
+    public void testBatchedDelivery() throws Exception {
+        _client.setAnnouncementBatching(10, 100);
+        assertTrue(_client.isBatchingAnnouncements());
+        announce(0, 25);
+        _stub.waitForAnnouncements(25);
+        assertEquals(getExpectedCaseIDs(0, 25), _stub.getCaseIDs());      // in order
+        assertTrue(_stub.getPosts() >= 3 && _stub.getPosts() < 25);
+        assertEquals(1, _stub.getConnections());                 // connection reused
+
+        XNode stats = getStatistics(25);
+        assertEquals("25", stats.getChildText("announcements"));
+        assertEquals("0", stats.getChildText("failures"));
+        assertEquals("0", stats.getChildText("queueDepth"));
+        assertTrue(Integer.parseInt(stats.getChildText("maxBatchSize")) <= 10);
+        assertTrue(Double.parseDouble(stats.getChildText("meanBatchSize")) > 1);
+    }
+
+
+    public void testServiceWithoutBatchSupport() throws Exception {
+        _stub.setAcceptsBatches(false);
+        _client.setAnnouncementBatching(10, 50);
+        announce(0, 15);
+        _stub.waitForAnnouncements(15);
+        assertEquals(getExpectedCaseIDs(0, 15), _stub.getSortedCaseIDs());
+
+        // later announcements go directly to the service
+        int posts = _stub.getPosts();
+        announce(15, 5);
+        _stub.waitForAnnouncements(20);
+        assertEquals(posts + 5, _stub.getPosts());
+    }
+
+
+    public void testDeliveryTime() throws Exception {
+        int count = 2000;
+        long start = System.nanoTime();
+        announce(0, count);
+        _stub.waitForAnnouncements(count);
+        double individual = (System.nanoTime() - start) / 1000000.0;
+        int individualPosts = _stub.getPosts();
+
+        _stub.reset();
+        _client.setAnnouncementBatching(50, 20);
+        start = System.nanoTime();
+        announce(0, count);
+        _stub.waitForAnnouncements(count);
+        double batched = (System.nanoTime() - start) / 1000000.0;
+        String figures = String.format("%d announcements: %.0f msecs over %d posts " +
+                "individually; %.0f msecs over %d posts batched", count, individual,
+                individualPosts, batched, _stub.getPosts());
+        assertEquals(figures, count, individualPosts);
+        assertTrue(figures, _stub.getPosts() <= count / 10);
+        assertTrue(figures, batched < individual);
+    }
+
+
+    private void announce(int first, int count) {
+        Set<YAWLServiceReference> services = Collections.singleton(_service);
+        for (int i = first; i < first + count; i++) {
+            _client.announceCaseCancellation(services, new YIdentifier(String.valueOf(i)));
+        }
+    }
+
+
+    private List<String> getExpectedCaseIDs(int first, int count) {
+        List<String> caseIDs = new ArrayList<String>();
+        for (int i = first; i < first + count; i++) caseIDs.add(String.valueOf(i));
+        return caseIDs;
+    }
+
+
+    // deliveries are recorded when acknowledged, so may lag the stub's receipt
+    private XNode getStatistics(int announcements) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            XNode gateway = _client.getDeliveryStatistics();
+            assertEquals(1, gateway.getChildCount());
+            XNode stats = gateway.getChild("service");
+            if (String.valueOf(announcements).equals(stats.getChildText("announcements")) ||
+                    System.currentTimeMillis() > deadline) {
+                return stats;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestAnnouncementBatching.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    /*
+     * A custom service stub that records the case ids of the announcements it
+     * receives, acknowledging batches as InterfaceB_EnvironmentBasedServer does
+     */
+
+    private static class StubService implements HttpHandler {
+
+        private final HttpServer _server;
+        private final List<String> _caseIDs = new ArrayList<String>();
+        private final Set<InetSocketAddress> _remotes = new HashSet<InetSocketAddress>();
+        private int _posts;
+        private volatile boolean _acceptsBatches = true;
+
+        StubService() throws IOException {
+            System.setProperty("sun.net.httpserver.nodelay", "true");  // no delayed acks
+            _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            _server.createContext("/stub", this);
+            _server.setExecutor(Executors.newFixedThreadPool(4));
+            _server.start();
+        }
+
+        String getURI() {
+            return "http://localhost:" + _server.getAddress().getPort() + "/stub";
+        }
+
+        void setAcceptsBatches(boolean accepts) { _acceptsBatches = accepts; }
+
+        void stop() { _server.stop(0); }
+
+        synchronized void reset() {
+            _caseIDs.clear();
+            _remotes.clear();
+            _posts = 0;
+        }
+
+        synchronized int getPosts() { return _posts; }
+
+        synchronized int getConnections() { return _remotes.size(); }
+
+        synchronized List<String> getCaseIDs() {
+            return new ArrayList<String>(_caseIDs);
+        }
+
+        synchronized List<String> getSortedCaseIDs() {
+            List<String> caseIDs = getCaseIDs();
+            Collections.sort(caseIDs, new Comparator<String>() {
+                public int compare(String s1, String s2) {
+                    return Integer.valueOf(s1).compareTo(Integer.valueOf(s2));
+                }
+            });
+            return caseIDs;
+        }
+
+        synchronized void waitForAnnouncements(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (_caseIDs.size() < count) {
+                long wait = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for announcements", wait > 0);
+                wait(wait);
+            }
+            assertEquals(count, _caseIDs.size());
+        }
+
+
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = decode(exchange.getRequestBody());
+            String reply = "OK";
+            synchronized (this) {
+                _posts++;
+                _remotes.add(exchange.getRemoteAddress());
+                if (InterfaceB_EngineBasedClient.BATCH_ACTION.equals(params.get("action"))) {
+                    if (_acceptsBatches) {
+                        XNode batch = new XNodeParser().parse(params.get("announcements"));
+                        for (XNode announcement : batch.getChildren()) {
+                            _caseIDs.add(announcement.getChildText("caseID", true));
+                        }
+                        reply = StringUtil.wrap(String.valueOf(batch.getChildCount()),
+                                "response");
+                    }
+                }
+                else _caseIDs.add(params.get("caseID"));
+                notifyAll();
+            }
+            byte[] bytes = reply.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+
+
+        private Map<String, String> decode(InputStream is) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0) bytes.write(buffer, 0, read);
+            is.close();
+            Map<String, String> params = new HashMap<String, String>();
+            for (String pair : bytes.toString("UTF-8").split("&")) {
+                int pos = pair.indexOf('=');
+                if (pos > 0) {
+                    params.put(pair.substring(0, pos),
+                            URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+                }
+            }
+            return params;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of cases through the engine on several threads, first with the
+ * engine-wide lock and then with case-level locks, checking that every case completes
+ * and that case-level locks are no slower than the engine-wide lock.
+ */
+public class TestCaseLevelLocking extends TestCase {
+
+    private static final String[] TASKS = { "a-top", "b-top", "c-top" };
+    private static final int CASE_COUNT = 300;
+
+    // the share of the engine-wide lock's throughput case-level locks must reach,
+    // allowing for timing noise on a busy host
+    private static final double TOLERANCE = 0.5;
+
+    private static final Logger _log = LogManager.getLogger(TestCaseLevelLocking.class);
+
+    private YEngine _engine;
+    private YSpecification _specification;
+    private YClient _client;
+
+    public TestCaseLevelLocking(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        URL fileURL = getClass().getResource("CaseLevelLocking.xml");
+        File yawlXMLFile = new File(fileURL.getFile());
+        _specification = YMarshal.unmarshalSpecifications(
+                StringUtil.fileToString(yawlXMLFile.getAbsolutePath())).get(0);
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _engine.loadSpecification(_specification);
+        _client = _engine.getExternalClient("admin");
+    }
+
+
+    public void tearDown() throws Exception {
+        _engine.setCaseLevelLocking(false);
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testGlobalLock() throws Exception {
+        _engine.setCaseLevelLocking(false);
+        runCases(4);
+    }
+
+
+    public void testCaseLevelLocks() throws Exception {
+        _engine.setCaseLevelLocking(true);
+        runCases(4);
+    }
+
+
+    public void testThroughput() throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        _engine.setCaseLevelLocking(false);
+        runCases(threads);                                           // warm up
+        double global = runCases(threads);
+        _engine.setCaseLevelLocking(true);
+        double caseLevel = runCases(threads);
+        String figures = String.format("%d threads: engine-wide lock %.0f " +
+                "completions/sec; case-level locks %.0f completions/sec",
+                threads, global, caseLevel);
+        _log.info(figures);
+        assertTrue(figures, caseLevel >= global * TOLERANCE);
+    }
+
+
+    /**
+     * Launches a batch of cases, then completes every work item of every case,
+     * sharing the cases between the number of threads specified.
+     * @return the number of work item completions per second
+     */
+    private double runCases(int threadCount) throws Exception {
+        final List<String> caseIDs = new ArrayList<String>();
+        for (int i = 0; i < CASE_COUNT; i++) {
+            caseIDs.add(_engine.launchCase(_specification.getSpecificationID(), null,
+                    null, new YLogDataItemList()));
+        }
+
+        final AtomicInteger completions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            final int step = threadCount;
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = offset; i < caseIDs.size(); i += step) {
+                        completeCase(caseIDs.get(i));
+                        completions.addAndGet(TASKS.length);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();                         // rethrows any failure in the thread
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        for (String caseID : caseIDs) {
+            assertNull("Case " + caseID + " did not complete", _engine.getCaseID(caseID));
+        }
+        assertEquals(CASE_COUNT * TASKS.length, completions.get());
+        return completions.get() / (elapsed / 1000000000.0);
+    }
+
+
+    private void completeCase(String caseID) throws Exception {
+        for (String taskID : TASKS) {
+            YWorkItem enabled = _engine.getWorkItem(caseID + ":" + taskID);
+            assertNotNull("No enabled item for " + caseID + ":" + taskID, enabled);
+            YWorkItem executing = _engine.startWorkItem(enabled, _client);
+            _engine.completeWorkItem(executing, "<data/>", null,
+                    WorkItemCompletion.Normal);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestCaseLevelLocking.class);
+        return suite;
+    }
+}
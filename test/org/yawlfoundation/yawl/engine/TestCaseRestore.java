@@ -0,0 +1,160 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Checks that cases rebuilt by the restorer, in parallel or in turn, are the cases
+ * that were saved, and that the progress of a restore is reported.
+ */
+public class TestCaseRestore extends TestCase {
+
+    private static final String SPEC_DIR = "exampleSpecs/xml/Beta2-7/";
+    private static final int CASE_COUNT = 60;
+
+    private YEngine _engine;
+    private YClient _client;
+
+    public TestCaseRestore(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _client = _engine.getExternalClient("admin");
+    }
+
+
+    public void tearDown() throws Exception {
+        YEngineRestorer.setParallelism(Runtime.getRuntime().availableProcessors());
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testParallelRestore() throws Exception {
+        launchCases(loadSpecification("maketrip1.xml"));
+        launchCases(loadSpecification("makeTrip2.xml"));
+        Set<String> saved = exportCases();
+        int itemCount = _engine.getWorkItemRepository().getWorkItems().size();
+
+        for (int threads : new int[] { 4, 1 }) {
+            YEngineRestorer.setParallelism(threads);
+            cancelCases();
+            assertTrue(_engine.getWorkItemRepository().getWorkItems().isEmpty());
+            assertEquals(2 * CASE_COUNT, new CaseImporter(_engine).add(asCaseList(saved)));
+            assertEquals(saved, exportCases());
+            assertEquals(itemCount, _engine.getWorkItemRepository().getWorkItems().size());
+            assertTrue(_engine.getWorkItemRepository().checkIndexes().isEmpty());
+        }
+
+        // the restored cases carry on
+        for (YWorkItem item : _engine.getWorkItemRepository().getEnabledWorkItems()) {
+            assertNotNull(_engine.startWorkItem(item, _client));
+        }
+        assertTrue(_engine.getWorkItemRepository().getEnabledWorkItems().isEmpty());
+    }
+
+
+    public void testProgress() {
+        YRestoreProgress progress = new YRestoreProgress();
+        assertEquals(0, progress.getElapsedTime());
+        progress.setPhase(YRestoreProgress.Phase.Services);
+        progress.setPhase(YRestoreProgress.Phase.Cases);
+        progress.setCaseCount(2);
+        progress.caseRestored();
+        assertFalse(progress.isComplete());
+
+        XNode node = new XNodeParser().parse(progress.toXML());
+        assertEquals("Cases", node.getAttributeValue("phase"));
+        assertEquals("1", node.getChild("cases").getAttributeValue("restored"));
+        assertEquals("2", node.getChild("cases").getAttributeValue("total"));
+        assertEquals(1, node.getChild("phases").getChildCount());      // services done
+
+        progress.caseRestored();
+        progress.setPhase(YRestoreProgress.Phase.Complete);
+        assertTrue(progress.isComplete());
+        long elapsed = progress.getElapsedTime();
+        node = new XNodeParser().parse(progress.toXML());
+        assertEquals(2, node.getChild("phases").getChildCount());
+        assertEquals(elapsed, progress.getElapsedTime());                  // stopped
+    }
+
+
+    private YSpecification loadSpecification(String fileName) throws Exception {
+        File specFile = new File(SPEC_DIR + fileName);
+        YSpecification specification = YMarshal.unmarshalSpecifications(
+                StringUtil.fileToString(specFile.getAbsolutePath())).get(0);
+        _engine.loadSpecification(specification);
+        return specification;
+    }
+
+
+    // launches cases and starts some of their work items, so that they differ
+    private void launchCases(YSpecification specification) throws Exception {
+        for (int i = 0; i < CASE_COUNT; i++) {
+            String caseID = _engine.launchCase(specification.getSpecificationID(),
+                    null, null, new YLogDataItemList());
+            if (i % 3 > 0) {
+                for (YWorkItem item : _engine.getWorkItemRepository().getWorkItemsForCase(
+                        _engine.getCaseID(caseID))) {
+                    if (item.getStatus() == YWorkItemStatus.statusEnabled) {
+                        _engine.startWorkItem(item, _client);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+
+    private Set<String> exportCases() {
+        Set<String> cases = new TreeSet<String>();
+        XNode root = new XNodeParser().parse(new CaseExporter(_engine).exportAll());
+        for (XNode caseNode : root.getChildren()) {
+            cases.add(caseNode.toString());
+        }
+        return cases;
+    }
+
+
+    private String asCaseList(Set<String> cases) {
+        StringBuilder xml = new StringBuilder("<cases>");
+        for (String caseXML : cases) xml.append(caseXML);
+        return xml.append("</cases>").toString();
+    }
+
+
+    private void cancelCases() throws Exception {
+        for (YIdentifier caseID : new ArrayList<YIdentifier>(_engine.getRunningCaseIDs())) {
+            _engine.cancelCase(caseID);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestCaseRestore.class);
+        return suite;
+    }
+}
@@ -0,0 +1,129 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs cases of the 'maketrip1' example specification, whose tasks each evaluate a
+ * number of starting and completion data mappings and OR-split predicates, and
+ * checks the heap allocated by each work item completion stays under a ceiling.
+ */
+public class TestDataMappingAllocation extends TestCase {
+
+    private static final String SPEC_PATH = "exampleSpecs/xml/Beta2-7/maketrip1.xml";
+    private static final String[] TASKS = { "register", "flight", "hotel", "car", "pay" };
+    private static final int CASE_COUNT = 200;
+    private static final long MAX_BYTES_PER_COMPLETION = 256 * 1024;  // ~96k measured
+
+    private static final Map<String, String> OUTPUT_DATA = new HashMap<String, String>();
+
+    static {
+        OUTPUT_DATA.put("register", "<data><customer>Fred</customer>" +
+                "<start_date>2026-10-17T09:00:00</start_date>" +
+                "<end_date>2026-10-24T17:00:00</end_date><want_car>true</want_car>" +
+                "<want_flight>true</want_flight><want_hotel>true</want_hotel>" +
+                "<payment_account_number>123456</payment_account_number></data>");
+        OUTPUT_DATA.put("flight", "<data><flightDetails>QF 123</flightDetails></data>");
+        OUTPUT_DATA.put("hotel", "<data><hotelDetails>Hilton</hotelDetails></data>");
+        OUTPUT_DATA.put("car", "<data><carDetails>Hertz</carDetails></data>");
+        OUTPUT_DATA.put("pay", "<data/>");
+    }
+
+    private YEngine _engine;
+    private YSpecification _specification;
+    private YClient _client;
+
+    public TestDataMappingAllocation(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        File specFile = new File(SPEC_PATH);
+        _specification = YMarshal.unmarshalSpecifications(
+                StringUtil.fileToString(specFile.getAbsolutePath())).get(0);
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _engine.loadSpecification(_specification);
+        _client = _engine.getExternalClient("admin");
+    }
+
+
+    public void tearDown() throws Exception {
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testAllocationPerCompletion() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (! (threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return;                             // allocation counts not available
+        }
+        com.sun.management.ThreadMXBean allocBean =
+                (com.sun.management.ThreadMXBean) threadBean;
+        long threadID = Thread.currentThread().getId();
+
+        runCases(allocBean, threadID);                                  // warm up
+        long start = System.nanoTime();
+        long allocated = runCases(allocBean, threadID);
+        long elapsed = System.nanoTime() - start;
+        int completions = CASE_COUNT * TASKS.length;
+        long perCompletion = allocated / completions;
+        String figures = String.format("maketrip1: %d bytes allocated, %.1f us " +
+                "elapsed per work item completion", perCompletion,
+                elapsed / 1000.0 / completions);
+        assertTrue(figures, perCompletion > 0);
+        assertTrue(figures, perCompletion < MAX_BYTES_PER_COMPLETION);
+    }
+
+
+    /**
+     * Runs a batch of cases to completion
+     * @return the total bytes allocated by the work item completions
+     */
+    private long runCases(com.sun.management.ThreadMXBean allocBean, long threadID)
+            throws Exception {
+        long allocated = 0;
+        for (int i = 0; i < CASE_COUNT; i++) {
+            String caseID = _engine.launchCase(_specification.getSpecificationID(),
+                    null, null, new YLogDataItemList());
+            for (String taskID : TASKS) {
+                YWorkItem enabled = _engine.getWorkItem(caseID + ":" + taskID);
+                assertNotNull("No enabled item for " + caseID + ":" + taskID, enabled);
+                YWorkItem executing = _engine.startWorkItem(enabled, _client);
+                long before = allocBean.getThreadAllocatedBytes(threadID);
+                _engine.completeWorkItem(executing, OUTPUT_DATA.get(taskID), null,
+                        WorkItemCompletion.Normal);
+                allocated += allocBean.getThreadAllocatedBytes(threadID) - before;
+            }
+            assertNull("Case did not complete", _engine.getCaseID(caseID));
+        }
+        return allocated;
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestDataMappingAllocation.class);
+        return suite;
+    }
+}
@@ -0,0 +1,206 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+import org.yawlfoundation.yawl.util.XNode;
+import org.yawlfoundation.yawl.util.XNodeParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests the writing of case state to an engine snapshot and its log, and the restore
+ * of cases from the image left by a clean close.
+ */
+public class TestEngineSnapshot extends TestCase {
+
+    private static final String SPEC_FILE = "exampleSpecs/xml/Beta2-7/makeTrip2.xml";
+
+    private YEngine _engine;
+    private YClient _client;
+    private YSpecification _specification;
+    private File _dir;
+    private YEngineSnapshot _snapshot;
+
+    public TestEngineSnapshot(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _client = _engine.getExternalClient("admin");
+        _specification = YMarshal.unmarshalSpecifications(StringUtil.fileToString(
+                new File(SPEC_FILE).getAbsolutePath())).get(0);
+        _engine.loadSpecification(_specification);
+        _dir = Files.createTempDirectory("snapshot").toFile();
+        _snapshot = newSnapshot();
+    }
+
+
+    public void tearDown() throws Exception {
+        _snapshot.discard();
+        _dir.delete();
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testRestoreFromImage() throws Exception {
+        List<String> caseIDs = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) caseIDs.add(launchCase());
+        _snapshot.start(_engine);                           // logs every running case
+        _snapshot.flush();
+        assertTrue(_snapshot.getStatistics().startsWith("cases: 20, logged: 20,"));
+
+        // changes before and after a new snapshot are both in the image
+        YWorkItem item = startItem(caseIDs.get(0));
+        _snapshot.objectChanged(item);
+        _engine.cancelCase(_engine.getCaseID(caseIDs.get(1)));
+        _snapshot.markDirty(caseIDs.get(1));
+        _snapshot.flush();
+        _snapshot.snapshot();
+        _snapshot.markDirty(launchCase());
+        _snapshot.markDirty(caseIDs.get(2));                          // unchanged
+        _snapshot.close(42);
+
+        Set<String> saved = exportCases();
+        int itemCount = _engine.getWorkItemRepository().getWorkItems().size();
+        YEngineSnapshot.Image image = newSnapshot().load();
+        assertNotNull(image);
+        assertEquals(20, image.getCaseCount());
+        assertEquals(42, image.getNextCaseNbr());
+        assertEquals(_engine.getNetRunnerRepository().size(), image.getRunnerCount());
+        assertEquals(itemCount, image.getWorkItemCount());
+
+        // the cases restored from the image are those that were running
+        cancelCases();
+        List<YNetRunner> runners = new ArrayList<YNetRunner>();
+        List<YWorkItem> workItems = new ArrayList<YWorkItem>();
+        new CaseImporter(_engine).makeCaseObjects(image.getCases(), runners, workItems);
+        YEngineRestorer restorer = new YEngineRestorer(_engine, YEngine._pmgr);
+        restorer.setImportingCases(true);
+        restorer.restoreProcessInstances(runners);
+        restorer.restoreWorkItems(workItems);
+        restorer.restartRestoredProcessInstances();
+        assertEquals(saved, exportCases());
+        assertEquals(itemCount, _engine.getWorkItemRepository().getWorkItems().size());
+
+        // and a new image based on it holds them without logging them again
+        _snapshot = newSnapshot();
+        _snapshot.setRestored(image);
+        _snapshot.start(_engine);
+        _snapshot.flush();
+        assertTrue(_snapshot.getStatistics().startsWith("cases: 20, logged: 0,"));
+        _snapshot.close(42);
+        assertEquals(20, newSnapshot().load().getCaseCount());
+    }
+
+
+    // only an image closed cleanly, and intact, can be restored from
+    public void testUnusableImages() throws Exception {
+        launchCase();
+        launchCase();
+        assertNull(_snapshot.load());                                 // no image
+        _snapshot.start(_engine);
+        _snapshot.flush();
+        assertNull(newSnapshot().load());                         // still open
+        _snapshot.close(2);
+        assertNotNull(newSnapshot().load());
+
+        File log = new File(_dir, "engine.log");
+        byte[] closedLog = Files.readAllBytes(log.toPath());
+        truncate(log, 1);                                       // a torn close
+        assertNull(newSnapshot().load());
+        Files.write(log.toPath(), closedLog);
+        assertNotNull(newSnapshot().load());
+
+        File snapshot = new File(_dir, "engine.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(snapshot.toPath(), bytes);
+        assertNull(newSnapshot().load());                        // corrupt
+
+        // a log from an earlier generation
+        _snapshot = newSnapshot();
+        _snapshot.start(_engine);
+        _snapshot.close(2);
+        assertNotNull(newSnapshot().load());
+        Files.write(log.toPath(), closedLog);
+        assertNull(newSnapshot().load());
+    }
+
+
+    private YEngineSnapshot newSnapshot() {
+        YEngineSnapshot snapshot = new YEngineSnapshot(_dir);
+        snapshot.configure(60000, 600000);                        // flushed by tests
+        return snapshot;
+    }
+
+
+    private String launchCase() throws Exception {
+        return _engine.launchCase(_specification.getSpecificationID(), null, null,
+                new YLogDataItemList());
+    }
+
+
+    private YWorkItem startItem(String caseID) throws Exception {
+        for (YWorkItem item : _engine.getWorkItemRepository().getWorkItemsForCase(
+                _engine.getCaseID(caseID))) {
+            if (item.getStatus() == YWorkItemStatus.statusEnabled) {
+                _engine.startWorkItem(item, _client);
+                return item;
+            }
+        }
+        fail("No enabled item in case " + caseID);
+        return null;
+    }
+
+
+    private Set<String> exportCases() {
+        Set<String> cases = new TreeSet<String>();
+        XNode root = new XNodeParser().parse(new CaseExporter(_engine).exportAll());
+        for (XNode caseNode : root.getChildren()) {
+            cases.add(caseNode.toString());
+        }
+        return cases;
+    }
+
+
+    private void cancelCases() throws Exception {
+        for (YIdentifier caseID : new ArrayList<YIdentifier>(_engine.getRunningCaseIDs())) {
+            _engine.cancelCase(caseID);
+        }
+    }
+
+
+    private void truncate(File file, int bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - bytes);
+        raf.close();
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestEngineSnapshot.class);
+        return suite;
+    }
+}
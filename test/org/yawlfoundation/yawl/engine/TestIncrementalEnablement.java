@@ -0,0 +1,156 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Checks that the incremental enablement checks of YNetRunner.continueIfPossible
+ * produce the same work items as a full scan of the net's tasks, and compares the
+ * per-completion latency of each on a large generated net.
+ */
+public class TestIncrementalEnablement extends TestCase {
+
+    private static final int BRANCHES = 10;
+    private static final int BRANCH_LENGTH = 30;         // 302 tasks in all
+
+    private YEngine _engine;
+    private YSpecification _specification;
+    private YClient _client;
+
+    public TestIncrementalEnablement(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _specification = YMarshal.unmarshalSpecifications(
+                generateSpecification(BRANCHES, BRANCH_LENGTH)).get(0);
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _engine.loadSpecification(_specification);
+        _client = _engine.getExternalClient("admin");
+    }
+
+
+    public void tearDown() throws Exception {
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testSameItemsAsFullScan() throws Exception {
+        List<String> fullScanTrace = new ArrayList<String>();
+        runCase(fullScanTrace, true);
+
+        List<String> incrementalTrace = new ArrayList<String>();
+        runCase(incrementalTrace, false);
+
+        assertEquals(fullScanTrace, incrementalTrace);
+    }
+
+
+    public void testCompletionLatency() throws Exception {
+        runCase(null, false);                                        // warm up
+        double fullScan = runCase(null, true);
+        double incremental = runCase(null, false);
+        assertTrue(String.format("%d task net: full scan %.1f us/completion; " +
+                "incremental %.1f us/completion", BRANCHES * BRANCH_LENGTH + 2,
+                fullScan, incremental), incremental < fullScan);
+    }
+
+
+    /**
+     * Runs a case to completion, always completing the enabled items in task id
+     * order, and (optionally) recording the enabled items after each completion.
+     * @param fullScan true to check every task for enablement after each completion
+     * @return the mean time taken by each work item completion, in microseconds
+     */
+    private double runCase(List<String> trace, boolean fullScan) throws Exception {
+        String caseID = _engine.launchCase(_specification.getSpecificationID(), null,
+                null, new YLogDataItemList());
+        _engine.getNetRunnerRepository().get(caseID).setFullEnablementScan(fullScan);
+        long elapsed = 0;
+        int completions = 0;
+        TreeSet<String> enabled = getEnabledTaskIDs(caseID);
+        while (! enabled.isEmpty()) {
+            if (trace != null) trace.add(enabled.toString());
+            YWorkItem item = _engine.getWorkItem(caseID + ":" + enabled.first());
+            YWorkItem executing = _engine.startWorkItem(item, _client);
+            long start = System.nanoTime();
+            _engine.completeWorkItem(executing, "<data/>", null,
+                    WorkItemCompletion.Normal);
+            elapsed += System.nanoTime() - start;
+            completions++;
+            enabled = getEnabledTaskIDs(caseID);
+        }
+        assertNull("Case did not complete", _engine.getCaseID(caseID));
+        assertEquals(BRANCHES * BRANCH_LENGTH + 2, completions);
+        return elapsed / 1000.0 / completions;
+    }
+
+
+    private TreeSet<String> getEnabledTaskIDs(String caseID) {
+        TreeSet<String> taskIDs = new TreeSet<String>();
+        for (YWorkItem item : _engine.getWorkItemRepository().getEnabledWorkItems()) {
+            if (item.getCaseID().toString().equals(caseID)) {
+                taskIDs.add(item.getTaskID());
+            }
+        }
+        return taskIDs;
+    }
+
+
+    // a split task, n parallel branches of m sequential tasks, and a join task
+    private String generateSpecification(int branches, int length) {
+        StringBuilder s = new StringBuilder();
+        s.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+         .append("<specificationSet xmlns=\"http://www.citi.qut.edu.au/yawl\" ")
+         .append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">")
+         .append("<specification uri=\"IncrementalEnablement.xml\"><metaData/>")
+         .append("<rootNet id=\"top\"><processControlElements>")
+         .append("<inputCondition id=\"i\"><flowsInto><nextElementRef id=\"split\"/>")
+         .append("</flowsInto></inputCondition>");
+        s.append("<task id=\"split\">");
+        for (int b = 0; b < branches; b++) {
+            s.append("<flowsInto><nextElementRef id=\"t").append(b).append("_0\"/></flowsInto>");
+        }
+        s.append("<join code=\"xor\"/><split code=\"and\"/><decomposesTo id=\"A\"/></task>");
+        for (int b = 0; b < branches; b++) {
+            for (int t = 0; t < length; t++) {
+                String next = (t < length - 1) ? "t" + b + "_" + (t + 1) : "join";
+                s.append("<task id=\"t").append(b).append("_").append(t).append("\">")
+                 .append("<flowsInto><nextElementRef id=\"").append(next)
+                 .append("\"/></flowsInto><join code=\"xor\"/><split code=\"and\"/>")
+                 .append("<decomposesTo id=\"A\"/></task>");
+            }
+        }
+        s.append("<task id=\"join\"><flowsInto><nextElementRef id=\"o\"/></flowsInto>")
+         .append("<join code=\"and\"/><split code=\"and\"/><decomposesTo id=\"A\"/></task>")
+         .append("<outputCondition id=\"o\"/></processControlElements></rootNet>")
+         .append("<decomposition id=\"A\" xsi:type=\"WebServiceGatewayFactsType\"/>")
+         .append("</specification></specificationSet>");
+        return s.toString();
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestIncrementalEnablement.class);
+        return suite;
+    }
+}
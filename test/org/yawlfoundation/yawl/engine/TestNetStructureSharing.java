@@ -0,0 +1,240 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YExternalNetElement;
+import org.yawlfoundation.yawl.elements.YFlow;
+import org.yawlfoundation.yawl.elements.YNet;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Checks that cases run on nets that share their prototype's structure behave as
+ * those run on full clones, and reports the heap retained by each live case of a
+ * few example specifications in each mode.
+ */
+public class TestNetStructureSharing extends TestCase {
+
+    private static final String SPEC_DIR = "exampleSpecs/xml/Beta2-7/";
+    private static final String[] HEAP_SPECS = { "maketrip1.xml",
+            "MakeRecordings(Beta4).xml", "BarnesAndNoble.xml" };
+    private static final int HEAP_CASE_COUNT = 200;
+
+    private static final String[] TASKS = { "register", "flight", "hotel", "car", "pay" };
+    private static final String[] OUTPUT_DATA = {
+            "<data><customer>Fred</customer>" +
+            "<start_date>2026-10-17T09:00:00</start_date>" +
+            "<end_date>2026-10-24T17:00:00</end_date><want_car>false</want_car>" +
+            "<want_flight>true</want_flight><want_hotel>true</want_hotel>" +
+            "<payment_account_number>123456</payment_account_number></data>",
+            "<data><flightDetails>QF 123</flightDetails></data>",
+            "<data><hotelDetails>Hilton</hotelDetails></data>",
+            "<data><carDetails>Hertz</carDetails></data>",
+            "<data/>" };
+
+    private YEngine _engine;
+    private YClient _client;
+
+    public TestNetStructureSharing(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _client = _engine.getExternalClient("admin");
+    }
+
+
+    public void tearDown() throws Exception {
+        _engine.setNetStructureSharing(false);
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testCaseNetsShareFlows() throws Exception {
+        YSpecification specification = loadSpecification("maketrip1.xml");
+        YNet prototype = specification.getRootNet();
+        YFlow prototypeFlow = getFirstPostsetFlow(prototype);
+
+        _engine.setNetStructureSharing(false);
+        YNet net = getRootNet(launchCase(specification));
+        assertNotSame(prototypeFlow, getFirstPostsetFlow(net));
+
+        _engine.setNetStructureSharing(true);
+        net = getRootNet(launchCase(specification));
+        assertSame(prototypeFlow, getFirstPostsetFlow(net));
+        YExternalNetElement register = net.getNetElement("register");
+        assertNotSame(prototype.getNetElement("register"), register);
+        for (YExternalNetElement element : register.getPostsetElements()) {
+            assertSame(net, element.getNet());           // resolved to the case's net
+        }
+    }
+
+
+    public void testCaseNetChangesLeavePrototype() throws Exception {
+        YSpecification specification = loadSpecification("maketrip1.xml");
+        _engine.setNetStructureSharing(true);
+        YNet prototype = specification.getRootNet();
+        YExternalNetElement prototypeInput = prototype.getInputCondition();
+        YFlow prototypeFlow = getFirstPostsetFlow(prototype);
+        String nextID = prototypeFlow.getNextElement().getID();
+
+        YNet net = getRootNet(launchCase(specification));
+        YExternalNetElement input = net.getInputCondition();
+        YExternalNetElement next = net.getNetElement(nextID);
+        input.removePostsetFlow(getFirstPostsetFlow(net));
+        assertNull(input.getPostsetFlow(next));
+        assertNull(next.getPresetFlow(input));
+
+        // the prototype, and the next case's net, still have the flow
+        YExternalNetElement prototypeNext = prototype.getNetElement(nextID);
+        assertSame(prototypeFlow, prototypeInput.getPostsetFlow(prototypeNext));
+        assertSame(prototypeFlow, prototypeNext.getPresetFlow(prototypeInput));
+        assertSame(prototypeFlow, getFirstPostsetFlow(getRootNet(launchCase(specification))));
+    }
+
+
+    public void testSharingIsPerNet() throws Exception {
+        YSpecification specification = loadSpecification("maketrip1.xml");
+        YNet prototype = specification.getRootNet();
+        YFlow prototypeFlow = getFirstPostsetFlow(prototype);
+        _engine.setNetStructureSharing(true);
+        assertTrue(prototype.isCaseNetsShareStructure());
+
+        prototype.setCaseNetsShareStructure(false);
+        assertNotSame(prototypeFlow, getFirstPostsetFlow(getRootNet(launchCase(specification))));
+        assertTrue(_engine.isNetStructureSharing());
+
+        // a specification loaded later takes the engine's setting
+        YSpecification later = loadSpecification("BarnesAndNoble.xml");
+        assertTrue(later.getRootNet().isCaseNetsShareStructure());
+    }
+
+
+    public void testSameItemsAsCloned() throws Exception {
+        YSpecification specification = loadSpecification("maketrip1.xml");
+        _engine.setNetStructureSharing(false);
+        List<String> clonedTrace = runCase(specification);
+        _engine.setNetStructureSharing(true);
+        List<String> sharedTrace = runCase(specification);
+        assertEquals(clonedTrace, sharedTrace);
+    }
+
+
+    public void testHeapPerCase() throws Exception {
+        for (String fileName : HEAP_SPECS) {
+            YSpecification specification = loadSpecification(fileName);
+            _engine.setNetStructureSharing(false);
+            long cloned = measureHeapPerCase(specification);
+            _engine.setNetStructureSharing(true);
+            long shared = measureHeapPerCase(specification);
+            assertTrue(String.format("%s: %d bytes per case with cloned nets; " +
+                    "%d bytes per case with shared net structure", fileName, cloned, shared),
+                    shared < cloned);
+            EngineClearer.clear(_engine);
+        }
+    }
+
+
+    private YSpecification loadSpecification(String fileName) throws Exception {
+        File specFile = new File(SPEC_DIR + fileName);
+        YSpecification specification = YMarshal.unmarshalSpecifications(
+                StringUtil.fileToString(specFile.getAbsolutePath())).get(0);
+        _engine.loadSpecification(specification);
+        return specification;
+    }
+
+
+    private String launchCase(YSpecification specification) throws Exception {
+        return _engine.launchCase(specification.getSpecificationID(), null, null,
+                new YLogDataItemList());
+    }
+
+
+    private YNet getRootNet(String caseID) {
+        return _engine.getNetRunnerRepository().get(caseID).getNet();
+    }
+
+
+    private YFlow getFirstPostsetFlow(YNet net) {
+        return net.getInputCondition().getPostsetFlows().iterator().next();
+    }
+
+
+    /**
+     * Runs a case of maketrip1 to completion
+     * @return the ids of the enabled tasks after each work item completion
+     */
+    private List<String> runCase(YSpecification specification) throws Exception {
+        String caseID = launchCase(specification);
+        List<String> trace = new ArrayList<String>();
+        for (int i = 0; i < TASKS.length; i++) {
+            trace.add(getEnabledTaskIDs(caseID).toString());
+            YWorkItem enabled = _engine.getWorkItem(caseID + ":" + TASKS[i]);
+            if (enabled == null) continue;                        // car not wanted
+            YWorkItem executing = _engine.startWorkItem(enabled, _client);
+            _engine.completeWorkItem(executing, OUTPUT_DATA[i], null,
+                    WorkItemCompletion.Normal);
+        }
+        assertNull("Case did not complete", _engine.getCaseID(caseID));
+        return trace;
+    }
+
+
+    private TreeSet<String> getEnabledTaskIDs(String caseID) {
+        TreeSet<String> taskIDs = new TreeSet<String>();
+        for (YWorkItem item : _engine.getWorkItemRepository().getEnabledWorkItems()) {
+            if (item.getCaseID().toString().equals(caseID)) {
+                taskIDs.add(item.getTaskID());
+            }
+        }
+        return taskIDs;
+    }
+
+
+    private long measureHeapPerCase(YSpecification specification) throws Exception {
+        long before = getUsedHeap();
+        List<String> caseIDs = new ArrayList<String>();        // keep cases reachable
+        for (int i = 0; i < HEAP_CASE_COUNT; i++) {
+            caseIDs.add(launchCase(specification));
+        }
+        long after = getUsedHeap();
+        assertEquals(HEAP_CASE_COUNT, caseIDs.size());
+        return (after - before) / HEAP_CASE_COUNT;
+    }
+
+
+    private long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestNetStructureSharing.class);
+        return suite;
+    }
+}
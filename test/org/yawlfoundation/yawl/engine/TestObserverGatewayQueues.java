@@ -0,0 +1,319 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.jdom2.Document;
+import org.yawlfoundation.yawl.elements.YAWLServiceReference;
+import org.yawlfoundation.yawl.elements.YTask;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.ObserverGatewayController.OverflowPolicy;
+import org.yawlfoundation.yawl.engine.announcement.YAnnouncement;
+import org.yawlfoundation.yawl.util.XNode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the bounded notification queue of each observer gateway under each overflow
+ * policy, and the replay of journaled notifications left undelivered at shutdown.
+ */
+public class TestObserverGatewayQueues extends TestCase {
+
+    private static final long TIMEOUT = 10000;                           // msecs
+
+    private ObserverGatewayController _controller;
+    private StubGateway _gateway;
+    private File _dir;
+
+    public TestObserverGatewayQueues(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        YEngine.getInstance();                   // spilled notifications rebuilt in it
+        _dir = File.createTempFile("gatewayQueues", "");
+        _dir.delete();
+        _dir.mkdir();
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _gateway = new StubGateway();
+        _controller.addGateway(_gateway);
+    }
+
+
+    public void tearDown() throws Exception {
+        _gateway.release();
+        _controller.shutdownObserverGateways();
+        for (File file : _dir.listFiles()) file.delete();
+        _dir.delete();
+    }
+
+
+    public void testDeliveredInOrder() throws Exception {
+        _gateway.release();
+        notifyCancellations(0, 100);
+        assertEquals(getCaseIDs(0, 100), _gateway.waitForCaseIDs(100));
+        waitForDelivered(100);
+        assertEquals("0", getStatistics().getChildText("dropped"));
+    }
+
+
+    public void testDropOldest() throws Exception {
+        _controller.setQueueCapacity(5);
+        _controller.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        notifyCancellations(0, 1);
+        _gateway.waitUntilBlocked();                   // '0' is now being delivered
+        notifyCancellations(1, 10);
+        assertEquals("5", getStatistics().getChildText("depth"));
+        _gateway.release();
+
+        List<String> expected = getCaseIDs(6, 5);
+        expected.add(0, "0");
+        assertEquals(expected, _gateway.waitForCaseIDs(6));
+        assertEquals("5", getStatistics().getChildText("dropped"));
+    }
+
+
+    public void testBlock() throws Exception {
+        _controller.setQueueCapacity(2);
+        _controller.setOverflowPolicy(OverflowPolicy.BLOCK);
+        notifyCancellations(0, 1);
+        _gateway.waitUntilBlocked();
+        Thread announcer = new Thread() {
+            public void run() { notifyCancellations(1, 5); }
+        };
+        announcer.start();
+        announcer.join(200);
+        assertTrue("Announcer should wait for room", announcer.isAlive());
+        assertEquals("2", getStatistics().getChildText("depth"));
+
+        _gateway.release();
+        announcer.join(TIMEOUT);
+        assertFalse(announcer.isAlive());
+        assertEquals(getCaseIDs(0, 6), _gateway.waitForCaseIDs(6));
+    }
+
+
+    public void testSpill() throws Exception {
+        _controller.setQueueCapacity(3);
+        _controller.setOverflowPolicy(OverflowPolicy.SPILL);
+        notifyCancellations(0, 1);
+        _gateway.waitUntilBlocked();
+        notifyCancellations(1, 19);
+
+        XNode stats = getStatistics();
+        assertEquals("19", stats.getChildText("depth"));
+        assertEquals("16", stats.getChildText("spilled"));
+        assertEquals(1, _dir.listFiles().length);                   // spill file
+
+        _gateway.release();
+        assertEquals(getCaseIDs(0, 20), _gateway.waitForCaseIDs(20));
+        stats = getStatistics();
+        assertEquals("0", stats.getChildText("spilled"));
+        assertEquals("16", stats.getChildText("totalSpilled"));
+        assertEquals(0, _dir.listFiles().length);                   // deleted
+    }
+
+
+    public void testJournalReplay() throws Exception {
+        _controller.setJournalEnabled(true);
+        notifyCancellations(0, 1);
+        _gateway.waitUntilBlocked();
+        notifyCancellations(1, 4);
+        _controller.shutdownObserverGateways();                    // '0' undelivered
+
+        // a new controller, as on restart, replays the journaled notifications
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _controller.setJournalEnabled(true);
+        _gateway = new StubGateway();
+        _gateway.release();
+        _controller.addGateway(_gateway);
+        assertEquals(5, _controller.replayJournal());
+        assertEquals(getCaseIDs(0, 5), _gateway.waitForCaseIDs(5));
+        assertEquals(0, _controller.replayJournal());                 // only once
+
+        // and the delivered notifications aren't replayed on the next restart
+        waitForDelivered(5);
+        _controller.shutdownObserverGateways();
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _controller.setJournalEnabled(true);
+        _controller.addGateway(new StubGateway());
+        assertEquals(0, _controller.replayJournal());
+    }
+
+
+    public void testJournalKeptUntilReplayed() throws Exception {
+        _controller.setJournalEnabled(true);
+        notifyCancellations(0, 1);
+        _gateway.waitUntilBlocked();
+        notifyCancellations(1, 2);
+        _controller.shutdownObserverGateways();                    // '0' undelivered
+
+        // a restart that stops again before replaying loses nothing
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _controller.setJournalEnabled(true);
+        _controller.shutdownObserverGateways();
+
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _controller.setJournalEnabled(true);
+        _gateway = new StubGateway();
+        _gateway.release();
+        _controller.addGateway(_gateway);
+        notifyCancellations(3, 1);                       // queued before the replay
+        assertEquals(3, _controller.replayJournal());
+        assertEquals(Arrays.asList("3", "0", "1", "2"), _gateway.waitForCaseIDs(4));
+
+        // once delivered, they aren't replayed again
+        waitForDelivered(4);
+        _controller.shutdownObserverGateways();
+        _controller = new ObserverGatewayController();
+        _controller.setQueueDirectory(_dir);
+        _controller.setJournalEnabled(true);
+        _controller.addGateway(new StubGateway());
+        assertEquals(0, _controller.replayJournal());
+    }
+
+
+    private void notifyCancellations(int first, int count) {
+        Set<YAWLServiceReference> services = Collections.emptySet();
+        for (int i = first; i < first + count; i++) {
+            _controller.notifyCaseCancellation(services, new YIdentifier(String.valueOf(i)));
+        }
+    }
+
+
+    private List<String> getCaseIDs(int first, int count) {
+        List<String> caseIDs = new ArrayList<String>();
+        for (int i = first; i < first + count; i++) caseIDs.add(String.valueOf(i));
+        return caseIDs;
+    }
+
+
+    private XNode getStatistics() {
+        XNode queues = _controller.getQueueStatistics();
+        assertEquals(1, queues.getChildCount());
+        return queues.getChild("queue");
+    }
+
+
+    // deliveries are recorded after the gateway returns, so may lag its receipt
+    private void waitForDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (! String.valueOf(count).equals(getStatistics().getChildText("delivered"))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestObserverGatewayQueues.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    /*
+     * A gateway that records the ids of the cancelled cases announced to it, and
+     * holds up each announcement until released
+     */
+    private static class StubGateway implements ObserverGateway {
+
+        private final List<String> _caseIDs = new ArrayList<String>();
+        private final CountDownLatch _release = new CountDownLatch(1);
+        private final CountDownLatch _blocked = new CountDownLatch(1);
+
+        void release() { _release.countDown(); }
+
+        void waitUntilBlocked() throws InterruptedException {
+            assertTrue(_blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        synchronized List<String> waitForCaseIDs(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (_caseIDs.size() < count) {
+                long wait = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for announcements", wait > 0);
+                wait(wait);
+            }
+            return new ArrayList<String>(_caseIDs);
+        }
+
+        public void announceCaseCancellation(Set<YAWLServiceReference> services,
+                                             YIdentifier id) {
+            _blocked.countDown();
+            try {
+                _release.await();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();               // shutdown
+                return;
+            }
+            synchronized (this) {
+                _caseIDs.add(id.toString());
+                notifyAll();
+            }
+        }
+
+        public String getScheme() { return "http"; }
+
+        public void announceFiredWorkItem(YAnnouncement announcement) { }
+
+        public void announceCancelledWorkItem(YAnnouncement announcement) { }
+
+        public void announceTimerExpiry(YAnnouncement announcement) { }
+
+        public void announceCaseCompletion(YAWLServiceReference yawlService,
+                                           YIdentifier caseID, Document caseData) { }
+
+        public void announceCaseStarted(Set<YAWLServiceReference> services,
+                                        YSpecificationID specID, YIdentifier caseID,
+                                        String launchingService, boolean delayed) { }
+
+        public void announceCaseCompletion(Set<YAWLServiceReference> services,
+                                           YIdentifier caseID, Document caseData) { }
+
+        public void announceCaseSuspended(Set<YAWLServiceReference> services,
+                                          YIdentifier caseID) { }
+
+        public void announceCaseSuspending(Set<YAWLServiceReference> services,
+                                           YIdentifier caseID) { }
+
+        public void announceCaseResumption(Set<YAWLServiceReference> services,
+                                           YIdentifier caseID) { }
+
+        public void announceWorkItemStatusChange(Set<YAWLServiceReference> services,
+                                                 YWorkItem workItem,
+                                                 YWorkItemStatus oldStatus,
+                                                 YWorkItemStatus newStatus) { }
+
+        public void announceEngineInitialised(Set<YAWLServiceReference> services,
+                                              int maxWaitSeconds) { }
+
+        public void announceDeadlock(Set<YAWLServiceReference> services, YIdentifier id,
+                                     Set<YTask> tasks) { }
+
+        public void shutdown() { }
+    }
+}
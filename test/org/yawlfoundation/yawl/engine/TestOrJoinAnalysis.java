@@ -0,0 +1,221 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YNet;
+import org.yawlfoundation.yawl.elements.YNetElement;
+import org.yawlfoundation.yawl.elements.YSpecification;
+import org.yawlfoundation.yawl.elements.YTask;
+import org.yawlfoundation.yawl.elements.e2wfoj.E2WFOJNet;
+import org.yawlfoundation.yawl.elements.state.YMarking;
+import org.yawlfoundation.yawl.exceptions.YStateException;
+import org.yawlfoundation.yawl.logging.YLogDataItemList;
+import org.yawlfoundation.yawl.unmarshal.YMarshal;
+import org.yawlfoundation.yawl.util.StringUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Runs cases of the TestOrJoin specifications, checking at each step that the
+ * cached OR-join analysis of each OR-join task agrees with an analysis made from a
+ * freshly converted reset net, and that the cached analysis is the quicker.
+ */
+public class TestOrJoinAnalysis extends TestCase {
+
+    private static final String[] SPEC_FILES = { "TestOrJoin.xml", "TestOrJoin2.xml" };
+    private static final int CASE_COUNT = 10;
+    private static final int MAX_STEPS = 50;
+    private static final int RANDOM_MARKINGS = 200;
+
+    private YEngine _engine;
+    private YClient _client;
+    private List<Sample> _samples;
+
+    public TestOrJoinAnalysis(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _engine = YEngine.getInstance();
+        EngineClearer.clear(_engine);
+        _client = _engine.getExternalClient("admin");
+        _samples = new ArrayList<Sample>();
+    }
+
+
+    public void tearDown() throws Exception {
+        EngineClearer.clear(_engine);
+    }
+
+
+    public void testCachedAnalysisAgreesWithFresh() throws Exception {
+        for (String fileName : SPEC_FILES) {
+            YSpecification specification = loadSpecification(fileName);
+            for (int i = 0; i < CASE_COUNT; i++) {
+                runCase(specification, i);
+            }
+        }
+        assertFalse(_samples.isEmpty());
+        addRandomSamples(RANDOM_MARKINGS);
+        for (Sample sample : _samples) {
+            assertEquals("OR-join " + sample.task.getID() + " at " +
+                    sample.marking.getLocations(), sample.freshResult(),
+                    sample.task.getResetNet().isOrJoinEnabled(sample.marking, sample.task));
+        }
+    }
+
+
+    public void testAnalysisTime() throws Exception {
+        for (String fileName : SPEC_FILES) {
+            YSpecification specification = loadSpecification(fileName);
+            for (int i = 0; i < CASE_COUNT; i++) {
+                runCase(specification, i);
+            }
+        }
+        int repeats = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            for (Sample sample : _samples) sample.freshResult();
+        }
+        double fresh = (System.nanoTime() - start) / 1000.0 / (repeats * _samples.size());
+
+        start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            for (Sample sample : _samples) {
+                sample.task.getResetNet().isOrJoinEnabled(sample.marking, sample.task);
+            }
+        }
+        double cached = (System.nanoTime() - start) / 1000.0 / (repeats * _samples.size());
+        assertTrue(String.format("fresh %.1f us/check; cached %.1f us/check",
+                fresh, cached), cached < fresh);
+    }
+
+
+    private YSpecification loadSpecification(String fileName) throws Exception {
+        File file = new File(getClass().getResource(fileName).getFile());
+        YSpecification specification = YMarshal.unmarshalSpecifications(
+                StringUtil.fileToString(file.getAbsolutePath())).get(0);
+        EngineClearer.clear(_engine);                       // specs share an id
+        _engine.loadSpecification(specification);
+        return specification;
+    }
+
+
+    /**
+     * Runs a case until it completes or has no more enabled items, varying the
+     * order the enabled items are chosen in with each case, and samples the case's
+     * marking for each OR-join task before each completion
+     */
+    private void runCase(YSpecification specification, int caseNbr) throws Exception {
+        String caseID = _engine.launchCase(specification.getSpecificationID(), null,
+                null, new YLogDataItemList());
+        for (int step = 0; step < MAX_STEPS; step++) {
+            YNetRunner runner = _engine.getNetRunnerRepository().get(caseID);
+            if (runner == null) break;                              // case completed
+            sampleOrJoins(specification, runner);
+
+            TreeMap<String, YWorkItem> enabled = getEnabledItems(caseID);
+            if (enabled.isEmpty()) break;
+            List<YWorkItem> items = new ArrayList<YWorkItem>(enabled.values());
+            YWorkItem item = items.get((caseNbr + step) % items.size());
+            try {
+                YWorkItem executing = _engine.startWorkItem(item, _client);
+                _engine.completeWorkItem(executing, "<data/>", null,
+                        WorkItemCompletion.Normal);
+            }
+            catch (YStateException yse) {
+                // item withdrawn by a competing item - choose again next step
+            }
+        }
+    }
+
+
+    private void sampleOrJoins(YSpecification specification, YNetRunner runner) {
+        YNet net = runner.getNet();
+        for (YTask task : net.getNetTasks()) {
+            if (task.getJoinType() == YTask._OR) {
+                YTask loaded = (YTask) specification.getRootNet().getNetElement(task.getID());
+                assertNotNull(loaded.getResetNet());
+                assertSame(loaded.getResetNet(), task.getResetNet());   // shared by clone
+                YMarking marking = new YMarking(new ArrayList<YNetElement>(
+                        runner.getCaseID().getLocations()));
+                net.orJoinEnabled(task, runner.getCaseID());
+                _samples.add(new Sample(net, task, marking));
+            }
+        }
+    }
+
+
+    /**
+     * Adds samples with markings of randomly chosen conditions and tasks of the
+     * nets already sampled, so that markings no case reaches are also compared
+     */
+    private void addRandomSamples(int count) {
+        Random random = new Random(count);
+        List<Sample> sampled = new ArrayList<Sample>(_samples);
+        for (int i = 0; i < count; i++) {
+            Sample sample = sampled.get(random.nextInt(sampled.size()));
+            List<YNetElement> elements = new ArrayList<YNetElement>(
+                    sample.net.getNetElements().values());
+            List<YNetElement> locations = new ArrayList<YNetElement>();
+            int tokens = 1 + random.nextInt(4);
+            for (int j = 0; j < tokens; j++) {
+                locations.add(elements.get(random.nextInt(elements.size())));
+            }
+            _samples.add(new Sample(sample.net, sample.task, new YMarking(locations)));
+        }
+    }
+
+
+    private TreeMap<String, YWorkItem> getEnabledItems(String caseID) {
+        TreeMap<String, YWorkItem> items = new TreeMap<String, YWorkItem>();
+        for (YWorkItem item : _engine.getWorkItemRepository().getEnabledWorkItems()) {
+            if (item.getCaseID().toString().equals(caseID)) {
+                items.put(item.getTaskID(), item);
+            }
+        }
+        return items;
+    }
+
+
+    private static class Sample {
+        YNet net;
+        YTask task;
+        YMarking marking;
+
+        Sample(YNet net, YTask task, YMarking marking) {
+            this.net = net;
+            this.task = task;
+            this.marking = marking;
+        }
+
+        // the analysis as made before reset nets were cached
+        boolean freshResult() {
+            E2WFOJNet e2Net = new E2WFOJNet(net, task);
+            e2Net.restrictNet(marking);
+            e2Net.restrictNet(task);
+            return e2Net.orJoinEnabled(marking, task);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestOrJoinAnalysis.class);
+        return suite;
+    }
+}
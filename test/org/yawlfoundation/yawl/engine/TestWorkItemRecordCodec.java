@@ -0,0 +1,248 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.yawlfoundation.yawl.authentication.YClient;
+import org.yawlfoundation.yawl.elements.YAtomicTask;
+import org.yawlfoundation.yawl.elements.YTask;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.interfce.Marshaller;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecordCodec;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Tests the compact encoding of work item records against their xml form.
+ */
+public class TestWorkItemRecordCodec extends TestCase {
+
+    private static final String DATA = "<Approve><order id=\"17\">Widgets &amp; bolts" +
+            "</order><total>1200.50</total><note>Déjà vu ✓</note></Approve>";
+
+    private YWorkItem _workItem;
+
+    public TestWorkItemRecordCodec(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        YTask task = new YAtomicTask("Approve", YTask._XOR, YTask._AND, null);
+        task.setName("Approve Order");
+        task.setDocumentation("Check the <order> & approve it");
+        YIdentifier identifier = new YIdentifier(null);
+        _workItem = new YWorkItem(null, new YSpecificationID("OrderSpec"), task,
+                new YWorkItemID(identifier, "Approve"), true, false);
+        _workItem.setInitData(JDOMUtil.stringToElement(DATA));
+        _workItem.setCodelet("org.example.ApproveCodelet");
+        _workItem.setCustomFormURL(new URL("http://localhost:8080/forms/approve.jsp"));
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("priority", "high");
+        attributes.put("note", "quotes \" & <angles>");
+        _workItem.setAttributes(attributes);
+    }
+
+
+    // the record decoded from the compact form is the one a client reads from the xml
+    public void testAgainstXML() throws Exception {
+        YWorkItem child = _workItem.createChild(null,
+                _workItem.getWorkItemID().getCaseID().createChild(null));
+        child.setStatusToStarted(null, new YClient("fred", "password", null, null, null));
+
+        for (YWorkItem item : Arrays.asList(_workItem, child)) {
+            WorkItemRecord fromXML = Marshaller.unmarshalWorkItem(item.toXML());
+            WorkItemRecord fromCodec = WorkItemRecordCodec.decode(
+                    WorkItemRecordCodec.encode(
+                            Collections.singletonList(item.toWorkItemRecord()))).get(0);
+            assertSameRecord(fromXML, fromCodec);
+        }
+        assertEquals("fred", Marshaller.unmarshalWorkItem(child.toXML()).getStartedBy());
+    }
+
+
+    public void testRoundTrip() throws IOException {
+        WorkItemRecord wir = new WorkItemRecord("12.1", "Approve", "OrderSpec",
+                WorkItemRecord.statusExecuting);
+        wir.setSpecIdentifier("UID_1234");
+        wir.setSpecVersion("2.1");
+        wir.setTaskName("Approve Order");
+        wir.setDocumentation("über 漢字 😀");
+        wir.setResourceStatus(WorkItemRecord.statusResourceStarted);
+        wir.setStartedBy("fred");
+        wir.setCompletedBy("");                                  // empty, not null
+        wir.setTag("tagged");
+        wir.setEnablementTimeMs("1700000000000");
+        wir.setDataList(JDOMUtil.stringToElement(DATA));
+        wir.setUpdatedData(JDOMUtil.stringToElement("<Approve><total>1</total></Approve>"));
+        WorkItemRecord empty = new WorkItemRecord("13", "Review", "OrderSpec",
+                WorkItemRecord.statusEnabled);
+
+        String encoded = WorkItemRecordCodec.encodeToString(Arrays.asList(wir, empty));
+        assertTrue(WorkItemRecordCodec.isEncoded(encoded));
+        List<WorkItemRecord> decoded = WorkItemRecordCodec.decodeFromString(encoded);
+        assertEquals(2, decoded.size());
+        assertSameRecord(wir, decoded.get(0));
+        assertSameRecord(empty, decoded.get(1));
+        assertEquals("", decoded.get(0).getCompletedBy());
+        assertNull(decoded.get(1).getCompletedBy());
+
+        assertTrue(WorkItemRecordCodec.decodeFromString(
+                WorkItemRecordCodec.encodeToString(new ArrayList<WorkItemRecord>()))
+                .isEmpty());
+    }
+
+
+    // a reader skips fields added to the end of a record by a later writer
+    public void testAddedFieldsAreSkipped() throws IOException {
+        WorkItemRecord wir = new WorkItemRecord("1", "t", "s", WorkItemRecord.statusEnabled);
+        byte[] bytes = WorkItemRecordCodec.encode(Arrays.asList(wir, wir));
+
+        // header: magic (3), version, field count, record count - each varint one byte
+        int recordLength = bytes[6];
+        assertTrue(recordLength < 126);
+        byte[] record = Arrays.copyOfRange(bytes, 7, 7 + recordLength);
+        byte[] extended = new byte[6 + 2 * (recordLength + 3)];
+        System.arraycopy(bytes, 0, extended, 0, 6);
+        extended[4] = (byte) (bytes[4] + 2);                 // two more fields
+        int pos = 6;
+        for (int i = 0; i < 2; i++) {
+            extended[pos++] = (byte) (recordLength + 2);
+            System.arraycopy(record, 0, extended, pos, recordLength);
+            pos += recordLength;
+            extended[pos++] = 2;                             // a one char string
+            extended[pos++] = 'x';
+        }
+
+        List<WorkItemRecord> decoded = WorkItemRecordCodec.decode(extended);
+        assertEquals(2, decoded.size());
+        assertSameRecord(wir, decoded.get(1));
+    }
+
+
+    public void testMalformed() {
+        byte[] bytes = WorkItemRecordCodec.encode(Collections.singletonList(
+                new WorkItemRecord("1", "t", "s", WorkItemRecord.statusEnabled)));
+        byte[] newer = bytes.clone();
+        newer[3] = (byte) (WorkItemRecordCodec.VERSION + 1);
+        byte[] wrongMagic = bytes.clone();
+        wrongMagic[0] = '<';
+        for (byte[] bad : Arrays.asList(newer, wrongMagic,
+                Arrays.copyOf(bytes, bytes.length - 3), new byte[0])) {
+            try {
+                WorkItemRecordCodec.decode(bad);
+                fail("Decoded a malformed list");
+            }
+            catch (IOException ioe) {
+                // expected
+            }
+        }
+
+        assertFalse(WorkItemRecordCodec.isEncoded("<workItem></workItem>"));
+        assertFalse(WorkItemRecordCodec.isEncoded(""));
+        assertTrue(WorkItemRecordCodec.isAccepted(String.valueOf(WorkItemRecordCodec.VERSION)));
+        assertFalse(WorkItemRecordCodec.isAccepted("0"));
+        assertFalse(WorkItemRecordCodec.isAccepted("compact"));
+        assertFalse(WorkItemRecordCodec.isAccepted(null));
+    }
+
+
+    // compares the size of each form of reply, as sent and read by Interface B, i.e.
+    // the compact form after Base64 encoding
+    public void testEncodedSize() throws Exception {
+        List<YWorkItem> items = new ArrayList<YWorkItem>();
+        for (int i = 0; i < 500; i++) items.add(_workItem);
+        long xmlBytes = sendAsXML(items);
+        long compactBytes = sendCompact(items);
+        assertTrue(String.format("per record - xml: %d bytes; compact: %d bytes",
+                xmlBytes / items.size(), compactBytes / items.size()),
+                compactBytes < xmlBytes);
+    }
+
+
+    private long sendAsXML(List<YWorkItem> items) throws IOException {
+        StringBuilder xml = new StringBuilder("<response>");
+        for (YWorkItem item : items) xml.append(item.toXML());
+        xml.append("</response>");
+        String reply = xml.toString();
+        Document doc = JDOMUtil.stringToDocument(reply);
+        for (Element child : doc.getRootElement().getChildren()) {
+            Marshaller.unmarshalWorkItem(child);
+        }
+        return reply.getBytes("UTF-8").length;
+    }
+
+
+    private long sendCompact(List<YWorkItem> items) throws IOException {
+        List<WorkItemRecord> records = new ArrayList<WorkItemRecord>();
+        for (YWorkItem item : items) records.add(item.toWorkItemRecord());
+        String reply = "<response>" + WorkItemRecordCodec.encodeToString(records) +
+                "</response>";
+        WorkItemRecordCodec.decodeFromString(reply.substring(10, reply.length() - 11));
+        long replyBytes = reply.getBytes("UTF-8").length;
+        assertTrue(replyBytes > WorkItemRecordCodec.encode(records).length);  // Base64
+        return replyBytes;
+    }
+
+
+    private void assertSameRecord(WorkItemRecord expected, WorkItemRecord actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getSpecIdentifier(), actual.getSpecIdentifier());
+        assertEquals(expected.getSpecVersion(), actual.getSpecVersion());
+        assertEquals(expected.getSpecURI(), actual.getSpecURI());
+        assertEquals(expected.getUniqueID(), actual.getUniqueID());
+        assertEquals(expected.getTaskName(), actual.getTaskName());
+        assertEquals(expected.getDocumentation(), actual.getDocumentation());
+        assertEquals(expected.getAllowsDynamicCreation(), actual.getAllowsDynamicCreation());
+        assertEquals(expected.getRequiresManualResourcing(),
+                actual.getRequiresManualResourcing());
+        assertEquals(expected.getCodelet(), actual.getCodelet());
+        assertEquals(expected.getDeferredChoiceGroupID(), actual.getDeferredChoiceGroupID());
+        assertEquals(expected.getEnablementTimeMs(), actual.getEnablementTimeMs());
+        assertEquals(expected.getFiringTimeMs(), actual.getFiringTimeMs());
+        assertEquals(expected.getStartTimeMs(), actual.getStartTimeMs());
+        assertEquals(expected.getCompletionTimeMs(), actual.getCompletionTimeMs());
+        assertEquals(expected.getTimerTrigger(), actual.getTimerTrigger());
+        assertEquals(expected.getTimerExpiry(), actual.getTimerExpiry());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getResourceStatus(), actual.getResourceStatus());
+        assertEquals(expected.getStartedBy(), actual.getStartedBy());
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.getCustomFormURL(), actual.getCustomFormURL());
+        assertEquals(expected.getLogPredicateStarted(), actual.getLogPredicateStarted());
+        assertEquals(expected.getLogPredicateCompletion(),
+                actual.getLogPredicateCompletion());
+        assertEquals(asMap(expected.getAttributeTable()), asMap(actual.getAttributeTable()));
+        assertEquals(JDOMUtil.elementToString(expected.getDataList()),
+                JDOMUtil.elementToString(actual.getDataList()));
+        assertEquals(JDOMUtil.elementToString(expected.getUpdatedData()),
+                JDOMUtil.elementToString(actual.getUpdatedData()));
+    }
+
+
+    // no attributes may be held as null or as an empty map
+    private Map<String, String> asMap(Map<String, String> attributes) {
+        return attributes != null ? new HashMap<String, String>(attributes) :
+                new HashMap<String, String>();
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestWorkItemRecordCodec.class);
+        return suite;
+    }
+}
@@ -0,0 +1,265 @@
+package org.yawlfoundation.yawl.engine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.engine.time.YTimedObject;
+import org.yawlfoundation.yawl.engine.time.YTimer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the scheduling, cancellation and parallel handling of timer expiries.
+ */
+public class TestYTimer extends TestCase {
+
+    private YTimer _timer;
+
+    public TestYTimer(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _timer = YTimer.getInstance();
+        _timer.setExpiryWorkers(4, 10000);
+    }
+
+
+    public void tearDown() {
+        _timer.cancelAll();
+    }
+
+
+    public void testExpiry() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(4);
+        List<Timee> timees = Arrays.asList(new Timee("1:a", latch), new Timee("2:a", latch),
+                new Timee("3:a", latch), new Timee("4:a", latch));
+        long now = System.currentTimeMillis();
+        _timer.schedule(timees.get(0), 60);
+        _timer.schedule(timees.get(1), 0);
+        _timer.schedule(timees.get(2), new Date(now - 1000));          // already due
+        _timer.schedule(timees.get(3), 1, YTimer.TimeUnit.SEC);
+        assertTrue(_timer.hasActiveTimer("1:a"));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timees.get(0).handled >= now + 60);                     // not early
+        assertTrue(timees.get(3).handled >= now + 1000);
+        assertTrue(timees.get(1).handled <= timees.get(0).handled);
+        Thread.sleep(50);
+        assertFalse(_timer.hasActiveTimer("1:a"));
+        for (Timee timee : timees) assertFalse(timee.cancelled);
+    }
+
+
+    // a timer beyond the first level's span is cascaded down the wheel before expiry
+    public void testCascade() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Timee timee = new Timee("1:a", latch);
+        long expiry = _timer.schedule(timee, 2700);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timee.handled >= expiry);
+        assertTrue(timee.handled < expiry + 500);
+    }
+
+
+    public void testCancel() throws InterruptedException {
+        Map<String, Timee> timees = new HashMap<String, Timee>();
+        for (String id : Arrays.asList("5:a", "5.1:b", "5.1.2:c", "51:a", "6:a")) {
+            Timee timee = new Timee(id, null);
+            timees.put(id, timee);
+            _timer.schedule(timee, 200);
+        }
+        assertSame(timees.get("6:a"), _timer.cancelTimerTask("6:a"));
+        assertTrue(timees.get("6:a").cancelled);
+        assertNull(_timer.cancelTimerTask("6:a"));
+
+        _timer.cancelTimersForCase("5.1");                             // a sub-net
+        assertTrue(timees.get("5.1:b").cancelled);
+        assertTrue(timees.get("5.1.2:c").cancelled);
+        assertTrue(_timer.hasActiveTimer("5:a"));
+
+        _timer.cancelTimersForCase("5");
+        assertTrue(timees.get("5:a").cancelled);
+        assertTrue(_timer.hasActiveTimer("51:a"));
+        assertFalse(timees.get("51:a").cancelled);
+
+        Thread.sleep(400);
+        for (Timee timee : timees.values()) {
+            assertEquals(timee.id.equals("51:a"), timee.handled > 0);
+        }
+    }
+
+
+    // a timer cancelled while waiting for its worker is not handled
+    public void testCancelAfterExpiry() throws InterruptedException {
+        _timer.setExpiryWorkers(1, 100);
+        CountDownLatch latch = new CountDownLatch(1);
+        Timee blocker = new Timee("7:a", latch);
+        blocker.delay = 300;
+        Timee waiting = new Timee("7:b", null);
+        long expiry = System.currentTimeMillis() + 50;
+        _timer.schedule(blocker, new Date(expiry));
+        _timer.schedule(waiting, new Date(expiry + 30));
+
+        Thread.sleep(200);                          // both expired, 7:b is waiting
+        assertEquals(0, waiting.handled);
+        assertSame(waiting, _timer.cancelTimerTask("7:b"));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, waiting.handled);
+        assertTrue(waiting.cancelled);
+    }
+
+
+    // expired timers waiting on the workers are handled when the workers are replaced
+    public void testWorkersReplaced() throws InterruptedException {
+        _timer.setExpiryWorkers(1, 100);
+        CountDownLatch latch = new CountDownLatch(4);
+        Timee blocker = new Timee("8:a", latch);
+        blocker.delay = 300;
+        long expiry = System.currentTimeMillis() + 50;
+        _timer.schedule(blocker, new Date(expiry));
+        for (String id : Arrays.asList("8:b", "9:a", "10:a")) {
+            _timer.schedule(new Timee(id, latch), new Date(expiry));
+        }
+
+        Thread.sleep(200);                          // all expired, three waiting
+        _timer.setExpiryWorkers(2, 100);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+
+    // a burst of expiries is handled in parallel, but the timers of a case in turn
+    public void testParallelExpiry() throws InterruptedException {
+        int cases = 40;
+        CountDownLatch latch = new CountDownLatch(cases + 5);
+        List<Timee> timees = new ArrayList<Timee>();
+        for (int i = 0; i < cases; i++) timees.add(new Timee(i + ":a", latch));
+        for (int i = 0; i < 5; i++) timees.add(new Timee("99." + i + ":b", latch));
+        for (Timee timee : timees) timee.delay = 50;
+        long expiry = System.currentTimeMillis() + 100;
+        for (Timee timee : timees) _timer.schedule(timee, new Date(expiry));
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - expiry;
+        assertTrue("Expiries were not handled in parallel: " + elapsed + "ms",
+                elapsed < (cases + 5) * 50 * 3 / 4);
+        assertEquals(1, Timee.maxActive("99"));
+    }
+
+
+    // times the scheduling, cancelling and expiry of large numbers of timers; not
+    // discovered as a test, but added by suite() when 'yawl.test.timing' is set
+    public void timeMillionTimers() throws InterruptedException {
+        int count = 1000000;
+        int cases = 10000;
+        Random random = new Random(22);
+        List<Timee> timees = new ArrayList<Timee>(count);
+        for (int i = 0; i < count; i++) {
+            timees.add(new Timee((i % cases) + "." + i + ":t", null));
+        }
+        long start = System.nanoTime();
+        for (Timee timee : timees) {
+            _timer.schedule(timee, 60000 + random.nextInt(3600000));  // 1 min - 1 hour
+        }
+        long scheduleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < cases; i++) _timer.cancelTimersForCase(String.valueOf(i));
+        long cancelNanos = System.nanoTime() - start;
+        assertFalse(_timer.hasActiveTimer(timees.get(count - 1).id));
+        for (int i = 0; i < count; i += 1000) assertTrue(timees.get(i).cancelled);
+
+        // a tenth of them, expiring together
+        int burst = count / 10;
+        CountDownLatch latch = new CountDownLatch(burst);
+        long expiry = System.currentTimeMillis() + 500;
+        for (int i = 0; i < burst; i++) {
+            Timee timee = new Timee(timees.get(i).id, latch);
+            _timer.schedule(timee, new Date(expiry));
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        long drainMsecs = System.currentTimeMillis() - expiry;
+
+        double scheduleMicros = scheduleNanos / 1000.0 / count;
+        double cancelMicros = cancelNanos / 1000.0 / count;
+        String figures = String.format("%d timers - schedule: %.2f us each, cancel " +
+                "by case: %.2f us each; %d expiring together handled in %d ms; %s",
+                count, scheduleMicros, cancelMicros, burst, drainMsecs,
+                _timer.getStatistics());
+        assertTrue(figures, scheduleMicros < 50);
+        assertTrue(figures, cancelMicros < 50);
+        assertTrue(figures, drainMsecs < 10000);
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestYTimer.class);
+        if (Boolean.getBoolean("yawl.test.timing")) {
+            suite.addTest(new TestYTimer("timeMillionTimers"));
+        }
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    private static class Timee implements YTimedObject {
+
+        // [root case id, handlers running now]; [root case id, most running at once]
+        private static final Map<String, AtomicInteger> _active =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private static final Map<String, Integer> _maxActive =
+                new ConcurrentHashMap<String, Integer>();
+
+        final String id;
+        final CountDownLatch latch;
+        volatile long handled;
+        volatile boolean cancelled;
+        long delay;
+
+        Timee(String id, CountDownLatch latch) {
+            this.id = id;
+            this.latch = latch;
+        }
+
+        static int maxActive(String caseID) { return _maxActive.get(caseID); }
+
+        public void handleTimerExpiry() {
+            handled = System.currentTimeMillis();
+            if (delay > 0) {
+                String caseID = id.substring(0, id.indexOf('.') > -1 ?
+                        id.indexOf('.') : id.indexOf(':'));
+                _active.putIfAbsent(caseID, new AtomicInteger());
+                int active = _active.get(caseID).incrementAndGet();
+                Integer max = _maxActive.get(caseID);
+                _maxActive.put(caseID, max == null ? active : Math.max(max, active));
+                try {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException ie) {
+                    // done
+                }
+                _active.get(caseID).decrementAndGet();
+            }
+            if (latch != null) latch.countDown();
+        }
+
+        public void cancel() { cancelled = true; }
+
+        public String getOwnerID() { return id; }
+    }
+}
@@ -6,8 +6,9 @@ import org.yawlfoundation.yawl.elements.YTask;
 import org.yawlfoundation.yawl.elements.state.YIdentifier;
 import org.yawlfoundation.yawl.exceptions.YPersistenceException;
 
-import java.util.Iterator;
-import java.util.Set;
+import org.yawlfoundation.yawl.authentication.YClient;
+
+import java.util.*;
 
 /**
  * 
@@ -59,4 +60,93 @@ public class TestYWorkItemRepository extends TestCase {
             assertEquals(_parentWorkItem, child.getParent());
         }
     }
+
+
+    public void testIndexedQueries() throws YPersistenceException {
+        YIdentifier otherCase = new YIdentifier(null);
+        YTask review = new YAtomicTask("review", YTask._XOR, YTask._AND, null);
+        YWorkItem other = new YWorkItem(null, new YSpecificationID("OtherSpec"), review,
+                new YWorkItemID(otherCase, "review"), false, false);
+        String caseID = _parentWorkItem.getCaseID().toString();
+
+        assertEquals(1, _workitemRepository.getParentWorkItems().size());
+        assertEquals(5, _workitemRepository.getFiredWorkItems().size());
+        assertEquals(Collections.singleton(other), _workitemRepository.getEnabledWorkItems());
+        assertEquals(6, _workitemRepository.getWorkItemsForCase(
+                _parentWorkItem.getCaseID()).size());
+        assertEquals(6, _workitemRepository.getWorkItemsWithIdentifier("case", caseID).size());
+        assertEquals(1, _workitemRepository.getWorkItemsWithIdentifier("case",
+                caseID + ".1").size());
+        assertEquals(6, _workitemRepository.getWorkItemsWithIdentifier("spec",
+                "ASpecID").size());
+        assertEquals(Collections.singleton(other),
+                _workitemRepository.getWorkItemsWithIdentifier("task", "review"));
+        assertNull(_workitemRepository.getWorkItemsWithIdentifier("task", "nothing"));
+
+        // status changes move items between indexes
+        YWorkItem child = _parentWorkItem.getChildren().iterator().next();
+        child.setStatusToStarted(null, new YClient("fred", "password", null, null, null));
+        assertEquals(4, _workitemRepository.getFiredWorkItems().size());
+        assertEquals(Collections.singleton(child),
+                _workitemRepository.getExecutingWorkItems("fred"));
+        assertTrue(_workitemRepository.getExecutingWorkItems("barney").isEmpty());
+        child.setStatusToSuspended(null);
+        assertTrue(_workitemRepository.getExecutingWorkItems().isEmpty());
+        assertEquals(1, _workitemRepository.getWorkItems(YWorkItemStatus.statusSuspended)
+                .size());
+        assertTrue(_workitemRepository.checkIndexes().isEmpty());
+
+        // the sets returned are copies
+        _workitemRepository.getFiredWorkItems().clear();
+        assertEquals(4, _workitemRepository.getFiredWorkItems().size());
+
+        assertEquals(6, _workitemRepository.cancelNet(_parentWorkItem.getCaseID()).size());
+        assertTrue(_workitemRepository.getWorkItemsForCase(
+                _parentWorkItem.getCaseID()).isEmpty());
+        assertEquals(1, _workitemRepository.getWorkItems().size());
+        assertTrue(_workitemRepository.checkIndexes().isEmpty());
+    }
+
+
+    // checks the indexes stay consistent through random changes
+    public void testIndexConsistency() throws YPersistenceException {
+        Random random = new Random(21);
+        List<YWorkItem> items = new ArrayList<YWorkItem>(_parentWorkItem.getChildren());
+        items.add(_parentWorkItem);
+        YTask[] tasks = { _task, new YAtomicTask("t2", YTask._XOR, YTask._AND, null) };
+        YClient client = new YClient("fred", "password", null, null, null);
+        for (int i = 0; i < 2000; i++) {
+            int op = random.nextInt(10);
+            if (op < 4 || items.isEmpty()) {
+                YTask task = tasks[random.nextInt(2)];
+                items.add(new YWorkItem(null,
+                        new YSpecificationID("Spec" + random.nextInt(3)), task,
+                        new YWorkItemID(new YIdentifier(null), task.getID()), false, false));
+            }
+            else {
+                YWorkItem item = items.get(random.nextInt(items.size()));
+                if (op < 6 && item.getStatus() == YWorkItemStatus.statusEnabled) {
+                    YWorkItem child = item.createChild(null,
+                            item.getCaseID().createChild(null));
+                    if (child != null) items.add(child);
+                }
+                else if (op < 8 && item.getStatus() == YWorkItemStatus.statusFired) {
+                    item.setStatusToStarted(null, client);
+                }
+                else if (op < 9) {
+                    items.removeAll(_workitemRepository.removeWorkItemFamily(item));
+                }
+                else {
+                    YIdentifier root = item.getCaseID().getRootAncestor();
+                    items.removeAll(_workitemRepository.removeWorkItemsForCase(root));
+                }
+            }
+        }
+        assertEquals(Collections.<String>emptyList(), _workitemRepository.checkIndexes());
+        int live = 0;
+        for (YWorkItem item : items) {
+            if (_workitemRepository.get(item.getIDString()) == item) live++;
+        }
+        assertEquals(live, _workitemRepository.getWorkItems().size());
+    }
 }
@@ -19,6 +19,8 @@ public class LoggingTestSuite extends TestSuite{
     public static Test suite() {
         TestSuite suite = new TestSuite();
         suite.addTestSuite(YawlServletTestNextIdNew.class);
+        suite.addTestSuite(TestEventLogBatching.class);
+        suite.addTestSuite(TestXESStreaming.class);
         return suite;
     }
 }
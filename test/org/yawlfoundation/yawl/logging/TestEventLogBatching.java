@@ -0,0 +1,249 @@
+package org.yawlfoundation.yawl.logging;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.hibernate.Transaction;
+import org.yawlfoundation.yawl.elements.state.YIdentifier;
+import org.yawlfoundation.yawl.engine.YEngine;
+import org.yawlfoundation.yawl.engine.YSpecificationID;
+import org.yawlfoundation.yawl.logging.table.*;
+import org.yawlfoundation.yawl.util.HibernateEngine;
+
+import java.util.*;
+
+/**
+ * Logs case events through the batched event log writer to an in-memory database,
+ * and checks the rows written, their order within each case, and the number of
+ * transactions used.
+ */
+public class TestEventLogBatching extends TestCase {
+
+    private static final Class[] LOG_CLASSES = {
+            YLogSpecification.class, YLogNet.class, YLogTask.class,
+            YLogNetInstance.class, YLogTaskInstance.class, YLogEvent.class,
+            YLogDataItemInstance.class, YLogDataType.class, YLogService.class
+    };
+
+    private static int _dbCount = 0;
+
+    private TestLogger _logger;
+    private YSpecificationID _specID;
+
+    public TestEventLogBatching(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        _logger = new TestLogger("eventlog" + (_dbCount++));
+        _logger.setEngine(YEngine.getInstance());
+        _specID = new YSpecificationID("batchSpec", "0.1", "batchSpec.yawl");
+    }
+
+
+    public void tearDown() throws Exception {
+        _logger.shutdown();
+        _logger.getDb().closeFactory();
+    }
+
+
+    public void testEventsWrittenInCaseOrder() throws Exception {
+        _logger.setBatching(50, 20);
+        logCases(200);
+        _logger.flush();
+
+        List netInstances = query("from YLogNetInstance");
+        assertEquals(200, netInstances.size());
+        Map<Long, String> caseIDs = new HashMap<Long, String>();
+        for (Object o : netInstances) {
+            YLogNetInstance instance = (YLogNetInstance) o;
+            caseIDs.put(instance.getNetInstanceID(), instance.getEngineInstanceID());
+        }
+
+        // each case's cancel event found its net instance, and follows its start
+        List events = query("from YLogEvent order by eventID");
+        assertEquals(400, events.size());
+        Set<Long> started = new HashSet<Long>();
+        for (Object o : events) {
+            YLogEvent event = (YLogEvent) o;
+            assertTrue(caseIDs.containsKey(event.getInstanceID()));
+            if (event.getDescriptor().equals(YEventLogger.CASE_START)) {
+                assertTrue(started.add(event.getInstanceID()));
+            }
+            else {
+                assertEquals(YEventLogger.CASE_CANCEL, event.getDescriptor());
+                assertTrue(started.contains(event.getInstanceID()));
+            }
+        }
+    }
+
+
+    public void testTransactionsPerBatch() throws Exception {
+        _logger.setBatching(1, 0);
+        logCases(100);
+        _logger.flush();
+        int unbatched = _logger.getTransactionCount();
+
+        _logger.resetTransactionCount();
+        _logger.setBatching(100, 1000);
+        logCases(100);
+        _logger.flush();
+        int batched = _logger.getTransactionCount();
+        String figures = String.format("400 events: %d transactions unbatched, " +
+                "%d batched", unbatched, batched);
+        assertTrue(figures, unbatched >= 200);
+        assertTrue(figures, batched <= 4);
+        assertTrue(figures, batched * 50 <= unbatched);
+    }
+
+
+    public void testTimestampIsTimeOfEvent() throws Exception {
+        _logger.setBatching(100, 5000);
+        long before = System.currentTimeMillis();
+        logCases(1);
+        Thread.sleep(500);                             // the events wait to be written
+        _logger.flush();
+
+        for (Object o : query("from YLogEvent")) {
+            assertTrue(((YLogEvent) o).getTimestamp() - before < 500);
+        }
+    }
+
+
+    public void testFailingEventLosesOnlyItself() throws Exception {
+        _logger.setBatching(100, 1000);
+        String failingCase = UUID.randomUUID().toString();
+        _logger.getDb().failOn = failingCase;
+        logCases(10);
+        logCase(failingCase);                              // mid-batch
+        logCases(9);
+        _logger.flush();
+
+        // the cases logged before and after the failing one in its batch are written
+        List netInstances = query("from YLogNetInstance");
+        assertEquals(19, netInstances.size());
+        Map<Long, String> instanceIDs = new HashMap<Long, String>();
+        for (Object o : netInstances) {
+            YLogNetInstance instance = (YLogNetInstance) o;
+            assertFalse(failingCase.equals(instance.getEngineInstanceID()));
+            instanceIDs.put(instance.getNetInstanceID(), instance.getEngineInstanceID());
+        }
+
+        // and no event refers to a net instance that was rolled back
+        Map<Long, Integer> eventCounts = new HashMap<Long, Integer>();
+        for (Object o : query("from YLogEvent")) {
+            YLogEvent event = (YLogEvent) o;
+            long id = event.getInstanceID();
+            assertTrue(id == -1 || instanceIDs.containsKey(id));
+            Integer count = eventCounts.get(id);
+            eventCounts.put(id, count == null ? 1 : count + 1);
+        }
+        for (Long id : instanceIDs.keySet()) {
+            assertEquals(Integer.valueOf(2), eventCounts.get(id));      // start & cancel
+        }
+    }
+
+
+    private void logCase(String id) {
+        YIdentifier caseID = new YIdentifier(id);
+        _logger.logCaseCreated(_specID, caseID, null, "noService");
+        _logger.logCaseCancelled(caseID, null, "noService");
+    }
+
+
+    private void logCases(int count) {
+        List<YIdentifier> caseIDs = new ArrayList<YIdentifier>();
+        for (int i = 0; i < count; i++) {
+            YIdentifier caseID = new YIdentifier(UUID.randomUUID().toString());
+            _logger.logCaseCreated(_specID, caseID, null, "noService");
+            caseIDs.add(caseID);
+        }
+        for (YIdentifier caseID : caseIDs) {
+            _logger.logCaseCancelled(caseID, null, "noService");
+        }
+    }
+
+
+    private List query(String hql) {
+        HibernateEngine db = _logger.getDb();
+        List result = db.execQuery(hql);
+        db.commit();
+        return result;
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestEventLogBatching.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    /*
+     * An event logger that writes to a private in-memory database, counting the
+     * transactions begun on it
+     */
+    private static class TestLogger extends YEventLogger {
+
+        private final CountingEngine _db;
+
+        TestLogger(String dbName) {
+            Properties props = new Properties();
+            props.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+            props.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+            props.setProperty("hibernate.connection.url",
+                    "jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1");
+            props.setProperty("hibernate.connection.username", "sa");
+            props.setProperty("hibernate.current_session_context_class", "thread");
+            props.setProperty("hibernate.jdbc.batch_size", "50");
+            _db = new CountingEngine(new HashSet<Class>(Arrays.asList(LOG_CLASSES)), props);
+            enable();
+        }
+
+        protected CountingEngine getDb() { return _db; }
+
+        int getTransactionCount() { return _db.count; }
+
+        void resetTransactionCount() { _db.count = 0; }
+    }
+
+
+    /*
+     * A database engine that counts the transactions begun on it, and fails the
+     * insert of a given case's net instance as a database error would, by rolling
+     * back the transaction
+     */
+    private static class CountingEngine extends HibernateEngine {
+
+        volatile int count;
+        volatile String failOn;
+
+        CountingEngine(Set<Class> classes, Properties props) {
+            super(true, classes, props);
+        }
+
+        public Transaction beginTransaction() {
+            count++;
+            return super.beginTransaction();
+        }
+
+        public boolean exec(Object obj, int action, Transaction tx) {
+            if (obj instanceof YLogNetInstance && ((YLogNetInstance) obj)
+                    .getEngineInstanceID().equals(failOn)) {
+                if (tx != null) tx.rollback();
+                return false;
+            }
+            return super.exec(obj, action, tx);
+        }
+    }
+}
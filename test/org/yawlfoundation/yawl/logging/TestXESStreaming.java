@@ -0,0 +1,239 @@
+package org.yawlfoundation.yawl.logging;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.yawlfoundation.yawl.engine.YSpecificationID;
+import org.yawlfoundation.yawl.logging.table.*;
+import org.yawlfoundation.yawl.util.HibernateEngine;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+import org.yawlfoundation.yawl.util.XNode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Writes the XES log of a specification's cases from an in-memory log database
+ * through the streamed export, and checks it against the log built in memory, its
+ * case order, and its time filtering.
+ */
+public class TestXESStreaming extends TestCase {
+
+    private static final Class[] LOG_CLASSES = {
+            YLogSpecification.class, YLogNet.class, YLogTask.class,
+            YLogNetInstance.class, YLogTaskInstance.class, YLogEvent.class,
+            YLogDataItemInstance.class, YLogDataType.class, YLogService.class
+    };
+
+    private static final int CASE_COUNT = 12;
+    private static final long BASE_TIME = 1500000000000L;
+
+    private static int _dbCount = 0;
+
+    private HibernateEngine _db;
+    private YSpecificationID _specID;
+    private long _rootNetID;
+    private YLogTask[] _tasks;
+    private YLogDataType _dataType;
+
+    public TestXESStreaming(String name) {
+        super(name);
+    }
+
+
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        props.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        props.setProperty("hibernate.connection.url",
+                "jdbc:h2:mem:xeslog" + (_dbCount++) + ";DB_CLOSE_DELAY=-1");
+        props.setProperty("hibernate.connection.username", "sa");
+        props.setProperty("hibernate.current_session_context_class", "thread");
+        _db = new HibernateEngine(true, new HashSet<Class>(Arrays.asList(LOG_CLASSES)), props);
+        _specID = new YSpecificationID("xesSpec", "0.1", "xesSpec.yawl");
+        logCases();
+    }
+
+
+    public void tearDown() throws Exception {
+        _db.closeFactory();
+    }
+
+
+    public void testStreamedLogMatchesBuiltLog() throws Exception {
+        for (boolean withData : new boolean[] { false, true }) {
+            XNode cases = new SpecHistory().get(_db, _rootNetID, withData);
+            String built = new YXESBuilder().buildLog(_specID, cases);
+            _db.commit();
+
+            String streamed = stream(withData, -1, -1);
+            List<Element> builtTraces = getTraces(built);
+            List<Element> streamedTraces = getTraces(streamed);
+            assertEquals(CASE_COUNT, streamedTraces.size());
+            assertEquals(builtTraces.size(), streamedTraces.size());
+            for (int i = 0; i < builtTraces.size(); i++) {
+                assertEquals(JDOMUtil.elementToString(builtTraces.get(i)),
+                        JDOMUtil.elementToString(streamedTraces.get(i)));
+            }
+        }
+    }
+
+
+    public void testDataValuesEscaped() throws Exception {
+        String streamed = stream(true, -1, -1);
+        assertTrue(streamed.contains("value=\"a &amp; b &lt; c\""));
+        assertEquals(CASE_COUNT, getTraces(streamed).size());
+    }
+
+
+    public void testCasesScrolledInOrder() throws Exception {
+        SpecHistory history = new SpecHistory();
+        Iterator<XNode> cases = history.scroll(_db, _rootNetID, false, -1, -1);
+        int caseNbr = 0;
+        while (cases.hasNext()) {
+            XNode caseNode = cases.next();
+            assertEquals(String.valueOf(++caseNbr), caseNode.getAttributeValue("id"));
+            XNode netNode = caseNode.getChild("netinstance");
+            assertEquals(2, netNode.getChildCount());                // two task instances
+
+            // the scroll has its own session, so the log can be written meanwhile
+            insert(new YLogTask("task" + caseNbr, _rootNetID, -1));
+        }
+        assertEquals(CASE_COUNT, caseNbr);
+        history.close();
+    }
+
+
+    public void testTimeFilter() throws Exception {
+        long from = BASE_TIME + 3 * 1000;
+        long to = BASE_TIME + 5 * 1000 + 999;
+        List<Element> traces = getTraces(stream(false, from, to));
+        assertEquals(3, traces.size());
+        for (Element trace : traces) {
+            int caseNbr = Integer.parseInt(getValue(trace, "string", "concept:name"));
+            assertTrue(caseNbr >= 3 && caseNbr <= 5);
+            assertEquals(6, trace.getChildren("event", trace.getNamespace()).size());
+        }
+
+        // an upper bound only
+        assertEquals(2, getTraces(stream(false, -1, BASE_TIME + 2 * 1000 + 999)).size());
+    }
+
+
+    public void testRootNetsWithSameCaseID() throws Exception {
+        logCase("3", BASE_TIME + 100 * 1000);        // e.g. after case numbers restart
+
+        XNode cases = new SpecHistory().get(_db, _rootNetID, true);
+        List<Element> builtTraces = getTraces(new YXESBuilder().buildLog(_specID, cases));
+        _db.commit();
+        List<Element> streamedTraces = getTraces(stream(true, -1, -1));
+        assertEquals(CASE_COUNT, streamedTraces.size());
+        assertEquals(builtTraces.size(), streamedTraces.size());
+        for (int i = 0; i < builtTraces.size(); i++) {
+            assertEquals(JDOMUtil.elementToString(builtTraces.get(i)),
+                    JDOMUtil.elementToString(streamedTraces.get(i)));
+        }
+
+        Element trace = streamedTraces.get(2);
+        assertEquals("3", getValue(trace, "string", "concept:name"));
+        assertEquals(12, trace.getChildren("event", trace.getNamespace()).size());
+    }
+
+
+    private String stream(boolean withData, long from, long to) throws Exception {
+        SpecHistory history = new SpecHistory();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int traceCount = new YXESStreamWriter().write(_specID,
+                history.scroll(_db, _rootNetID, withData, from, to), os);
+        history.close();
+        String log = os.toString("UTF-8");
+        assertEquals(traceCount, getTraces(log).size());
+        return log;
+    }
+
+
+    private List<Element> getTraces(String log) {
+        Document doc = JDOMUtil.stringToDocument(log);
+        assertNotNull(doc);
+        Element root = doc.getRootElement();
+        return root.getChildren("trace", root.getNamespace());
+    }
+
+
+    private String getValue(Element element, String name, String key) {
+        for (Element child : element.getChildren(name, element.getNamespace())) {
+            if (key.equals(child.getAttributeValue("key"))) {
+                return child.getAttributeValue("value");
+            }
+        }
+        return null;
+    }
+
+
+    private void logCases() {
+        YLogNet net = new YLogNet("xesNet", -1);
+        insert(net);
+        _rootNetID = net.getNetID();
+        insert(new YLogSpecification(_specID.getIdentifier(), _specID.getVersion(),
+                _specID.getUri(), _rootNetID));
+        _tasks = new YLogTask[] { new YLogTask("first", _rootNetID, -1),
+                new YLogTask("second", _rootNetID, -1) };
+        for (YLogTask task : _tasks) insert(task);
+        _dataType = new YLogDataType("string", "string");
+        insert(_dataType);
+
+        // logged out of case order, to be sorted by the export
+        for (int caseNbr = CASE_COUNT; caseNbr > 0; caseNbr--) {
+            logCase(String.valueOf(caseNbr), BASE_TIME + caseNbr * 1000);
+        }
+    }
+
+
+    // a root net instance with two task instances, each with three events and a
+    // data change
+    private void logCase(String caseID, long time) {
+        YLogNetInstance netInstance = new YLogNetInstance(caseID, _rootNetID, -1);
+        insert(netInstance);
+        long rootID = netInstance.getNetInstanceID();
+        insert(new YLogEvent(rootID, YEventLogger.CASE_START, time, -1, rootID));
+
+        for (int t = 0; t < _tasks.length; t++) {
+            String itemID = caseID + ":" + _tasks[t].getName();
+            YLogTaskInstance taskInstance = new YLogTaskInstance(itemID,
+                    _tasks[t].getTaskID(), -1, rootID);
+            insert(taskInstance);
+            long id = taskInstance.getTaskInstanceID();
+            long start = time + t * 100;
+            insert(new YLogEvent(id, "Enabled", start, -1, rootID));
+            insert(new YLogEvent(id, "Executing", start + 10, -1, rootID));
+            YLogEvent dataEvent = new YLogEvent(id, "DataValueChange", start + 20,
+                    -1, rootID);
+            insert(dataEvent);
+            insert(new YLogDataItemInstance(dataEvent.getEventID(),
+                    new YLogDataItem("OutputVarAssignment", "note", "a & b < c",
+                            "string"), _dataType.getDataTypeID()));
+            insert(new YLogEvent(id, "Complete", start + 30, -1, rootID));
+        }
+    }
+
+
+    private void insert(Object obj) {
+        assertTrue(_db.exec(obj, HibernateEngine.DB_INSERT));
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestXESStreaming.class);
+        return suite;
+    }
+}
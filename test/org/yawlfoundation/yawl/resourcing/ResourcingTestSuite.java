@@ -20,6 +20,15 @@ public class ResourcingTestSuite extends TestSuite {
 //        suite.addTestSuite(TestGetSelectors.class);
 //        suite.addTestSuite(TestHibernate.class);
         suite.addTestSuite(TestDB.class);
+        suite.addTestSuite(TestQueueJournal.class);
+        suite.addTestSuite(TestAllocationStatistics.class);
+        suite.addTestSuite(TestParallelQueueUpdater.class);
+        suite.addTestSuite(TestOrgDataIndex.class);
+        suite.addTestSuite(TestCalendarIndex.class);
+        suite.addTestSuite(TestTaskCompleterIndex.class);
+        suite.addTestSuite(TestQueueDeltaLog.class);
+        suite.addTestSuite(TestDistributionPlans.class);
+        suite.addTestSuite(TestWorkItemCache.class);
 //        suite.addTestSuite(TestJDBC.class);
 /*        suite.addTestSuite(TestParseXML.class);*/
         return suite;
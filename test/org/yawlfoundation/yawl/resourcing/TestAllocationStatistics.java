@@ -0,0 +1,236 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.AllocationStatistics;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.ResourceEvent;
+
+import java.util.*;
+
+import static org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger.event.*;
+
+/**
+ * Tests the running task statistics used by the log-driven allocators.
+ */
+public class TestAllocationStatistics extends TestCase {
+
+    private static final long SPEC_KEY = 7;
+    private static final String TASK = "Approve";
+
+    private LogStatistics _stats;
+
+    public TestAllocationStatistics(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _stats = new LogStatistics(new ArrayList<ResourceEvent>());
+    }
+
+
+    public void testCountsAndDurations() {
+        log("1:Approve", "p1", allocate, 0);
+        log("1:Approve", "p1", start, 100);
+        log("1:Approve", "p1", complete, 300);
+        log("2:Approve", "p1", allocate, 1000);
+        log("2:Approve", "p1", start, 1200);
+        log("2:Approve", "p1", complete, 1600);
+        log("3:Approve", "p2", allocate, 0);
+        log("3:Approve", "p2", start, 50);
+        log("3:Approve", "p2", complete, 150);
+
+        AllocationStatistics.TaskProfile profile = _stats.getTaskProfile(SPEC_KEY, TASK);
+        assertEquals(3, profile.getCompletionCount());
+        assertEquals(2, profile.getCompletionCount("p1"));
+        assertEquals(0, profile.getCompletionCount("p3"));
+        assertEquals(300, profile.getFirstCompletionTime("p1"));
+        assertEquals(1600, profile.getLastCompletionTime("p1"));
+        assertEquals(1000, profile.getLastAllocationTime("p1"));
+        assertEquals(Long.MAX_VALUE, profile.getFirstCompletionTime("p3"));
+
+        Map<String, Long> durations = profile.getAverageDurations(allocate, complete,
+                Arrays.asList("p1", "p2", "p3"));
+        assertEquals(2, durations.size());
+        assertEquals(450, durations.get("p1").longValue());
+        assertEquals(150, durations.get("p2").longValue());
+        assertEquals(300, profile.getAverageDurations(start, complete,
+                Collections.singleton("p1")).get("p1").longValue());
+
+        // only the participants asked for are returned
+        assertEquals(Collections.singleton("p2"), profile.getAverageDurations(
+                allocate, start, Collections.singleton("p2")).keySet());
+
+        // other tasks are unaffected
+        assertEquals(0, _stats.getTaskProfile(SPEC_KEY, "Review").getCompletionCount());
+        assertEquals(0, _stats.getOpenItemCount());
+    }
+
+
+    public void testDurationCreditedToLaterParticipant() {
+        log("1:Approve", "p1", offer, 0);
+        log("1:Approve", "p2", offer, 0);
+        log("1:Approve", "p2", allocate, 400);
+        log("1:Approve", "p2", complete, 1000);
+
+        AllocationStatistics.TaskProfile profile = _stats.getTaskProfile(SPEC_KEY, TASK);
+        Map<String, Long> durations = profile.getAverageDurations(offer, allocate,
+                Arrays.asList("p1", "p2"));
+        assertEquals(Collections.singletonMap("p2", 400L), durations);
+        assertEquals(1000, profile.getAverageDurations(null, complete,
+                Collections.singleton("p2")).get("p2").longValue());
+    }
+
+
+    public void testProportionsWithin() {
+        for (int i = 0; i < 10; i++) {
+            String itemID = i + ":Approve";
+            log(itemID, "p1", allocate, 0);
+            log(itemID, "p1", complete, i < 8 ? 1000 : 9000);
+        }
+        Map<String, Double> proportions = _stats.getTaskProfile(SPEC_KEY, TASK)
+                .getProportionsWithin(allocate, complete, Arrays.asList("p1", "p2"), 6000);
+        assertEquals(1, proportions.size());
+        assertEquals(0.8, proportions.get("p1"), 0.0001);
+    }
+
+
+    public void testCancelledItemsNotTracked() {
+        log("1:Approve", "p1", allocate, 0);
+        log("2:Approve", "p1", allocate, 0);
+        log("2.1:Approve", "p1", allocate, 0);
+        log("3:Approve", "p1", allocate, 0);
+        assertEquals(4, _stats.getOpenItemCount());
+
+        log("1:Approve", null, cancel, 10);
+        assertEquals(3, _stats.getOpenItemCount());
+
+        ResourceEvent cancelCase = new ResourceEvent(SPEC_KEY, "2", null, cancel_case);
+        _stats.update(cancelCase);
+        assertEquals(1, _stats.getOpenItemCount());
+
+        _stats.removeCase("3");                                        // case ended
+        assertEquals(0, _stats.getOpenItemCount());
+    }
+
+
+    public void testSeedFromLog() {
+        List<ResourceEvent> log = new ArrayList<ResourceEvent>();
+        for (int i = 0; i < 4000; i++) {
+            String itemID = i + ":Approve";
+            String pid = "p" + (i % 4);
+            log.add(event(itemID, pid, allocate, i * 10));
+            log.add(event(itemID, pid, complete, i * 10 + 5));
+        }
+        _stats = new LogStatistics(log);
+        _stats.seed();
+        _stats.seed();                                            // only seeds once
+
+        assertEquals(2, _stats.pagesRead);
+        assertEquals(Arrays.asList(0L, 5000L), _stats.pageStarts);
+        AllocationStatistics.TaskProfile profile = _stats.getTaskProfile(SPEC_KEY, TASK);
+        assertEquals(4000, profile.getCompletionCount());
+        assertEquals(1000, profile.getCompletionCount("p3"));
+        assertEquals(39960, profile.getLastAllocationTime("p0"));
+
+        // and continues from live events
+        log("new:Approve", "p3", allocate, 50000);
+        log("new:Approve", "p3", complete, 50100);
+        assertEquals(1001, profile.getCompletionCount("p3"));
+    }
+
+
+    public void testEventsLoggedWhileSeeding() {
+        final List<ResourceEvent> log = new ArrayList<ResourceEvent>();
+        log.add(event("1:Approve", "p1", allocate, 0));
+        log.add(event("1:Approve", "p1", complete, 100));
+
+        // the first is logged (and read) as seeding starts, the second after it
+        final ResourceEvent early = event("2:Approve", "p1", allocate, 200);
+        final ResourceEvent late = event("2:Approve", "p1", complete, 500);
+        _stats = new LogStatistics(log) {
+            protected long readLastID() {
+                log.add(early);
+                update(early);
+                return super.readLastID();
+            }
+
+            protected List<ResourceEvent> readLog(long afterID, long lastID, int max) {
+                List<ResourceEvent> page = super.readLog(afterID, lastID, max);
+                log.add(late);
+                update(late);
+                return page;
+            }
+        };
+        _stats.seed();
+
+        AllocationStatistics.TaskProfile profile = _stats.getTaskProfile(SPEC_KEY, TASK);
+        assertEquals(2, profile.getCompletionCount("p1"));
+        assertEquals(200, profile.getLastAllocationTime("p1"));
+        assertEquals(200, profile.getAverageDurations(allocate, complete,
+                Collections.singleton("p1")).get("p1").longValue());
+        assertEquals(0, _stats.getOpenItemCount());
+    }
+
+
+    private void log(String itemID, String pid, EventLogger.event eType, long time) {
+        _stats.update(event(itemID, pid, eType, time));
+    }
+
+
+    private ResourceEvent event(String itemID, String pid, EventLogger.event eType,
+                                long time) {
+        String caseID = itemID.substring(0, itemID.indexOf(':'));
+        ResourceEvent event = new ResourceEvent(SPEC_KEY, caseID, pid, eType);
+        event.set_taskID(TASK);
+        event.set_itemID(itemID);
+        event.set_timeStamp(time);
+        return event;
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestAllocationStatistics.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    // statistics seeded from a list of events rather than the database, where each
+    // event in the list when seeding starts is given an id one more than its index
+    private static class LogStatistics extends AllocationStatistics {
+
+        private final List<ResourceEvent> _log;
+        final List<Long> pageStarts = new ArrayList<Long>();
+        int pagesRead;
+
+        LogStatistics(List<ResourceEvent> log) { _log = log; }
+
+        protected long readLastID() {
+            for (int i = 0; i < _log.size(); i++) _log.get(i).set_id(i + 1);
+            return _log.size();
+        }
+
+        protected List<ResourceEvent> readLog(long afterID, long lastID, int max) {
+            pagesRead++;
+            pageStarts.add(afterID);
+            List<ResourceEvent> page = new ArrayList<ResourceEvent>();
+            for (ResourceEvent event : _log) {
+                if (event.get_id() > afterID && event.get_id() <= lastID) page.add(event);
+                if (page.size() == max) break;
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.resourcing.calendar.CalendarEntry;
+import org.yawlfoundation.yawl.resourcing.calendar.CalendarIndex;
+
+import java.util.*;
+
+/**
+ * Tests the in-memory index of calendar entries used for availability checks.
+ */
+public class TestCalendarIndex extends TestCase {
+
+    private static final String ALL = "ALL_RESOURCES";
+
+    private CalendarIndex _index;
+    private long _nextID;
+
+    public TestCalendarIndex(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _index = new CalendarIndex();
+        _nextID = 1;
+    }
+
+
+    public void testOverlap() {
+        add("r1", 100, 200, 50);
+        add("r1", 150, 300, 30);
+        add("r1", 300, 400, 100);
+        List<String> ids = Collections.singletonList("r1");
+
+        // entries touching the ends of a period don't overlap it
+        assertEquals(0, _index.getOverlapCount(ids, 0, 100, null));
+        assertEquals(0, _index.getOverlapCount(ids, 400, 500, null));
+        assertEquals(1, _index.getOverlapCount(ids, 100, 101, null));
+        assertEquals(2, _index.getOverlapCount(ids, 160, 170, null));
+        assertEquals(80, _index.getWorkload(ids, 160, 170, null));
+        assertEquals(3, _index.getOverlapCount(ids, 0, 1000, null));
+        assertEquals(180, _index.getWorkload(ids, 0, 1000, null));
+
+        // a moment within an entry
+        assertEquals(1, _index.getOverlapCount(ids, 350, 350, null));
+        assertEquals(0, _index.getOverlapCount(ids, 300, 300, null));
+
+        assertEquals(0, _index.getOverlapCount(Collections.singletonList("r2"), 0, 1000, null));
+    }
+
+
+    public void testGroupsAndIgnoredEntries() {
+        long id = add("r1", 100, 200, 40);
+        add("r2", 100, 200, 40);
+        add(ALL, 150, 250, 10);
+        List<String> ids = Arrays.asList("r1", ALL);
+
+        assertEquals(2, _index.getOverlapCount(ids, 0, 1000, null));
+        assertEquals(50, _index.getWorkload(ids, 0, 1000, null));
+        Set<Long> ignore = new HashSet<Long>(Arrays.asList(id, 999L));
+        assertEquals(1, _index.getOverlapCount(ids, 0, 1000, ignore));
+        assertEquals(10, _index.getWorkload(ids, 0, 1000, ignore));
+
+        // an ignored entry outside the period isn't subtracted
+        assertEquals(1, _index.getOverlapCount(ids, 200, 1000, ignore));
+    }
+
+
+    public void testOverlappingOrder() {
+        add("r1", 300, 400, 100);
+        add(ALL, 50, 120, 100);
+        add("r1", 100, 200, 100);
+        add("r1", 1000, 2000, 100);
+        List<CalendarEntry> entries = _index.getOverlapping(Arrays.asList("r1", ALL), 0, 500);
+        assertEquals(3, entries.size());
+        assertEquals(50, entries.get(0).getStartTime());
+        assertEquals(100, entries.get(1).getStartTime());
+        assertEquals(300, entries.get(2).getStartTime());
+        assertEquals("r1", entries.get(2).getResourceID());
+    }
+
+
+    public void testUpdateAndRemove() {
+        long id = add("r1", 100, 200, 50);
+        add("r1", 500, 600, 50);
+        add("r1", 700, 800, 50);
+        List<String> ids = Collections.singletonList("r1");
+
+        CalendarEntry moved = entry("r1", 1000, 1100, 20);
+        moved.setEntryID(id);
+        _index.put(moved);
+        assertEquals(3, _index.size());
+        assertEquals(0, _index.getOverlapCount(ids, 100, 200, null));
+        assertEquals(20, _index.getWorkload(ids, 1000, 1100, null));
+
+        _index.removeOverlapping("r1", 550, 750);
+        assertEquals(1, _index.size());
+        _index.removeEndingBefore(2000);
+        assertEquals(0, _index.size());
+        assertFalse(_index.remove(id));
+    }
+
+
+    // checks the index against a brute force scan through random changes
+    public void testAgainstScan() {
+        Random random = new Random(17);
+        Map<Long, CalendarEntry> entries = new HashMap<Long, CalendarEntry>();
+        String[] resources = { "r1", "r2", ALL };
+        for (int i = 0; i < 3000; i++) {
+            int op = random.nextInt(10);
+            if (op < 6 || entries.isEmpty()) {
+                long start = random.nextInt(10000);
+                CalendarEntry entry = entry(resources[random.nextInt(3)], start,
+                        start + random.nextInt(500) - 20, random.nextInt(100) + 1);
+                entry.setEntryID(_nextID++);
+                entries.put(entry.getEntryID(), entry);
+                _index.put(entry);
+            }
+            else {
+                Long id = new ArrayList<Long>(entries.keySet()).get(
+                        random.nextInt(entries.size()));
+                if (op < 8) {
+                    entries.remove(id);
+                    _index.remove(id);
+                }
+                else {
+                    long start = random.nextInt(10000);
+                    CalendarEntry entry = entry(resources[random.nextInt(3)], start,
+                            start + random.nextInt(500), random.nextInt(100) + 1);
+                    entry.setEntryID(id);
+                    entries.put(id, entry);
+                    _index.put(entry);
+                }
+            }
+
+            if (i % 10 == 0) {
+                long from = random.nextInt(11000) - 500;
+                long to = from + random.nextInt(1000) - 100;
+                List<String> ids = Arrays.asList("r1", ALL);
+                int count = 0;
+                long workload = 0;
+                for (CalendarEntry entry : entries.values()) {
+                    if (ids.contains(entry.getResourceID()) &&
+                            entry.getStartTime() < to && entry.getEndTime() > from) {
+                        count++;
+                        workload += entry.getWorkload();
+                    }
+                }
+                assertEquals(count, _index.getOverlapCount(ids, from, to, null));
+                assertEquals(workload, _index.getWorkload(ids, from, to, null));
+                assertEquals(count, _index.getOverlapping(ids, from, to).size());
+            }
+        }
+        assertEquals(entries.size(), _index.size());
+    }
+
+
+    private long add(String resourceID, long start, long end, int workload) {
+        CalendarEntry entry = entry(resourceID, start, end, workload);
+        entry.setEntryID(_nextID++);
+        _index.put(entry);
+        return entry.getEntryID();
+    }
+
+
+    private CalendarEntry entry(String resourceID, long start, long end, int workload) {
+        return new CalendarEntry(resourceID, start, end, "unavailable", workload,
+                null, null);
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestCalendarIndex.class);
+        return suite;
+    }
+}
@@ -0,0 +1,169 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet;
+import org.yawlfoundation.yawl.resourcing.filters.AbstractFilter;
+import org.yawlfoundation.yawl.resourcing.filters.CapabilityFilter;
+import org.yawlfoundation.yawl.resourcing.interactions.OfferInteraction;
+import org.yawlfoundation.yawl.resourcing.resource.*;
+
+import java.util.*;
+
+/**
+ * Tests the reuse of the static part of a task's distribution set between offers,
+ * until the org data changes.
+ */
+public class TestDistributionPlans extends TestCase {
+
+    private ResourceDataSet _ds;
+    private Role _clerk, _junior;
+    private Capability _licence;
+    private WorkItemRecord _wir;
+
+    public TestDistributionPlans(String name) {
+        super(name);
+    }
+
+
+    // roles: junior -> clerk; p1 & p3 are licensed clerks, p2 an unlicensed junior
+    public void setUp() {
+        ResourceManager.getInstance().loadResources();             // an empty data set
+        _ds = ResourceManager.getInstance().getOrgDataSet();
+        _clerk = role("r1", "Clerk", null);
+        _junior = role("r2", "Junior Clerk", _clerk);
+        _licence = new Capability("Licence", "");
+        _licence.setID("c1");
+        _ds.putCapability(_licence);
+        participant("p1", _clerk, _licence);
+        participant("p2", _junior, null);
+        participant("p3", _clerk, _licence);
+        _wir = new WorkItemRecord("1", "Approve", "spec", WorkItemRecord.statusEnabled);
+    }
+
+
+    public void testPlanReused() {
+        OfferInteraction offer = new OfferInteraction();
+        offer.addRole("r1");
+        offer.addFilter(capabilityFilter("Licence"));
+
+        long misses = OfferInteraction.getPlanCacheMisses();
+        long hits = OfferInteraction.getPlanCacheHits();
+        assertEquals(ids("p1", "p3"), ids(offer.performOffer(_wir)));
+        assertEquals(misses + 1, OfferInteraction.getPlanCacheMisses());
+
+        Set<Participant> offered = offer.performOffer(_wir);
+        assertEquals(ids("p1", "p3"), ids(offered));
+        assertEquals(hits + 1, OfferInteraction.getPlanCacheHits());
+        assertEquals(misses + 1, OfferInteraction.getPlanCacheMisses());
+
+        // the set offered is the caller's own
+        offered.clear();
+        assertEquals(2, offer.performOffer(_wir).size());
+
+        // a change to the offer rebuilds the plan
+        offer.addParticipant("p2");
+        assertEquals(ids("p1", "p3"), ids(offer.performOffer(_wir)));
+        assertEquals(misses + 2, OfferInteraction.getPlanCacheMisses());
+        assertTrue(OfferInteraction.getPlanCacheHitRate() > 0);
+    }
+
+
+    public void testRebuiltOnOrgDataChange() {
+        OfferInteraction offer = new OfferInteraction();
+        offer.addRole("r1");
+        offer.addFilter(capabilityFilter("Licence"));
+        assertEquals(ids("p1", "p3"), ids(offer.performOffer(_wir)));
+
+        long misses = OfferInteraction.getPlanCacheMisses();
+        participant("p4", _junior, _licence);
+        assertEquals(ids("p1", "p3", "p4"), ids(offer.performOffer(_wir)));
+        assertEquals(misses + 1, OfferInteraction.getPlanCacheMisses());
+
+        Participant p1 = _ds.getParticipant("p1");
+        p1.removeCapability(_licence);
+        _ds.updateParticipant(p1);
+        assertEquals(ids("p3", "p4"), ids(offer.performOffer(_wir)));
+    }
+
+
+    // a filter that depends on the whole set is applied to the whole set every time
+    public void testSetwiseFilter() {
+        OfferInteraction offer = new OfferInteraction();
+        offer.addRole("r2");
+        offer.addParticipant("p3");
+        offer.addFilter(new PairFilter());
+        assertEquals(ids("p2", "p3"), ids(offer.performOffer(_wir)));
+        assertEquals(ids("p2", "p3"), ids(offer.performOffer(_wir)));
+
+        participant("p4", _junior, null);
+        assertEquals(ids("p2", "p3", "p4"), ids(offer.performOffer(_wir)));
+    }
+
+
+    private AbstractFilter capabilityFilter(String expression) {
+        AbstractFilter filter = new CapabilityFilter();
+        filter.addParam("Capability", expression);
+        return filter;
+    }
+
+
+    private Role role(String id, String name, Role owner) {
+        Role role = new Role(name);
+        role.setID(id);
+        role.setOwnerRole(owner);
+        _ds.putRole(role);
+        return role;
+    }
+
+
+    private Participant participant(String id, Role role, Capability capability) {
+        Participant p = new Participant("Last" + id, "First" + id, "user" + id.substring(1));
+        p.setID(id);
+        p.addRole(role);
+        if (capability != null) p.addCapability(capability);
+        _ds.putParticipant(p);
+        return p;
+    }
+
+
+    private Set<String> ids(String... ids) {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+
+
+    private Set<String> ids(Collection<? extends AbstractResource> resources) {
+        Set<String> ids = new HashSet<String>();
+        for (AbstractResource resource : resources) ids.add(resource.getID());
+        return ids;
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestDistributionPlans.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    // passes a set only if it holds more than one participant
+    private static class PairFilter extends AbstractFilter {
+
+        PairFilter() { setName("PairFilter"); }
+
+        public Set<Participant> performFilter(Set<Participant> resources) {
+            return resources.size() > 1 ? resources : new HashSet<Participant>();
+        }
+    }
+}
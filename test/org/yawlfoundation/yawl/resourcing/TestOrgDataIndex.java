@@ -0,0 +1,183 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.EmptyDataSource;
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.OrgDataIndex;
+import org.yawlfoundation.yawl.resourcing.datastore.orgdata.ResourceDataSet;
+import org.yawlfoundation.yawl.resourcing.resource.*;
+
+import java.util.*;
+
+/**
+ * Tests the precomputed org structure index of a ResourceDataSet against a small,
+ * in-memory org structure.
+ */
+public class TestOrgDataIndex extends TestCase {
+
+    private ResourceDataSet _ds;
+    private Role _manager, _clerk, _junior;
+    private Position _ceo, _head, _officer;
+    private OrgGroup _company, _sales;
+    private Capability _licence;
+
+    public TestOrgDataIndex(String name) {
+        super(name);
+    }
+
+
+    // roles: junior -> clerk -> manager; positions: officer -> head -> ceo,
+    // where head and officer are in the sales group, which belongs to the company
+    public void setUp() {
+        _ds = new EmptyDataSource().getDataSource();
+        _manager = role("r1", "Manager", null);
+        _clerk = role("r2", "Clerk", _manager);
+        _junior = role("r3", "Junior Clerk", _clerk);
+        _company = new OrgGroup("Company", OrgGroup.GroupType.DIVISION, null, "");
+        _company.setID("o1");
+        _sales = new OrgGroup("Sales", OrgGroup.GroupType.DEPARTMENT, _company, "");
+        _sales.setID("o2");
+        _ds.putOrgGroup(_company);
+        _ds.putOrgGroup(_sales);
+        _ceo = position("s1", "CEO", null, _company);
+        _head = position("s2", "Head of Sales", _ceo, _sales);
+        _officer = position("s3", "Sales Officer", _head, _sales);
+        _licence = new Capability("Licence", "");
+        _licence.setID("c1");
+        _ds.putCapability(_licence);
+
+        participant("p1", _manager, _ceo, null);
+        participant("p2", _clerk, _head, _licence);
+        participant("p3", _clerk, _officer, null);
+        participant("p4", _junior, _officer, _licence);
+    }
+
+
+    public void testNameLookups() {
+        assertSame(_clerk, _ds.getRoleByName("clerk"));              // ignores case
+        assertSame(_head, _ds.getPositionByLabel("Head of Sales"));
+        assertSame(_sales, _ds.getOrgGroupByLabel("Sales"));
+        assertSame(_licence, _ds.getCapabilityByLabel("Licence"));
+        assertEquals("p3", _ds.getParticipantFromUserID("user3").getID());
+        assertNull(_ds.getRoleByName("Director"));
+        assertNull(_ds.getRoleByName(null));
+        assertNull(_ds.getParticipantFromUserID("nobody"));
+        assertEquals(ids("p2", "p3"), ids(_ds.resolveParticipantsFromResourceName("Clerk")));
+    }
+
+
+    public void testRoleClosure() {
+        assertEquals(ids("p2", "p3", "p4"), ids(_ds.getParticipantsInDescendantRoles(_manager)));
+        assertEquals(ids("p4"), ids(_ds.getParticipantsInDescendantRoles(_clerk)));
+        assertTrue(_ds.getParticipantsInDescendantRoles(_junior).isEmpty());
+
+        OrgDataIndex index = _ds.getIndex();
+        assertEquals(ids("p1", "p2", "p3", "p4"),
+                ids(index.toParticipantSet(index.getRoleMembers("r1", true))));
+        assertEquals(ids("p1"), ids(index.toParticipantSet(index.getRoleMembers("r1", false))));
+    }
+
+
+    public void testRoleWithCapability() {
+        assertEquals(ids("p2"), ids(_ds.getRoleParticipantsWithCapability("r2", "c1")));
+        assertEquals(2, _ds.getRoleParticipantsWithCapability("r2", null).size());
+        assertTrue(_ds.getRoleParticipantsWithCapability("r2", "c9").isEmpty());
+        assertTrue(_ds.getRoleParticipantsWithCapability("r9", "c1").isEmpty());
+    }
+
+
+    public void testReportingLines() {
+        assertEquals(ids("p2", "p3", "p4"), ids(_ds.getParticipantsReportingTo("p1")));
+        assertEquals(ids("p3", "p4"), ids(_ds.getParticipantsReportingToPosition(_head)));
+        assertNull(_ds.getParticipantsReportingTo("p4"));
+    }
+
+
+    public void testOrgGroupMembers() {
+        assertEquals(ids("p1", "p2", "p3", "p4"), ids(_ds.getOrgGroupMembers(_company)));
+        assertEquals(ids("p2", "p3", "p4"), ids(_ds.getOrgGroupMembers(_sales)));
+    }
+
+
+    public void testRebuiltOnChange() {
+        OrgDataIndex index = _ds.getIndex();
+        assertSame(index, _ds.getIndex());                      // unchanged
+
+        // several changes within the same msec must each be seen
+        Participant p5 = participant("p5", _junior, null, null);
+        assertNotSame(index, _ds.getIndex());
+        assertEquals(ids("p4", "p5"), ids(_ds.getParticipantsInDescendantRoles(_clerk)));
+        p5.removeRole(_junior);
+        p5.addRole(_manager);
+        _ds.updateParticipant(p5);
+        assertEquals(ids("p4"), ids(_ds.getParticipantsInDescendantRoles(_clerk)));
+
+        // moving a role re-forms the closure
+        _junior.setOwnerRole(_manager);
+        _ds.updateRole(_junior);
+        assertTrue(_ds.getParticipantsInDescendantRoles(_clerk).isEmpty());
+
+        _ds.removeParticipant(_ds.getParticipant("p2"));
+        assertEquals(ids("p3", "p4"), ids(_ds.getParticipantsReportingTo("p1")));
+        assertNull(_ds.getParticipantFromUserID("user2"));
+    }
+
+
+    private Role role(String id, String name, Role owner) {
+        Role role = new Role(name);
+        role.setID(id);
+        role.setOwnerRole(owner);
+        _ds.putRole(role);
+        return role;
+    }
+
+
+    private Position position(String id, String title, Position reportsTo,
+                              OrgGroup group) {
+        Position position = new Position(title);
+        position.setID(id);
+        position.setReportsTo(reportsTo);
+        position.setOrgGroup(group);
+        _ds.putPosition(position);
+        return position;
+    }
+
+
+    private Participant participant(String id, Role role, Position position,
+                                    Capability capability) {
+        Participant p = new Participant("Last" + id, "First" + id, "user" + id.substring(1));
+        p.setID(id);
+        p.addRole(role);
+        p.addPosition(position);
+        p.addCapability(capability);
+        _ds.putParticipant(p);
+        return p;
+    }
+
+
+    private Set<String> ids(String... ids) {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+
+
+    private Set<String> ids(Collection<? extends AbstractResource> resources) {
+        Set<String> ids = new HashSet<String>();
+        for (AbstractResource resource : resources) ids.add(resource.getID());
+        return ids;
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestOrgDataIndex.class);
+        return suite;
+    }
+}
@@ -0,0 +1,134 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.datastore.eventlog.EventLogger;
+import org.yawlfoundation.yawl.resourcing.resource.Participant;
+import org.yawlfoundation.yawl.resourcing.util.ParallelQueueUpdater;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the parallel update of the work queues of a large set of participants.
+ */
+public class TestParallelQueueUpdater extends TestCase {
+
+    private ParallelQueueUpdater _updater;
+    private List<Participant> _role;
+
+    public TestParallelQueueUpdater(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        EventLogger.setLogging(false);
+        _updater = new ParallelQueueUpdater(50, 4);
+        _role = new ArrayList<Participant>();
+        for (int i = 0; i < 1000; i++) {
+            _role.add(new Participant("p" + i));
+        }
+    }
+
+
+    public void tearDown() {
+        _updater.shutdown();
+        EventLogger.setLogging(true);
+    }
+
+
+    public void testAddAndRemove() {
+        WorkItemRecord wir = item("1");
+        Set<String> added = _updater.addToQueue(_role, wir, WorkQueue.OFFERED, false);
+        assertEquals(1000, added.size());
+        for (Participant p : _role) {
+            assertTrue(added.contains(p.getID()));
+            assertTrue(p.getWorkQueues().hasWorkItemInQueue(wir.getID(), WorkQueue.OFFERED));
+        }
+
+        // only those whose queue held the item are returned
+        List<Participant> half = _role.subList(0, 500);
+        _updater.removeFromQueue(half, wir, WorkQueue.OFFERED);
+        Set<String> removed = _updater.removeFromQueue(_role, wir, WorkQueue.OFFERED);
+        assertEquals(500, removed.size());
+        assertFalse(removed.contains("p0"));
+        assertTrue(removed.contains("p999"));
+        for (Participant p : _role) {
+            assertEquals(0, p.getWorkQueues().getQueueSize(WorkQueue.OFFERED));
+        }
+    }
+
+
+    public void testBelowThreshold() {
+        _updater.setThreshold(2000);
+        Set<String> added = _updater.addToQueue(_role, item("1"), WorkQueue.OFFERED, false);
+        assertEquals(1000, added.size());
+        assertTrue(_updater.addToQueue(Collections.<Participant>emptySet(), item("2"),
+                WorkQueue.OFFERED, false).isEmpty());
+    }
+
+
+    // many items offered to, and withdrawn from, the same role at once
+    public void testConcurrentUpdates() throws InterruptedException {
+        final int itemCount = 40;
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(itemCount);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i = 0; i < itemCount; i++) {
+            final WorkItemRecord wir = item(String.valueOf(i));
+            final boolean withdraw = i % 2 == 0;
+            new Thread() {
+                public void run() {
+                    try {
+                        startGate.await();
+                        _updater.addToQueue(_role, wir, WorkQueue.OFFERED, false);
+                        if (withdraw) {
+                            _updater.removeFromQueue(_role, wir, WorkQueue.OFFERED);
+                        }
+                    }
+                    catch (Throwable t) {
+                        errors.add(t);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        startGate.countDown();
+        done.await();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (Participant p : _role) {
+            Set<WorkItemRecord> offered = p.getWorkQueues().getQueuedWorkItems(
+                    WorkQueue.OFFERED);
+            assertEquals(itemCount / 2, offered.size());
+            for (WorkItemRecord wir : offered) {
+                assertEquals(1, Integer.parseInt(wir.getCaseID()) % 2);
+            }
+        }
+    }
+
+
+    private WorkItemRecord item(String caseID) {
+        return new WorkItemRecord(caseID, "Approve", "http://spec",
+                WorkItemRecord.statusEnabled);
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestParallelQueueUpdater.class);
+        return suite;
+    }
+}
@@ -0,0 +1,221 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+
+import java.util.List;
+
+import static org.yawlfoundation.yawl.resourcing.QueueDeltas.Action.*;
+
+/**
+ * Tests the log of work queue changes followed by worklist clients.
+ */
+public class TestQueueDeltaLog extends TestCase {
+
+    private QueueDeltaLog _log;
+
+    public TestQueueDeltaLog(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _log = new QueueDeltaLog();
+        _log.configure(5, 60000, 5000, 1);
+    }
+
+
+    public void testFollowing() {
+        WorkItemRecord wir = item("1", "Approve");
+        _log.record("p1", WorkQueue.OFFERED, added, wir.getID(), wir);  // not followed
+
+        // the first call starts following, and requires a resync
+        QueueDeltas deltas = _log.getDeltas("p1", -1, -1, 0);
+        assertTrue(deltas.isResyncRequired());
+        assertTrue(deltas.isEmpty());
+        assertEquals(_log.getEpoch(), deltas.getEpoch());
+        assertEquals(1, _log.getFollowedCount());
+
+        _log.record("p1", WorkQueue.OFFERED, added, wir.getID(), wir);
+        _log.record("p2", WorkQueue.OFFERED, added, wir.getID(), wir);   // not followed
+        _log.record("p1", WorkQueue.OFFERED, removed, wir.getID(), null);
+        _log.record("p1", WorkQueue.ALLOCATED, added, wir.getID(), wir);
+
+        deltas = _log.getDeltas("p1", deltas.getEpoch(), deltas.getSequence(), 0);
+        assertFalse(deltas.isResyncRequired());
+        List<QueueDeltas.Delta> list = deltas.getDeltas();
+        assertEquals(3, list.size());
+        assertEquals(added, list.get(0).getAction());
+        assertEquals(removed, list.get(1).getAction());
+        assertEquals(WorkQueue.ALLOCATED, list.get(2).getQueueType());
+        assertTrue(list.get(0).getSequence() < list.get(1).getSequence());
+        assertEquals(list.get(2).getSequence(), deltas.getSequence());
+
+        // nothing new
+        deltas = _log.getDeltas("p1", deltas.getEpoch(), deltas.getSequence(), 0);
+        assertTrue(deltas.isEmpty());
+        assertFalse(deltas.isResyncRequired());
+    }
+
+
+    public void testResync() {
+        QueueDeltas first = _log.getDeltas("p1", -1, -1, 0);
+
+        // from another epoch
+        assertTrue(_log.getDeltas("p1", first.getEpoch() - 1, first.getSequence(), 0)
+                .isResyncRequired());
+
+        // more changes than are kept
+        for (int i = 0; i < 6; i++) {
+            WorkItemRecord wir = item(String.valueOf(i), "Approve");
+            _log.record("p1", WorkQueue.OFFERED, added, wir.getID(), wir);
+        }
+        QueueDeltas deltas = _log.getDeltas("p1", first.getEpoch(), first.getSequence(), 0);
+        assertTrue(deltas.isResyncRequired());
+        assertEquals(5, _log.getDeltas("p1", first.getEpoch(),
+                deltas.getSequence() - 5, 0).getDeltas().size());
+    }
+
+
+    public void testWaitForChange() throws InterruptedException {
+        final QueueDeltas first = _log.getDeltas("p1", -1, -1, 0);
+        final WorkItemRecord wir = item("1", "Approve");
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ie) {
+                    return;
+                }
+                _log.record("p1", WorkQueue.STARTED, changed, wir.getID(), wir);
+            }
+        };
+        t.start();
+        long start = System.currentTimeMillis();
+        QueueDeltas deltas = _log.getDeltas("p1", first.getEpoch(),
+                first.getSequence(), 60000);                      // capped at 5 secs
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, deltas.getDeltas().size());
+        assertEquals(changed, deltas.getDeltas().get(0).getAction());
+        t.join();
+
+        // times out if nothing changes
+        start = System.currentTimeMillis();
+        assertTrue(_log.getDeltas("p1", deltas.getEpoch(), deltas.getSequence(), 200)
+                .isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+
+    public void testWaitersCapped() throws InterruptedException {
+        final QueueDeltas first = _log.getDeltas("p1", -1, -1, 0);
+        Thread t = new Thread() {
+            public void run() {
+                _log.getDeltas("p1", first.getEpoch(), first.getSequence(), 5000);
+            }
+        };
+        t.start();
+        long start = System.currentTimeMillis();
+        while (_log.getWaitingCount() == 0 && System.currentTimeMillis() - start < 2000) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, _log.getWaitingCount());
+
+        // the cap of one is reached, so a second client is answered at once
+        QueueDeltas second = _log.getDeltas("p2", -1, -1, 0);
+        start = System.currentTimeMillis();
+        assertTrue(_log.getDeltas("p2", second.getEpoch(), second.getSequence(), 5000)
+                .isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        WorkItemRecord wir = item("1", "Approve");
+        _log.record("p1", WorkQueue.OFFERED, added, wir.getID(), wir);
+        t.join();
+        assertEquals(0, _log.getWaitingCount());
+    }
+
+
+    public void testItemCopiedWhenRecorded() {
+        QueueDeltas first = _log.getDeltas("p1", -1, -1, 0);
+        WorkItemRecord wir = item("1", "Approve");
+        _log.record("p1", WorkQueue.OFFERED, added, wir.getID(), wir);
+        wir.setStatus(WorkItemRecord.statusExecuting);           // changed afterwards
+
+        QueueDeltas.Delta delta = _log.getDeltas("p1", first.getEpoch(),
+                first.getSequence(), 0).getDeltas().get(0);
+        assertEquals(WorkItemRecord.statusEnabled, delta.getWorkItem().getStatus());
+        assertEquals(wir.getID(), delta.getWorkItem().getID());
+    }
+
+
+    public void testApplyToQueues() {
+        QueueDeltas first = _log.getDeltas("p1", -1, -1, 0);
+        WorkItemRecord wir1 = item("1", "Approve");
+        WorkItemRecord wir2 = item("2", "Approve");
+        _log.record("p1", WorkQueue.OFFERED, added, wir1.getID(), wir1);
+        _log.record("p1", WorkQueue.OFFERED, added, wir2.getID(), wir2);
+        _log.record("p1", WorkQueue.OFFERED, removed, wir1.getID(), null);
+        _log.record("p1", WorkQueue.STARTED, added, wir1.getID(), wir1);
+
+        // via xml, as a client would receive it
+        String xml = _log.getDeltas("p1", first.getEpoch(), first.getSequence(), 0)
+                .toXML();
+        QueueDeltas deltas = new QueueDeltas();
+        deltas.fromXML(xml);
+        assertEquals("p1", deltas.getParticipantID());
+        assertEquals(4, deltas.getDeltas().size());
+
+        QueueSet qSet = new QueueSet("p1", QueueSet.setType.participantSet, false);
+        deltas.applyTo(qSet);
+        assertEquals(1, qSet.getQueueSize(WorkQueue.OFFERED));
+        assertEquals(1, qSet.getQueueSize(WorkQueue.STARTED));
+        assertEquals(wir1.getID(), qSet.getQueue(WorkQueue.STARTED).getAll()
+                .iterator().next().getID());
+
+        // applying the same changes again makes no difference
+        deltas.applyTo(qSet);
+        assertEquals(1, qSet.getQueueSize(WorkQueue.OFFERED));
+    }
+
+
+    // changes made to a work queue are recorded in the shared log
+    public void testWorkQueueChanges() {
+        QueueDeltaLog log = QueueDeltaLog.getInstance();
+        QueueDeltas first = log.getDeltas("wqOwner", -1, -1, 0);
+        WorkQueue queue = new WorkQueue("wqOwner", WorkQueue.ALLOCATED, false);
+        WorkItemRecord wir = item("1", "Approve");
+        queue.add(wir, false);
+        queue.refresh(wir);
+        queue.remove(wir);
+        queue.clear();                                     // already empty
+
+        List<QueueDeltas.Delta> list = log.getDeltas("wqOwner", first.getEpoch(),
+                first.getSequence(), 0).getDeltas();
+        assertEquals(3, list.size());
+        assertEquals(added, list.get(0).getAction());
+        assertEquals(changed, list.get(1).getAction());
+        assertEquals(removed, list.get(2).getAction());
+    }
+
+
+    private WorkItemRecord item(String caseID, String taskID) {
+        return new WorkItemRecord(caseID, taskID, "spec", WorkItemRecord.statusEnabled);
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestQueueDeltaLog.class);
+        return suite;
+    }
+}
@@ -0,0 +1,177 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournal;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournalEntry;
+
+import java.util.*;
+
+import static org.yawlfoundation.yawl.resourcing.datastore.persistence.QueueJournal.*;
+
+/**
+ * Tests the batched writing, compaction and replay of the work queue journal, over
+ * an in-memory store.
+ */
+public class TestQueueJournal extends TestCase {
+
+    private MemoryJournal _journal;
+
+    public TestQueueJournal(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _journal = new MemoryJournal(new ArrayList<QueueJournalEntry>());
+    }
+
+
+    public void tearDown() {
+        _journal.shutdown();
+    }
+
+
+    public void testReplay() {
+        List<QueueJournalEntry> entries = new ArrayList<QueueJournalEntry>();
+        entries.add(new QueueJournalEntry("p1", WorkQueue.OFFERED, ADD, "item1"));
+        entries.add(new QueueJournalEntry("p1", WorkQueue.OFFERED, ADD, "item2"));
+        entries.add(new QueueJournalEntry("p2", WorkQueue.OFFERED, ADD, "item1"));
+        entries.add(new QueueJournalEntry("p1", WorkQueue.OFFERED, REMOVE, "item1"));
+        entries.add(new QueueJournalEntry("p2", WorkQueue.OFFERED, CLEAR, null));
+        entries.add(new QueueJournalEntry("p2", WorkQueue.STARTED, ADD, "item1"));
+
+        Map<String, Set<String>> queues = QueueJournal.replay(entries);
+        assertEquals(2, queues.size());
+        assertEquals(Collections.singleton("item2"),
+                queues.get(getKey("p1", WorkQueue.OFFERED)));
+        assertEquals(Collections.singleton("item1"),
+                queues.get(getKey("p2", WorkQueue.STARTED)));
+    }
+
+
+    public void testBatchedWrites() {
+        _journal.configure(100, 1000, 1000000);
+        offerToRole("item1", 2000);                   // one item to a 2000-person role
+        _journal.flush();
+
+        assertEquals(2000, _journal.store.size());
+        assertEquals(20, _journal.writes);
+        for (int i = 0; i < 2000; i++) {                            // in order
+            assertEquals("p" + i, _journal.store.get(i).getOwnerID());
+        }
+    }
+
+
+    public void testCompaction() {
+        _journal.configure(50, 10, 200);
+        for (int i = 0; i < 20; i++) {
+            String itemID = "item" + i;
+            offerToRole(itemID, 50);
+            if (i % 2 == 0) withdrawFromRole(itemID, 50);
+        }
+        _journal.flush();
+
+        // 1500 entries written; 500 items are still offered
+        assertTrue(_journal.compactions > 0);
+        assertTrue(_journal.store.size() < 1000);
+        Map<String, Set<String>> queues = QueueJournal.replay(_journal.store);
+        assertEquals(50, queues.size());
+        for (Set<String> members : queues.values()) {
+            assertEquals(10, members.size());
+            for (String itemID : members) {
+                assertEquals(1, Integer.parseInt(itemID.substring(4)) % 2);
+            }
+        }
+    }
+
+
+    public void testRestore() {
+        offerToRole("item1", 10);
+        offerToRole("item2", 10);
+        withdrawFromRole("item1", 10);
+        _journal.shutdown();
+        assertEquals(30, _journal.store.size());
+
+        // a new journal over the same store, as on restart
+        _journal = new MemoryJournal(_journal.store);
+        Map<String, Set<String>> queues = _journal.restore();
+        assertEquals(10, queues.size());
+        for (Set<String> members : queues.values()) {
+            assertEquals(Collections.singleton("item2"), members);
+        }
+        assertEquals(10, _journal.store.size());                      // compacted
+    }
+
+
+    private void offerToRole(String itemID, int participants) {
+        for (int i = 0; i < participants; i++) {
+            _journal.record("p" + i, WorkQueue.OFFERED, ADD, itemID);
+        }
+    }
+
+
+    private void withdrawFromRole(String itemID, int participants) {
+        for (int i = 0; i < participants; i++) {
+            _journal.record("p" + i, WorkQueue.OFFERED, REMOVE, itemID);
+        }
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestQueueJournal.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    // a journal that stores its entries in a list rather than the database
+    private static class MemoryJournal extends QueueJournal {
+
+        final List<QueueJournalEntry> store;
+        long nextID;
+        int writes;
+        int compactions;
+
+        MemoryJournal(List<QueueJournalEntry> store) {
+            this.store = store;
+            for (QueueJournalEntry entry : store) {
+                nextID = Math.max(nextID, entry.get_id());
+            }
+        }
+
+        protected void write(List<QueueJournalEntry> entries) {
+            for (QueueJournalEntry entry : entries) {
+                entry.set_id(++nextID);
+                store.add(entry);
+            }
+            writes++;
+        }
+
+        protected List<QueueJournalEntry> readAll() {
+            return new ArrayList<QueueJournalEntry>(store);
+        }
+
+        protected void replace(long lastID, List<QueueJournalEntry> entries) {
+            Iterator<QueueJournalEntry> itr = store.iterator();
+            while (itr.hasNext()) {
+                if (itr.next().get_id() <= lastID) itr.remove();
+            }
+            write(entries);
+            writes--;
+            compactions++;
+        }
+
+        protected void migrateLegacyItems() { }
+    }
+}
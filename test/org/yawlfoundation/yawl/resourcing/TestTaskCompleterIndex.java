@@ -0,0 +1,156 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.TaskCompleter;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.TaskCompleterIndex;
+
+import java.util.*;
+
+/**
+ * Tests the persisted index of task completers used by the four-eyes constraint
+ * and familiar participant distribution.
+ */
+public class TestTaskCompleterIndex extends TestCase {
+
+    private List<TaskCompleter> _store;
+    private MemoryIndex _index;
+
+    public TestTaskCompleterIndex(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _store = new ArrayList<TaskCompleter>();
+        _index = new MemoryIndex(_store);
+        _index.setPersisting(true);
+    }
+
+
+    public void testAddAndRemove() {
+        _index.add("1", "Approve", "p1");
+        _index.add("1", "Approve", "p2");
+        _index.add("1", "Approve", "p1");                       // already added
+        _index.add("2", "Approve", "p3");
+        assertEquals(3, _store.size());
+
+        assertEquals(new HashSet<String>(Arrays.asList("p1", "p2")),
+                _index.get("1", "Approve"));
+        assertTrue(_index.get("1", "Review").isEmpty());
+        assertTrue(_index.get("3", "Approve").isEmpty());
+
+        // the set returned is a copy
+        _index.get("1", "Approve").clear();
+        assertEquals(2, _index.get("1", "Approve").size());
+
+        _index.remove("1", "Approve", "p2");
+        _index.remove("1", "Approve", "p9");
+        assertEquals(Collections.singleton("p1"), _index.get("1", "Approve"));
+        assertEquals(2, _store.size());
+    }
+
+
+    public void testRestore() {
+        _index.add("1", "Approve", "p1");
+        _index.add("1", "Review", "p2");
+        _index.add("2", "Approve", "p3");
+
+        MemoryIndex restored = new MemoryIndex(_store);
+        restored.setPersisting(true);
+        restored.restore();
+        assertEquals(2, restored.getCaseCount());
+        assertEquals(Collections.singleton("p2"), restored.get("1", "Review"));
+        assertEquals(Collections.singleton("p3"), restored.get("2", "Approve"));
+    }
+
+
+    public void testCaseRemovalAndPruning() {
+        _index.add("1", "Approve", "p1");
+        _index.add("2", "Approve", "p2");
+        _index.add("3", "Approve", "p3");
+
+        _index.removeCase("1");
+        assertFalse(_index.containsCase("1"));
+        assertEquals(2, _store.size());
+
+        assertEquals(1, _index.prune(Collections.singleton("3")));
+        assertFalse(_index.containsCase("2"));
+        assertTrue(_index.containsCase("3"));
+        assertEquals(1, _store.size());
+    }
+
+
+    public void testAddCase() {
+        Map<String, Set<String>> fromLog = new HashMap<String, Set<String>>();
+        fromLog.put("Approve", new HashSet<String>(Arrays.asList("p1", "p2")));
+        _index.addCase("1", fromLog);
+        _index.addCase("2", new HashMap<String, Set<String>>());
+
+        assertTrue(_index.containsCase("1"));
+        assertTrue(_index.containsCase("2"));         // known, but with no completers
+        assertEquals(2, _index.get("1", "Approve").size());
+        assertEquals(2, _store.size());
+    }
+
+
+    public void testNotPersisting() {
+        _index.setPersisting(false);
+        _index.add("1", "Approve", "p1");
+        _index.removeCase("1");
+        assertTrue(_store.isEmpty());
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestTaskCompleterIndex.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    // an index stored in a list rather than the database
+    private static class MemoryIndex extends TaskCompleterIndex {
+
+        final List<TaskCompleter> store;
+
+        MemoryIndex(List<TaskCompleter> store) { this.store = store; }
+
+        protected void insert(TaskCompleter completer) {
+            store.add(completer);
+        }
+
+        protected void delete(String caseID, String taskID, String participantID) {
+            Iterator<TaskCompleter> itr = store.iterator();
+            while (itr.hasNext()) {
+                TaskCompleter completer = itr.next();
+                if (completer.getCaseID().equals(caseID) &&
+                        completer.getTaskID().equals(taskID) &&
+                        completer.getParticipantID().equals(participantID)) {
+                    itr.remove();
+                }
+            }
+        }
+
+        protected void deleteCase(String caseID) {
+            Iterator<TaskCompleter> itr = store.iterator();
+            while (itr.hasNext()) {
+                if (itr.next().getCaseID().equals(caseID)) itr.remove();
+            }
+        }
+
+        protected List<TaskCompleter> readAll() {
+            return new ArrayList<TaskCompleter>(store);
+        }
+    }
+}
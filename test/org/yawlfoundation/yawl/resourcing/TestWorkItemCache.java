@@ -0,0 +1,237 @@
+package org.yawlfoundation.yawl.resourcing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import org.yawlfoundation.yawl.engine.interfce.WorkItemRecord;
+import org.yawlfoundation.yawl.resourcing.datastore.WorkItemCache;
+import org.yawlfoundation.yawl.resourcing.datastore.persistence.WorkItemWriter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the case index, write-behind persistence and reconciliation of unresolved
+ * items of the work item cache, over an in-memory store.
+ */
+public class TestWorkItemCache extends TestCase {
+
+    private MemoryCache _cache;
+    private MemoryWriter _writer;
+
+    public TestWorkItemCache(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _cache = new MemoryCache();
+        _cache.setPersist(true);
+        _writer = (MemoryWriter) _cache.getWriter();
+        _writer.configure(100, 60000, 1000);                     // write on flush only
+    }
+
+
+    public void tearDown() {
+        _cache.shutdown();
+    }
+
+
+    public void testCaseIndex() {
+        _cache.add(item("1", "Approve"));
+        _cache.add(item("1.1", "Check"));                                  // sub-net
+        _cache.add(item("1.2", "Check"));
+        _cache.add(item("2", "Approve"));
+        _cache.update(item("1", "Approve"));                          // no duplicate
+
+        assertEquals(2, _cache.getCaseCount());
+        assertEquals(3, _cache.getCaseItems("1").size());
+        assertTrue(_cache.getCaseItems("3").isEmpty());
+
+        _cache.remove("1.1:Check");
+        assertEquals(2, _cache.getCaseItems("1").size());
+        assertEquals(2, _cache.removeCase("1"));
+        assertEquals(0, _cache.removeCase("1"));
+        assertEquals(1, _cache.getCaseCount());
+        assertEquals(1, _cache.size());
+        assertTrue(_cache.containsKey("2:Approve"));
+    }
+
+
+    public void testWriteBehind() {
+        WorkItemRecord a = item("1", "A");
+        _cache.add(a);
+        _cache.add(item("1", "B"));
+        _cache.add(item("1", "C"));
+        _cache.updateStatus(a, WorkItemRecord.statusExecuting);
+        _cache.remove("1:C");                          // added & removed before written
+        assertEquals(2, _writer.getPendingCount());
+        assertTrue(_writer.store.isEmpty());
+
+        _writer.flush();
+        assertEquals(2, _writer.store.size());
+        assertEquals(Arrays.asList("insert", "insert"), _writer.actions);
+        assertEquals(WorkItemRecord.statusExecuting, _writer.store.get("1:A").getStatus());
+        assertEquals(1, _writer.batches);
+
+        _cache.update(item("1", "B"));
+        _cache.remove("1:A");
+        _cache.add(a);                                 // removed, then added again
+        _cache.removeCase("1");
+        _writer.flush();
+        assertTrue(_writer.store.isEmpty());
+        assertEquals(Arrays.asList("insert", "insert", "delete", "delete"),
+                _writer.actions);
+    }
+
+
+    public void testBoundedPending() {
+        _writer.configure(2, 0, 4);
+        _writer.delay = 10;
+        for (int i = 0; i < 20; i++) _cache.add(item(String.valueOf(i), "A"));
+        _writer.flush();
+        assertEquals(20, _writer.store.size());
+        assertTrue(_writer.maxPending <= 4);
+    }
+
+
+    public void testReconcile() {
+        final Set<String> live = new HashSet<String>(Arrays.asList("1:A"));
+        _cache.setReconciler(new WorkItemCache.Reconciler() {
+            public boolean isLive(WorkItemRecord wir) throws IOException {
+                if (wir.getID().equals("3:A")) throw new IOException("engine is down");
+                return live.contains(wir.getID());
+            }
+        }, 3600);                                             // reconciled below
+        for (String caseID : Arrays.asList("1", "2", "3", "4")) {
+            _cache.add(item(caseID, "A"));
+        }
+        _cache.markUnresolved("1:A");
+        _cache.markUnresolved("2:A");
+        _cache.markUnresolved("3:A");
+        _cache.markUnresolved("9:A");                                   // not cached
+        assertEquals(3, _cache.getUnresolvedCount());
+
+        assertEquals(1, _cache.reconcile());
+        assertTrue(_cache.containsKey("1:A"));
+        assertFalse(_cache.containsKey("2:A"));
+        assertTrue(_cache.containsKey("4:A"));                     // never examined
+        assertEquals(1, _cache.getUnresolvedCount());           // 3:A - try later
+
+        _cache.removeCase("3");
+        assertEquals(0, _cache.getUnresolvedCount());
+        assertEquals(0, _cache.reconcile());
+    }
+
+
+    public void testCleanserRetriesAfterFailure() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        _cache.setReconciler(new WorkItemCache.Reconciler() {
+            public boolean isLive(WorkItemRecord wir) throws IOException {
+                if (calls.incrementAndGet() < 3) throw new IOException("engine is down");
+                return false;
+            }
+        }, 0);
+        _cache.add(item("1", "A"));
+        _cache.markUnresolved("1:A");
+        assertTrue(waitForRemoval("1:A"));
+        assertEquals(3, calls.get());
+        assertEquals(0, _cache.getUnresolvedCount());
+    }
+
+
+    public void testItemMarkedDuringCleanse() throws Exception {
+        final CountDownLatch reconciling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        _cache.setReconciler(new WorkItemCache.Reconciler() {
+            public boolean isLive(WorkItemRecord wir) throws IOException {
+                if (wir.getID().equals("1:A")) {
+                    reconciling.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException ie) {
+                        throw new IOException(ie);
+                    }
+                }
+                return false;
+            }
+        }, 0);
+        _cache.add(item("1", "A"));
+        _cache.add(item("2", "A"));
+        _cache.markUnresolved("1:A");
+        assertTrue(reconciling.await(5, TimeUnit.SECONDS));
+        _cache.markUnresolved("2:A");                          // while the cleanser runs
+        release.countDown();
+        assertTrue(waitForRemoval("1:A"));
+        assertTrue(waitForRemoval("2:A"));
+    }
+
+
+    // waits up to 5 seconds for the cleanser to remove an item
+    private boolean waitForRemoval(String itemID) throws InterruptedException {
+        for (int i = 0; i < 100 && _cache.containsKey(itemID); i++) {
+            Thread.sleep(50);
+        }
+        return ! _cache.containsKey(itemID);
+    }
+
+
+    private WorkItemRecord item(String caseID, String taskID) {
+        return new WorkItemRecord(caseID, taskID, "spec", WorkItemRecord.statusEnabled);
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestWorkItemCache.class);
+        return suite;
+    }
+
+
+    /*******************************************************************************/
+
+    // a cache whose changes are written to memory rather than the database
+    private static class MemoryCache extends WorkItemCache {
+
+        protected WorkItemWriter newWriter() { return new MemoryWriter(); }
+    }
+
+
+    private static class MemoryWriter extends WorkItemWriter {
+
+        final Map<String, WorkItemRecord> store = new HashMap<String, WorkItemRecord>();
+        final List<String> actions = new ArrayList<String>();
+        int batches;
+        int maxPending;
+        long delay;
+
+        protected void write(List<Write> batch) {
+            maxPending = Math.max(maxPending, getPendingCount());
+            for (Write write : batch) {
+                if (write.getAction() == DELETE) {
+                    store.remove(write.getItemID());
+                }
+                else store.put(write.getItemID(), write.getRecord());
+                actions.add(write.getActionName());
+            }
+            batches++;
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException ie) {
+                // done
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.yawlfoundation.yawl.schema;
+
+import junit.framework.TestCase;
+import org.jdom2.Element;
+import org.yawlfoundation.yawl.elements.data.YVariable;
+import org.yawlfoundation.yawl.exceptions.YDataValidationException;
+import org.yawlfoundation.yawl.util.JDOMUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the validation of variable data, including reuse of the schemas compiled
+ * for each set of variables.
+ */
+public class TestYDataValidator extends TestCase {
+
+    private static final String SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">" +
+            "  <xs:complexType name=\"PersonType\">" +
+            "    <xs:sequence>" +
+            "      <xs:element name=\"name\" type=\"xs:string\"/>" +
+            "      <xs:element name=\"age\" type=\"xs:positiveInteger\"/>" +
+            "    </xs:sequence>" +
+            "  </xs:complexType>" +
+            "</xs:schema>";
+
+    private YDataValidator _validator;
+    private List<YVariable> _vars;
+
+    public void setUp() {
+        _validator = new YDataValidator(SCHEMA);
+        assertTrue(_validator.validateSchema());
+        _vars = new ArrayList<YVariable>();
+        _vars.add(createVariable("PersonType", "person", 0, false));
+        _vars.add(createVariable("boolean", "approved", 1, true));
+    }
+
+
+    public void testValidData() throws YDataValidationException {
+        _validator.validate(_vars, getData("<person><name>Fred</name><age>42</age>" +
+                "</person><approved>true</approved>"), "test");
+        _validator.validate(_vars, getData("<person><name>Wilma</name>" +
+                "<age> 40 </age></person>"), "test");               // optional omitted
+    }
+
+
+    public void testInvalidData() {
+        try {
+            _validator.validate(_vars, getData("<person><name>Fred</name>" +
+                    "<age>-1</age></person><approved>true</approved>"), "test");
+            fail("Negative age should fail validation");
+        }
+        catch (YDataValidationException yve) {
+            assertTrue(yve.getMessage().contains("Schema validation failed"));
+        }
+
+        try {                                               // wrong variable order
+            _validator.validate(_vars, getData("<approved>true</approved>" +
+                    "<person><name>Fred</name><age>42</age></person>"), "test");
+            fail("Out of order variables should fail validation");
+        }
+        catch (YDataValidationException yve) {
+            assertTrue(yve.getMessage().contains("Schema validation failed"));
+        }
+    }
+
+
+    public void testVariableSetsValidatedSeparately() throws YDataValidationException {
+        YVariable approved = _vars.get(1);
+        _validator.validate(approved, getData("<approved>false</approved>"), "test");
+        _validator.validate(_vars, getData("<person><name>Fred</name><age>42</age>" +
+                "</person>"), "test");
+        try {
+            _validator.validate(approved, getData("<approved>maybe</approved>"), "test");
+            fail("Invalid boolean should fail validation");
+        }
+        catch (YDataValidationException yve) {
+            // expected
+        }
+    }
+
+
+    public void testRepeatedValidation() throws YDataValidationException {
+        Element data = getData("<person><name>Fred</name><age>42</age></person>" +
+                "<approved>true</approved>");
+        long start = System.nanoTime();
+        _validator.validate(_vars, data, "test");                // compiles the schema
+        long first = System.nanoTime() - start;
+
+        int count = 2000;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            _validator.validate(_vars, data, "test");
+        }
+        long rest = (System.nanoTime() - start) / count;
+        assertTrue(String.format("first validation %.1f us, subsequent validations " +
+                "%.1f us", first / 1000.0, rest / 1000.0), rest < first);
+    }
+
+
+    private YVariable createVariable(String type, String name, int ordering,
+                                     boolean optional) {
+        YVariable variable = new YVariable(null);
+        variable.setDataTypeAndName(type, name,
+                type.equals("boolean") ? "http://www.w3.org/2001/XMLSchema" : null);
+        variable.setOrdering(ordering);
+        variable.setOptional(optional);
+        return variable;
+    }
+
+
+    private Element getData(String content) {
+        return JDOMUtil.stringToElement("<data>" + content + "</data>");
+    }
+
+}
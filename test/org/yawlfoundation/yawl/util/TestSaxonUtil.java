@@ -0,0 +1,177 @@
+package org.yawlfoundation.yawl.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import org.jdom2.Content;
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the compiled query cache and query result conversions of SaxonUtil.
+ */
+public class TestSaxonUtil extends TestCase {
+
+    private Document _dataDoc;
+
+    public TestSaxonUtil(String name) {
+        super(name);
+    }
+
+
+    public void setUp() {
+        _dataDoc = JDOMUtil.stringToDocument("<data><a>1</a><b>2</b></data>");
+        SaxonUtil.setQueryCacheSize(1000);
+        SaxonUtil.clearQueryCache();
+    }
+
+
+    public void tearDown() {
+        SaxonUtil.setQueryCacheSize(1000);
+        SaxonUtil.clearQueryCache();
+    }
+
+
+    public void testCachedQueryReused() throws SaxonApiException {
+        String query = "<c>{/data/a/text()}</c>";
+        Element first = SaxonUtil.evaluateTreeQuery(query, _dataDoc);
+        Element second = SaxonUtil.evaluateTreeQuery(query, _dataDoc);
+        assertEquals("1", first.getText());
+        assertEquals("1", second.getText());
+        assertSame(SaxonUtil.getCompiledXQuery(query), SaxonUtil.getCompiledXQuery(query));
+
+        XNode stats = getStatistics();
+        assertEquals("1", stats.getChildText("misses"));
+        assertEquals("3", stats.getChildText("hits"));
+        assertEquals("1", stats.getChildText("size"));
+    }
+
+
+    public void testEviction() throws SaxonApiException {
+        SaxonUtil.setQueryCacheSize(2);
+        SaxonUtil.evaluateQuery("string(/data/a)", _dataDoc);
+        SaxonUtil.evaluateQuery("string(/data/b)", _dataDoc);
+        SaxonUtil.evaluateQuery("string(/data/a)", _dataDoc);    // 'a' now most recent
+        SaxonUtil.evaluateQuery("count(/data/*)", _dataDoc);     // evicts 'b'
+        SaxonUtil.evaluateQuery("string(/data/a)", _dataDoc);
+        SaxonUtil.evaluateQuery("string(/data/b)", _dataDoc);
+
+        XNode stats = getStatistics();
+        assertEquals("2", stats.getChildText("size"));
+        assertEquals("2", stats.getChildText("hits"));
+        assertEquals("4", stats.getChildText("misses"));
+        assertEquals("2", stats.getChildText("evictions"));
+
+        SaxonUtil.setQueryCacheSize(0);
+        SaxonUtil.evaluateQuery("string(/data/a)", _dataDoc);
+        assertEquals("0", getStatistics().getChildText("size"));
+    }
+
+
+    public void testPrecompile() throws SaxonApiException {
+        int compiled = SaxonUtil.precompileXQueries(Arrays.asList(
+                "boolean(/data/a = 1)", "<b>{/data/b/text()}</b>", "not a [query", ""));
+        assertEquals(2, compiled);
+        assertEquals("true", SaxonUtil.evaluateQuery("boolean(/data/a = 1)", _dataDoc));
+        XNode stats = getStatistics();
+        assertEquals("2", stats.getChildText("size"));
+        assertEquals("1", stats.getChildText("hits"));
+    }
+
+
+    public void testInvalidQueryNotCached() {
+        try {
+            SaxonUtil.evaluateQuery("not a [query", _dataDoc);
+            fail("Invalid query should throw an exception");
+        }
+        catch (SaxonApiException sae) {
+            assertEquals("0", getStatistics().getChildText("size"));
+        }
+    }
+
+
+    public void testTreeQuery() throws SaxonApiException {
+        Element result = SaxonUtil.evaluateTreeQuery(
+                "<c xmlns:x=\"http://x\" x:att=\"{/data/a}\">\n  <d>{/data/b/text()}</d>" +
+                "<x:e>{data(/data/a), data(/data/b)}</x:e>\n</c>", _dataDoc);
+        assertEquals(JDOMUtil.elementToString(JDOMUtil.stringToElement(
+                "<c xmlns:x=\"http://x\" x:att=\"1\"><d>2</d><x:e>1 2</x:e></c>")),
+                JDOMUtil.elementToString(result));
+
+        result = SaxonUtil.evaluateTreeQuery("document{/data/a}", _dataDoc);
+        assertEquals("<a>1</a>", JDOMUtil.elementToString(result));
+
+        assertNull(SaxonUtil.evaluateTreeQuery("/data/*", _dataDoc));
+    }
+
+
+    public void testListQuery() throws SaxonApiException {
+        List<Content> result = SaxonUtil.evaluateListQuery(
+                "for $e in /data/* return $e", _dataDoc.getRootElement());
+        assertEquals(2, result.size());
+        assertEquals("a", ((Element) result.get(0)).getName());
+        assertEquals("2", ((Element) result.get(1)).getText());
+        assertNull(result.get(0).getParent());
+
+        result = SaxonUtil.evaluateListQuery("(1, 2, /data/a/text(), <x/>)",
+                _dataDoc.getRootElement());
+        assertEquals(2, result.size());
+        assertEquals("1 21", result.get(0).getValue());
+        assertEquals("x", ((Element) result.get(1)).getName());
+    }
+
+
+    public void testStringQuery() throws SaxonApiException {
+        assertEquals("true", SaxonUtil.evaluateQuery("boolean(/data/a = 1)", _dataDoc));
+        assertEquals("1 2", SaxonUtil.evaluateQuery("(1, 2)", _dataDoc));
+        assertEquals("<b>2</b>", SaxonUtil.evaluateQuery("/data/b", _dataDoc));
+    }
+
+
+    // atomic values are escaped just as the serializer would escape them
+    public void testStringQueryEscaped() throws SaxonApiException {
+        String query = "('a &lt; b &amp; c &gt; d '' \"e\"&#xD;', 2)";
+        assertEquals("a &lt; b &amp; c &gt; d ' \"e\"&#xD; 2",
+                SaxonUtil.evaluateQuery(query, _dataDoc));
+        assertEquals(serialize(query), SaxonUtil.evaluateQuery(query, _dataDoc));
+    }
+
+
+    // the query's result, serialized as it was before atomic values were joined
+    private String serialize(String query) throws SaxonApiException {
+        Processor processor = new Processor(false);
+        StringWriter writer = new StringWriter();
+        Serializer serializer = new Serializer();
+        serializer.setOutputWriter(writer);
+        serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        processor.writeXdmValue(processor.newXQueryCompiler().compile(query).load()
+                .evaluate(), serializer);
+        return writer.toString();
+    }
+
+
+    private XNode getStatistics() {
+        return new XNodeParser().parse(SaxonUtil.getQueryCacheStatistics());
+    }
+
+
+    public static void main(String args[]) {
+        TestRunner runner = new TestRunner();
+        runner.doRun(suite());
+        System.exit(0);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestSaxonUtil.class);
+        return suite;
+    }
+}